@@ -0,0 +1,136 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.phoenix.benchmark;
+
+import static org.apache.phoenix.util.PhoenixRuntime.CONNECTIONLESS;
+import static org.apache.phoenix.util.PhoenixRuntime.JDBC_PROTOCOL;
+import static org.apache.phoenix.util.PhoenixRuntime.JDBC_PROTOCOL_SEPARATOR;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.Types;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.csv.CSVFormat;
+import org.apache.commons.csv.CSVParser;
+import org.apache.commons.csv.CSVRecord;
+import org.apache.phoenix.jdbc.PhoenixConnection;
+import org.apache.phoenix.util.CSVCommonsLoader;
+import org.apache.phoenix.util.ColumnInfo;
+import org.apache.phoenix.util.csv.CsvUpsertExecutor;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Parsing of CSV input and its conversion into buffered mutations, as done by the CSV bulk
+ * loader. The mutations are rolled back rather than committed, since the connection is
+ * connectionless. CsvUpsertExecutor is used directly, as CSVCommonsLoader.upsert also commits
+ * and reports progress on the console.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+@State(Scope.Benchmark)
+public class CsvUpsertBenchmark {
+    private static final String URL = JDBC_PROTOCOL + JDBC_PROTOCOL_SEPARATOR + CONNECTIONLESS;
+    private static final String TABLE_NAME = "T";
+    private static final int N_ROWS = 10000;
+    
+    private PhoenixConnection conn;
+    private CSVFormat format;
+    private List<ColumnInfo> columnInfos;
+    private String csv;
+    
+    @Setup
+    public void setup() throws Exception {
+        Class.forName("org.apache.phoenix.jdbc.PhoenixDriver");
+        conn = DriverManager.getConnection(URL).unwrap(PhoenixConnection.class);
+        conn.createStatement().execute("CREATE TABLE " + TABLE_NAME + " (K VARCHAR NOT NULL PRIMARY KEY, "
+                + "I INTEGER, L BIGINT, D DECIMAL, DT DATE, S VARCHAR)");
+        format = new CSVCommonsLoader(conn, TABLE_NAME, null, true).getFormat();
+        // Described up front, as a connectionless connection has no SYSTEM.CATALOG rows to look them up in
+        columnInfos = Arrays.asList(new ColumnInfo("K", Types.VARCHAR), new ColumnInfo("I", Types.INTEGER),
+                new ColumnInfo("L", Types.BIGINT), new ColumnInfo("D", Types.DECIMAL), new ColumnInfo("DT", Types.DATE),
+                new ColumnInfo("S", Types.VARCHAR));
+        
+        Random random = new Random(0);
+        StringBuilder buf = new StringBuilder();
+        for (int i = 0; i < N_ROWS; i++) {
+            buf.append("key").append(i).append(',')
+                .append(random.nextInt()).append(',')
+                .append(random.nextLong()).append(',')
+                .append(random.nextInt(100000)).append('.').append(random.nextInt(100)).append(',')
+                .append("2014-0").append(1 + random.nextInt(9)).append("-1").append(random.nextInt(10)).append(" 12:00:00,")
+                .append('"').append(Long.toString(random.nextLong(), 36)).append(", quoted\"\n");
+        }
+        csv = buf.toString();
+    }
+    
+    @TearDown
+    public void tearDown() throws SQLException {
+        conn.close();
+    }
+    
+    @Benchmark
+    public void upsert() throws IOException, SQLException {
+        CSVParser parser = new CSVParser(new StringReader(csv), format);
+        CsvUpsertExecutor executor = CsvUpsertExecutor.create(conn, TABLE_NAME, columnInfos, null, 
+                CSVCommonsLoader.DEFAULT_ARRAY_ELEMENT_SEPARATOR);
+        try {
+            executor.execute(parser);
+        } finally {
+            executor.close();
+            parser.close();
+            conn.rollback();
+        }
+    }
+    
+    /**
+     * Parsing alone, as a baseline for the upserts
+     * @return the number of fields parsed
+     */
+    @Benchmark
+    public int parse() throws IOException {
+        CSVParser parser = new CSVParser(new StringReader(csv), format);
+        int fields = 0;
+        try {
+            for (CSVRecord record : parser) {
+                fields += record.size();
+            }
+        } finally {
+            parser.close();
+        }
+        return fields;
+    }
+}
@@ -0,0 +1,144 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.phoenix.benchmark;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.hadoop.hbase.Cell;
+import org.apache.hadoop.hbase.KeyValue;
+import org.apache.hadoop.hbase.filter.CompareFilter.CompareOp;
+import org.apache.hadoop.hbase.io.ImmutableBytesWritable;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.apache.phoenix.expression.AndExpression;
+import org.apache.phoenix.expression.ColumnVector;
+import org.apache.phoenix.expression.ComparisonExpression;
+import org.apache.phoenix.expression.Expression;
+import org.apache.phoenix.expression.KeyValueColumnExpression;
+import org.apache.phoenix.expression.LiteralExpression;
+import org.apache.phoenix.expression.LongAddExpression;
+import org.apache.phoenix.expression.LongMultiplyExpression;
+import org.apache.phoenix.schema.PColumnImpl;
+import org.apache.phoenix.schema.PDataType;
+import org.apache.phoenix.schema.PNameFactory;
+import org.apache.phoenix.schema.SortOrder;
+import org.apache.phoenix.schema.tuple.MultiKeyValueTuple;
+import org.apache.phoenix.schema.tuple.Tuple;
+import org.apache.phoenix.schema.tuple.TupleBatch;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.google.common.collect.Lists;
+
+/**
+ * Evaluation of the filter expression A * 3 + 7 > 1000 AND B < 0.5 over in-memory rows, either
+ * one row at a time as BooleanExpressionFilter does or over batches of rows.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ExpressionBenchmark {
+    private static final int N_ROWS = 4096;
+    private static final byte[] FAMILY = Bytes.toBytes("F");
+    
+    @Param({"16", "256"})
+    public int batchSize;
+    
+    private Expression expression;
+    private Tuple[] tuples;
+    private TupleBatch batch;
+    private ColumnVector vector;
+    private final ImmutableBytesWritable ptr = new ImmutableBytesWritable();
+    
+    @Setup
+    public void setup() throws Exception {
+        Expression a = new KeyValueColumnExpression(new PColumnImpl(PNameFactory.newName("A"), PNameFactory.newName("F"),
+                PDataType.LONG, null, null, true, 1, SortOrder.getDefault(), 0, null, false));
+        Expression b = new KeyValueColumnExpression(new PColumnImpl(PNameFactory.newName("B"), PNameFactory.newName("F"),
+                PDataType.DOUBLE, null, null, true, 2, SortOrder.getDefault(), 0, null, false));
+        Expression multiply = new LongMultiplyExpression(Arrays.<Expression>asList(a, LiteralExpression.newConstant(3L, PDataType.LONG)));
+        Expression add = new LongAddExpression(Arrays.<Expression>asList(multiply, LiteralExpression.newConstant(7L, PDataType.LONG)));
+        expression = new AndExpression(Arrays.<Expression>asList(
+                new ComparisonExpression(CompareOp.GREATER, Arrays.<Expression>asList(add, LiteralExpression.newConstant(1000L, PDataType.LONG))),
+                new ComparisonExpression(CompareOp.LESS, Arrays.<Expression>asList(b, LiteralExpression.newConstant(0.5, PDataType.DOUBLE)))));
+        
+        Random random = new Random(0);
+        tuples = new Tuple[N_ROWS];
+        for (int i = 0; i < N_ROWS; i++) {
+            byte[] row = Bytes.toBytes(i);
+            List<Cell> cells = Lists.newArrayListWithExpectedSize(2);
+            cells.add(new KeyValue(row, FAMILY, Bytes.toBytes("A"), PDataType.LONG.toBytes((long)random.nextInt(1000))));
+            // Leave some values null
+            if (i % 10 != 0) {
+                cells.add(new KeyValue(row, FAMILY, Bytes.toBytes("B"), PDataType.DOUBLE.toBytes(random.nextDouble())));
+            }
+            tuples[i] = new MultiKeyValueTuple(cells);
+        }
+        batch = new TupleBatch(batchSize);
+        vector = new ColumnVector(batchSize);
+    }
+    
+    /**
+     * @return the number of rows passing the filter
+     */
+    @Benchmark
+    public int evaluateRows() {
+        int passed = 0;
+        for (int i = 0; i < N_ROWS; i++) {
+            if (expression.evaluate(tuples[i], ptr) && Boolean.TRUE.equals(PDataType.BOOLEAN.toObject(ptr))) {
+                passed++;
+            }
+        }
+        return passed;
+    }
+    
+    /**
+     * @return the number of rows passing the filter
+     */
+    @Benchmark
+    public int evaluateBatches() {
+        int passed = 0;
+        for (int i = 0; i < N_ROWS; i += batchSize) {
+            batch.clear();
+            for (int j = i; j < N_ROWS && !batch.isFull(); j++) {
+                batch.add(tuples[j]);
+            }
+            expression.evaluate(batch, vector);
+            for (int row = 0; row < batch.size(); row++) {
+                if (vector.isSet(row) && vector.isTrue(row)) {
+                    passed++;
+                }
+            }
+        }
+        return passed;
+    }
+}
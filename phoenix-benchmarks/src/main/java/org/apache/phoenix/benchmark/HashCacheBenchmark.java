@@ -0,0 +1,160 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.phoenix.benchmark;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.sql.SQLException;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.hadoop.hbase.Cell;
+import org.apache.hadoop.hbase.KeyValue;
+import org.apache.hadoop.hbase.io.ImmutableBytesWritable;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.apache.hadoop.io.WritableUtils;
+import org.apache.phoenix.cache.HashCache;
+import org.apache.phoenix.expression.Expression;
+import org.apache.phoenix.expression.ExpressionType;
+import org.apache.phoenix.expression.KeyValueColumnExpression;
+import org.apache.phoenix.hbase.index.util.ImmutableBytesPtr;
+import org.apache.phoenix.join.HashCacheFactory;
+import org.apache.phoenix.memory.GlobalMemoryManager;
+import org.apache.phoenix.memory.MemoryManager;
+import org.apache.phoenix.schema.PColumnImpl;
+import org.apache.phoenix.schema.PDataType;
+import org.apache.phoenix.schema.PNameFactory;
+import org.apache.phoenix.schema.SortOrder;
+import org.apache.phoenix.schema.tuple.MultiKeyValueTuple;
+import org.apache.phoenix.schema.tuple.Tuple;
+import org.apache.phoenix.util.TrustedByteArrayOutputStream;
+import org.apache.phoenix.util.TupleUtil;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.xerial.snappy.Snappy;
+
+import com.google.common.collect.Lists;
+
+/**
+ * Building the region server side hash cache of a hash join out of its serialized form, as sent
+ * by HashCacheClient, and probing it with the join keys of the other side. The build side rows
+ * have a LONG join key, with {@link #ROWS_PER_KEY} rows per key.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+@State(Scope.Benchmark)
+public class HashCacheBenchmark {
+    private static final int ROWS_PER_KEY = 2;
+    private static final int N_PROBES = 10000;
+    private static final byte[] FAMILY = Bytes.toBytes("F");
+    
+    @Param({"10000", "100000"})
+    public int buildRows;
+    
+    private final HashCacheFactory factory = new HashCacheFactory();
+    private MemoryManager memoryManager;
+    private ImmutableBytesWritable serializedCache;
+    private HashCache hashCache;
+    private HashCache.Lookup hashLookup;
+    private ImmutableBytesPtr[] probeKeys;
+    
+    @Setup
+    public void setup() throws Exception {
+        memoryManager = new GlobalMemoryManager(Long.MAX_VALUE, 0);
+        Expression joinKey = new KeyValueColumnExpression(new PColumnImpl(PNameFactory.newName("K"), PNameFactory.newName("F"),
+                PDataType.LONG, null, null, true, 0, SortOrder.getDefault(), 0, null, false));
+        serializedCache = serialize(Collections.singletonList(joinKey));
+        hashCache = build();
+        hashLookup = hashCache.newLookup();
+        // Half of the probes find a match
+        int nKeys = buildRows / ROWS_PER_KEY;
+        probeKeys = new ImmutableBytesPtr[N_PROBES];
+        for (int i = 0; i < N_PROBES; i++) {
+            long key = (i * 7919L) % (2 * nKeys);
+            probeKeys[i] = new ImmutableBytesPtr(PDataType.LONG.toBytes(key));
+        }
+    }
+    
+    @TearDown
+    public void tearDown() throws IOException {
+        hashCache.close();
+    }
+    
+    /**
+     * Serializes the build side the same way HashCacheClient does for a single chunk
+     */
+    private ImmutableBytesWritable serialize(List<Expression> onExpressions) throws IOException {
+        TrustedByteArrayOutputStream baOut = new TrustedByteArrayOutputStream(buildRows * 64);
+        DataOutputStream out = new DataOutputStream(baOut);
+        out.writeInt(onExpressions.size());
+        for (Expression expression : onExpressions) {
+            WritableUtils.writeVInt(out, ExpressionType.valueOf(expression).ordinal());
+            expression.write(out);
+        }
+        out.writeInt(baOut.size() + Bytes.SIZEOF_INT);
+        out.writeInt(buildRows);
+        int nKeys = buildRows / ROWS_PER_KEY;
+        for (int i = 0; i < buildRows; i++) {
+            byte[] row = Bytes.toBytes(i);
+            List<Cell> cells = Lists.<Cell>newArrayList(
+                    new KeyValue(row, FAMILY, Bytes.toBytes("K"), PDataType.LONG.toBytes((long)(i % nKeys))),
+                    new KeyValue(row, FAMILY, Bytes.toBytes("V"), Bytes.toBytes("value" + i)));
+            TupleUtil.write(new MultiKeyValueTuple(cells), out);
+        }
+        out.flush();
+        byte[] compressed = new byte[Snappy.maxCompressedLength(baOut.size())];
+        int compressedSize = Snappy.compress(baOut.getBuffer(), 0, baOut.size(), compressed, 0);
+        return new ImmutableBytesWritable(compressed, 0, compressedSize);
+    }
+    
+    private HashCache build() throws SQLException {
+        return (HashCache)factory.newCache(serializedCache, memoryManager.allocate(0));
+    }
+    
+    @Benchmark
+    public void buildCache() throws SQLException, IOException {
+        build().close();
+    }
+    
+    @Benchmark
+    public void probeCache(Blackhole bh) {
+        for (int i = 0; i < N_PROBES; i++) {
+            List<Tuple> rows = hashLookup.get(probeKeys[i]);
+            if (rows != null) {
+                for (Tuple row : rows) {
+                    bh.consume(row);
+                }
+            }
+        }
+    }
+}
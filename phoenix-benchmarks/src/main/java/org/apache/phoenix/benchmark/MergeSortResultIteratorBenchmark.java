@@ -0,0 +1,113 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.phoenix.benchmark;
+
+import java.sql.SQLException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.hadoop.hbase.KeyValue;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.apache.phoenix.iterate.MaterializedResultIterator;
+import org.apache.phoenix.iterate.MergeSortRowKeyResultIterator;
+import org.apache.phoenix.iterate.PeekingResultIterator;
+import org.apache.phoenix.iterate.ResultIterator;
+import org.apache.phoenix.iterate.ResultIterators;
+import org.apache.phoenix.schema.tuple.SingleKeyValueTuple;
+import org.apache.phoenix.schema.tuple.Tuple;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.google.common.collect.Lists;
+
+/**
+ * Merging of sorted, in-memory iterators, as done on the client for the results of the parallel
+ * scans of a query ordered by row key. The rows are spread round robin over the iterators.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+@State(Scope.Benchmark)
+public class MergeSortResultIteratorBenchmark {
+    private static final int N_ROWS = 100000;
+    private static final byte[] FAMILY = Bytes.toBytes("F");
+    private static final byte[] QUALIFIER = Bytes.toBytes("V");
+    
+    @Param({"4", "64", "512"})
+    public int iterators;
+    
+    private List<List<Tuple>> inputs;
+    
+    @Setup
+    public void setup() {
+        inputs = Lists.newArrayListWithExpectedSize(iterators);
+        for (int i = 0; i < iterators; i++) {
+            inputs.add(Lists.<Tuple>newArrayListWithExpectedSize(N_ROWS / iterators + 1));
+        }
+        for (int i = 0; i < N_ROWS; i++) {
+            byte[] row = Bytes.toBytes(i);
+            inputs.get(i % iterators).add(new SingleKeyValueTuple(new KeyValue(row, FAMILY, QUALIFIER, row)));
+        }
+    }
+    
+    /**
+     * @return the number of rows merged
+     */
+    @Benchmark
+    public int merge() throws SQLException {
+        final List<PeekingResultIterator> peekingIterators = Lists.newArrayListWithExpectedSize(iterators);
+        for (List<Tuple> input : inputs) {
+            peekingIterators.add(new MaterializedResultIterator(input));
+        }
+        ResultIterator iterator = new MergeSortRowKeyResultIterator(new ResultIterators() {
+            @Override
+            public List<PeekingResultIterator> getIterators() throws SQLException {
+                return peekingIterators;
+            }
+
+            @Override
+            public int size() {
+                return peekingIterators.size();
+            }
+
+            @Override
+            public void explain(List<String> planSteps) {
+            }
+        });
+        int count = 0;
+        try {
+            while (iterator.next() != null) {
+                count++;
+            }
+        } finally {
+            iterator.close();
+        }
+        return count;
+    }
+}
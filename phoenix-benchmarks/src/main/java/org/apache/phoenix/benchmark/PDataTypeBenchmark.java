@@ -0,0 +1,127 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.phoenix.benchmark;
+
+import java.math.BigDecimal;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.phoenix.schema.PDataType;
+import org.apache.phoenix.schema.SortOrder;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Encoding and decoding of values through {@link PDataType}, in both sort orders. Each
+ * operation covers a batch of {@link #N_VALUES} values.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+@State(Scope.Benchmark)
+public class PDataTypeBenchmark {
+    private static final int N_VALUES = 1024;
+    
+    @Param({"LONG", "INTEGER", "DOUBLE", "DECIMAL", "VARCHAR", "DATE"})
+    public String type;
+    
+    @Param({"ASC", "DESC"})
+    public String sortOrder;
+    
+    private PDataType dataType;
+    private SortOrder order;
+    private Object[] values;
+    private byte[][] encoded;
+    private byte[] buffer;
+    
+    @Setup
+    public void setup() {
+        dataType = PDataType.valueOf(type);
+        order = SortOrder.valueOf(sortOrder);
+        Random random = new Random(0);
+        values = new Object[N_VALUES];
+        encoded = new byte[N_VALUES][];
+        for (int i = 0; i < N_VALUES; i++) {
+            values[i] = newValue(random);
+            encoded[i] = dataType.toBytes(values[i], order);
+        }
+        buffer = new byte[64];
+    }
+    
+    private Object newValue(Random random) {
+        switch (dataType) {
+        case LONG:
+            return random.nextLong();
+        case INTEGER:
+            return random.nextInt();
+        case DOUBLE:
+            return random.nextDouble() * Integer.MAX_VALUE;
+        case DECIMAL:
+            return BigDecimal.valueOf(random.nextLong(), random.nextInt(10));
+        case VARCHAR:
+            return Long.toString(random.nextLong(), 36);
+        case DATE:
+            return new java.sql.Date(random.nextLong() >>> 24);
+        default:
+            throw new IllegalArgumentException(type);
+        }
+    }
+    
+    @Benchmark
+    public void encode(Blackhole bh) {
+        for (int i = 0; i < N_VALUES; i++) {
+            bh.consume(dataType.toBytes(values[i], order));
+        }
+    }
+    
+    @Benchmark
+    public void encodeIntoBuffer(Blackhole bh) {
+        for (int i = 0; i < N_VALUES; i++) {
+            bh.consume(dataType.toBytes(values[i], buffer, 0));
+        }
+    }
+    
+    @Benchmark
+    public void decode(Blackhole bh) {
+        for (int i = 0; i < N_VALUES; i++) {
+            byte[] b = encoded[i];
+            bh.consume(dataType.toObject(b, 0, b.length, dataType, order));
+        }
+    }
+    
+    @Benchmark
+    public void compare(Blackhole bh) {
+        for (int i = 1; i < N_VALUES; i++) {
+            byte[] lhs = encoded[i - 1];
+            byte[] rhs = encoded[i];
+            bh.consume(dataType.compareTo(lhs, 0, lhs.length, order, rhs, 0, rhs.length, order));
+        }
+    }
+}
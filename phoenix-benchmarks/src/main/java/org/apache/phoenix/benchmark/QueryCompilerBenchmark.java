@@ -0,0 +1,116 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.phoenix.benchmark;
+
+import static org.apache.phoenix.util.PhoenixRuntime.CONNECTIONLESS;
+import static org.apache.phoenix.util.PhoenixRuntime.JDBC_PROTOCOL;
+import static org.apache.phoenix.util.PhoenixRuntime.JDBC_PROTOCOL_SEPARATOR;
+
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.phoenix.compile.QueryPlan;
+import org.apache.phoenix.compile.ScanRanges;
+import org.apache.phoenix.jdbc.PhoenixConnection;
+import org.apache.phoenix.jdbc.PhoenixPreparedStatement;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Compilation of queries whose WHERE clause the WhereOptimizer turns into point lookups, a range
+ * scan or a skip scan, along with the intersection of the resulting {@link ScanRanges} with region
+ * boundaries. Runs over a connectionless connection, so only the client side is measured.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+@State(Scope.Benchmark)
+public class QueryCompilerBenchmark {
+    private static final String URL = JDBC_PROTOCOL + JDBC_PROTOCOL_SEPARATOR + CONNECTIONLESS;
+    private static final int N_REGIONS = 256;
+    
+    public enum QueryShape {
+        POINT_LOOKUP("SELECT V1 FROM T WHERE K1 IN ('a','b','c','d','e','f','g','h') AND K2 IN (1,2,3,4) AND K3 = 5"),
+        RANGE_SCAN("SELECT V1 FROM T WHERE K1 = 'a' AND K2 >= 10 AND K2 < 1000"),
+        SKIP_SCAN("SELECT V1 FROM T WHERE K1 IN ('a','c','e','g') AND K3 > 5 AND V2 < 100.0"),
+        FULL_SCAN("SELECT V1 FROM T WHERE V1 LIKE 'abc%' AND V2 < 100.0");
+        
+        private final String query;
+        
+        private QueryShape(String query) {
+            this.query = query;
+        }
+    }
+    
+    @Param
+    public QueryShape shape;
+    
+    private PhoenixConnection conn;
+    private ScanRanges scanRanges;
+    private byte[][] regionBoundaries;
+    
+    @Setup
+    public void setup() throws Exception {
+        Class.forName("org.apache.phoenix.jdbc.PhoenixDriver");
+        conn = DriverManager.getConnection(URL).unwrap(PhoenixConnection.class);
+        conn.createStatement().execute("CREATE TABLE T (K1 VARCHAR NOT NULL, K2 INTEGER NOT NULL, K3 BIGINT NOT NULL, "
+                + "V1 VARCHAR, V2 DOUBLE CONSTRAINT PK PRIMARY KEY (K1, K2, K3))");
+        scanRanges = compile().getContext().getScanRanges();
+        regionBoundaries = new byte[N_REGIONS + 1][];
+        regionBoundaries[0] = new byte[0];
+        for (int i = 1; i < N_REGIONS; i++) {
+            regionBoundaries[i] = new byte[] {(byte)(i / 16 + 'a'), (byte)(i % 16)};
+        }
+        regionBoundaries[N_REGIONS] = new byte[0];
+    }
+    
+    @TearDown
+    public void tearDown() throws SQLException {
+        conn.close();
+    }
+    
+    private QueryPlan compile() throws SQLException {
+        return new PhoenixPreparedStatement(conn, shape.query).compileQuery();
+    }
+    
+    @Benchmark
+    public QueryPlan compileQuery() throws SQLException {
+        return compile();
+    }
+    
+    @Benchmark
+    public void intersectRegions(Blackhole bh) {
+        for (int i = 0; i < N_REGIONS; i++) {
+            bh.consume(scanRanges.intersect(regionBoundaries[i], regionBoundaries[i + 1]));
+        }
+    }
+}
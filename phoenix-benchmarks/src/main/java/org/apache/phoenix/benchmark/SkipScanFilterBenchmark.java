@@ -0,0 +1,157 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.phoenix.benchmark;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.hadoop.hbase.Cell;
+import org.apache.hadoop.hbase.KeyValue;
+import org.apache.hadoop.hbase.filter.Filter.ReturnCode;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.apache.phoenix.filter.SkipScanFilter;
+import org.apache.phoenix.query.KeyRange;
+import org.apache.phoenix.schema.PDataType;
+import org.apache.phoenix.schema.PDatum;
+import org.apache.phoenix.schema.RowKeySchema;
+import org.apache.phoenix.schema.RowKeySchema.RowKeySchemaBuilder;
+import org.apache.phoenix.schema.SortOrder;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.google.common.collect.Lists;
+
+/**
+ * Navigation of a {@link SkipScanFilter} over a sorted, in-memory stream of rows, skipping the
+ * rows before each hint the way a region scanner seeks. The row key is made of three single
+ * character columns.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+@State(Scope.Benchmark)
+public class SkipScanFilterBenchmark {
+    private static final int N_VALUES = 32;
+    private static final byte FIRST_VALUE = 'A';
+    private static final byte[] FAMILY = Bytes.toBytes("0");
+    private static final byte[] QUALIFIER = Bytes.toBytes("V");
+    private static final PDatum KEY_DATUM = new PDatum() {
+        @Override
+        public boolean isNullable() {
+            return false;
+        }
+
+        @Override
+        public PDataType getDataType() {
+            return PDataType.CHAR;
+        }
+
+        @Override
+        public Integer getMaxLength() {
+            return 1;
+        }
+
+        @Override
+        public Integer getScale() {
+            return null;
+        }
+
+        @Override
+        public SortOrder getSortOrder() {
+            return SortOrder.getDefault();
+        }
+    };
+    
+    /**
+     * Number of point keys in the leading slot
+     */
+    @Param({"2", "16"})
+    public int leadingKeys;
+    
+    private RowKeySchema schema;
+    private List<List<KeyRange>> slots;
+    private Cell[] cells;
+    
+    @Setup
+    public void setup() {
+        RowKeySchemaBuilder builder = new RowKeySchemaBuilder(3);
+        for (int i = 0; i < 3; i++) {
+            builder.addField(KEY_DATUM, false, SortOrder.getDefault());
+        }
+        schema = builder.build();
+        
+        List<KeyRange> leading = Lists.newArrayListWithExpectedSize(leadingKeys);
+        for (int i = 0; i < leadingKeys; i++) {
+            leading.add(PDataType.CHAR.getKeyRange(new byte[] {(byte)(FIRST_VALUE + i * N_VALUES / leadingKeys)}));
+        }
+        List<KeyRange> middle = Collections.singletonList(PDataType.CHAR.getKeyRange(
+                new byte[] {FIRST_VALUE + 4}, true, new byte[] {FIRST_VALUE + 8}, false));
+        List<KeyRange> trailing = Lists.newArrayList(
+                PDataType.CHAR.getKeyRange(new byte[] {FIRST_VALUE + 1}),
+                PDataType.CHAR.getKeyRange(new byte[] {FIRST_VALUE + 17}, true, new byte[] {FIRST_VALUE + 20}, true));
+        slots = Lists.newArrayList(leading, middle, trailing);
+        
+        cells = new Cell[N_VALUES * N_VALUES * N_VALUES];
+        int n = 0;
+        for (int i = 0; i < N_VALUES; i++) {
+            for (int j = 0; j < N_VALUES; j++) {
+                for (int k = 0; k < N_VALUES; k++) {
+                    byte[] row = new byte[] {(byte)(FIRST_VALUE + i), (byte)(FIRST_VALUE + j), (byte)(FIRST_VALUE + k)};
+                    cells[n++] = new KeyValue(row, FAMILY, QUALIFIER, row);
+                }
+            }
+        }
+    }
+    
+    /**
+     * Runs a filter, as created for each scan, over all the rows.
+     * @return the number of rows included
+     */
+    @Benchmark
+    public int scan() {
+        SkipScanFilter filter = new SkipScanFilter(slots, schema);
+        int included = 0;
+        Cell hint = null;
+        for (int i = 0; i < cells.length && !filter.filterAllRemaining(); i++) {
+            Cell cell = cells[i];
+            if (hint != null && Bytes.compareTo(cell.getRowArray(), cell.getRowOffset(), cell.getRowLength(), 
+                    hint.getRowArray(), hint.getRowOffset(), hint.getRowLength()) < 0) {
+                continue;
+            }
+            ReturnCode code = filter.filterKeyValue(cell);
+            if (code == ReturnCode.SEEK_NEXT_USING_HINT) {
+                hint = filter.getNextCellHint(cell);
+            } else if (code == ReturnCode.INCLUDE) {
+                included++;
+            }
+        }
+        return included;
+    }
+}
@@ -0,0 +1,147 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.phoenix.benchmark;
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hbase.Cell;
+import org.apache.hadoop.hbase.HBaseConfiguration;
+import org.apache.hadoop.hbase.KeyValue;
+import org.apache.hadoop.hbase.coprocessor.RegionCoprocessorEnvironment;
+import org.apache.hadoop.hbase.io.ImmutableBytesWritable;
+import org.apache.hadoop.hbase.regionserver.RegionScanner;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.apache.phoenix.cache.aggcache.SpillableGroupByCache;
+import org.apache.phoenix.expression.Expression;
+import org.apache.phoenix.expression.KeyValueColumnExpression;
+import org.apache.phoenix.expression.aggregator.Aggregator;
+import org.apache.phoenix.expression.aggregator.ServerAggregators;
+import org.apache.phoenix.expression.function.CountAggregateFunction;
+import org.apache.phoenix.expression.function.SingleAggregateFunction;
+import org.apache.phoenix.expression.function.SumAggregateFunction;
+import org.apache.phoenix.query.QueryServices;
+import org.apache.phoenix.schema.PColumnImpl;
+import org.apache.phoenix.schema.PDataType;
+import org.apache.phoenix.schema.PNameFactory;
+import org.apache.phoenix.schema.SortOrder;
+import org.apache.phoenix.schema.tuple.SingleKeyValueTuple;
+import org.apache.phoenix.schema.tuple.Tuple;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.google.common.collect.Lists;
+
+/**
+ * Aggregation of in-memory rows into a {@link SpillableGroupByCache} computing COUNT(A) and SUM(A)
+ * per group, followed by reading back the groups. When spilling, the global memory is kept small
+ * enough for the cache to spill most of its groups to disk. The region server environment is a
+ * mock, so that no cluster is needed.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+// Each configuration runs in its own JVM, as the global memory is sized once per JVM
+@Fork(1)
+@State(Scope.Benchmark)
+public class SpillableGroupByCacheBenchmark {
+    private static final int N_ROWS = 200000;
+    private static final byte[] FAMILY = Bytes.toBytes("F");
+    private static final long SPILL_MEMORY_SIZE = 1024 * 1024;
+    
+    @Param({"1000", "100000"})
+    public int groups;
+    
+    @Param({"false", "true"})
+    public boolean spill;
+    
+    private RegionCoprocessorEnvironment env;
+    private RegionScanner regionScanner;
+    private ServerAggregators aggregators;
+    private ImmutableBytesWritable[] keys;
+    private Tuple[] tuples;
+    
+    @Setup
+    public void setup() {
+        Configuration conf = HBaseConfiguration.create();
+        if (spill) {
+            conf.setLong(QueryServices.MAX_MEMORY_SIZE_ATTRIB, SPILL_MEMORY_SIZE);
+        }
+        env = mock(RegionCoprocessorEnvironment.class);
+        when(env.getConfiguration()).thenReturn(conf);
+        regionScanner = mock(RegionScanner.class);
+        
+        Expression a = new KeyValueColumnExpression(new PColumnImpl(PNameFactory.newName("A"), PNameFactory.newName("F"),
+                PDataType.LONG, null, null, true, 0, SortOrder.getDefault(), 0, null, false));
+        List<Expression> children = Collections.singletonList(a);
+        List<SingleAggregateFunction> functions = Arrays.<SingleAggregateFunction>asList(
+                new CountAggregateFunction(children), new SumAggregateFunction(children));
+        aggregators = ServerAggregators.deserialize(ServerAggregators.serialize(functions, 0), conf);
+        
+        keys = new ImmutableBytesWritable[N_ROWS];
+        tuples = new Tuple[N_ROWS];
+        for (int i = 0; i < N_ROWS; i++) {
+            byte[] row = Bytes.toBytes(i);
+            keys[i] = new ImmutableBytesWritable(Bytes.toBytes("group" + (i * 31 % groups)));
+            tuples[i] = new SingleKeyValueTuple(new KeyValue(row, FAMILY, Bytes.toBytes("A"), PDataType.LONG.toBytes((long)i)));
+        }
+    }
+    
+    /**
+     * @return the number of groups read back
+     */
+    @Benchmark
+    public int aggregate() throws IOException {
+        SpillableGroupByCache cache = new SpillableGroupByCache(env, null, aggregators, groups);
+        for (int i = 0; i < N_ROWS; i++) {
+            Aggregator[] rowAggregators = cache.cache(keys[i]);
+            aggregators.aggregate(rowAggregators, tuples[i]);
+        }
+        RegionScanner scanner = cache.getScanner(regionScanner);
+        try {
+            int count = 0;
+            List<Cell> results = Lists.newArrayList();
+            boolean hasMore;
+            do {
+                results.clear();
+                hasMore = scanner.next(results);
+                count += results.size();
+            } while (hasMore);
+            return count;
+        } finally {
+            scanner.close();
+        }
+    }
+}
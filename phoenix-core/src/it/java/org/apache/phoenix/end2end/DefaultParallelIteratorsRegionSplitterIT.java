@@ -18,6 +18,7 @@
 package org.apache.phoenix.end2end;
 
 import static org.apache.phoenix.util.TestUtil.TEST_PROPERTIES;
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 
 import java.sql.Connection;
@@ -29,6 +30,7 @@ import java.util.List;
 import java.util.Properties;
 
 import org.apache.hadoop.hbase.HConstants;
+import org.apache.hadoop.hbase.HRegionInfo;
 import org.apache.hadoop.hbase.HRegionLocation;
 import org.apache.hadoop.hbase.client.Scan;
 import org.apache.hadoop.hbase.util.Bytes;
@@ -40,6 +42,7 @@ import org.apache.phoenix.jdbc.PhoenixStatement;
 import org.apache.phoenix.parse.HintNode;
 import org.apache.phoenix.query.ConnectionQueryServices;
 import org.apache.phoenix.query.KeyRange;
+import org.apache.phoenix.query.StatsManager;
 import org.apache.phoenix.schema.PDataType;
 import org.apache.phoenix.schema.TableRef;
 import org.apache.phoenix.util.PhoenixRuntime;
@@ -80,6 +83,97 @@ public class DefaultParallelIteratorsRegionSplitterIT extends BaseParallelIterat
         return keyRanges;
     }
 
+    /**
+     * Exposes the number of splits of each region
+     */
+    private static class RegionSplitter extends DefaultParallelIteratorRegionSplitter {
+        private RegionSplitter(StatementContext context, TableRef table) {
+            super(context, table, HintNode.EMPTY_HINT_NODE);
+        }
+        
+        @Override
+        public int[] getSplitsPerRegion(List<HRegionLocation> regions, StatsManager statsManager) {
+            return super.getSplitsPerRegion(regions, statsManager);
+        }
+    }
+    
+    /**
+     * Stats with the given size for each region, in region order
+     */
+    private static class RegionSizes implements StatsManager {
+        private final List<HRegionLocation> regions;
+        private final long[] sizes;
+        
+        private RegionSizes(List<HRegionLocation> regions, long... sizes) {
+            this.regions = regions;
+            this.sizes = sizes;
+        }
+        
+        @Override
+        public byte[] getMinKey(TableRef table) {
+            return null;
+        }
+
+        @Override
+        public byte[] getMaxKey(TableRef table) {
+            return null;
+        }
+
+        @Override
+        public long getRegionSize(TableRef table, HRegionInfo region) {
+            for (int i = 0; i < regions.size(); i++) {
+                if (regions.get(i).getRegionInfo().equals(region)) {
+                    return sizes[i];
+                }
+            }
+            return -1;
+        }
+
+        @Override
+        public void updateStats(TableRef table) {
+        }
+
+        @Override
+        public void clearStats() {
+        }
+    }
+    
+    private static int[] getSplitsPerRegion(Connection conn, long ts, List<HRegionLocation> regions, long... sizes) throws SQLException {
+        TableRef tableRef = getTableRef(conn, ts);
+        PhoenixConnection pconn = conn.unwrap(PhoenixConnection.class);
+        PhoenixStatement statement = new PhoenixStatement(pconn);
+        StatementContext context = new StatementContext(statement, null, new Scan(), new SequenceManager(statement));
+        return new RegionSplitter(context, tableRef).getSplitsPerRegion(regions, new RegionSizes(regions, sizes));
+    }
+    
+    @Test
+    public void testGetSplitsPerRegion() throws Exception {
+        long ts = nextTimestamp();
+        initTableValues(ts);
+        String url = getUrl() + ";" + PhoenixRuntime.CURRENT_SCN_ATTRIB + "=" + ts;
+        Properties props = new Properties(TEST_PROPERTIES);
+        Connection conn = DriverManager.getConnection(url, props);
+        TableRef tableRef = getTableRef(conn, ts);
+        List<HRegionLocation> regions = conn.unwrap(PhoenixConnection.class).getQueryServices().getAllTableRegions(tableRef.getTable().getPhysicalName().getBytes());
+        assertEquals(5, regions.size());
+        long mb = 1024 * 1024;
+        
+        // number of regions > target query concurrency: one split per region, unless a region is much bigger
+        assertArrayEquals(new int[] {1, 1, 1, 1, 1}, getSplitsPerRegion(conn, ts, regions, 20 * mb, 20 * mb, 20 * mb, 20 * mb, 20 * mb));
+        assertArrayEquals(new int[] {1, 1, 1, 1, 3}, getSplitsPerRegion(conn, ts, regions, 10 * mb, 10 * mb, 10 * mb, 10 * mb, 60 * mb));
+        // unknown or empty sizes split evenly
+        assertArrayEquals(new int[] {1, 1, 1, 1, 1}, getSplitsPerRegion(conn, ts, regions, 10 * mb, 10 * mb, -1, 10 * mb, 60 * mb));
+        assertArrayEquals(new int[] {1, 1, 1, 1, 1}, getSplitsPerRegion(conn, ts, regions, 0, 0, 0, 0, 0));
+        
+        // (number of regions / 2) > target query concurrency: max concurrency spread across the regions
+        List<HRegionLocation> twoRegions = regions.subList(1, 3);
+        assertArrayEquals(new int[] {2, 2}, getSplitsPerRegion(conn, ts, twoRegions, -1, -1));
+        assertArrayEquals(new int[] {1, 3}, getSplitsPerRegion(conn, ts, twoRegions, 1 * mb, 3 * mb));
+        // every region gets at least one split
+        assertArrayEquals(new int[] {1, 4}, getSplitsPerRegion(conn, ts, twoRegions, 0, 3 * mb));
+        conn.close();
+    }
+
     @Test
     public void testGetSplits() throws Exception {
         long ts = nextTimestamp();
@@ -0,0 +1,153 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.phoenix.end2end;
+
+import static org.apache.phoenix.util.TestUtil.TEST_PROPERTIES;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Map;
+import java.util.Properties;
+
+import org.apache.phoenix.cache.GlobalCache;
+import org.apache.phoenix.cache.ServerCacheClient;
+import org.apache.phoenix.hbase.index.util.ImmutableBytesPtr;
+import org.apache.phoenix.jdbc.PhoenixStatement;
+import org.apache.phoenix.join.HashJoinInfo;
+import org.apache.phoenix.query.QueryServices;
+import org.apache.phoenix.util.ReadOnlyProps;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+
+import com.google.common.collect.Maps;
+
+@Category(HBaseManagedTimeTest.class)
+public class HashCacheReuseIT extends BaseHBaseManagedTimeIT {
+    private static final String BUILD_TABLE = "REUSE_BUILD";
+    private static final String PROBE_TABLE = "REUSE_PROBE";
+    private static final String JOIN_QUERY = "SELECT count(*) FROM " + PROBE_TABLE + " p JOIN " + BUILD_TABLE + " b ON p.build_id = b.pk";
+    // Registered caches go stale after half the server cache time to live
+    private static final int MAX_SERVER_CACHE_TIME_TO_LIVE_MS = 2000;
+
+    @BeforeClass
+    @Shadower(classBeingShadowed = BaseHBaseManagedTimeIT.class)
+    public static void doSetup() throws Exception {
+        Map<String,String> props = Maps.newHashMapWithExpectedSize(2);
+        props.put(QueryServices.HASH_CACHE_REUSE_TIME_TO_LIVE_MS_ATTRIB, Integer.toString(60000));
+        // Only read by the client here, so the caches stay on the region servers for longer than they are reused
+        props.put(QueryServices.MAX_SERVER_CACHE_TIME_TO_LIVE_MS_ATTRIB, Integer.toString(MAX_SERVER_CACHE_TIME_TO_LIVE_MS));
+        setUpTestDriver(getUrl(), new ReadOnlyProps(props.entrySet().iterator()));
+    }
+    
+    private static Connection initTables() throws SQLException {
+        Properties props = new Properties(TEST_PROPERTIES);
+        Connection conn = DriverManager.getConnection(getUrl(), props);
+        conn.createStatement().execute("CREATE TABLE " + BUILD_TABLE + " (pk INTEGER NOT NULL PRIMARY KEY, v VARCHAR)");
+        conn.createStatement().execute("CREATE TABLE " + PROBE_TABLE + " (pk INTEGER NOT NULL PRIMARY KEY, build_id INTEGER)");
+        for (int i = 1; i <= 3; i++) {
+            upsertBuildRow(conn, i);
+        }
+        PreparedStatement stmt = conn.prepareStatement("UPSERT INTO " + PROBE_TABLE + " VALUES(?, ?)");
+        for (int i = 1; i <= 4; i++) {
+            stmt.setInt(1, i);
+            stmt.setInt(2, i);
+            stmt.execute();
+        }
+        conn.commit();
+        return conn;
+    }
+    
+    private static void upsertBuildRow(Connection conn, int pk) throws SQLException {
+        PreparedStatement stmt = conn.prepareStatement("UPSERT INTO " + BUILD_TABLE + " VALUES(?, ?)");
+        stmt.setInt(1, pk);
+        stmt.setString(2, "v" + pk);
+        stmt.execute();
+    }
+    
+    private static int countJoinedRows(Connection conn) throws SQLException {
+        ResultSet rs = conn.createStatement().executeQuery(JOIN_QUERY);
+        assertTrue(rs.next());
+        int count = rs.getInt(1);
+        assertFalse(rs.next());
+        return count;
+    }
+    
+    @Test
+    public void testReusesHashCacheUntilStale() throws Exception {
+        Connection conn = initTables();
+        try {
+            assertEquals(3, countJoinedRows(conn));
+            upsertBuildRow(conn, 4);
+            conn.commit();
+            // Joined against the cache registered by the previous query, which does not have the new row
+            assertEquals(3, countJoinedRows(conn));
+            
+            // Left unused for longer than the region servers may keep it, the registered cache is built again
+            Thread.sleep(MAX_SERVER_CACHE_TIME_TO_LIVE_MS / 2 + 100);
+            assertEquals(4, countJoinedRows(conn));
+        } finally {
+            conn.close();
+        }
+    }
+    
+    @Test
+    public void testEvictedHashCacheIsSentAgain() throws Exception {
+        Connection conn = initTables();
+        try {
+            PhoenixStatement stmt = conn.createStatement().unwrap(PhoenixStatement.class);
+            ResultSet rs = stmt.executeQuery(JOIN_QUERY);
+            assertTrue(rs.next());
+            assertEquals(3, rs.getInt(1));
+            upsertBuildRow(conn, 4);
+            conn.commit();
+            
+            // Drop the registered cache from the region server, as it would when short of memory
+            ImmutableBytesPtr joinId = HashJoinInfo.deserializeHashJoinFromScan(stmt.getQueryPlan().getContext().getScan()).getJoinIds()[0];
+            GlobalCache cache = GlobalCache.getInstance(null);
+            for (int offset = 0; offset < joinId.getLength(); offset += ServerCacheClient.UUID_LENGTH) {
+                cache.removeServerCache(new ImmutableBytesPtr(joinId.get(), joinId.getOffset() + offset, ServerCacheClient.UUID_LENGTH));
+            }
+            // Built and sent again rather than failing the query, so the new row is joined
+            assertEquals(4, countJoinedRows(conn));
+        } finally {
+            conn.close();
+        }
+    }
+    
+    @Test
+    public void testAlteredBuildTableIsNotReused() throws Exception {
+        Connection conn = initTables();
+        try {
+            assertEquals(3, countJoinedRows(conn));
+            upsertBuildRow(conn, 4);
+            conn.commit();
+            // A new version of the build side table makes for a new registry key
+            conn.createStatement().execute("ALTER TABLE " + BUILD_TABLE + " ADD v2 VARCHAR");
+            assertEquals(4, countJoinedRows(conn));
+        } finally {
+            conn.close();
+        }
+    }
+}
@@ -3082,6 +3082,54 @@ public class HashJoinIT extends BaseHBaseManagedTimeIT {
         }
     }
     
+    @Test
+    public void testJoinWithMultiChunkHashCache() throws Exception {
+        // Tests send hash caches in chunks of 1k, so that this build side is sent in many chunks
+        String buildTable = "CHUNKED_BUILD";
+        String probeTable = "CHUNKED_PROBE";
+        int nBuildRows = 200;
+        int nProbeRows = 250;
+        Properties props = new Properties(TEST_PROPERTIES);
+        Connection conn = DriverManager.getConnection(getUrl(), props);
+        try {
+            conn.createStatement().execute("CREATE TABLE " + buildTable + " (pk INTEGER NOT NULL PRIMARY KEY, v VARCHAR)");
+            conn.createStatement().execute("CREATE TABLE " + probeTable + " (pk INTEGER NOT NULL PRIMARY KEY, build_id INTEGER)");
+            PreparedStatement stmt = conn.prepareStatement("UPSERT INTO " + buildTable + " VALUES(?, ?)");
+            for (int i = 0; i < nBuildRows; i++) {
+                stmt.setInt(1, i);
+                stmt.setString(2, String.format("%0100d", i));
+                stmt.execute();
+            }
+            stmt = conn.prepareStatement("UPSERT INTO " + probeTable + " VALUES(?, ?)");
+            for (int i = 0; i < nProbeRows; i++) {
+                stmt.setInt(1, i);
+                // Keys past the build side have no match
+                stmt.setInt(2, i % 2 == 0 ? i / 2 : nBuildRows + i);
+                stmt.execute();
+            }
+            conn.commit();
+            
+            ResultSet rs = conn.createStatement().executeQuery("SELECT p.pk, b.v FROM " + probeTable + " p LEFT JOIN " + buildTable + " b ON p.build_id = b.pk");
+            for (int i = 0; i < nProbeRows; i++) {
+                assertTrue(rs.next());
+                assertEquals(i, rs.getInt(1));
+                if (i % 2 == 0) {
+                    assertEquals(String.format("%0100d", i / 2), rs.getString(2));
+                } else {
+                    assertNull(rs.getString(2));
+                }
+            }
+            assertFalse(rs.next());
+            
+            rs = conn.createStatement().executeQuery("SELECT count(*) FROM " + probeTable + " p JOIN " + buildTable + " b ON p.build_id = b.pk");
+            assertTrue(rs.next());
+            assertEquals((nProbeRows + 1) / 2, rs.getInt(1));
+            assertFalse(rs.next());
+        } finally {
+            conn.close();
+        }
+    }
+    
     @Test
     public void testJoinWithLimit() throws Exception {
         String query1 = "SELECT \"order_id\", i.name, s.name, s.address, quantity FROM " + JOIN_SUPPLIER_TABLE_FULL_NAME + " s LEFT JOIN " 
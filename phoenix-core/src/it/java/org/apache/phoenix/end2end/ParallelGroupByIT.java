@@ -0,0 +1,110 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.phoenix.end2end;
+
+import static org.apache.phoenix.util.TestUtil.TEST_PROPERTIES;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.util.Map;
+import java.util.Properties;
+
+import org.apache.phoenix.query.QueryServices;
+import org.apache.phoenix.util.ReadOnlyProps;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+
+import com.google.common.collect.Maps;
+
+/**
+ * Unordered group bys aggregated by several threads per region, each owning the groups of one partition
+ */
+@Category(HBaseManagedTimeTest.class)
+public class ParallelGroupByIT extends BaseHBaseManagedTimeIT {
+    private static final int NUM_ROWS = 2000;
+    private static final int NUM_GROUPS = 101;
+    
+    @BeforeClass
+    @Shadower(classBeingShadowed = BaseHBaseManagedTimeIT.class)
+    public static void doSetup() throws Exception {
+        Map<String, String> props = Maps.newHashMapWithExpectedSize(1);
+        props.put(QueryServices.GROUPBY_SERVER_THREADS_ATTRIB, Integer.toString(4));
+        setUpTestDriver(getUrl(), new ReadOnlyProps(props.entrySet().iterator()));
+    }
+    
+    private static Connection initTable() throws Exception {
+        Properties props = new Properties(TEST_PROPERTIES);
+        Connection conn = DriverManager.getConnection(getUrl(), props);
+        conn.createStatement().execute("CREATE TABLE PGB (id INTEGER NOT NULL PRIMARY KEY, k INTEGER, v BIGINT) SALT_BUCKETS=3");
+        PreparedStatement stmt = conn.prepareStatement("UPSERT INTO PGB VALUES(?, ?, ?)");
+        for (int i = 0; i < NUM_ROWS; i++) {
+            stmt.setInt(1, i);
+            stmt.setInt(2, i % NUM_GROUPS);
+            stmt.setLong(3, i);
+            stmt.execute();
+        }
+        conn.commit();
+        return conn;
+    }
+    
+    @Test
+    public void testGroupsOfAllPartitionsAreReturned() throws Exception {
+        Connection conn = initTable();
+        ResultSet rs = conn.createStatement().executeQuery("SELECT k, count(*), sum(v), min(v), max(v) FROM PGB GROUP BY k ORDER BY k");
+        for (int k = 0; k < NUM_GROUPS; k++) {
+            assertTrue(rs.next());
+            assertEquals(k, rs.getInt(1));
+            long count = 0;
+            long sum = 0;
+            long max = 0;
+            for (int i = k; i < NUM_ROWS; i += NUM_GROUPS) {
+                count++;
+                sum += i;
+                max = i;
+            }
+            assertEquals(count, rs.getLong(2));
+            assertEquals(sum, rs.getLong(3));
+            assertEquals(k, rs.getLong(4));
+            assertEquals(max, rs.getLong(5));
+        }
+        assertFalse(rs.next());
+        conn.close();
+    }
+    
+    @Test
+    public void testEachGroupIsReturnedOnce() throws Exception {
+        Connection conn = initTable();
+        ResultSet rs = conn.createStatement().executeQuery("SELECT DISTINCT k FROM PGB");
+        boolean[] seen = new boolean[NUM_GROUPS];
+        int count = 0;
+        while (rs.next()) {
+            int k = rs.getInt(1);
+            assertFalse(seen[k]);
+            seen[k] = true;
+            count++;
+        }
+        assertEquals(NUM_GROUPS, count);
+        conn.close();
+    }
+}
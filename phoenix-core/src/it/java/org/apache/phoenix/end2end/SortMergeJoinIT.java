@@ -0,0 +1,158 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.phoenix.end2end;
+
+import static org.apache.phoenix.util.TestUtil.TEST_PROPERTIES;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Properties;
+
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+
+@Category(HBaseManagedTimeTest.class)
+public class SortMergeJoinIT extends BaseHBaseManagedTimeIT {
+    private static final String LHS = "SMJ_LHS";
+    private static final String RHS = "SMJ_RHS";
+    
+    /**
+     * Both sides have the duplicate key 1, a key 2 matched once, a key without any match and a null key.
+     */
+    private static Connection initTables() throws SQLException {
+        Properties props = new Properties(TEST_PROPERTIES);
+        Connection conn = DriverManager.getConnection(getUrl(), props);
+        conn.createStatement().execute("CREATE TABLE " + LHS + " (id INTEGER NOT NULL PRIMARY KEY, k INTEGER, v VARCHAR)");
+        conn.createStatement().execute("CREATE TABLE " + RHS + " (id INTEGER NOT NULL PRIMARY KEY, k INTEGER, v VARCHAR)");
+        upsert(conn, LHS, new Integer[] {1, 1, 2, null, 4});
+        upsert(conn, RHS, new Integer[] {1, 1, 2, 3, null});
+        conn.commit();
+        return conn;
+    }
+    
+    private static void upsert(Connection conn, String table, Integer[] keys) throws SQLException {
+        PreparedStatement stmt = conn.prepareStatement("UPSERT INTO " + table + " VALUES(?, ?, ?)");
+        String prefix = table.equals(LHS) ? "l" : "r";
+        for (int i = 0; i < keys.length; i++) {
+            stmt.setInt(1, i + 1);
+            if (keys[i] == null) {
+                stmt.setNull(2, java.sql.Types.INTEGER);
+            } else {
+                stmt.setInt(2, keys[i]);
+            }
+            stmt.setString(3, prefix + (i + 1));
+            stmt.execute();
+        }
+    }
+    
+    /**
+     * @return the joined rows as "lhs value:rhs value", with "-" for a null padded side, sorted
+     */
+    private static List<String> join(Connection conn, String joinType, String suffix) throws SQLException {
+        ResultSet rs = conn.createStatement().executeQuery("SELECT /*+ USE_SORT_MERGE_JOIN*/ l.v, r.v FROM " + LHS + " l " 
+                + joinType + " JOIN " + RHS + " r ON l.k = r.k" + suffix);
+        List<String> rows = new ArrayList<String>();
+        while (rs.next()) {
+            String lhs = rs.getString(1);
+            String rhs = rs.getString(2);
+            rows.add((lhs == null ? "-" : lhs) + ":" + (rhs == null ? "-" : rhs));
+        }
+        Collections.sort(rows);
+        return rows;
+    }
+    
+    private static List<String> sorted(String... rows) {
+        List<String> list = new ArrayList<String>(Arrays.asList(rows));
+        Collections.sort(list);
+        return list;
+    }
+    
+    @Test
+    public void testInnerJoin() throws Exception {
+        Connection conn = initTables();
+        try {
+            assertEquals(sorted("l1:r1", "l1:r2", "l2:r1", "l2:r2", "l3:r3"), join(conn, "INNER", ""));
+        } finally {
+            conn.close();
+        }
+    }
+    
+    @Test
+    public void testLeftJoin() throws Exception {
+        Connection conn = initTables();
+        try {
+            assertEquals(sorted("l1:r1", "l1:r2", "l2:r1", "l2:r2", "l3:r3", "l4:-", "l5:-"), join(conn, "LEFT", ""));
+        } finally {
+            conn.close();
+        }
+    }
+    
+    @Test
+    public void testRightJoin() throws Exception {
+        Connection conn = initTables();
+        try {
+            assertEquals(sorted("l1:r1", "l1:r2", "l2:r1", "l2:r2", "l3:r3", "-:r4", "-:r5"), join(conn, "RIGHT", ""));
+        } finally {
+            conn.close();
+        }
+    }
+    
+    @Test
+    public void testFullJoin() throws Exception {
+        Connection conn = initTables();
+        try {
+            assertEquals(sorted("l1:r1", "l1:r2", "l2:r1", "l2:r2", "l3:r3", "l4:-", "l5:-", "-:r4", "-:r5"), join(conn, "FULL", ""));
+        } finally {
+            conn.close();
+        }
+    }
+    
+    @Test
+    public void testJoinWithLimit() throws Exception {
+        Connection conn = initTables();
+        try {
+            ResultSet rs = conn.createStatement().executeQuery("SELECT /*+ USE_SORT_MERGE_JOIN*/ l.v, r.v FROM " + LHS + " l JOIN " 
+                    + RHS + " r ON l.k = r.k ORDER BY l.v, r.v LIMIT 3");
+            assertTrue(rs.next());
+            assertEquals("l1", rs.getString(1));
+            assertEquals("r1", rs.getString(2));
+            assertTrue(rs.next());
+            assertEquals("l1", rs.getString(1));
+            assertEquals("r2", rs.getString(2));
+            assertTrue(rs.next());
+            assertEquals("l2", rs.getString(1));
+            assertEquals("r1", rs.getString(2));
+            assertFalse(rs.next());
+            
+            assertEquals(2, join(conn, "FULL", " LIMIT 2").size());
+            assertEquals(9, join(conn, "FULL", " LIMIT 20").size());
+        } finally {
+            conn.close();
+        }
+    }
+}
@@ -20,15 +20,21 @@ package org.apache.phoenix.end2end;
 import static org.apache.phoenix.util.TestUtil.STABLE_NAME;
 import static org.apache.phoenix.util.TestUtil.TEST_PROPERTIES;
 import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 
 import java.sql.Connection;
 import java.sql.DriverManager;
 import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.List;
 import java.util.Properties;
 
+import org.apache.hadoop.hbase.HRegionLocation;
+import org.apache.hadoop.hbase.client.HBaseAdmin;
 import org.apache.phoenix.query.ConnectionQueryServices;
+import org.apache.phoenix.query.DelegateConnectionQueryServices;
 import org.apache.phoenix.query.StatsManager;
 import org.apache.phoenix.query.StatsManagerImpl;
 import org.apache.phoenix.schema.TableRef;
@@ -120,17 +126,17 @@ public class StatsManagerIT extends BaseParallelIteratorsRegionSplitterIT {
         String url = getUrl() + ";" + PhoenixRuntime.CURRENT_SCN_ATTRIB + "=" + ts;
         Properties props = new Properties(TEST_PROPERTIES);
         Connection conn = DriverManager.getConnection(url, props);
-        TableRef table = getTableRef(conn,ts);
+        final TableRef table = getTableRef(conn,ts);
 
-        int updateFreq = 5;
+        final int updateFreq = 5;
         int maxAge = 10;
         int startTime = 100;
         long waitTime = 5000;
         
-        ManualTimeKeeper timeKeeper = new ManualTimeKeeper();
+        final ManualTimeKeeper timeKeeper = new ManualTimeKeeper();
         timeKeeper.setCurrentTime(startTime);
         ConnectionQueryServices services = driver.getConnectionQueryServices(getUrl(), TEST_PROPERTIES);
-        StatsManager stats = new StatsManagerImpl(services, updateFreq, maxAge, timeKeeper);
+        final StatsManager stats = new StatsManagerImpl(services, updateFreq, maxAge, timeKeeper);
         MinKeyChange minKeyChange = new MinKeyChange(stats, table);
         MaxKeyChange maxKeyChange = new MaxKeyChange(stats, table);
         
@@ -193,5 +199,36 @@ public class StatsManagerIT extends BaseParallelIteratorsRegionSplitterIT {
         assertTrue(waitForAsyncChange(maxKeyChange,waitTime));
         assertArrayEquals(KMIN2, stats.getMinKey(table));
         assertArrayEquals(KMAX2, stats.getMaxKey(table));
+        
+        // The region sizes are collected along with the keys, once the region servers have reported
+        // the load of the regions to the master
+        final List<HRegionLocation> regions = services.getAllTableRegions(table.getTable().getPhysicalName().getBytes());
+        assertTrue(waitForAsyncChange(new ChangeDetector() {
+            @Override
+            public boolean isChanged() {
+                // Kicks off another update of the stats on each check
+                timeKeeper.setCurrentTime(timeKeeper.getCurrentTime() + updateFreq);
+                for (HRegionLocation region : regions) {
+                    if (stats.getRegionSize(table, region.getRegionInfo()) < 0) {
+                        return false;
+                    }
+                }
+                return true;
+            }
+        }, 30000));
+        
+        // Without the region sizes, the keys are still collected and the regions are split evenly
+        StatsManager noSizeStats = new StatsManagerImpl(new DelegateConnectionQueryServices(services) {
+            @Override
+            public HBaseAdmin getAdmin() throws SQLException {
+                throw new SQLException("Master unavailable");
+            }
+        }, updateFreq, maxAge, timeKeeper);
+        noSizeStats.updateStats(table);
+        assertArrayEquals(KMIN2, noSizeStats.getMinKey(table));
+        assertArrayEquals(KMAX2, noSizeStats.getMaxKey(table));
+        for (HRegionLocation region : regions) {
+            assertEquals(-1, noSizeStats.getRegionSize(table, region.getRegionInfo()));
+        }
     }
 }
@@ -0,0 +1,180 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.phoenix.end2end;
+
+import static org.apache.phoenix.util.TestUtil.TEST_PROPERTIES;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.hadoop.hbase.client.Scan;
+import org.apache.hadoop.hbase.filter.Filter;
+import org.apache.phoenix.compile.GroupByCompiler.GroupBy;
+import org.apache.phoenix.compile.QueryPlan;
+import org.apache.phoenix.compile.StatementContext;
+import org.apache.phoenix.coprocessor.BaseScannerRegionObserver;
+import org.apache.phoenix.expression.OrderByExpression;
+import org.apache.phoenix.iterate.MergeSortTopNResultIterator;
+import org.apache.phoenix.iterate.ParallelIterators;
+import org.apache.phoenix.iterate.SpoolingResultIterator.SpoolingResultIteratorFactory;
+import org.apache.phoenix.iterate.TopNThreshold;
+import org.apache.phoenix.jdbc.PhoenixResultSet;
+import org.apache.phoenix.jdbc.PhoenixStatement;
+import org.apache.phoenix.query.QueryConstants;
+import org.apache.phoenix.query.QueryServices;
+import org.apache.phoenix.util.ReadOnlyProps;
+import org.apache.phoenix.util.SchemaUtil;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+
+import com.google.common.collect.Maps;
+
+/**
+ * TopN queries whose region scans are queued behind a single client thread, so that
+ * every scan but the first starts after others have offered a threshold
+ */
+@Category(HBaseManagedTimeTest.class)
+public class TopNThresholdIT extends BaseHBaseManagedTimeIT {
+    private static final int NUM_ROWS = 400;
+    private static final int LIMIT = 5;
+    
+    @BeforeClass
+    @Shadower(classBeingShadowed = BaseHBaseManagedTimeIT.class)
+    public static void doSetup() throws Exception {
+        Map<String, String> props = Maps.newHashMapWithExpectedSize(2);
+        props.put(QueryServices.THREAD_POOL_SIZE_ATTRIB, Integer.toString(1));
+        props.put(QueryServices.QUEUE_SIZE_ATTRIB, Integer.toString(1000));
+        setUpTestDriver(getUrl(), new ReadOnlyProps(props.entrySet().iterator()));
+    }
+    
+    private static Connection initTable() throws SQLException {
+        Properties props = new Properties(TEST_PROPERTIES);
+        Connection conn = DriverManager.getConnection(getUrl(), props);
+        conn.createStatement().execute("CREATE TABLE TOPN (id INTEGER NOT NULL PRIMARY KEY, v INTEGER) SALT_BUCKETS=4");
+        PreparedStatement stmt = conn.prepareStatement("UPSERT INTO TOPN VALUES(?, ?)");
+        for (int i = 0; i < NUM_ROWS; i++) {
+            stmt.setInt(1, i);
+            if (i % 50 == 0) {
+                stmt.setNull(2, java.sql.Types.INTEGER);
+            } else {
+                // Distinct values, spread over all the buckets
+                stmt.setInt(2, (i * 37) % 1000);
+            }
+            stmt.execute();
+        }
+        conn.commit();
+        return conn;
+    }
+    
+    /**
+     * @return the first LIMIT non null values of v, in ascending or descending order
+     */
+    private static List<Integer> expectedValues(boolean isAscending) {
+        List<Integer> values = new ArrayList<Integer>();
+        for (int i = 0; i < NUM_ROWS; i++) {
+            if (i % 50 != 0) {
+                values.add((i * 37) % 1000);
+            }
+        }
+        Collections.sort(values);
+        if (!isAscending) {
+            Collections.reverse(values);
+        }
+        return values.subList(0, LIMIT);
+    }
+    
+    private static List<Integer> values(ResultSet rs) throws SQLException {
+        List<Integer> values = new ArrayList<Integer>();
+        while (rs.next()) {
+            values.add(rs.getInt(1));
+            assertFalse(rs.wasNull());
+        }
+        return values;
+    }
+    
+    @Test
+    public void testTopNResultsAreUnchanged() throws Exception {
+        Connection conn = initTable();
+        assertEquals(expectedValues(true), 
+                values(conn.createStatement().executeQuery("SELECT v FROM TOPN ORDER BY v NULLS LAST LIMIT " + LIMIT)));
+        assertEquals(expectedValues(false), 
+                values(conn.createStatement().executeQuery("SELECT v FROM TOPN ORDER BY v DESC NULLS LAST LIMIT " + LIMIT)));
+        
+        // There are more nulls than the limit, so the threshold is null and must not filter anything
+        ResultSet rs = conn.createStatement().executeQuery("SELECT v FROM TOPN ORDER BY v NULLS FIRST LIMIT " + LIMIT);
+        for (int i = 0; i < LIMIT; i++) {
+            assertTrue(rs.next());
+            rs.getInt(1);
+            assertTrue(rs.wasNull());
+        }
+        assertFalse(rs.next());
+        conn.close();
+    }
+    
+    @Test
+    public void testQueuedScansAreFiltered() throws Exception {
+        Connection conn = initTable();
+        PhoenixStatement stmt = conn.createStatement().unwrap(PhoenixStatement.class);
+        QueryPlan plan = stmt.optimizeQuery("SELECT v FROM TOPN ORDER BY v NULLS LAST LIMIT " + LIMIT);
+        StatementContext context = plan.getContext();
+        context.getScan().setAttribute(BaseScannerRegionObserver.NON_AGGREGATE_QUERY, QueryConstants.TRUE);
+        List<OrderByExpression> orderBy = plan.getOrderBy().getOrderByExpressions();
+        RecordingThreshold threshold = new RecordingThreshold(orderBy.get(0), LIMIT, 
+                SchemaUtil.getEmptyColumnFamily(plan.getTableRef().getTable()));
+        ParallelIterators iterators = new ParallelIterators(context, plan.getTableRef(), plan.getStatement(), 
+                plan.getProjector(), GroupBy.EMPTY_GROUP_BY, null, 
+                new SpoolingResultIteratorFactory(context.getConnection().getQueryServices()), threshold);
+        assertTrue(iterators.getSplits().size() > 1);
+        ResultSet rs = new PhoenixResultSet(new MergeSortTopNResultIterator(iterators, LIMIT, orderBy), plan.getProjector(), stmt);
+        assertEquals(expectedValues(true), values(rs));
+        // The scans run one after the other, so the ones after the first get the threshold
+        assertTrue(threshold.filteredScans.get() > 0);
+        assertTrue(threshold.filteredScans.get() < iterators.getSplits().size());
+        conn.close();
+    }
+    
+    private static class RecordingThreshold extends TopNThreshold {
+        private final AtomicInteger filteredScans = new AtomicInteger();
+        
+        private RecordingThreshold(OrderByExpression orderByExpression, int limit, byte[] essentialCF) {
+            super(orderByExpression, limit, essentialCF);
+        }
+        
+        @Override
+        public void applyTo(Scan scan) throws SQLException {
+            Filter filter = scan.getFilter();
+            super.applyTo(scan);
+            if (scan.getFilter() != filter) {
+                filteredScans.incrementAndGet();
+            }
+        }
+    }
+}
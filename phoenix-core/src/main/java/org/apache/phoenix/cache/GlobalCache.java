@@ -22,19 +22,25 @@ import static org.apache.phoenix.query.QueryServices.MAX_MEMORY_SIZE_ATTRIB;
 import static org.apache.phoenix.query.QueryServices.MAX_MEMORY_WAIT_MS_ATTRIB;
 import static org.apache.phoenix.query.QueryServices.MAX_TENANT_MEMORY_PERC_ATTRIB;
 
+import java.util.HashMap;
+import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.TimeUnit;
 
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.hbase.coprocessor.RegionCoprocessorEnvironment;
+import org.apache.hadoop.hbase.client.Scan;
 import org.apache.hadoop.hbase.io.ImmutableBytesWritable;
+import org.apache.phoenix.coprocessor.BaseScannerRegionObserver;
 import org.apache.phoenix.hbase.index.util.ImmutableBytesPtr;
 import org.apache.phoenix.memory.ChildMemoryManager;
 import org.apache.phoenix.memory.GlobalMemoryManager;
+import org.apache.phoenix.memory.MemoryManager;
 import org.apache.phoenix.query.QueryServices;
 import org.apache.phoenix.query.QueryServicesOptions;
 import org.apache.phoenix.schema.PTable;
+import org.apache.phoenix.util.ScanUtil;
 import org.apache.phoenix.util.SizedUtil;
 
 import com.google.common.cache.Cache;
@@ -118,6 +124,19 @@ public class GlobalCache extends TenantCacheImpl {
         return tenantCache;
     }
     
+    /**
+     * Get the memory manager for the memory used to run a scan, which allocates from the tenant cache of the scan,
+     * and accounts for the memory under the query of the scan, if the client identified it.
+     * @param env the HBase configuration
+     * @param scan the scan being run
+     * @return MemoryManager
+     */
+    public static MemoryManager getMemoryManager(RegionCoprocessorEnvironment env, Scan scan) {
+        TenantCache tenantCache = getTenantCache(env, ScanUtil.getTenantId(scan));
+        byte[] queryId = scan.getAttribute(BaseScannerRegionObserver.QUERY_ID);
+        return queryId == null ? tenantCache.getMemoryManager() : tenantCache.getQueryMemoryManager(new ImmutableBytesPtr(queryId));
+    }
+    
     private static long getMaxMemorySize(Configuration config) {
         long maxSize = Runtime.getRuntime().maxMemory() * 
                 config.getInt(MAX_MEMORY_PERC_ATTRIB, QueryServicesOptions.DEFAULT_MAX_MEMORY_PERC) / 100;
@@ -154,4 +173,16 @@ public class GlobalCache extends TenantCacheImpl {
         }
         return tenantCache;
     }
+    
+    /**
+     * Get the amount of memory (in bytes) currently allocated by each tenant, which is also included
+     * in the memory allocated by this cache.
+     */
+    public Map<ImmutableBytesWritable, Long> getAllocatedMemoryByTenant() {
+        Map<ImmutableBytesWritable, Long> allocatedMemory = new HashMap<ImmutableBytesWritable, Long>(perTenantCacheMap.size());
+        for (Map.Entry<ImmutableBytesWritable, TenantCache> entry : perTenantCacheMap.entrySet()) {
+            allocatedMemory.put(entry.getKey(), entry.getValue().getAllocatedMemory());
+        }
+        return allocatedMemory;
+    }
 }
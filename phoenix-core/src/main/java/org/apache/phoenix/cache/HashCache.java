@@ -34,5 +34,19 @@ import org.apache.phoenix.schema.tuple.Tuple;
  */
 @Immutable
 public interface HashCache extends Closeable {
-    public List<Tuple> get(ImmutableBytesPtr hashKey);
+    /**
+     * @return a new lookup into the cache, to be used by a single thread
+     */
+    public Lookup newLookup();
+    
+    /**
+     * Looks up the rows of join keys. A lookup returns the same list from every call to
+     * {@link #get(ImmutableBytesPtr)}, positioned over the rows of the last key looked up.
+     */
+    public interface Lookup {
+        /**
+         * @return the rows with the key, valid until the next call, or null if there are none
+         */
+        public List<Tuple> get(ImmutableBytesPtr hashKey);
+    }
 }
@@ -22,12 +22,12 @@ import java.io.IOException;
 import java.sql.SQLException;
 import java.util.ArrayList;
 import java.util.Collections;
-import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Random;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
@@ -77,7 +77,8 @@ public class ServerCacheClient {
     private static final Log LOG = LogFactory.getLog(ServerCacheClient.class);
     private static final Random RANDOM = new Random();
     private final PhoenixConnection connection;
-    private final Map<Integer, TableRef> cacheUsingTableRefMap = new HashMap<Integer, TableRef>();
+    // Caches may be added concurrently, for example the chunks of a hash cache
+    private final Map<Integer, TableRef> cacheUsingTableRefMap = new ConcurrentHashMap<Integer, TableRef>();
 
     /**
      * Construct client used to create a serialized cached snapshot of a table and send it to each region server
@@ -137,13 +138,22 @@ public class ServerCacheClient {
 
     }
     
-    public ServerCache addServerCache(ScanRanges keyRanges, final ImmutableBytesWritable cachePtr, final ServerCacheFactory cacheFactory, final TableRef cacheUsingTableRef) throws SQLException {
+    public ServerCache addServerCache(ScanRanges keyRanges, ImmutableBytesWritable cachePtr, ServerCacheFactory cacheFactory, TableRef cacheUsingTableRef) throws SQLException {
+        return startServerCache(keyRanges, cachePtr, cacheFactory, cacheUsingTableRef).get();
+    }
+    
+    /**
+     * Same as {@link #addServerCache(ScanRanges, ImmutableBytesWritable, ServerCacheFactory, TableRef)}, except that
+     * it returns as soon as the cache is on its way to each region server, so that the caller may go on while it is sent.
+     * @return the cache being sent, on which either {@link PendingServerCache#get()} or {@link PendingServerCache#cancel()}
+     * must be called
+     */
+    public PendingServerCache startServerCache(ScanRanges keyRanges, final ImmutableBytesWritable cachePtr, final ServerCacheFactory cacheFactory, final TableRef cacheUsingTableRef) throws SQLException {
         ConnectionQueryServices services = connection.getQueryServices();
         MemoryChunk chunk = services.getMemoryManager().allocate(cachePtr.getLength());
         List<Closeable> closeables = new ArrayList<Closeable>();
         closeables.add(chunk);
         ServerCache hashCacheSpec = null;
-        SQLException firstException = null;
         final byte[] cacheId = generateId();
         /**
          * Execute EndPoint in parallel on each server to send compressed hash cache 
@@ -222,42 +232,78 @@ public class ServerCacheClient {
             }
             
             hashCacheSpec = new ServerCache(cacheId,servers,cachePtr.getLength());
-            // Execute in parallel
-            int timeoutMs = services.getProps().getInt(QueryServices.THREAD_TIMEOUT_MS_ATTRIB, QueryServicesOptions.DEFAULT_THREAD_TIMEOUT_MS);
-            for (Future<Boolean> future : futures) {
-                future.get(timeoutMs, TimeUnit.MILLISECONDS);
-            }
-            
+            // Registered before the cache is added, so that it can be removed from the servers that added it if others fail to
             cacheUsingTableRefMap.put(Bytes.mapKey(cacheId), cacheUsingTableRef);
             success = true;
-        } catch (SQLException e) {
-            firstException = e;
-        } catch (Exception e) {
-            firstException = new SQLException(e);
+            return new PendingServerCache(hashCacheSpec, futures, closeables);
         } finally {
+            if (!success) {
+                new PendingServerCache(hashCacheSpec, futures, closeables).cancel();
+            }
+        }
+    }
+    
+    /**
+     * Cache on its way to the region servers, as returned by
+     * {@link ServerCacheClient#startServerCache(ScanRanges, ImmutableBytesWritable, ServerCacheFactory, TableRef)}
+     */
+    public class PendingServerCache {
+        private final ServerCache cache;
+        private final List<Future<Boolean>> futures;
+        private final List<Closeable> closeables;
+        
+        private PendingServerCache(ServerCache cache, List<Future<Boolean>> futures, List<Closeable> closeables) {
+            this.cache = cache;
+            this.futures = futures;
+            this.closeables = closeables;
+        }
+        
+        /**
+         * Waits for each region server to have added the cache. If any of them fails to, the cache is removed
+         * from the others.
+         * @return the cache, to be closed once it is no longer used
+         */
+        public ServerCache get() throws SQLException {
+            ConnectionQueryServices services = connection.getQueryServices();
+            boolean success = false;
             try {
-                if (!success) {
-                    SQLCloseables.closeAllQuietly(Collections.singletonList(hashCacheSpec));
-                    for (Future<Boolean> future : futures) {
-                        future.cancel(true);
-                    }
+                // Execute in parallel
+                int timeoutMs = services.getProps().getInt(QueryServices.THREAD_TIMEOUT_MS_ATTRIB, QueryServicesOptions.DEFAULT_THREAD_TIMEOUT_MS);
+                for (Future<Boolean> future : futures) {
+                    future.get(timeoutMs, TimeUnit.MILLISECONDS);
                 }
+                success = true;
+            } catch (Exception e) {
+                throw new SQLException(e);
             } finally {
-                try {
-                    Closeables.closeAll(closeables);
-                } catch (IOException e) {
-                    if (firstException == null) {
-                        firstException = new SQLException(e);
-                    }
-                } finally {
-                    if (firstException != null) {
-                        throw firstException;
-                    }
+                if (!success) {
+                    cancel();
                 }
             }
+            try {
+                Closeables.closeAll(closeables);
+            } catch (IOException e) {
+                throw new SQLException(e);
+            }
+            if (LOG.isDebugEnabled()) {LOG.debug("Cache " + idToString(cache.getId()) + " successfully added to servers.");}
+            return cache;
+        }
+        
+        /**
+         * Stops sending the cache and removes it from the region servers that added it already.
+         */
+        public void cancel() {
+            try {
+                for (Future<Boolean> future : futures) {
+                    future.cancel(true);
+                }
+                if (cache != null) {
+                    SQLCloseables.closeAllQuietly(Collections.singletonList(cache));
+                }
+            } finally {
+                Closeables.closeAllQuietly(closeables);
+            }
         }
-        if (LOG.isDebugEnabled()) {LOG.debug("Cache " + cacheId + " successfully added to servers.");}
-        return hashCacheSpec;
     }
     
     /**
@@ -19,6 +19,7 @@ package org.apache.phoenix.cache;
 
 import java.io.Closeable;
 import java.sql.SQLException;
+import java.util.Map;
 
 import org.apache.hadoop.hbase.io.ImmutableBytesWritable;
 
@@ -36,7 +37,27 @@ import org.apache.phoenix.memory.MemoryManager;
  */
 public interface TenantCache {
     MemoryManager getMemoryManager();
+    /**
+     * Get a memory manager that allocates from {@link #getMemoryManager()}, and accounts for its
+     * allocations under the given query in {@link #getAllocatedMemoryByQuery()}.
+     */
+    MemoryManager getQueryMemoryManager(ImmutableBytesPtr queryId);
+    /**
+     * Get the amount of memory (in bytes) currently allocated through {@link #getMemoryManager()}.
+     */
+    long getAllocatedMemory();
+    /**
+     * Get the amount of memory (in bytes) currently allocated by each query that holds any.
+     */
+    Map<ImmutableBytesPtr, Long> getAllocatedMemoryByQuery();
     Closeable getServerCache(ImmutableBytesPtr cacheId);
+    /**
+     * Get the cache and keep it from being evicted to make room for other caches, until
+     * {@link #unpinServerCache(ImmutableBytesPtr)} is called as many times for it.
+     * @return the cache, or null if there is none with that id, in which case it is not pinned
+     */
+    Closeable pinServerCache(ImmutableBytesPtr cacheId);
+    void unpinServerCache(ImmutableBytesPtr cacheId);
     Closeable addServerCache(ImmutableBytesPtr cacheId, ImmutableBytesWritable cachePtr, ServerCacheFactory cacheFactory) throws SQLException;
     void removeServerCache(ImmutableBytesPtr cacheId) throws SQLException;
 }
@@ -20,13 +20,19 @@ package org.apache.phoenix.cache;
 import java.io.Closeable;
 import java.sql.SQLException;
 import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.apache.hadoop.hbase.io.ImmutableBytesWritable;
 
 import com.google.common.cache.*;
+import org.apache.phoenix.coprocessor.ServerCachingProtocol.ReusableServerCacheFactory;
 import org.apache.phoenix.coprocessor.ServerCachingProtocol.ServerCacheFactory;
 import org.apache.phoenix.hbase.index.util.ImmutableBytesPtr;
+import org.apache.phoenix.memory.DelegatingMemoryManager;
 import org.apache.phoenix.memory.MemoryManager;
 import org.apache.phoenix.memory.MemoryManager.MemoryChunk;
 import org.apache.phoenix.util.Closeables;
@@ -43,6 +49,12 @@ public class TenantCacheImpl implements TenantCache {
     private final int maxTimeToLiveMs;
     private final MemoryManager memoryManager;
     private volatile Cache<ImmutableBytesPtr, Closeable> serverCaches;
+    // Ids of the caches shared between queries, in least recently used first order
+    private final Map<ImmutableBytesPtr, Boolean> reusableCacheIds = new LinkedHashMap<ImmutableBytesPtr, Boolean>(16, 0.75f, true);
+    // Number of scanners using each cache, guarded by reusableCacheIds
+    private final Map<ImmutableBytesPtr, Integer> pinCounts = new HashMap<ImmutableBytesPtr, Integer>();
+    // Memory held by each query that holds any, guarded by itself
+    private final Map<ImmutableBytesPtr, QueryMemory> queryMemory = new HashMap<ImmutableBytesPtr, QueryMemory>();
 
     public TenantCacheImpl(MemoryManager memoryManager, int maxTimeToLiveMs) {
         this.memoryManager = memoryManager;
@@ -53,6 +65,107 @@ public class TenantCacheImpl implements TenantCache {
     public MemoryManager getMemoryManager() {
         return memoryManager;
     }
+    
+    @Override
+    public MemoryManager getQueryMemoryManager(ImmutableBytesPtr queryId) {
+        return new QueryMemoryManager(queryId);
+    }
+    
+    @Override
+    public long getAllocatedMemory() {
+        return memoryManager.getMaxMemory() - memoryManager.getAvailableMemory();
+    }
+    
+    @Override
+    public Map<ImmutableBytesPtr, Long> getAllocatedMemoryByQuery() {
+        synchronized (queryMemory) {
+            Map<ImmutableBytesPtr, Long> allocatedMemory = new HashMap<ImmutableBytesPtr, Long>(queryMemory.size());
+            for (Map.Entry<ImmutableBytesPtr, QueryMemory> entry : queryMemory.entrySet()) {
+                allocatedMemory.put(entry.getKey(), entry.getValue().allocatedBytes.get());
+            }
+            return allocatedMemory;
+        }
+    }
+    
+    private static class QueryMemory {
+        private final AtomicLong allocatedBytes = new AtomicLong();
+        // Guarded by the map of query memory
+        private int openChunks;
+    }
+    
+    /**
+     * Allocates from the memory manager of the tenant, and keeps the memory of a query accounted for
+     * until the last of its chunks is closed. Only opening and closing a chunk takes a lock, resizing
+     * one just updates the count of the query.
+     */
+    private class QueryMemoryManager extends DelegatingMemoryManager {
+        private final ImmutableBytesPtr queryId;
+        
+        private QueryMemoryManager(ImmutableBytesPtr queryId) {
+            super(memoryManager);
+            this.queryId = queryId;
+        }
+        
+        private QueryMemory open() {
+            synchronized (queryMemory) {
+                QueryMemory memory = queryMemory.get(queryId);
+                if (memory == null) {
+                    memory = new QueryMemory();
+                    queryMemory.put(queryId, memory);
+                }
+                memory.openChunks++;
+                return memory;
+            }
+        }
+        
+        private void close(QueryMemory memory) {
+            synchronized (queryMemory) {
+                if (--memory.openChunks == 0) {
+                    queryMemory.remove(queryId);
+                }
+            }
+        }
+        
+        @Override
+        public MemoryChunk allocate(long minBytes, long reqBytes) {
+            final QueryMemory memory = open();
+            final MemoryChunk chunk;
+            try {
+                chunk = super.allocate(minBytes, reqBytes);
+            } catch (RuntimeException e) {
+                close(memory);
+                throw e;
+            }
+            memory.allocatedBytes.addAndGet(chunk.getSize());
+            return new MemoryChunk() {
+                private boolean isClosed;
+                
+                @Override
+                public synchronized void close() {
+                    if (isClosed) {
+                        return;
+                    }
+                    isClosed = true;
+                    long size = chunk.getSize();
+                    chunk.close();
+                    memory.allocatedBytes.addAndGet(-size);
+                    QueryMemoryManager.this.close(memory);
+                }
+
+                @Override
+                public long getSize() {
+                    return chunk.getSize();
+                }
+
+                @Override
+                public synchronized void resize(long nBytes) {
+                    long size = chunk.getSize();
+                    chunk.resize(nBytes);
+                    memory.allocatedBytes.addAndGet(chunk.getSize() - size);
+                }
+            };
+        }
+    }
 
     private Cache<ImmutableBytesPtr,Closeable> getServerCaches() {
         /* Delay creation of this map until it's needed */
@@ -64,6 +177,9 @@ public class TenantCacheImpl implements TenantCache {
                         .removalListener(new RemovalListener<ImmutableBytesPtr, Closeable>(){
                             @Override
                             public void onRemoval(RemovalNotification<ImmutableBytesPtr, Closeable> notification) {
+                                synchronized (reusableCacheIds) {
+                                    reusableCacheIds.remove(notification.getKey());
+                                }
                                 Closeables.closeAllQuietly(Collections.singletonList(notification.getValue()));
                             }
                         })
@@ -76,16 +192,52 @@ public class TenantCacheImpl implements TenantCache {
     
     @Override
     public Closeable getServerCache(ImmutableBytesPtr cacheId) {
-        return getServerCaches().getIfPresent(cacheId);
+        Closeable cache = getServerCaches().getIfPresent(cacheId);
+        if (cache != null) {
+            synchronized (reusableCacheIds) {
+                reusableCacheIds.get(cacheId); // Moves it to the most recently used end
+            }
+        }
+        return cache;
+    }
+    
+    @Override
+    public Closeable pinServerCache(ImmutableBytesPtr cacheId) {
+        synchronized (reusableCacheIds) {
+            Closeable cache = getServerCache(cacheId);
+            if (cache != null) {
+                Integer count = pinCounts.get(cacheId);
+                pinCounts.put(cacheId, count == null ? 1 : count + 1);
+            }
+            return cache;
+        }
+    }
+    
+    @Override
+    public void unpinServerCache(ImmutableBytesPtr cacheId) {
+        synchronized (reusableCacheIds) {
+            Integer count = pinCounts.get(cacheId);
+            if (count == null || count <= 1) {
+                pinCounts.remove(cacheId);
+            } else {
+                pinCounts.put(cacheId, count - 1);
+            }
+        }
     }
     
     @Override
     public Closeable addServerCache(ImmutableBytesPtr cacheId, ImmutableBytesWritable cachePtr, ServerCacheFactory cacheFactory) throws SQLException {
+        evictReusableCaches(cacheFactory.getEstimatedSize(cachePtr));
         MemoryChunk chunk = this.getMemoryManager().allocate(cachePtr.getLength());
         boolean success = false;
         try {
             Closeable element = cacheFactory.newCache(cachePtr, chunk);
             getServerCaches().put(cacheId, element);
+            if (cacheFactory instanceof ReusableServerCacheFactory) {
+                synchronized (reusableCacheIds) {
+                    reusableCacheIds.put(cacheId, Boolean.TRUE);
+                }
+            }
             success = true;
             return element;
         } finally {
@@ -95,6 +247,32 @@ public class TenantCacheImpl implements TenantCache {
         }           
     }
     
+    /**
+     * Evicts reusable caches, least recently used first, until the given number of bytes is available
+     * or no reusable cache is left that may be evicted. Caches removed by their own query are never evicted,
+     * as a query still running would fail to find them, and neither are pinned caches, which scanners are
+     * still probing.
+     */
+    private void evictReusableCaches(long nBytes) {
+        // Evicted under the lock so that the cache cannot be pinned in between
+        synchronized (reusableCacheIds) {
+            while (getMemoryManager().getAvailableMemory() < nBytes) {
+                ImmutableBytesPtr evictedCacheId = null;
+                for (ImmutableBytesPtr cacheId : reusableCacheIds.keySet()) {
+                    if (!pinCounts.containsKey(cacheId)) {
+                        evictedCacheId = cacheId;
+                        break;
+                    }
+                }
+                if (evictedCacheId == null) {
+                    return;
+                }
+                reusableCacheIds.remove(evictedCacheId);
+                getServerCaches().invalidate(evictedCacheId);
+            }
+        }
+    }
+    
     @Override
     public void removeServerCache(ImmutableBytesPtr cacheId) throws SQLException {
         getServerCaches().invalidate(cacheId);
@@ -40,8 +40,6 @@ import org.apache.hadoop.hbase.coprocessor.RegionCoprocessorEnvironment;
 import org.apache.hadoop.hbase.io.ImmutableBytesWritable;
 import org.apache.hadoop.hbase.regionserver.RegionScanner;
 import org.apache.hadoop.hbase.util.Bytes;
-import org.apache.phoenix.cache.GlobalCache;
-import org.apache.phoenix.cache.TenantCache;
 import org.apache.phoenix.cache.aggcache.SpillManager.CacheEntry;
 import org.apache.phoenix.coprocessor.BaseRegionScanner;
 import org.apache.phoenix.coprocessor.GroupByCache;
@@ -50,6 +48,7 @@ import org.apache.phoenix.expression.aggregator.Aggregator;
 import org.apache.phoenix.expression.aggregator.ServerAggregators;
 import org.apache.phoenix.hbase.index.util.ImmutableBytesPtr;
 import org.apache.phoenix.memory.InsufficientMemoryException;
+import org.apache.phoenix.memory.MemoryManager;
 import org.apache.phoenix.memory.MemoryManager.MemoryChunk;
 import org.apache.phoenix.util.KeyValueUtil;
 import org.slf4j.Logger;
@@ -126,14 +125,13 @@ public class SpillableGroupByCache implements GroupByCache {
      * @param aggs
      * @param ctxt
      */
-    public SpillableGroupByCache(final RegionCoprocessorEnvironment env, ImmutableBytesWritable tenantId,
+    public SpillableGroupByCache(final RegionCoprocessorEnvironment env, MemoryManager memoryManager,
             ServerAggregators aggs, final int estSizeNum) {
         totalNumElements = 0;
         this.aggregators = aggs;
         this.env = env;
 
         final int estValueSize = aggregators.getEstimatedByteSize();
-        final TenantCache tenantCache = GlobalCache.getTenantCache(env, tenantId);
 
         // Compute Map initial map
         final Configuration conf = env.getConfiguration();
@@ -147,7 +145,7 @@ public class SpillableGroupByCache implements GroupByCache {
         final int maxCacheSize = Math.max(minSizeNum, Math.min(maxSizeNum, estSizeNum));
         final long estSize = GroupedAggregateRegionObserver.sizeOfUnorderedGroupByMap(maxCacheSize, estValueSize);
         try {
-            this.chunk = tenantCache.getMemoryManager().allocate(estSize);
+            this.chunk = memoryManager.allocate(estSize);
         } catch (InsufficientMemoryException ime) {
             logger.error("Requested Map size exceeds memory limit, please decrease max size via config paramter: "
                     + GROUPBY_MAX_CACHE_SIZE_ATTRIB);
@@ -24,7 +24,6 @@ import java.util.Arrays;
 import java.util.Collections;
 import java.util.Iterator;
 import java.util.List;
-import java.util.Map;
 
 import org.apache.hadoop.hbase.Cell;
 import org.apache.hadoop.hbase.client.Scan;
@@ -37,6 +36,7 @@ import org.apache.phoenix.coprocessor.BaseScannerRegionObserver;
 import org.apache.phoenix.exception.SQLExceptionCode;
 import org.apache.phoenix.exception.SQLExceptionInfo;
 import org.apache.phoenix.execute.AggregatePlan;
+import org.apache.phoenix.execute.MutationBuffer;
 import org.apache.phoenix.execute.MutationState;
 import org.apache.phoenix.filter.SkipScanFilter;
 import org.apache.phoenix.hbase.index.util.ImmutableBytesPtr;
@@ -61,7 +61,6 @@ import org.apache.phoenix.query.QueryServices;
 import org.apache.phoenix.query.QueryServicesOptions;
 import org.apache.phoenix.schema.PColumn;
 import org.apache.phoenix.schema.PDataType;
-import org.apache.phoenix.schema.PRow;
 import org.apache.phoenix.schema.PTable;
 import org.apache.phoenix.schema.PTableType;
 import org.apache.phoenix.schema.ReadOnlyTableException;
@@ -72,7 +71,6 @@ import org.apache.phoenix.util.IndexUtil;
 import org.apache.phoenix.util.MetaDataUtil;
 
 import com.google.common.collect.Lists;
-import com.google.common.collect.Maps;
 
 public class DeleteCompiler {
     private static ParseNodeFactory FACTORY = new ParseNodeFactory();
@@ -90,7 +88,7 @@ public class DeleteCompiler {
         ConnectionQueryServices services = connection.getQueryServices();
         final int maxSize = services.getProps().getInt(QueryServices.MAX_MUTATION_SIZE_ATTRIB,QueryServicesOptions.DEFAULT_MAX_MUTATION_SIZE);
         final int batchSize = Math.min(connection.getMutateBatchSize(), maxSize);
-        Map<ImmutableBytesPtr,Map<PColumn,byte[]>> mutations = Maps.newHashMapWithExpectedSize(batchSize);
+        MutationBuffer mutations = new MutationBuffer(batchSize);
         try {
             PTable table = tableRef.getTable();
             List<PColumn> pkColumns = table.getPKColumns();
@@ -119,7 +117,7 @@ public class DeleteCompiler {
                 }
                 ImmutableBytesPtr ptr = new ImmutableBytesPtr();
                 table.newKey(ptr, values);
-                mutations.put(ptr, PRow.DELETE_MARKER);
+                mutations.deleteRow(ptr);
                 if (mutations.size() > maxSize) {
                     throw new IllegalArgumentException("MutationState size of " + mutations.size() + " is bigger than max allowed size of " + maxSize);
                 }
@@ -246,9 +244,9 @@ public class DeleteCompiler {
                     // keys for our ranges
                     ScanRanges ranges = context.getScanRanges();
                     Iterator<KeyRange> iterator = ranges.getPointLookupKeyIterator(); 
-                    Map<ImmutableBytesPtr,Map<PColumn,byte[]>> mutation = Maps.newHashMapWithExpectedSize(ranges.getPointLookupCount());
+                    MutationBuffer mutation = new MutationBuffer(ranges.getPointLookupCount());
                     while (iterator.hasNext()) {
-                        mutation.put(new ImmutableBytesPtr(iterator.next().getLowerRange()), PRow.DELETE_MARKER);
+                        mutation.deleteRow(new ImmutableBytesPtr(iterator.next().getLowerRange()));
                     }
                     return new MutationState(tableRef, mutation, 0, maxSize, connection);
                 }
@@ -1253,10 +1253,24 @@ public class JoinCompiler {
         }
         
         public PTableWrapper mergeProjectedTables(PTableWrapper rWrapper, boolean innerJoin) throws SQLException {
+            return mergeProjectedTables(rWrapper, innerJoin, false);
+        }
+
+        /**
+         * @param leftNullable whether the columns of this table may be missing from the joined rows, as for full joins
+         */
+        public PTableWrapper mergeProjectedTables(PTableWrapper rWrapper, boolean innerJoin, boolean leftNullable) throws SQLException {
             PTable left = this.getTable();
             PTable right = rWrapper.getTable();
             List<PColumn> merged = new ArrayList<PColumn>();
-            merged.addAll(left.getColumns());
+            for (PColumn c : left.getColumns()) {
+                if (leftNullable && !c.isNullable() && !SchemaUtil.isPKColumn(c)) {
+                    c = new PColumnImpl(c.getName(), c.getFamilyName(), c.getDataType(),
+                            c.getMaxLength(), c.getScale(), true, c.getPosition(),
+                            c.getSortOrder(), c.getArraySize(), c.getViewConstant(), c.isViewReferenced());
+                }
+                merged.add(c);
+            }
             int position = merged.size();
             for (PColumn c : right.getColumns()) {
                 if (!SchemaUtil.isPKColumn(c)) {
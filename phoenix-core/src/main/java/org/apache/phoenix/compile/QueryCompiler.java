@@ -36,6 +36,7 @@ import org.apache.phoenix.execute.AggregatePlan;
 import org.apache.phoenix.execute.BasicQueryPlan;
 import org.apache.phoenix.execute.HashJoinPlan;
 import org.apache.phoenix.execute.ScanPlan;
+import org.apache.phoenix.execute.SortMergeJoinPlan;
 import org.apache.phoenix.expression.Expression;
 import org.apache.phoenix.hbase.index.util.ImmutableBytesPtr;
 import org.apache.phoenix.iterate.ParallelIterators.ParallelIteratorFactory;
@@ -47,6 +48,7 @@ import org.apache.phoenix.join.TupleProjector;
 import org.apache.phoenix.parse.HintNode.Hint;
 import org.apache.phoenix.parse.JoinTableNode.JoinType;
 import org.apache.phoenix.parse.ParseNode;
+import org.apache.phoenix.parse.ParseNodeFactory;
 import org.apache.phoenix.parse.SQLParser;
 import org.apache.phoenix.parse.SelectStatement;
 import org.apache.phoenix.query.QueryConstants;
@@ -74,7 +76,8 @@ public class QueryCompiler {
      * introduced). This will do the same thing. Once we do have a 
      * dependency on 0.94.5 or above, switch this around.
      */
-    private static final String LOAD_COLUMN_FAMILIES_ON_DEMAND_ATTR = "_ondemand_";
+    public static final String LOAD_COLUMN_FAMILIES_ON_DEMAND_ATTR = "_ondemand_";
+    private static final ParseNodeFactory NODE_FACTORY = new ParseNodeFactory();
     private final PhoenixStatement statement;
     private final Scan scan;
     private final Scan originalScan;
@@ -155,7 +158,9 @@ public class QueryCompiler {
             return plan;
         }
         
-        boolean[] starJoinVector = joinTable.getStarJoinVector();
+        // Only the outermost join is done as a sort-merge join, as the inner ones are built into hash caches
+        boolean useSortMergeJoin = !asSubquery && joinTable.getStatement().getHint().hasHint(Hint.USE_SORT_MERGE_JOIN);
+        boolean[] starJoinVector = useSortMergeJoin ? null : joinTable.getStarJoinVector();
         if (starJoinVector != null) {
             Table table = joinTable.getTable();
             ProjectedPTableWrapper initialProjectedTable;
@@ -233,9 +238,16 @@ public class QueryCompiler {
         
         JoinSpec lastJoinSpec = joinSpecs.get(joinSpecs.size() - 1);
         JoinType type = lastJoinSpec.getType();
-        if (type == JoinType.Full)
+        if (type == JoinType.Full && asSubquery)
             throw new SQLFeatureNotSupportedException("Full joins not supported.");
         
+        if (useSortMergeJoin || type == JoinType.Full) {
+            if (!lastJoinSpec.getJoinTable().getJoinSpecs().isEmpty())
+                throw new SQLFeatureNotSupportedException("Sort-merge join followed by sub-join is not supported.");
+            
+            return compileSortMergeJoinQuery(context, binds, joinTable);
+        }
+        
         if (type == JoinType.Right || type == JoinType.Inner) {
             if (!lastJoinSpec.getJoinTable().getJoinSpecs().isEmpty())
                 throw new SQLFeatureNotSupportedException("Right join followed by sub-join is not supported.");
@@ -290,6 +302,67 @@ public class QueryCompiler {
         throw new SQLFeatureNotSupportedException("Joins with pattern 'A right join B left join C' not supported.");
     }
     
+    /**
+     * Compiles the last join of the join table as a sort-merge join of the sub-join on its left
+     * and the table on its right. Both sides are scanned as they are, so ordering, limit and the
+     * post join filter apply on the client to the joined rows.
+     */
+    protected QueryPlan compileSortMergeJoinQuery(StatementContext context, List<Object> binds, JoinTable joinTable) throws SQLException {
+        List<JoinSpec> joinSpecs = joinTable.getJoinSpecs();
+        JoinSpec lastJoinSpec = joinSpecs.get(joinSpecs.size() - 1);
+        JoinType type = lastJoinSpec.getType();
+        JoinTable lhsJoin = joinTable.getSubJoinTableWithoutPostFilters();
+        Scan subScan = ScanUtil.newScan(originalScan);
+        StatementContext lhsCtx = new StatementContext(statement, context.getResolver(), subScan, new SequenceManager(statement));
+        QueryPlan lhsPlan = compileJoinQuery(lhsCtx, binds, lhsJoin, true);
+        ColumnResolver lhsResolver = lhsCtx.getResolver();
+        TupleProjector lhsClientProjector = lhsCtx.getClientTupleProjector();
+        PTableWrapper lhsProjTable = ((JoinedTableColumnResolver) (lhsResolver)).getPTableWrapper();
+        JoinTable rhsJoinTable = lastJoinSpec.getJoinTable();
+        Table rhsTable = rhsJoinTable.getTable();
+        ProjectedPTableWrapper rhsProjTable;
+        TableRef rhsTableRef;
+        SelectStatement rhs;
+        if (!rhsTable.isSubselect()) {
+            // The row key columns are projected as values too, as the joined rows may have no row of the right hand side
+            rhsProjTable = rhsTable.createProjectedTable(false);
+            rhsTableRef = rhsTable.getTableRef();
+            rhsTable.projectColumns(context.getScan());
+            rhs = rhsJoinTable.getAsSingleSubquery(rhsTable.getAsSubquery(), false);
+        } else {
+            SelectStatement subquery = rhsTable.getAsSubquery();
+            QueryPlan plan = compileSubquery(subquery);
+            rhsProjTable = rhsTable.createProjectedTable(plan.getProjector());
+            rhsTableRef = plan.getTableRef();
+            context.getScan().setFamilyMap(plan.getContext().getScan().getFamilyMap());
+            rhs = rhsJoinTable.getAsSingleSubquery((SelectStatement) plan.getStatement(), false);
+        }
+        if (rhs.isAggregate() || rhs.isDistinct())
+            throw new SQLFeatureNotSupportedException("Aggregate queries over sort-merge joins not supported.");
+        
+        Pair<List<Expression>, List<Expression>> joinConditions = lastJoinSpec.compileJoinConditions(context, lhsResolver, rhsProjTable.createColumnResolver());
+        int fieldPosition = rhsProjTable.getTable().getColumns().size() - rhsProjTable.getTable().getPKColumns().size();
+        PTableWrapper projectedTable = rhsProjTable.mergeProjectedTables(lhsProjTable, 
+                type == JoinType.Inner || type == JoinType.Left, type == JoinType.Left || type == JoinType.Full);
+        TupleProjector.serializeProjectorIntoScan(context.getScan(), rhsProjTable.createTupleProjector());
+        context.setCurrentTable(rhsTableRef);
+        context.setResolver(projectedTable.createColumnResolver());
+        SelectStatement rhsScan = NODE_FACTORY.select(rhs.getFrom(), rhs.getHint(), false, rhs.getSelect(), rhs.getWhere(), null, null, null, null, rhs.getBindCount(), false);
+        // Compiled without a limit, as max rows apply to the joined rows and not to the scan
+        BasicQueryPlan rhsPlan = compileSingleQuery(context, rhsScan, binds, null, false, false);
+        Expression postJoinFilterExpression = joinTable.compilePostFilterExpression(context);
+        Integer limit = LimitCompiler.compile(context, rhs);
+        int maxRows = statement.getMaxRows();
+        if (maxRows > 0) {
+            limit = limit == null ? maxRows : Math.min(limit, maxRows);
+        }
+        OrderBy orderBy = OrderByCompiler.compile(context, rhs, GroupBy.EMPTY_GROUP_BY, limit);
+        return new SortMergeJoinPlan(joinTable.getStatement(), type, lhsPlan, rhsPlan, 
+                joinConditions.getFirst(), joinConditions.getSecond(), lhsClientProjector, 
+                projectedTable.getTable(), lhsProjTable.getTable(), rhsProjTable.getTable(), fieldPosition, 
+                postJoinFilterExpression, orderBy, limit);
+    }
+    
     protected QueryPlan compileSubquery(SelectStatement subquery) throws SQLException {
         ColumnResolver resolver = FromCompiler.getResolverForQuery(subquery, this.statement.getConnection());
         subquery = StatementNormalizer.normalize(subquery, resolver);
@@ -298,6 +371,13 @@ public class QueryCompiler {
     }
     
     protected BasicQueryPlan compileSingleQuery(StatementContext context, SelectStatement select, List<Object> binds, ParallelIteratorFactory parallelIteratorFactory, boolean allowPageFilter) throws SQLException{
+        return compileSingleQuery(context, select, binds, parallelIteratorFactory, allowPageFilter, true);
+    }
+    
+    /**
+     * @param applyMaxRows false if the max rows of the statement apply to rows built out of the ones of this plan
+     */
+    protected BasicQueryPlan compileSingleQuery(StatementContext context, SelectStatement select, List<Object> binds, ParallelIteratorFactory parallelIteratorFactory, boolean allowPageFilter, boolean applyMaxRows) throws SQLException{
         PhoenixConnection connection = statement.getConnection();
         ColumnResolver resolver = context.getResolver();
         TableRef tableRef = context.getCurrentTable();
@@ -328,7 +408,7 @@ public class QueryCompiler {
         
         // Final step is to build the query plan
         int maxRows = statement.getMaxRows();
-        if (maxRows > 0) {
+        if (maxRows > 0 && applyMaxRows) {
             if (limit != null) {
                 limit = Math.min(limit, maxRows);
             } else {
@@ -24,6 +24,8 @@ import org.apache.hadoop.hbase.coprocessor.BaseRegionObserver;
 import org.apache.hadoop.hbase.coprocessor.ObserverContext;
 import org.apache.hadoop.hbase.coprocessor.RegionCoprocessorEnvironment;
 import org.apache.hadoop.hbase.regionserver.RegionScanner;
+import org.apache.phoenix.query.QueryServices;
+import org.apache.phoenix.query.QueryServicesOptions;
 import org.apache.phoenix.util.ServerUtil;
 
 
@@ -44,6 +46,8 @@ abstract public class BaseScannerRegionObserver extends BaseRegionObserver {
     public static final String EMPTY_CF = "_EmptyCF";
     public static final String SPECIFIC_ARRAY_INDEX = "_SpecificArrayIndex";
     public static final String GROUP_BY_LIMIT = "_GroupByLimit";
+    // Identifies each execution of a query, to account for the memory it uses on the region servers
+    public static final String QUERY_ID = "_QueryId";
 
     /**
      * Used by logger to identify coprocessor
@@ -53,6 +57,19 @@ abstract public class BaseScannerRegionObserver extends BaseRegionObserver {
         return this.getClass().getName();
     }
     
+    /**
+     * Takes the WHERE clause filter out of the scan when it can be evaluated over
+     * batches of rows instead, as configured through {@link QueryServices#FILTER_BATCH_SIZE_ATTRIB}.
+     */
+    @Override
+    public RegionScanner preScannerOpen(final ObserverContext<RegionCoprocessorEnvironment> c, final Scan scan, final RegionScanner s) throws IOException {
+        int batchSize = c.getEnvironment().getConfiguration().getInt(QueryServices.FILTER_BATCH_SIZE_ATTRIB, QueryServicesOptions.DEFAULT_FILTER_BATCH_SIZE);
+        if (batchSize > 0) {
+            BatchFilterRegionScanner.removeFilter(scan, batchSize);
+        }
+        return s;
+    }
+    
     abstract protected RegionScanner doPostScannerOpen(final ObserverContext<RegionCoprocessorEnvironment> c, final Scan scan, final RegionScanner s) throws Throwable;
     
     /**
@@ -63,7 +80,7 @@ abstract public class BaseScannerRegionObserver extends BaseRegionObserver {
     @Override
     public final RegionScanner postScannerOpen(final ObserverContext<RegionCoprocessorEnvironment> c, final Scan scan, final RegionScanner s) throws IOException {
         try {
-            return doPostScannerOpen(c, scan, s);
+            return doPostScannerOpen(c, scan, BatchFilterRegionScanner.wrap(scan, s));
         } catch (Throwable t) {
             ServerUtil.throwIOException(c.getEnvironment().getRegion().getRegionNameAsString(), t);
             return null; // impossible
@@ -0,0 +1,258 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.phoenix.coprocessor;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.hadoop.hbase.Cell;
+import org.apache.hadoop.hbase.HRegionInfo;
+import org.apache.hadoop.hbase.client.Scan;
+import org.apache.hadoop.hbase.filter.Filter;
+import org.apache.hadoop.hbase.filter.FilterList;
+import org.apache.hadoop.hbase.io.ImmutableBytesWritable;
+import org.apache.hadoop.hbase.regionserver.RegionScanner;
+import org.apache.hadoop.io.WritableUtils;
+import org.apache.phoenix.expression.ColumnVector;
+import org.apache.phoenix.expression.Expression;
+import org.apache.phoenix.expression.ExpressionType;
+import org.apache.phoenix.filter.BooleanExpressionFilter;
+import org.apache.phoenix.filter.JoinKeyBloomFilter;
+import org.apache.phoenix.filter.RowKeyComparisonFilter;
+import org.apache.phoenix.filter.SkipScanFilter;
+import org.apache.phoenix.schema.IllegalDataException;
+import org.apache.phoenix.schema.PDataType;
+import org.apache.phoenix.schema.tuple.MultiKeyValueTuple;
+import org.apache.phoenix.schema.tuple.TupleBatch;
+
+/**
+ * 
+ * Region scanner evaluating the WHERE clause of a query over batches of rows, through
+ * {@link Expression#evaluate(TupleBatch, ColumnVector)}, instead of having the filter
+ * evaluate it through the expression tree for each row. The filter is taken out of the
+ * scan before the scanner is opened, which is only done when the other filters of the
+ * scan select rows independently of it.
+ * 
+ */
+public class BatchFilterRegionScanner implements RegionScanner {
+    private static final String BATCH_FILTER = "_BatchFilter";
+    
+    private final RegionScanner scanner;
+    private final Expression expression;
+    private final TupleBatch batch;
+    private final List<Cell>[] batchResults;
+    private final ColumnVector vector;
+    private final int[] selectedRows;
+    private final ImmutableBytesWritable ptr = new ImmutableBytesWritable();
+    private int selectedCount;
+    private int position;
+    private boolean hasMore = true;
+    
+    @SuppressWarnings("unchecked")
+    private BatchFilterRegionScanner(RegionScanner scanner, Expression expression, int batchSize) {
+        this.scanner = scanner;
+        this.expression = expression;
+        this.batch = new TupleBatch(batchSize);
+        this.batchResults = new List[batchSize];
+        this.vector = new ColumnVector(batchSize);
+        this.selectedRows = new int[batchSize];
+    }
+    
+    /**
+     * Takes the WHERE clause filter out of the scan, to be evaluated by the scanner returned by
+     * {@link #wrap(Scan, RegionScanner)} instead. Must be called before the region scanner is opened.
+     * @param batchSize the number of rows evaluated at once
+     */
+    public static void removeFilter(Scan scan, int batchSize) throws IOException {
+        if (scan.getAttribute(BATCH_FILTER) != null) {
+            return;
+        }
+        Filter filter = scan.getFilter();
+        BooleanExpressionFilter expressionFilter = null;
+        if (isBatchable(filter)) {
+            expressionFilter = (BooleanExpressionFilter)filter;
+            scan.setFilter(null);
+        } else if (filter instanceof FilterList && ((FilterList)filter).getOperator() == FilterList.Operator.MUST_PASS_ALL) {
+            List<Filter> filters = ((FilterList)filter).getFilters();
+            List<Filter> remainingFilters = new ArrayList<Filter>(filters.size());
+            for (Filter f : filters) {
+                if (expressionFilter == null && isBatchable(f)) {
+                    expressionFilter = (BooleanExpressionFilter)f;
+                } else if (f instanceof SkipScanFilter || f instanceof JoinKeyBloomFilter || f instanceof RowKeyComparisonFilter) {
+                    remainingFilters.add(f);
+                } else { // For example a page filter, which must only count the rows passing the WHERE clause
+                    return;
+                }
+            }
+            if (expressionFilter == null) {
+                return;
+            }
+            scan.setFilter(remainingFilters.size() == 1 ? remainingFilters.get(0) : new FilterList(FilterList.Operator.MUST_PASS_ALL, remainingFilters));
+        }
+        if (expressionFilter == null) {
+            return;
+        }
+        ByteArrayOutputStream stream = new ByteArrayOutputStream();
+        DataOutputStream output = new DataOutputStream(stream);
+        Expression expression = expressionFilter.getExpression();
+        WritableUtils.writeVInt(output, batchSize);
+        WritableUtils.writeVInt(output, ExpressionType.valueOf(expression).ordinal());
+        expression.write(output);
+        output.close();
+        scan.setAttribute(BATCH_FILTER, stream.toByteArray());
+    }
+    
+    /**
+     * Row key filters are left to the scan, where they are evaluated before any column is read.
+     */
+    private static boolean isBatchable(Filter filter) {
+        return filter instanceof BooleanExpressionFilter && !(filter instanceof RowKeyComparisonFilter);
+    }
+    
+    /**
+     * @return a scanner evaluating the filter taken out of the scan by {@link #removeFilter(Scan, int)},
+     * or the given scanner if there is none
+     */
+    public static RegionScanner wrap(Scan scan, RegionScanner s) throws IOException {
+        byte[] batchFilter = scan.getAttribute(BATCH_FILTER);
+        if (batchFilter == null) {
+            return s;
+        }
+        // Wrapped only once, whatever the number of coprocessors going through here
+        scan.setAttribute(BATCH_FILTER, null);
+        DataInputStream input = new DataInputStream(new ByteArrayInputStream(batchFilter));
+        int batchSize = WritableUtils.readVInt(input);
+        Expression expression = ExpressionType.values()[WritableUtils.readVInt(input)].newInstance();
+        expression.readFields(input);
+        return new BatchFilterRegionScanner(s, expression, batchSize);
+    }
+    
+    private boolean shouldAdvance() {
+        return position == selectedCount && hasMore;
+    }
+    
+    private void nextBatch(boolean isRaw) throws IOException {
+        batch.clear();
+        while (hasMore && !batch.isFull()) {
+            List<Cell> results = new ArrayList<Cell>();
+            hasMore = isRaw ? scanner.nextRaw(results) : scanner.next(results);
+            if (!results.isEmpty()) {
+                batchResults[batch.size()] = results;
+                batch.add(new MultiKeyValueTuple(results));
+            }
+        }
+        selectedCount = 0;
+        position = 0;
+        try {
+            expression.evaluate(batch, vector);
+            for (int row = 0; row < batch.size(); row++) {
+                if (vector.isSet(row) && vector.isTrue(row)) {
+                    selectedRows[selectedCount++] = row;
+                }
+            }
+        } catch (RuntimeException e) {
+            // Evaluate the rows one at a time, so that they fail or are filtered out as they would be by the filter
+            selectedCount = 0;
+            for (int row = 0; row < batch.size(); row++) {
+                if (evaluate(row)) {
+                    selectedRows[selectedCount++] = row;
+                }
+            }
+        }
+    }
+    
+    private boolean evaluate(int row) {
+        try {
+            return expression.evaluate(batch.get(row), ptr) && Boolean.TRUE.equals(PDataType.BOOLEAN.toObject(ptr));
+        } catch (IllegalDataException e) {
+            return false;
+        }
+    }
+    
+    private boolean nextSelected(List<Cell> result) {
+        if (position < selectedCount) {
+            int row = selectedRows[position++];
+            result.addAll(batchResults[row]);
+            batchResults[row] = null;
+        }
+        return position < selectedCount || hasMore;
+    }
+
+    @Override
+    public boolean nextRaw(List<Cell> result) throws IOException {
+        while (shouldAdvance()) {
+            nextBatch(true);
+        }
+        return nextSelected(result);
+    }
+
+    @Override
+    public boolean nextRaw(List<Cell> result, int limit) throws IOException {
+        return nextRaw(result);
+    }
+
+    @Override
+    public boolean next(List<Cell> result) throws IOException {
+        while (shouldAdvance()) {
+            nextBatch(false);
+        }
+        return nextSelected(result);
+    }
+
+    @Override
+    public boolean next(List<Cell> result, int limit) throws IOException {
+        return next(result);
+    }
+
+    @Override
+    public boolean reseek(byte[] row) throws IOException {
+        selectedCount = position = 0;
+        hasMore = true;
+        return scanner.reseek(row);
+    }
+
+    @Override
+    public boolean isFilterDone() throws IOException {
+        return scanner.isFilterDone() && position == selectedCount;
+    }
+
+    @Override
+    public HRegionInfo getRegionInfo() {
+        return scanner.getRegionInfo();
+    }
+
+    @Override
+    public long getMaxResultSize() {
+        return scanner.getMaxResultSize();
+    }
+
+    @Override
+    public long getMvccReadPoint() {
+        return scanner.getMvccReadPoint();
+    }
+
+    @Override
+    public void close() throws IOException {
+        scanner.close();
+    }
+}
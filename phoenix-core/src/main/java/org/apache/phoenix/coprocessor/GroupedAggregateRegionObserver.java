@@ -21,8 +21,12 @@ import static org.apache.phoenix.query.QueryConstants.AGG_TIMESTAMP;
 import static org.apache.phoenix.query.QueryConstants.SINGLE_COLUMN;
 import static org.apache.phoenix.query.QueryConstants.SINGLE_COLUMN_FAMILY;
 import static org.apache.phoenix.query.QueryServices.GROUPBY_ESTIMATED_DISTINCT_VALUES_ATTRIB;
+import static org.apache.phoenix.query.QueryServices.GROUPBY_MAX_SERVER_THREADS_ATTRIB;
+import static org.apache.phoenix.query.QueryServices.GROUPBY_SERVER_THREADS_ATTRIB;
 import static org.apache.phoenix.query.QueryServices.GROUPBY_SPILLABLE_ATTRIB;
 import static org.apache.phoenix.query.QueryServicesOptions.DEFAULT_GROUPBY_ESTIMATED_DISTINCT_VALUES;
+import static org.apache.phoenix.query.QueryServicesOptions.DEFAULT_GROUPBY_MAX_SERVER_THREADS;
+import static org.apache.phoenix.query.QueryServicesOptions.DEFAULT_GROUPBY_SERVER_THREADS;
 import static org.apache.phoenix.query.QueryServicesOptions.DEFAULT_GROUPBY_SPILLABLE;
 
 import java.io.ByteArrayInputStream;
@@ -36,6 +40,18 @@ import java.util.Arrays;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.hbase.Cell;
@@ -49,9 +65,9 @@ import org.apache.hadoop.hbase.regionserver.HRegion;
 import org.apache.hadoop.hbase.regionserver.MultiVersionConsistencyControl;
 import org.apache.hadoop.hbase.regionserver.RegionScanner;
 import org.apache.hadoop.hbase.util.Bytes;
+import org.apache.hadoop.hbase.util.Threads;
 import org.apache.hadoop.io.WritableUtils;
 import org.apache.phoenix.cache.GlobalCache;
-import org.apache.phoenix.cache.TenantCache;
 import org.apache.phoenix.cache.aggcache.SpillableGroupByCache;
 import org.apache.phoenix.expression.Expression;
 import org.apache.phoenix.expression.ExpressionType;
@@ -61,11 +77,13 @@ import org.apache.phoenix.hbase.index.util.ImmutableBytesPtr;
 import org.apache.phoenix.join.HashJoinInfo;
 import org.apache.phoenix.join.TupleProjector;
 import org.apache.phoenix.memory.GlobalMemoryManager;
+import org.apache.phoenix.memory.MemoryManager;
 import org.apache.phoenix.memory.MemoryManager.MemoryChunk;
 import org.apache.phoenix.query.QueryConstants;
 import org.apache.phoenix.schema.PDataType;
 import org.apache.phoenix.schema.SortOrder;
 import org.apache.phoenix.schema.tuple.MultiKeyValueTuple;
+import org.apache.phoenix.schema.tuple.Tuple;
 import org.apache.phoenix.util.KeyValueUtil;
 import org.apache.phoenix.util.ScanUtil;
 import org.apache.phoenix.util.SizedUtil;
@@ -73,8 +91,10 @@ import org.apache.phoenix.util.TupleUtil;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.google.common.base.Throwables;
 import com.google.common.collect.Maps;
 import com.google.common.io.Closeables;
+import com.google.common.util.concurrent.Uninterruptibles;
 
 /**
  * Region observer that aggregates grouped rows (i.e. SQL query with GROUP BY clause)
@@ -85,6 +105,15 @@ public class GroupedAggregateRegionObserver extends BaseScannerRegionObserver {
     private static final Logger logger = LoggerFactory
             .getLogger(GroupedAggregateRegionObserver.class);
     public static final int MIN_DISTINCT_VALUES = 100;
+    private static final int GROUP_BY_BATCH_SIZE = 256;
+    private static final int GROUP_BY_QUEUE_SIZE = 16;
+    private static final long GROUP_BY_QUEUE_WAIT_MS = 100;
+    /**
+     * Threads aggregating the partitions of unordered group bys, created on first use. The pool has no
+     * queue, since a partition waiting for a thread would stall the scan of its region: when all of its
+     * threads are busy, the partitions are rejected and the region is aggregated on the scanning thread.
+     */
+    private static volatile ExecutorService groupByPool;
 
     /**
      * Replaces the RegionScanner s with a RegionScanner that groups by the key formed by the list
@@ -208,15 +237,14 @@ public class GroupedAggregateRegionObserver extends BaseScannerRegionObserver {
         
         private int estDistVals;
         
-        InMemoryGroupByCache(RegionCoprocessorEnvironment env, ImmutableBytesWritable tenantId, ServerAggregators aggregators, int estDistVals) {
+        InMemoryGroupByCache(RegionCoprocessorEnvironment env, MemoryManager memoryManager, ServerAggregators aggregators, int estDistVals) {
             int estValueSize = aggregators.getEstimatedByteSize();
             long estSize = sizeOfUnorderedGroupByMap(estDistVals, estValueSize);
-            TenantCache tenantCache = GlobalCache.getTenantCache(env, tenantId);
             this.env = env;
             this.estDistVals = estDistVals;
             this.aggregators = aggregators;
             this.aggregateMap = Maps.newHashMapWithExpectedSize(estDistVals);
-            this.chunk = tenantCache.getMemoryManager().allocate(estSize);
+            this.chunk = memoryManager.allocate(estSize);
         }
         
         @Override
@@ -324,15 +352,15 @@ public class GroupedAggregateRegionObserver extends BaseScannerRegionObserver {
         private GroupByCacheFactory() {
         }
         
-        GroupByCache newCache(RegionCoprocessorEnvironment env, ImmutableBytesWritable tenantId, ServerAggregators aggregators, int estDistVals) {
+        GroupByCache newCache(RegionCoprocessorEnvironment env, MemoryManager memoryManager, ServerAggregators aggregators, int estDistVals) {
             Configuration conf = env.getConfiguration();
             boolean spillableEnabled =
                     conf.getBoolean(GROUPBY_SPILLABLE_ATTRIB, DEFAULT_GROUPBY_SPILLABLE);
             if (spillableEnabled) {
-                return new SpillableGroupByCache(env, tenantId, aggregators, estDistVals);
+                return new SpillableGroupByCache(env, memoryManager, aggregators, estDistVals);
             } 
             
-            return new InMemoryGroupByCache(env, tenantId, aggregators, estDistVals);
+            return new InMemoryGroupByCache(env, memoryManager, aggregators, estDistVals);
         }
     }
     /**
@@ -360,10 +388,20 @@ public class GroupedAggregateRegionObserver extends BaseScannerRegionObserver {
 
         final boolean spillableEnabled =
                 conf.getBoolean(GROUPBY_SPILLABLE_ATTRIB, DEFAULT_GROUPBY_SPILLABLE);
+        
+        int nThreads = conf.getInt(GROUPBY_SERVER_THREADS_ATTRIB, DEFAULT_GROUPBY_SERVER_THREADS);
+        // With a limit, the number of groups must be known as the rows are scanned
+        if (nThreads > 1 && limit == Long.MAX_VALUE) {
+            RegionScanner scanner = scanUnorderedInParallel(c, scan, s, expressions, nThreads, estDistVals);
+            if (scanner != null) {
+                return scanner;
+            }
+            // Not enough group by threads left, so aggregate on this one
+        }
 
         GroupByCache groupByCache = 
                 GroupByCacheFactory.INSTANCE.newCache(
-                        env, ScanUtil.getTenantId(scan), 
+                        env, GlobalCache.getMemoryManager(env, scan), 
                         aggregators, estDistVals);
 
         boolean success = false;
@@ -414,6 +452,265 @@ public class GroupedAggregateRegionObserver extends BaseScannerRegionObserver {
         }
     }
 
+    /**
+     * Batch of rows, along with their group keys, handed over to the thread aggregating a partition
+     */
+    private static final class GroupByBatch {
+        private final ImmutableBytesWritable[] keys = new ImmutableBytesWritable[GROUP_BY_BATCH_SIZE];
+        private final Tuple[] rows = new Tuple[GROUP_BY_BATCH_SIZE];
+        private int size;
+        
+        private boolean add(ImmutableBytesWritable key, Tuple row) {
+            keys[size] = key;
+            rows[size++] = row;
+            return size == GROUP_BY_BATCH_SIZE;
+        }
+    }
+    
+    /**
+     * Aggregates, on its own thread, the rows of the groups whose keys hash to it,
+     * into its own {@link GroupByCache}. Since a group belongs to a single partition, the caches
+     * of the partitions do not need to be merged.
+     */
+    static final class GroupByPartition implements Callable<Void> {
+        private static final GroupByBatch END_OF_ROWS = new GroupByBatch();
+        
+        private final BlockingQueue<GroupByBatch> queue = new ArrayBlockingQueue<GroupByBatch>(GROUP_BY_QUEUE_SIZE);
+        private final GroupByCache groupByCache;
+        private final ServerAggregators aggregators;
+        private GroupByBatch batch = new GroupByBatch();
+        private Future<Void> future;
+        // Set once the aggregation starts, or once it may no longer start
+        private final AtomicBoolean started = new AtomicBoolean();
+        private final CountDownLatch stopped = new CountDownLatch(1);
+        
+        GroupByPartition(GroupByCache groupByCache, ServerAggregators aggregators) {
+            this.groupByCache = groupByCache;
+            this.aggregators = aggregators;
+        }
+
+        @Override
+        public Void call() throws Exception {
+            if (!started.compareAndSet(false, true)) { // Aborted before it started
+                return null;
+            }
+            try {
+                while (true) {
+                    GroupByBatch batch = queue.take();
+                    if (batch == END_OF_ROWS) {
+                        return null;
+                    }
+                    for (int i = 0; i < batch.size; i++) {
+                        Aggregator[] rowAggregators = groupByCache.cache(batch.keys[i]);
+                        aggregators.aggregate(rowAggregators, batch.rows[i]);
+                    }
+                }
+            } finally {
+                stopped.countDown();
+            }
+        }
+        
+        /**
+         * Start aggregating on a thread of the pool
+         * @throws RejectedExecutionException if the pool has no thread left
+         */
+        void start(ExecutorService pool) {
+            future = pool.submit(this);
+        }
+        
+        GroupByCache getGroupByCache() {
+            return groupByCache;
+        }
+        
+        void add(ImmutableBytesWritable key, Tuple row) throws IOException {
+            if (batch.add(key, row)) {
+                put(batch);
+                batch = new GroupByBatch();
+            }
+        }
+        
+        private void put(GroupByBatch batch) throws IOException {
+            try {
+                while (!queue.offer(batch, GROUP_BY_QUEUE_WAIT_MS, TimeUnit.MILLISECONDS)) {
+                    if (future.isDone()) { // Only possible if the aggregation failed
+                        get();
+                    }
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException(e);
+            }
+        }
+        
+        private void get() throws IOException {
+            try {
+                future.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException(e);
+            } catch (ExecutionException e) {
+                Throwables.propagateIfInstanceOf(e.getCause(), IOException.class);
+                throw Throwables.propagate(e.getCause());
+            }
+        }
+        
+        void finish() throws IOException {
+            if (batch.size > 0) {
+                put(batch);
+            }
+            put(END_OF_ROWS);
+            get();
+        }
+        
+        /**
+         * Stop the aggregation, returning once its thread is no longer using the group by cache,
+         * so that the cache may be closed
+         */
+        void abort() {
+            if (started.compareAndSet(false, true)) { // Never started, and now never will
+                if (future != null) {
+                    future.cancel(false);
+                }
+                return;
+            }
+            future.cancel(true);
+            Uninterruptibles.awaitUninterruptibly(stopped);
+        }
+    }
+    
+    private static ExecutorService getGroupByPool(Configuration conf) {
+        ExecutorService pool = groupByPool;
+        if (pool == null) {
+            synchronized (GroupedAggregateRegionObserver.class) {
+                pool = groupByPool;
+                if (pool == null) {
+                    int maxThreads = conf.getInt(GROUPBY_MAX_SERVER_THREADS_ATTRIB, DEFAULT_GROUPBY_MAX_SERVER_THREADS);
+                    ThreadPoolExecutor executor = new ThreadPoolExecutor(maxThreads, maxThreads, 60, TimeUnit.SECONDS,
+                            new SynchronousQueue<Runnable>(), Threads.newDaemonThreadFactory("phoenix-groupby-"));
+                    executor.allowCoreThreadTimeOut(true);
+                    groupByPool = pool = executor;
+                }
+            }
+        }
+        return pool;
+    }
+    
+    /**
+     * Same as {@link #scanUnordered(ObserverContext, Scan, RegionScanner, List, ServerAggregators, long)},
+     * except that the rows are partitioned by the hash of their group key and aggregated by nThreads
+     * threads while the region is being scanned. Each partition allocates its own
+     * group by cache, from the same memory manager.
+     * @return the scanner over the groups, or null if there are not enough group by threads left
+     */
+    private RegionScanner scanUnorderedInParallel(ObserverContext<RegionCoprocessorEnvironment> c, Scan scan,
+            final RegionScanner s, final List<Expression> expressions, int nThreads, int estDistVals) throws IOException {
+        RegionCoprocessorEnvironment env = c.getEnvironment();
+        byte[] aggregatorBytes = scan.getAttribute(BaseScannerRegionObserver.AGGREGATORS);
+        GroupByPartition[] partitions = new GroupByPartition[nThreads];
+        boolean success = false;
+        try {
+            for (int i = 0; i < nThreads; i++) {
+                // Aggregators evaluate their expressions into shared buffers, so each thread needs its own
+                ServerAggregators aggregators = ServerAggregators.deserialize(aggregatorBytes, env.getConfiguration());
+                GroupByCache groupByCache = GroupByCacheFactory.INSTANCE.newCache(env, GlobalCache.getMemoryManager(env, scan),
+                        aggregators, Math.max(MIN_DISTINCT_VALUES, estDistVals / nThreads));
+                partitions[i] = new GroupByPartition(groupByCache, aggregators);
+                try {
+                    partitions[i].start(getGroupByPool(env.getConfiguration()));
+                } catch (RejectedExecutionException e) {
+                    return null;
+                }
+            }
+            HRegion region = env.getRegion();
+            region.startRegionOperation();
+            try {
+                boolean hasMore;
+                do {
+                    List<Cell> results = new ArrayList<Cell>();
+                    hasMore = s.nextRaw(results);
+                    if (!results.isEmpty()) {
+                        Tuple result = new MultiKeyValueTuple(results);
+                        ImmutableBytesWritable key = TupleUtil.getConcatenatedValue(result, expressions);
+                        partitions[(key.hashCode() & Integer.MAX_VALUE) % nThreads].add(key, result);
+                    }
+                } while (hasMore);
+            } finally {
+                region.closeRegionOperation();
+            }
+            RegionScanner[] scanners = new RegionScanner[nThreads];
+            for (int i = 0; i < nThreads; i++) {
+                partitions[i].finish();
+                scanners[i] = partitions[i].getGroupByCache().getScanner(s);
+            }
+            success = true;
+            return new ConcatRegionScanner(s, scanners);
+        } finally {
+            if (!success) {
+                for (GroupByPartition partition : partitions) {
+                    if (partition != null) {
+                        // The cache may only be closed once no thread aggregates into it anymore
+                        partition.abort();
+                        Closeables.closeQuietly(partition.getGroupByCache());
+                    }
+                }
+            }
+        }
+    }
+    
+    /**
+     * Returns the rows of each of the scanners over the groups of a partition in turn
+     */
+    private static final class ConcatRegionScanner extends BaseRegionScanner {
+        private final RegionScanner s;
+        private final RegionScanner[] scanners;
+        private int index = 0;
+        
+        private ConcatRegionScanner(RegionScanner s, RegionScanner[] scanners) {
+            this.s = s;
+            this.scanners = scanners;
+        }
+        
+        @Override
+        public HRegionInfo getRegionInfo() {
+            return s.getRegionInfo();
+        }
+
+        @Override
+        public boolean next(List<Cell> results) throws IOException {
+            while (index < scanners.length) {
+                if (scanners[index].next(results)) {
+                    return true;
+                }
+                index++;
+                if (!results.isEmpty()) {
+                    return index < scanners.length;
+                }
+            }
+            return false;
+        }
+
+        @Override
+        public long getMaxResultSize() {
+            return s.getMaxResultSize();
+        }
+
+        @Override
+        public void close() throws IOException {
+            // Each scanner closes the region scanner along with its cache
+            IOException exception = null;
+            for (RegionScanner scanner : scanners) {
+                try {
+                    scanner.close();
+                } catch (IOException e) {
+                    exception = e;
+                }
+            }
+            if (exception != null) {
+                throw exception;
+            }
+        }
+    }
+
     /**
      * Used for an aggregate query in which the key order match the group by key order. In this
      * case, we can do the aggregation as we scan, by detecting when the group by key changes.
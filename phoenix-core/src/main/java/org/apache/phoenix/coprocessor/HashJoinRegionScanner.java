@@ -18,6 +18,8 @@
 package org.apache.phoenix.coprocessor;
 
 import java.io.IOException;
+import java.sql.SQLException;
+import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
@@ -33,9 +35,13 @@ import org.apache.hadoop.hbase.regionserver.RegionScanner;
 import org.apache.hadoop.hbase.util.Bytes;
 import org.apache.phoenix.cache.GlobalCache;
 import org.apache.phoenix.cache.HashCache;
+import org.apache.phoenix.cache.ServerCacheClient;
 import org.apache.phoenix.cache.TenantCache;
+import org.apache.phoenix.exception.SQLExceptionCode;
+import org.apache.phoenix.exception.SQLExceptionInfo;
 import org.apache.phoenix.expression.Expression;
 import org.apache.phoenix.hbase.index.util.ImmutableBytesPtr;
+import org.apache.phoenix.join.HashCacheFactory;
 import org.apache.phoenix.join.HashJoinInfo;
 import org.apache.phoenix.join.TupleProjector;
 import org.apache.phoenix.join.TupleProjector.ProjectedValueTuple;
@@ -45,6 +51,7 @@ import org.apache.phoenix.schema.KeyValueSchema;
 import org.apache.phoenix.schema.ValueBitSet;
 import org.apache.phoenix.schema.tuple.ResultTuple;
 import org.apache.phoenix.schema.tuple.Tuple;
+import org.apache.phoenix.util.ServerUtil;
 import org.apache.phoenix.util.TupleUtil;
 
 public class HashJoinRegionScanner implements RegionScanner {
@@ -56,10 +63,13 @@ public class HashJoinRegionScanner implements RegionScanner {
     private boolean hasMore;
     private long count;
     private long limit;
-    private HashCache[] hashCaches;
+    private HashCache.Lookup[] hashLookups;
     private List<Tuple>[] tempTuples;
     private ValueBitSet tempDestBitSet;
     private ValueBitSet[] tempSrcBitSet;
+    private TenantCache tenantCache;
+    // Chunks of the hash caches kept from being evicted while this scanner probes them
+    private final List<ImmutableBytesPtr> pinnedCacheIds = new ArrayList<ImmutableBytesPtr>();
     
     @SuppressWarnings("unchecked")
     public HashJoinRegionScanner(RegionScanner scanner, TupleProjector projector, HashJoinInfo joinInfo, ImmutableBytesWritable tenantId, RegionCoprocessorEnvironment env) throws IOException {
@@ -80,18 +90,20 @@ public class HashJoinRegionScanner implements RegionScanner {
             }
             int count = joinInfo.getJoinIds().length;
             this.tempTuples = new List[count];
-            this.hashCaches = new HashCache[count];
+            this.hashLookups = new HashCache.Lookup[count];
             this.tempSrcBitSet = new ValueBitSet[count];
-            TenantCache cache = GlobalCache.getTenantCache(env, tenantId);
-            for (int i = 0; i < count; i++) {
-                ImmutableBytesPtr joinId = joinInfo.getJoinIds()[i];
-                HashCache hashCache = (HashCache)cache.getServerCache(joinId);
-                if (hashCache == null)
-                    throw new DoNotRetryIOException("Could not find hash cache for joinId: " 
-                            + Bytes.toString(joinId.get(), joinId.getOffset(), joinId.getLength()) 
-                            + ". The cache might have expired and have been removed.");
-                hashCaches[i] = hashCache;
-                tempSrcBitSet[i] = ValueBitSet.newInstance(joinInfo.getSchemas()[i]);
+            this.tenantCache = GlobalCache.getTenantCache(env, tenantId);
+            boolean success = false;
+            try {
+                for (int i = 0; i < count; i++) {
+                    hashLookups[i] = getHashCache(joinInfo.getJoinIds()[i]).newLookup();
+                    tempSrcBitSet[i] = ValueBitSet.newInstance(joinInfo.getSchemas()[i]);
+                }
+                success = true;
+            } finally {
+                if (!success) {
+                    unpinHashCaches();
+                }
             }
             if (this.projector != null) {
                 this.tempDestBitSet = ValueBitSet.newInstance(joinInfo.getJoinedSchema());
@@ -100,6 +112,44 @@ public class HashJoinRegionScanner implements RegionScanner {
         }
     }
     
+    /**
+     * A hash table that was sent in chunks has the ids of all its chunks concatenated in its join id.
+     * Its keys are then looked up through a single index over all the chunks.
+     */
+    private HashCache getHashCache(ImmutableBytesPtr joinId) throws IOException {
+        int nChunks = joinId.getLength() / ServerCacheClient.UUID_LENGTH;
+        if (nChunks <= 1) {
+            return getHashCacheChunk(joinId);
+        }
+        HashCache[] chunks = new HashCache[nChunks];
+        for (int i = 0; i < nChunks; i++) {
+            chunks[i] = getHashCacheChunk(new ImmutableBytesPtr(joinId.get(), 
+                    joinId.getOffset() + i * ServerCacheClient.UUID_LENGTH, ServerCacheClient.UUID_LENGTH));
+        }
+        return HashCacheFactory.getChunkedCache(chunks);
+    }
+    
+    private HashCache getHashCacheChunk(ImmutableBytesPtr joinId) throws IOException {
+        HashCache hashCache = (HashCache)tenantCache.pinServerCache(joinId);
+        if (hashCache == null) {
+            // Recognized by the client, which then sends the cache again
+            SQLException e = new SQLExceptionInfo.Builder(SQLExceptionCode.HASH_JOIN_CACHE_NOT_FOUND)
+                    .setMessage("Could not find hash cache for joinId: " 
+                            + Bytes.toString(joinId.get(), joinId.getOffset(), joinId.getLength()) 
+                            + ". The cache might have expired and have been removed.").build().buildException();
+            throw ServerUtil.createIOException("Hash join failed", e);
+        }
+        pinnedCacheIds.add(joinId);
+        return hashCache;
+    }
+    
+    private void unpinHashCaches() {
+        for (ImmutableBytesPtr cacheId : pinnedCacheIds) {
+            tenantCache.unpinServerCache(cacheId);
+        }
+        pinnedCacheIds.clear();
+    }
+    
     private void processResults(List<Cell> result, boolean hasBatchLimit) throws IOException {
         if (result.isEmpty())
             return;
@@ -122,7 +172,7 @@ public class HashJoinRegionScanner implements RegionScanner {
             if (!(joinInfo.earlyEvaluation()[i]))
                 continue;
             ImmutableBytesPtr key = TupleUtil.getConcatenatedValue(tuple, joinInfo.getJoinExpressions()[i]);
-            tempTuples[i] = hashCaches[i].get(key);
+            tempTuples[i] = hashLookups[i].get(key);
             JoinType type = joinInfo.getJoinTypes()[i];
             if (type == JoinType.Inner && tempTuples[i] == null) {
                 cont = false;
@@ -153,7 +203,7 @@ public class HashJoinRegionScanner implements RegionScanner {
                         Tuple lhs = resultQueue.poll();
                         if (!earlyEvaluation) {
                             ImmutableBytesPtr key = TupleUtil.getConcatenatedValue(lhs, joinInfo.getJoinExpressions()[i]);
-                            tempTuples[i] = hashCaches[i].get(key);                        	
+                            tempTuples[i] = hashLookups[i].get(key);
                             if (tempTuples[i] == null) {
                                 if (joinInfo.getJoinTypes()[i] != JoinType.Inner) {
                                     resultQueue.offer(lhs);
@@ -259,7 +309,11 @@ public class HashJoinRegionScanner implements RegionScanner {
 
     @Override
     public void close() throws IOException {
-        scanner.close();
+        try {
+            scanner.close();
+        } finally {
+            unpinHashCaches();
+        }
     }
 
     @Override
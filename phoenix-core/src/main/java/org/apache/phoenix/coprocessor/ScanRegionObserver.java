@@ -39,7 +39,6 @@ import org.apache.hadoop.hbase.regionserver.RegionScanner;
 import org.apache.hadoop.hbase.util.Bytes;
 import org.apache.hadoop.io.WritableUtils;
 import org.apache.phoenix.cache.GlobalCache;
-import org.apache.phoenix.cache.TenantCache;
 import org.apache.phoenix.expression.Expression;
 import org.apache.phoenix.expression.KeyValueColumnExpression;
 import org.apache.phoenix.expression.OrderByExpression;
@@ -49,6 +48,7 @@ import org.apache.phoenix.iterate.RegionScannerResultIterator;
 import org.apache.phoenix.iterate.ResultIterator;
 import org.apache.phoenix.join.HashJoinInfo;
 import org.apache.phoenix.join.TupleProjector;
+import org.apache.phoenix.memory.MemoryManager;
 import org.apache.phoenix.memory.MemoryManager.MemoryChunk;
 import org.apache.phoenix.query.QueryConstants;
 import org.apache.phoenix.schema.KeyValueSchema;
@@ -74,6 +74,9 @@ import com.google.common.collect.Lists;
  * @since 0.1
  */
 public class ScanRegionObserver extends BaseScannerRegionObserver {
+    // smallest sorted run spilled to disk by an ORDER BY without a limit
+    private static final int MIN_SORT_RUN_BYTES = 1024 * 1024;
+    
     private ImmutableBytesWritable ptr = new ImmutableBytesWritable();
     private KeyValueSchema kvSchema = null;
     private ValueBitSet kvSchemaBitSet;
@@ -195,7 +198,7 @@ public class ScanRegionObserver extends BaseScannerRegionObserver {
             return innerScanner;
         }
         // TODO:the above wrapped scanner should be used here also
-        return getTopNScanner(c, innerScanner, iterator, tenantId);
+        return getTopNScanner(c, innerScanner, iterator, GlobalCache.getMemoryManager(c.getEnvironment(), scan));
     }
     
     /**
@@ -204,11 +207,18 @@ public class ScanRegionObserver extends BaseScannerRegionObserver {
      *  getting the first Tuple (which forces running through the entire region)
      *  since after this everything is held in memory
      */
-    private RegionScanner getTopNScanner(final ObserverContext<RegionCoprocessorEnvironment> c, final RegionScanner s, final OrderedResultIterator iterator, ImmutableBytesWritable tenantId) throws Throwable {
+    private RegionScanner getTopNScanner(final ObserverContext<RegionCoprocessorEnvironment> c, final RegionScanner s, final OrderedResultIterator iterator, MemoryManager memoryManager) throws Throwable {
         final Tuple firstTuple;
-        TenantCache tenantCache = GlobalCache.getTenantCache(c.getEnvironment(), tenantId);
-        long estSize = iterator.getEstimatedByteSize();
-        final MemoryChunk chunk = tenantCache.getMemoryManager().allocate(estSize);
+        final MemoryChunk chunk;
+        if (iterator.getLimit() == null) {
+            // Without a limit, sorted runs are spilled to disk once they reach the memory reserved here,
+            // so that the sort of a region of any size completes within a known amount of memory
+            int thresholdBytes = iterator.getThresholdBytes();
+            chunk = memoryManager.allocate(Math.min(MIN_SORT_RUN_BYTES, thresholdBytes), thresholdBytes);
+            iterator.setThresholdBytes((int)chunk.getSize());
+        } else {
+            chunk = memoryManager.allocate(iterator.getEstimatedByteSize());
+        }
         final HRegion region = c.getEnvironment().getRegion();
         region.startRegionOperation();
         try {
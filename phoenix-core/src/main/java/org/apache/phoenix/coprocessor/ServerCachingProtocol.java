@@ -37,6 +37,17 @@ import org.apache.phoenix.memory.MemoryManager.MemoryChunk;
 public interface ServerCachingProtocol {
     public static interface ServerCacheFactory extends Writable {
         public Closeable newCache(ImmutableBytesWritable cachePtr, MemoryChunk chunk) throws SQLException;
+        /**
+         * @return the number of bytes the cache built from cachePtr will take at least, which may be more than
+         * the length of cachePtr when the cache is sent compressed
+         */
+        public long getEstimatedSize(ImmutableBytesWritable cachePtr) throws SQLException;
+    }
+    /**
+     * Factory of caches that are shared by several queries instead of being removed by the one that added them.
+     * Such caches may be evicted by the region server, least recently used first, to make room for new caches.
+     */
+    public static interface ReusableServerCacheFactory extends ServerCacheFactory {
     }
     /**
      * Add the cache to the region server cache.  
@@ -263,6 +263,7 @@ public enum SQLExceptionCode {
     OUTDATED_JARS(2007, "INT09", "Outdated jars."),
     INDEX_METADATA_NOT_FOUND(2008, "INT10", "Unable to find cached index metadata. "),
     UNKNOWN_ERROR_CODE(2009, "INT11", "Unknown error code"),
+    HASH_JOIN_CACHE_NOT_FOUND(2010, "INT12", "Unable to find cached hash join table. "),
     ;
 
     private final int errorCode;
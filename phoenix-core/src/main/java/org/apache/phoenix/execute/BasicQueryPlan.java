@@ -24,6 +24,7 @@ import java.util.List;
 
 import org.apache.hadoop.hbase.HConstants;
 import org.apache.hadoop.hbase.client.Scan;
+import org.apache.phoenix.cache.ServerCacheClient;
 import org.apache.phoenix.compile.ExplainPlan;
 import org.apache.phoenix.compile.GroupByCompiler.GroupBy;
 import org.apache.phoenix.compile.OrderByCompiler.OrderBy;
@@ -150,6 +151,7 @@ public abstract class BasicQueryPlan implements QueryPlan {
         }
         ScanUtil.setTimeRange(scan, scn);
         ScanUtil.setTenantId(scan, connection.getTenantId() == null ? null : connection.getTenantId().getBytes());
+        ScanUtil.setQueryId(scan, ServerCacheClient.generateId());
         ResultIterator iterator = newIterator();
         return dependencies.isEmpty() ? 
                 iterator : new DelegateResultIterator(iterator) {
@@ -20,6 +20,7 @@ package org.apache.phoenix.execute;
 import java.sql.ParameterMetaData;
 import java.sql.SQLException;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
@@ -29,6 +30,9 @@ import java.util.concurrent.atomic.AtomicLong;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.apache.hadoop.hbase.client.Scan;
+import org.apache.hadoop.hbase.filter.Filter;
+import org.apache.hadoop.hbase.filter.FilterList;
+import org.apache.phoenix.cache.ServerCacheClient;
 import org.apache.phoenix.cache.ServerCacheClient.ServerCache;
 import org.apache.phoenix.compile.ExplainPlan;
 import org.apache.phoenix.compile.GroupByCompiler.GroupBy;
@@ -37,21 +41,30 @@ import org.apache.phoenix.compile.QueryPlan;
 import org.apache.phoenix.compile.RowProjector;
 import org.apache.phoenix.compile.ScanRanges;
 import org.apache.phoenix.compile.StatementContext;
+import org.apache.phoenix.exception.SQLExceptionCode;
 import org.apache.phoenix.expression.Expression;
+import org.apache.phoenix.filter.JoinKeyBloomFilter;
 import org.apache.phoenix.hbase.index.util.ImmutableBytesPtr;
 import org.apache.phoenix.iterate.ResultIterator;
+import org.apache.phoenix.jdbc.PhoenixConnection;
 import org.apache.phoenix.job.JobManager.JobCallable;
 import org.apache.phoenix.join.HashCacheClient;
+import org.apache.phoenix.join.HashCacheRegistry;
 import org.apache.phoenix.join.HashJoinInfo;
 import org.apache.phoenix.join.TupleProjector;
 import org.apache.phoenix.parse.FilterableStatement;
+import org.apache.phoenix.parse.JoinTableNode.JoinType;
 import org.apache.phoenix.query.ConnectionQueryServices;
 import org.apache.phoenix.query.KeyRange;
 import org.apache.phoenix.query.QueryServices;
 import org.apache.phoenix.query.QueryServicesOptions;
+import org.apache.phoenix.schema.PTable;
 import org.apache.phoenix.schema.TableRef;
+import org.apache.phoenix.schema.tuple.Tuple;
 import org.apache.phoenix.util.SQLCloseable;
 import org.apache.phoenix.util.SQLCloseables;
+import org.apache.phoenix.util.ScanUtil;
+import org.apache.phoenix.util.ServerUtil;
 
 import com.google.common.collect.Lists;
 
@@ -94,6 +107,14 @@ public class HashJoinPlan implements QueryPlan {
 
     @Override
     public ResultIterator iterator() throws SQLException {
+        return iterator(true);
+    }
+
+    /**
+     * @param retryMissingCaches whether to build and send again the reused hash caches a region server
+     * turns out not to have, and then retry the scan
+     */
+    private ResultIterator iterator(boolean retryMissingCaches) throws SQLException {
         ImmutableBytesPtr[] joinIds = joinInfo.getJoinIds();
         assert (joinIds.length == hashExpressions.length && joinIds.length == hashPlans.length);
 
@@ -104,26 +125,56 @@ public class HashJoinPlan implements QueryPlan {
         int count = joinIds.length;
         ConnectionQueryServices services = getContext().getConnection().getQueryServices();
         ExecutorService executor = services.getExecutor();
-        List<Future<ServerCache>> futures = new ArrayList<Future<ServerCache>>(count);
+        List<Future<List<ServerCache>>> futures = new ArrayList<Future<List<ServerCache>>>(count);
         List<SQLCloseable> dependencies = new ArrayList<SQLCloseable>(count);
         final int maxServerCacheTimeToLive = services.getProps().getInt(QueryServices.MAX_SERVER_CACHE_TIME_TO_LIVE_MS_ATTRIB, QueryServicesOptions.DEFAULT_MAX_SERVER_CACHE_TIME_TO_LIVE_MS);
+        final long chunkSize = services.getProps().getLong(QueryServices.HASH_CACHE_CHUNK_SIZE_ATTRIB, QueryServicesOptions.DEFAULT_HASH_CACHE_CHUNK_SIZE);
         final AtomicLong firstJobEndTime = new AtomicLong(0);
+        final JoinKeyBloomFilter.Builder[] keyFilterBuilders = newKeyFilterBuilders(services);
+        final HashCacheRegistry registry = HashCacheRegistry.getInstance(services);
+        final String[] reuseKeys = new String[count];
+        final List<String> usedReuseKeys = new ArrayList<String>(count);
         SQLException firstException = null;
         for (int i = 0; i < count; i++) {
             final int index = i;
-            futures.add(executor.submit(new JobCallable<ServerCache>() {
+            if (registry != null) {
+                reuseKeys[i] = getReuseKey(i, ranges);
+                HashCacheRegistry.Entry entry = registry.get(reuseKeys[i]);
+                if (entry != null) {
+                    // Join against the caches an earlier query left on the region servers
+                    joinIds[i].set(entry.getJoinId());
+                    if (keyFilterBuilders[i] != null) {
+                        keyFilterBuilders[i] = entry.getKeyFilterBuilder();
+                    }
+                    usedReuseKeys.add(reuseKeys[i]);
+                    futures.add(null);
+                    continue;
+                }
+            }
+            // All hash plans run at once, and each one broadcasts its rows in chunks while it is still scanning
+            futures.add(executor.submit(new JobCallable<List<ServerCache>>() {
 
                 @Override
-                public ServerCache call() throws Exception {
+                public List<ServerCache> call() throws Exception {
                     QueryPlan hashPlan = hashPlans[index];
-                    ServerCache cache = hashClient.addHashCache(ranges, hashPlan.iterator(), 
-                            clientProjectors[index], hashPlan.getEstimatedSize(), hashExpressions[index], plan.getTableRef());
+                    boolean reusable = reuseKeys[index] != null;
+                    // Registered caches keep the keys of all their rows, whatever the join that uses them
+                    JoinKeyBloomFilter.Builder keyFilterBuilder = reusable ? new JoinKeyBloomFilter.Builder() : keyFilterBuilders[index];
+                    List<ServerCache> caches = hashClient.addHashCaches(ranges, hashPlan.iterator(), 
+                            clientProjectors[index], hashPlan.getEstimatedSize(), hashExpressions[index], plan.getTableRef(),
+                            keyFilterBuilder, chunkSize, reusable);
+                    if (reusable) {
+                        registry.put(reuseKeys[index], getJoinId(caches), keyFilterBuilder);
+                        if (keyFilterBuilders[index] != null) {
+                            keyFilterBuilders[index] = keyFilterBuilder;
+                        }
+                    }
                     long endTime = System.currentTimeMillis();
                     boolean isSet = firstJobEndTime.compareAndSet(0, endTime);
                     if (!isSet && (endTime - firstJobEndTime.get()) > maxServerCacheTimeToLive) {
                         LOG.warn("Hash plan [" + index + "] execution seems too slow. Earlier hash cache(s) might have expired on servers.");
                     }
-                    return cache;
+                    return caches;
                 }
 
                 @Override
@@ -133,10 +184,18 @@ public class HashJoinPlan implements QueryPlan {
             }));
         }
         for (int i = 0; i < count; i++) {
+            if (futures.get(i) == null) {
+                continue;
+            }
             try {
-                ServerCache cache = futures.get(i).get();
-                joinIds[i].set(cache.getId());
-                dependencies.add(cache);
+                List<ServerCache> caches = futures.get(i).get();
+                joinIds[i].set(getJoinId(caches));
+                if (reuseKeys[i] != null) {
+                    // Left on the region servers for later queries, until they age out there
+                    usedReuseKeys.add(reuseKeys[i]);
+                } else {
+                    dependencies.addAll(caches);
+                }
             } catch (InterruptedException e) {
                 if (firstException == null) {
                     firstException = new SQLException("Hash plan [" + i + "] execution interrupted.", e);
@@ -154,8 +213,191 @@ public class HashJoinPlan implements QueryPlan {
         }
 
         HashJoinInfo.serializeHashJoinIntoScan(scan, joinInfo);
+        addKeyFilters(scan, keyFilterBuilders, services);
 
-        return plan.iterator(dependencies);
+        if (usedReuseKeys.isEmpty()) {
+            return plan.iterator(dependencies);
+        }
+        try {
+            return new ReusedHashCacheResultIterator(plan.iterator(dependencies), registry, usedReuseKeys, retryMissingCaches);
+        } catch (SQLException e) {
+            invalidate(registry, usedReuseKeys);
+            if (!retryMissingCaches || !isHashCacheNotFound(e)) {
+                throw e;
+            }
+            return retryWithNewCaches(e);
+        }
+    }
+    
+    /**
+     * Builds and sends again the caches of a join that found a reused cache missing on a region server, either because
+     * the server evicted it or because a probe side region moved to a server the cache was never sent to.
+     * The registry entries are invalidated by then, so this sends new caches to the current region servers.
+     */
+    private ResultIterator retryWithNewCaches(SQLException e) throws SQLException {
+        LOG.warn("Reused hash cache not found on a region server, sending the hash caches again: " + e.getMessage());
+        PTable table = plan.getTableRef().getTable();
+        getContext().getConnection().getQueryServices().clearTableRegionCache(table.getPhysicalName().getBytes());
+        return iterator(false);
+    }
+    
+    private static boolean isHashCacheNotFound(SQLException e) {
+        int errorCode = SQLExceptionCode.HASH_JOIN_CACHE_NOT_FOUND.getErrorCode();
+        for (Throwable t = e; t != null; t = t.getCause()) {
+            if (t instanceof SQLException && ((SQLException)t).getErrorCode() == errorCode) {
+                return true;
+            }
+        }
+        SQLException serverException = ServerUtil.parseServerExceptionOrNull(e);
+        return serverException != null && serverException.getErrorCode() == errorCode;
+    }
+    
+    /**
+     * Identifies the hash cache built by a hash plan, which may be reused for this join if the build side plan
+     * reads the same version of the same tables, and if the caches were sent to the region servers of the same
+     * probe side regions.
+     */
+    private String getReuseKey(int index, ScanRanges ranges) throws SQLException {
+        PhoenixConnection connection = getContext().getConnection();
+        QueryPlan hashPlan = hashPlans[index];
+        StringBuilder buf = new StringBuilder();
+        buf.append(connection.getTenantId()).append('\n');
+        buf.append(connection.getSCN()).append('\n');
+        appendTable(buf, plan.getTableRef());
+        buf.append(ranges).append('\n');
+        for (TableRef tableRef : hashPlan.getContext().getResolver().getTables()) {
+            appendTable(buf, tableRef);
+        }
+        for (String step : hashPlan.getExplainPlan().getPlanSteps()) {
+            buf.append(step).append('\n');
+        }
+        buf.append(hashPlan.getProjector()).append('\n');
+        buf.append(TupleProjector.deserializeProjectorFromScan(hashPlan.getContext().getScan())).append('\n');
+        buf.append(clientProjectors[index]).append('\n');
+        buf.append(hashExpressions[index]);
+        return buf.toString();
+    }
+    
+    private static void appendTable(StringBuilder buf, TableRef tableRef) {
+        PTable table = tableRef.getTable();
+        buf.append(table.getName().getString()).append('@').append(table.getTimeStamp()).append('\n');
+    }
+    
+    private static void invalidate(HashCacheRegistry registry, List<String> reuseKeys) {
+        for (String reuseKey : reuseKeys) {
+            registry.invalidate(reuseKey);
+        }
+    }
+    
+    /**
+     * Stops reusing the hash caches of a query that failed, as a region server may have evicted them,
+     * or the probe side regions may have moved to servers the caches were never sent to. If a cache
+     * was found missing before any row was returned, the scan is retried with new caches instead.
+     * Once rows were returned, the scan cannot be retried without returning them twice.
+     */
+    private class ReusedHashCacheResultIterator implements ResultIterator {
+        private final HashCacheRegistry registry;
+        private final List<String> reuseKeys;
+        private ResultIterator delegate;
+        private boolean retryMissingCaches;
+        private boolean hasReturnedRows;
+        
+        private ReusedHashCacheResultIterator(ResultIterator delegate, HashCacheRegistry registry, List<String> reuseKeys, boolean retryMissingCaches) {
+            this.delegate = delegate;
+            this.registry = registry;
+            this.reuseKeys = reuseKeys;
+            this.retryMissingCaches = retryMissingCaches;
+        }
+        
+        @Override
+        public Tuple next() throws SQLException {
+            try {
+                Tuple tuple = delegate.next();
+                hasReturnedRows |= tuple != null;
+                return tuple;
+            } catch (SQLException e) {
+                invalidate(registry, reuseKeys);
+                if (hasReturnedRows || !retryMissingCaches || !isHashCacheNotFound(e)) {
+                    throw e;
+                }
+                SQLCloseables.closeAllQuietly(Collections.singletonList(delegate));
+                retryMissingCaches = false;
+                delegate = retryWithNewCaches(e);
+                return next();
+            } catch (RuntimeException e) {
+                invalidate(registry, reuseKeys);
+                throw e;
+            }
+        }
+        
+        @Override
+        public void close() throws SQLException {
+            delegate.close();
+        }
+        
+        @Override
+        public void explain(List<String> planSteps) {
+            delegate.explain(planSteps);
+        }
+    }
+    
+    /**
+     * The join id is the concatenation of the ids of the caches holding the chunks of the hash table.
+     */
+    private static byte[] getJoinId(List<ServerCache> caches) {
+        if (caches.size() == 1) {
+            return caches.get(0).getId();
+        }
+        byte[] joinId = new byte[caches.size() * ServerCacheClient.UUID_LENGTH];
+        for (int i = 0; i < caches.size(); i++) {
+            System.arraycopy(caches.get(i).getId(), 0, joinId, i * ServerCacheClient.UUID_LENGTH, ServerCacheClient.UUID_LENGTH);
+        }
+        return joinId;
+    }
+    
+    /**
+     * A join key filter may only drop probe side rows that could not match. This holds for inner joins
+     * whose key is evaluated on the row as stored, before any projection takes place.
+     * @return a builder for each join whose key should be filtered on, and null for the others
+     */
+    private JoinKeyBloomFilter.Builder[] newKeyFilterBuilders(ConnectionQueryServices services) {
+        int count = joinInfo.getJoinIds().length;
+        JoinKeyBloomFilter.Builder[] builders = new JoinKeyBloomFilter.Builder[count];
+        long maxBytes = services.getProps().getLong(QueryServices.MAX_JOIN_KEY_FILTER_SIZE_ATTRIB, QueryServicesOptions.DEFAULT_MAX_JOIN_KEY_FILTER_SIZE);
+        if (maxBytes <= 0 || joinInfo.forceProjection()) {
+            return builders;
+        }
+        for (int i = 0; i < count; i++) {
+            if (joinInfo.getJoinTypes()[i] == JoinType.Inner && joinInfo.earlyEvaluation()[i]) {
+                builders[i] = new JoinKeyBloomFilter.Builder();
+            }
+        }
+        return builders;
+    }
+    
+    private void addKeyFilters(Scan scan, JoinKeyBloomFilter.Builder[] builders, ConnectionQueryServices services) {
+        // Drop the filters of a previous execution, as the build side may have changed since
+        Filter filter = scan.getFilter();
+        if (filter instanceof JoinKeyBloomFilter) {
+            scan.setFilter(null);
+        } else if (filter instanceof FilterList) {
+            FilterList filterList = (FilterList)filter;
+            List<Filter> filters = new ArrayList<Filter>(filterList.getFilters().size());
+            for (Filter f : filterList.getFilters()) {
+                if (!(f instanceof JoinKeyBloomFilter)) {
+                    filters.add(f);
+                }
+            }
+            if (filters.size() < filterList.getFilters().size()) {
+                scan.setFilter(filters.isEmpty() ? null : new FilterList(filterList.getOperator(), filters));
+            }
+        }
+        long maxBytes = services.getProps().getLong(QueryServices.MAX_JOIN_KEY_FILTER_SIZE_ATTRIB, QueryServicesOptions.DEFAULT_MAX_JOIN_KEY_FILTER_SIZE);
+        for (int i = 0; i < builders.length; i++) {
+            if (builders[i] != null) {
+                ScanUtil.andFilterAtEnd(scan, builders[i].build(joinInfo.getJoinExpressions()[i], maxBytes));
+            }
+        }
     }
 
     @Override
@@ -0,0 +1,302 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.phoenix.execute;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.hadoop.hbase.client.Mutation;
+import org.apache.hadoop.hbase.io.ImmutableBytesWritable;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.apache.phoenix.hbase.index.util.KeyValueBuilder;
+import org.apache.phoenix.schema.PColumn;
+import org.apache.phoenix.schema.PRow;
+import org.apache.phoenix.schema.PTable;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+
+/**
+ * 
+ * Uncommitted rows of a table. The row keys and column values are appended to a single
+ * byte array, and the rows and their column values are tracked through arrays of offsets,
+ * instead of a map of column to value per row. Setting a row again merges the new values
+ * into the existing row, a delete taking precedence over the values set before it.
+ * The rows are turned into HBase mutations only when they are committed.
+ *
+ */
+public class MutationBuffer {
+    private static final int NO_CELL = -1;
+    private static final int DELETED = -2;
+    private static final int INITIAL_ARENA_SIZE = 1024;
+    
+    private byte[] arena;
+    private int arenaLength;
+    
+    private int rowCount;
+    private int[] rowKeyOffsets;
+    private int[] rowKeyLengths;
+    private int[] rowHashes;
+    // The last value set in each row, through which the values of the row are linked,
+    // or NO_CELL for a row without values and DELETED for a deleted row
+    private int[] rowCells;
+    
+    private int cellCount;
+    private int[] cellColumns;
+    private int[] cellOffsets;
+    private int[] cellLengths; // -1 for a null value
+    private int[] cellNext;
+    
+    // Open addressing table of row index + 1, keyed by row key
+    private int[] slots;
+    
+    private final List<PColumn> columns = Lists.newArrayList();
+    private final Map<PColumn,Integer> columnIds = Maps.newHashMap();
+    
+    public MutationBuffer() {
+        this(16);
+    }
+    
+    public MutationBuffer(int expectedRows) {
+        int rows = Math.max(expectedRows, 4);
+        arena = new byte[INITIAL_ARENA_SIZE];
+        rowKeyOffsets = new int[rows];
+        rowKeyLengths = new int[rows];
+        rowHashes = new int[rows];
+        rowCells = new int[rows];
+        cellColumns = new int[rows];
+        cellOffsets = new int[rows];
+        cellLengths = new int[rows];
+        cellNext = new int[rows];
+        slots = new int[Integer.highestOneBit(rows * 2 - 1) << 1];
+    }
+    
+    /**
+     * @return the number of distinct rows
+     */
+    public int size() {
+        return rowCount;
+    }
+    
+    public boolean isEmpty() {
+        return rowCount == 0;
+    }
+    
+    /**
+     * @return an estimate of the heap used by the buffer
+     */
+    public long getByteSize() {
+        return arena.length + rowKeyOffsets.length * 16L + cellColumns.length * 16L + slots.length * 4L;
+    }
+    
+    /**
+     * Marks a row as being set, keeping the values already set for it unless it was deleted.
+     * @return the index of the row, through which its values are set with {@link #setValue(int, PColumn, byte[])}
+     */
+    public int upsertRow(ImmutableBytesWritable key) {
+        int row = getOrAddRow(key.get(), key.getOffset(), key.getLength());
+        if (rowCells[row] == DELETED) {
+            rowCells[row] = NO_CELL;
+        }
+        return row;
+    }
+    
+    /**
+     * Deletes a row, discarding any value set for it.
+     */
+    public void deleteRow(ImmutableBytesWritable key) {
+        rowCells[getOrAddRow(key.get(), key.getOffset(), key.getLength())] = DELETED;
+    }
+    
+    public void setValue(int row, PColumn column, byte[] value) {
+        if (value == null) {
+            setValue(row, column, null, 0, -1);
+        } else {
+            setValue(row, column, value, 0, value.length);
+        }
+    }
+    
+    private void setValue(int row, PColumn column, byte[] value, int offset, int length) {
+        Integer columnId = columnIds.get(column);
+        if (columnId == null) {
+            columnId = columns.size();
+            columns.add(column);
+            columnIds.put(column, columnId);
+        }
+        int valueOffset = 0;
+        if (length > 0) {
+            valueOffset = append(value, offset, length);
+        }
+        // Replace the value if already set, the previous bytes being left in the arena
+        for (int cell = rowCells[row]; cell >= 0; cell = cellNext[cell]) {
+            if (cellColumns[cell] == columnId) {
+                cellOffsets[cell] = valueOffset;
+                cellLengths[cell] = length;
+                return;
+            }
+        }
+        if (cellCount == cellColumns.length) {
+            int newLength = cellCount * 2;
+            cellColumns = Arrays.copyOf(cellColumns, newLength);
+            cellOffsets = Arrays.copyOf(cellOffsets, newLength);
+            cellLengths = Arrays.copyOf(cellLengths, newLength);
+            cellNext = Arrays.copyOf(cellNext, newLength);
+        }
+        int cell = cellCount++;
+        cellColumns[cell] = columnId;
+        cellOffsets[cell] = valueOffset;
+        cellLengths[cell] = length;
+        cellNext[cell] = rowCells[row];
+        rowCells[row] = cell;
+    }
+    
+    /**
+     * Merges newer rows into this buffer, the newer rows taking precedence.
+     * A newer set of a deleted row replaces the delete.
+     */
+    public void join(MutationBuffer newer) {
+        ImmutableBytesWritable key = new ImmutableBytesWritable();
+        for (int i = 0; i < newer.rowCount; i++) {
+            key.set(newer.arena, newer.rowKeyOffsets[i], newer.rowKeyLengths[i]);
+            if (newer.rowCells[i] == DELETED) {
+                deleteRow(key);
+            } else {
+                int row = upsertRow(key);
+                // Set from the oldest value, so that the newest one is kept
+                int[] cells = newer.getCells(i);
+                for (int j = cells.length - 1; j >= 0; j--) {
+                    int cell = cells[j];
+                    setValue(row, newer.columns.get(newer.cellColumns[cell]), newer.arena, newer.cellOffsets[cell], newer.cellLengths[cell]);
+                }
+            }
+        }
+    }
+    
+    private int[] getCells(int row) {
+        int count = 0;
+        for (int cell = rowCells[row]; cell >= 0; cell = cellNext[cell]) {
+            count++;
+        }
+        int[] cells = new int[count];
+        count = 0;
+        for (int cell = rowCells[row]; cell >= 0; cell = cellNext[cell]) {
+            cells[count++] = cell;
+        }
+        return cells;
+    }
+    
+    /**
+     * @return the columns set in the rows which are not deleted
+     */
+    public Set<PColumn> getUpsertedColumns() {
+        Set<PColumn> upsertedColumns = Sets.newHashSetWithExpectedSize(columns.size());
+        for (int i = 0; i < rowCount; i++) {
+            for (int cell = rowCells[i]; cell >= 0; cell = cellNext[cell]) {
+                upsertedColumns.add(columns.get(cellColumns[cell]));
+            }
+        }
+        return upsertedColumns;
+    }
+    
+    /**
+     * Builds the HBase mutations of the rows, in the order in which they were first set.
+     */
+    public List<Mutation> toMutations(PTable table, KeyValueBuilder builder, long timestamp) {
+        List<Mutation> mutations = Lists.newArrayListWithExpectedSize(rowCount);
+        ImmutableBytesWritable key = new ImmutableBytesWritable();
+        for (int i = 0; i < rowCount; i++) {
+            key.set(arena, rowKeyOffsets[i], rowKeyLengths[i]);
+            PRow row = table.newRow(builder, timestamp, key);
+            if (rowCells[i] == DELETED) {
+                row.delete();
+            } else {
+                for (int cell = rowCells[i]; cell >= 0; cell = cellNext[cell]) {
+                    int length = cellLengths[cell];
+                    byte[] value = length < 0 ? null : Arrays.copyOfRange(arena, cellOffsets[cell], cellOffsets[cell] + length);
+                    row.setValue(columns.get(cellColumns[cell]), value);
+                }
+            }
+            mutations.addAll(row.toRowMutations());
+        }
+        return mutations;
+    }
+    
+    public void clear() {
+        arenaLength = 0;
+        rowCount = 0;
+        cellCount = 0;
+        Arrays.fill(slots, 0);
+        columns.clear();
+        columnIds.clear();
+    }
+    
+    private int getOrAddRow(byte[] key, int offset, int length) {
+        int hash = Bytes.hashCode(key, offset, length);
+        int mask = slots.length - 1;
+        int slot = hash & mask;
+        while (slots[slot] != 0) {
+            int row = slots[slot] - 1;
+            if (rowHashes[row] == hash && Bytes.equals(arena, rowKeyOffsets[row], rowKeyLengths[row], key, offset, length)) {
+                return row;
+            }
+            slot = (slot + 1) & mask;
+        }
+        if (rowCount == rowKeyOffsets.length) {
+            int newLength = rowCount * 2;
+            rowKeyOffsets = Arrays.copyOf(rowKeyOffsets, newLength);
+            rowKeyLengths = Arrays.copyOf(rowKeyLengths, newLength);
+            rowHashes = Arrays.copyOf(rowHashes, newLength);
+            rowCells = Arrays.copyOf(rowCells, newLength);
+        }
+        int row = rowCount++;
+        rowKeyOffsets[row] = append(key, offset, length);
+        rowKeyLengths[row] = length;
+        rowHashes[row] = hash;
+        rowCells[row] = NO_CELL;
+        slots[slot] = row + 1;
+        if (rowCount * 2 > slots.length) {
+            rehash(slots.length * 2);
+        }
+        return row;
+    }
+    
+    private void rehash(int size) {
+        slots = new int[size];
+        int mask = size - 1;
+        for (int row = 0; row < rowCount; row++) {
+            int slot = rowHashes[row] & mask;
+            while (slots[slot] != 0) {
+                slot = (slot + 1) & mask;
+            }
+            slots[slot] = row + 1;
+        }
+    }
+    
+    private int append(byte[] bytes, int offset, int length) {
+        if (arenaLength + length > arena.length) {
+            arena = Arrays.copyOf(arena, Math.max(arena.length * 2, arenaLength + length));
+        }
+        System.arraycopy(bytes, offset, arena, arenaLength, length);
+        int start = arenaLength;
+        arenaLength += length;
+        return start;
+    }
+}
@@ -19,14 +19,25 @@ package org.apache.phoenix.execute;
 
 import java.io.IOException;
 import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import org.apache.hadoop.hbase.Cell;
 import org.apache.hadoop.hbase.CellUtil;
 import org.apache.hadoop.hbase.HConstants;
+import org.apache.hadoop.hbase.HRegionLocation;
 import org.apache.hadoop.hbase.client.HTableInterface;
 import org.apache.hadoop.hbase.client.Mutation;
 import org.apache.hadoop.hbase.util.Bytes;
@@ -40,18 +51,22 @@ import org.apache.phoenix.index.IndexMaintainer;
 import org.apache.phoenix.index.IndexMetaDataCacheClient;
 import org.apache.phoenix.index.PhoenixIndexCodec;
 import org.apache.phoenix.jdbc.PhoenixConnection;
+import org.apache.phoenix.job.JobManager;
+import org.apache.phoenix.job.JobManager.JobCallable;
 import org.apache.phoenix.query.QueryConstants;
+import org.apache.phoenix.query.QueryServices;
+import org.apache.phoenix.query.QueryServicesOptions;
 import org.apache.phoenix.schema.IllegalDataException;
 import org.apache.phoenix.schema.MetaDataClient;
 import org.apache.phoenix.schema.PColumn;
 import org.apache.phoenix.schema.PName;
-import org.apache.phoenix.schema.PRow;
 import org.apache.phoenix.schema.PTable;
 import org.apache.phoenix.schema.PTableKey;
 import org.apache.phoenix.schema.TableRef;
 import org.apache.phoenix.util.ByteUtil;
 import org.apache.phoenix.util.IndexUtil;
 import org.apache.phoenix.util.PhoenixRuntime;
+import org.apache.phoenix.util.ReadOnlyProps;
 import org.apache.phoenix.util.SQLCloseable;
 import org.apache.phoenix.util.ServerUtil;
 import org.slf4j.Logger;
@@ -74,7 +89,7 @@ public class MutationState implements SQLCloseable {
     private PhoenixConnection connection;
     private final long maxSize;
     private final ImmutableBytesPtr tempPtr = new ImmutableBytesPtr();
-    private final Map<TableRef, Map<ImmutableBytesPtr,Map<PColumn,byte[]>>> mutations = Maps.newHashMapWithExpectedSize(3); // TODO: Sizing?
+    private final Map<TableRef, MutationBuffer> mutations = Maps.newHashMapWithExpectedSize(3); // TODO: Sizing?
     private final long sizeOffset;
     private int numRows = 0;
 
@@ -88,7 +103,7 @@ public class MutationState implements SQLCloseable {
         this.sizeOffset = sizeOffset;
     }
     
-    public MutationState(TableRef table, Map<ImmutableBytesPtr,Map<PColumn,byte[]>> mutations, long sizeOffset, long maxSize, PhoenixConnection connection) {
+    public MutationState(TableRef table, MutationBuffer mutations, long sizeOffset, long maxSize, PhoenixConnection connection) {
         this.maxSize = maxSize;
         this.connection = connection;
         this.mutations.put(table, mutations);
@@ -97,11 +112,11 @@ public class MutationState implements SQLCloseable {
         throwIfTooBig();
     }
     
-    private MutationState(List<Map.Entry<TableRef, Map<ImmutableBytesPtr,Map<PColumn,byte[]>>>> entries, long sizeOffset, long maxSize, PhoenixConnection connection) {
+    private MutationState(List<Map.Entry<TableRef, MutationBuffer>> entries, long sizeOffset, long maxSize, PhoenixConnection connection) {
         this.maxSize = maxSize;
         this.connection = connection;
         this.sizeOffset = sizeOffset;
-        for (Map.Entry<TableRef, Map<ImmutableBytesPtr,Map<PColumn,byte[]>>> entry : entries) {
+        for (Map.Entry<TableRef, MutationBuffer> entry : entries) {
             numRows += entry.getValue().size();
             this.mutations.put(entry.getKey(), entry.getValue());
         }
@@ -128,57 +143,22 @@ public class MutationState implements SQLCloseable {
             return;
         }
         // Merge newMutation with this one, keeping state from newMutation for any overlaps
-        for (Map.Entry<TableRef, Map<ImmutableBytesPtr,Map<PColumn,byte[]>>> entry : newMutation.mutations.entrySet()) {
-            // Replace existing entries for the table with new entries
-            Map<ImmutableBytesPtr,Map<PColumn,byte[]>> existingRows = this.mutations.put(entry.getKey(), entry.getValue());
+        for (Map.Entry<TableRef, MutationBuffer> entry : newMutation.mutations.entrySet()) {
+            MutationBuffer existingRows = this.mutations.get(entry.getKey());
             if (existingRows != null) { // Rows for that table already exist
-                // Loop through new rows and replace existing with new
-                for (Map.Entry<ImmutableBytesPtr,Map<PColumn,byte[]>> rowEntry : entry.getValue().entrySet()) {
-                    // Replace existing row with new row
-                    Map<PColumn,byte[]> existingValues = existingRows.put(rowEntry.getKey(), rowEntry.getValue());
-                    if (existingValues != null) {
-                        if (existingValues != PRow.DELETE_MARKER) {
-                            Map<PColumn,byte[]> newRow = rowEntry.getValue();
-                            // if new row is PRow.DELETE_MARKER, it means delete, and we don't need to merge it with existing row. 
-                            if (newRow != PRow.DELETE_MARKER) {
-                                // Replace existing column values with new column values
-                                for (Map.Entry<PColumn,byte[]> valueEntry : newRow.entrySet()) {
-                                    existingValues.put(valueEntry.getKey(), valueEntry.getValue());
-                                }
-                                // Now that the existing row has been merged with the new row, replace it back
-                                // again (since it was replaced with the new one above).
-                                existingRows.put(rowEntry.getKey(), existingValues);
-                            }
-                        }
-                    } else {
-                        numRows++;
-                    }
-                }
-                // Put the existing one back now that it's merged
-                this.mutations.put(entry.getKey(), existingRows);
+                numRows -= existingRows.size();
+                existingRows.join(entry.getValue());
+                numRows += existingRows.size();
             } else {
+                this.mutations.put(entry.getKey(), entry.getValue());
                 numRows += entry.getValue().size();
             }
         }
         throwIfTooBig();
     }
     
-    private Iterator<Pair<byte[],List<Mutation>>> addRowMutations(final TableRef tableRef, final Map<ImmutableBytesPtr, Map<PColumn, byte[]>> values, long timestamp, boolean includeMutableIndexes) {
-        final List<Mutation> mutations = Lists.newArrayListWithExpectedSize(values.size());
-        Iterator<Map.Entry<ImmutableBytesPtr,Map<PColumn,byte[]>>> iterator = values.entrySet().iterator();
-        while (iterator.hasNext()) {
-            Map.Entry<ImmutableBytesPtr,Map<PColumn,byte[]>> rowEntry = iterator.next();
-            ImmutableBytesPtr key = rowEntry.getKey();
-            PRow row = tableRef.getTable().newRow(connection.getKeyValueBuilder(), timestamp, key);
-            if (rowEntry.getValue() == PRow.DELETE_MARKER) { // means delete
-                row.delete();
-            } else {
-                for (Map.Entry<PColumn,byte[]> valueEntry : rowEntry.getValue().entrySet()) {
-                    row.setValue(valueEntry.getKey(), valueEntry.getValue());
-                }
-            }
-            mutations.addAll(row.toRowMutations());
-        }
+    private Iterator<Pair<byte[],List<Mutation>>> addRowMutations(final TableRef tableRef, final MutationBuffer values, long timestamp, boolean includeMutableIndexes) {
+        final List<Mutation> mutations = values.toMutations(tableRef.getTable(), connection.getKeyValueBuilder(), timestamp);
         final Iterator<PTable> indexes = // Only maintain tables with immutable rows through this client-side mechanism
                 (tableRef.getTable().isImmutableRows() || includeMutableIndexes) ? 
                         IndexMaintainer.nonDisabledIndexIterator(tableRef.getTable().getIndexes().iterator()) : 
@@ -226,14 +206,14 @@ public class MutationState implements SQLCloseable {
     }
     
     public Iterator<Pair<byte[],List<Mutation>>> toMutations(final boolean includeMutableIndexes) {
-        final Iterator<Map.Entry<TableRef, Map<ImmutableBytesPtr,Map<PColumn,byte[]>>>> iterator = this.mutations.entrySet().iterator();
+        final Iterator<Map.Entry<TableRef, MutationBuffer>> iterator = this.mutations.entrySet().iterator();
         if (!iterator.hasNext()) {
             return Iterators.emptyIterator();
         }
         Long scn = connection.getSCN();
         final long timestamp = scn == null ? HConstants.LATEST_TIMESTAMP : scn;
         return new Iterator<Pair<byte[],List<Mutation>>>() {
-            private Map.Entry<TableRef, Map<ImmutableBytesPtr,Map<PColumn,byte[]>>> current = iterator.next();
+            private Map.Entry<TableRef, MutationBuffer> current = iterator.next();
             private Iterator<Pair<byte[],List<Mutation>>> innerIterator = init();
                     
             private Iterator<Pair<byte[],List<Mutation>>> init() {
@@ -274,7 +254,7 @@ public class MutationState implements SQLCloseable {
         PName tenantId = connection.getTenantId();
         MetaDataClient client = new MetaDataClient(connection);
         long[] timeStamps = new long[this.mutations.size()];
-        for (Map.Entry<TableRef, Map<ImmutableBytesPtr,Map<PColumn,byte[]>>> entry : mutations.entrySet()) {
+        for (Map.Entry<TableRef, MutationBuffer> entry : mutations.entrySet()) {
             TableRef tableRef = entry.getKey();
             long serverTimeStamp = tableRef.getTimeStamp();
             PTable table = tableRef.getTable();
@@ -285,20 +265,10 @@ public class MutationState implements SQLCloseable {
                     serverTimeStamp = timestamp;
                     if (result.wasUpdated()) {
                         // TODO: use bitset?
-                        PColumn[] columns = new PColumn[table.getColumns().size()];
-                        for (Map.Entry<ImmutableBytesPtr,Map<PColumn,byte[]>> rowEntry : entry.getValue().entrySet()) {
-                            Map<PColumn,byte[]> valueEntry = rowEntry.getValue();
-                            if (valueEntry != PRow.DELETE_MARKER) {
-                                for (PColumn column : valueEntry.keySet()) {
-                                    columns[column.getPosition()] = column;
-                                }
-                            }
-                        }
+                        Set<PColumn> columns = entry.getValue().getUpsertedColumns();
                         table = connection.getMetaDataCache().getTable(new PTableKey(tenantId, table.getName().getString()));
                         for (PColumn column : columns) {
-                            if (column != null) {
-                                table.getColumnFamily(column.getFamilyName().getString()).getColumn(column.getName().getString());
-                            }
+                            table.getColumnFamily(column.getFamilyName().getString()).getColumn(column.getName().getString());
                         }
                     }
                 }
@@ -326,114 +296,319 @@ public class MutationState implements SQLCloseable {
         logger.debug("Sending " + mutations.size() + " mutations for " + Bytes.toString(htable.getTableName()) + " with " + keyValueCount + " key values of total size " + byteSize + " bytes");
     }
     
-    @SuppressWarnings("deprecation")
+    /**
+     * Splits the mutations of a batch into chunks of about chunkSize bytes, each holding the
+     * mutations of one or more neighboring regions, so that the chunks may be sent in parallel.
+     * The mutations of a row are never split across chunks.
+     */
+    private List<List<Mutation>> splitIntoChunks(byte[] htableName, List<Mutation> mutations, long chunkSize) throws SQLException {
+        long size = 0;
+        for (Mutation mutation : mutations) {
+            size += mutation.heapSize();
+        }
+        if (size <= chunkSize) {
+            return Collections.singletonList(mutations);
+        }
+        List<HRegionLocation> regions = connection.getQueryServices().getAllTableRegions(htableName);
+        byte[][] startKeys = new byte[regions.size()][];
+        for (int i = 0; i < startKeys.length; i++) {
+            startKeys[i] = regions.get(i).getRegionInfo().getStartKey();
+        }
+        Arrays.sort(startKeys, Bytes.BYTES_COMPARATOR);
+        // Group the mutations by region, keeping their order within each region
+        List<List<Mutation>> regionMutations = Lists.newArrayListWithExpectedSize(startKeys.length);
+        for (int i = 0; i < startKeys.length; i++) {
+            regionMutations.add(Lists.<Mutation>newArrayList());
+        }
+        for (Mutation mutation : mutations) {
+            int index = Arrays.binarySearch(startKeys, mutation.getRow(), Bytes.BYTES_COMPARATOR);
+            // The first start key is empty, so the row is always past it
+            regionMutations.get(index < 0 ? -(index + 1) - 1 : index).add(mutation);
+        }
+        List<List<Mutation>> chunks = Lists.newArrayListWithExpectedSize((int)(size / chunkSize) + startKeys.length);
+        List<Mutation> chunk = Lists.newArrayList();
+        long chunkBytes = 0;
+        byte[] lastRow = null;
+        for (List<Mutation> regionChunk : regionMutations) {
+            for (Mutation mutation : regionChunk) {
+                if (chunkBytes >= chunkSize && !Bytes.equals(lastRow, mutation.getRow())) {
+                    chunks.add(chunk);
+                    chunk = Lists.newArrayList();
+                    chunkBytes = 0;
+                }
+                chunk.add(mutation);
+                chunkBytes += mutation.heapSize();
+                lastRow = mutation.getRow();
+            }
+        }
+        if (!chunk.isEmpty()) {
+            chunks.add(chunk);
+        }
+        return chunks;
+    }
+    
+    /**
+     * Sends the mutations of the data table and of its immutable indexes in parallel. Large batches
+     * are split into chunks grouped by region which are sent in parallel too, while the bytes
+     * of the chunks being sent are bounded. Mutations are generated while earlier chunks are being
+     * sent. Once a chunk fails no more chunks are sent, and the tables whose chunks were all
+     * sent successfully are reported as committed through a {@link CommitException}.
+     * When called from a thread of the query executor, as done for an UPSERT SELECT committing
+     * as it goes, the chunks are sent inline, since waiting on chunks queued behind the
+     * threads busy waiting for them would never return.
+     */
     public void commit() throws SQLException {
         int i = 0;
         byte[] tenantId = connection.getTenantId() == null ? null : connection.getTenantId().getBytes();
         long[] serverTimeStamps = validate();
-        Iterator<Map.Entry<TableRef, Map<ImmutableBytesPtr,Map<PColumn,byte[]>>>> iterator = this.mutations.entrySet().iterator();
-        List<Map.Entry<TableRef, Map<ImmutableBytesPtr,Map<PColumn,byte[]>>>> committedList = Lists.newArrayListWithCapacity(this.mutations.size());
-        while (iterator.hasNext()) {
-            Map.Entry<TableRef, Map<ImmutableBytesPtr,Map<PColumn,byte[]>>> entry = iterator.next();
-            Map<ImmutableBytesPtr,Map<PColumn,byte[]>> valuesMap = entry.getValue();
-            TableRef tableRef = entry.getKey();
-            PTable table = tableRef.getTable();
-            table.getIndexMaintainers(tempPtr);
-            boolean hasIndexMaintainers = tempPtr.getLength() > 0;
-            boolean isDataTable = true;
-            long serverTimestamp = serverTimeStamps[i++];
-            Iterator<Pair<byte[],List<Mutation>>> mutationsIterator = addRowMutations(tableRef, valuesMap, serverTimestamp, false);
-            while (mutationsIterator.hasNext()) {
-                Pair<byte[],List<Mutation>> pair = mutationsIterator.next();
-                byte[] htableName = pair.getFirst();
-                List<Mutation> mutations = pair.getSecond();
-                
-                int retryCount = 0;
-                boolean shouldRetry = false;
-                do {
-                    ServerCache cache = null;
-                    if (hasIndexMaintainers && isDataTable) {
-                        byte[] attribValue = null;
-                        byte[] uuidValue;
-                        if (IndexMetaDataCacheClient.useIndexMetadataCache(connection, mutations, tempPtr.getLength())) {
-                            IndexMetaDataCacheClient client = new IndexMetaDataCacheClient(connection, tableRef);
-                            cache = client.addIndexMetadataCache(mutations, tempPtr);
-                            uuidValue = cache.getId();
-                            // If we haven't retried yet, retry for this case only, as it's possible that
-                            // a split will occur after we send the index metadata cache to all known
-                            // region servers.
-                            shouldRetry = true;
-                        } else {
-                            attribValue = ByteUtil.copyKeyBytesIfNecessary(tempPtr);
-                            uuidValue = ServerCacheClient.generateId();
+        ReadOnlyProps props = connection.getQueryServices().getProps();
+        long chunkSize = props.getInt(QueryServices.COMMIT_CHUNK_SIZE_ATTRIB, QueryServicesOptions.DEFAULT_COMMIT_CHUNK_SIZE);
+        int maxInFlightBytes = props.getInt(QueryServices.COMMIT_MAX_IN_FLIGHT_BYTES_ATTRIB, QueryServicesOptions.DEFAULT_COMMIT_MAX_IN_FLIGHT_BYTES);
+        ExecutorService executor = JobManager.isJobThread() ? null : connection.getQueryServices().getExecutor();
+        AtomicBoolean hasFailed = new AtomicBoolean();
+        Semaphore inFlightBytes = new Semaphore(maxInFlightBytes);
+        List<Map.Entry<TableRef, MutationBuffer>> entries = Lists.newArrayList(this.mutations.entrySet());
+        List<List<Future<Void>>> tableFutures = Lists.newArrayListWithExpectedSize(entries.size());
+        boolean[] isDispatched = new boolean[entries.size()];
+        Throwable dispatchFailure = null;
+        try {
+            for (Map.Entry<TableRef, MutationBuffer> entry : entries) {
+                List<Future<Void>> futures = Lists.newArrayList();
+                tableFutures.add(futures);
+                TableRef tableRef = entry.getKey();
+                PTable table = tableRef.getTable();
+                table.getIndexMaintainers(tempPtr);
+                // Copied, as tempPtr is reused while the chunks are being sent
+                ImmutableBytesPtr indexMaintainers = tempPtr.getLength() > 0 ? new ImmutableBytesPtr(ByteUtil.copyKeyBytesIfNecessary(tempPtr)) : null;
+                long serverTimestamp = serverTimeStamps[i];
+                Iterator<Pair<byte[],List<Mutation>>> mutationsIterator = addRowMutations(tableRef, entry.getValue(), serverTimestamp, false);
+                while (mutationsIterator.hasNext()) {
+                    Pair<byte[],List<Mutation>> pair = mutationsIterator.next();
+                    byte[] htableName = pair.getFirst();
+                    for (List<Mutation> chunk : splitIntoChunks(htableName, pair.getSecond(), chunkSize)) {
+                        long chunkBytes = 0;
+                        for (Mutation mutation : chunk) {
+                            chunkBytes += mutation.heapSize();
                         }
-                        // Either set the UUID to be able to access the index metadata from the cache
-                        // or set the index metadata directly on the Mutation
-                        for (Mutation mutation : mutations) {
-                            if (tenantId != null) {
-                                mutation.setAttribute(PhoenixRuntime.TENANT_ID_ATTRIB, tenantId);
-                            }
-                            mutation.setAttribute(PhoenixIndexCodec.INDEX_UUID, uuidValue);
-                            if (attribValue != null) {
-                                mutation.setAttribute(PhoenixIndexCodec.INDEX_MD, attribValue);
+                        int permits = (int)Math.min(chunkBytes, maxInFlightBytes);
+                        inFlightBytes.acquire(permits);
+                        if (hasFailed.get()) {
+                            // Stop sending more as soon as something failed
+                            inFlightBytes.release(permits);
+                            throw new ChunkFailedException();
+                        }
+                        CommitTask task = new CommitTask(tableRef, htableName, chunk, indexMaintainers, tenantId, inFlightBytes, permits, hasFailed);
+                        Future<Void> future = null;
+                        if (executor != null) {
+                            try {
+                                future = executor.submit(task);
+                            } catch (RejectedExecutionException e) {
+                                // Send it ourselves rather than fail the commit
                             }
                         }
+                        if (future == null) {
+                            FutureTask<Void> inlineFuture = new FutureTask<Void>(task);
+                            inlineFuture.run();
+                            future = inlineFuture;
+                        }
+                        futures.add(future);
                     }
-                    
-                    SQLException sqlE = null;
-                    HTableInterface hTable = connection.getQueryServices().getTable(htableName);
+                    // The index metadata is only attached to the data table mutations
+                    indexMaintainers = null;
+                }
+                isDispatched[i++] = true;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            dispatchFailure = e;
+        } catch (Throwable t) {
+            dispatchFailure = t;
+        }
+        
+        // Wait for everything sent so far, so that the committed state is known
+        List<Map.Entry<TableRef, MutationBuffer>> committedList = Lists.newArrayListWithCapacity(entries.size());
+        Throwable sendFailure = dispatchFailure instanceof InterruptedException ? dispatchFailure : null;
+        for (i = 0; i < tableFutures.size(); i++) {
+            boolean isCommitted = isDispatched[i];
+            for (Future<Void> future : tableFutures.get(i)) {
+                try {
+                    future.get();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    isCommitted = false;
+                    if (sendFailure == null) {
+                        sendFailure = e;
+                    }
+                } catch (ExecutionException e) {
+                    isCommitted = false;
+                    if (sendFailure == null) {
+                        sendFailure = e.getCause();
+                    }
+                }
+            }
+            if (isCommitted) {
+                Map.Entry<TableRef, MutationBuffer> entry = entries.get(i);
+                committedList.add(entry);
+                numRows -= entry.getValue().size();
+                this.mutations.remove(entry.getKey()); // Remove batches as we process them
+            }
+        }
+        if (sendFailure != null) {
+            if (sendFailure instanceof Error) {
+                throw (Error)sendFailure;
+            }
+            // Throw to client with both what was committed so far and what is left to be committed.
+            // That way, client can either undo what was done or try again with what was not done.
+            throw new CommitException((Exception)sendFailure, this, new MutationState(committedList, this.sizeOffset, this.maxSize, this.connection));
+        }
+        // Otherwise the mutations of a table could not be generated, which is reported as is
+        if (dispatchFailure instanceof SQLException) {
+            throw (SQLException)dispatchFailure;
+        }
+        if (dispatchFailure instanceof RuntimeException) {
+            throw (RuntimeException)dispatchFailure;
+        }
+        if (dispatchFailure instanceof Error) {
+            throw (Error)dispatchFailure;
+        }
+        assert(numRows==0);
+        assert(this.mutations.isEmpty());
+    }
+    
+    /**
+     * Stops the sending of chunks once one of them failed, whose own failure is reported instead.
+     */
+    private static class ChunkFailedException extends Exception {
+        private static final long serialVersionUID = 1L;
+    }
+    
+    /**
+     * Sends a chunk of the mutations of a table, attaching the index metadata to them first for
+     * a data table with mutable indexes.
+     */
+    private class CommitTask implements JobCallable<Void> {
+        private final TableRef tableRef;
+        private final byte[] htableName;
+        private final List<Mutation> mutations;
+        private final ImmutableBytesPtr indexMaintainers;
+        private final byte[] tenantId;
+        private final Semaphore inFlightBytes;
+        private final int permits;
+        private final AtomicBoolean hasFailed;
+        
+        private CommitTask(TableRef tableRef, byte[] htableName, List<Mutation> mutations, ImmutableBytesPtr indexMaintainers,
+                byte[] tenantId, Semaphore inFlightBytes, int permits, AtomicBoolean hasFailed) {
+            this.tableRef = tableRef;
+            this.htableName = htableName;
+            this.mutations = mutations;
+            this.indexMaintainers = indexMaintainers;
+            this.tenantId = tenantId;
+            this.inFlightBytes = inFlightBytes;
+            this.permits = permits;
+            this.hasFailed = hasFailed;
+        }
+        
+        @Override
+        public Object getJobId() {
+            return MutationState.this;
+        }
+        
+        @Override
+        public Void call() throws Exception {
+            try {
+                send();
+                return null;
+            } catch (Exception e) {
+                // Set before the bytes are released, so that the next chunk waiting for them is not sent
+                hasFailed.set(true);
+                throw e;
+            } catch (Error e) {
+                hasFailed.set(true);
+                throw e;
+            } finally {
+                inFlightBytes.release(permits);
+            }
+        }
+        
+        @SuppressWarnings("deprecation")
+        private void send() throws Exception {
+            int retryCount = 0;
+            boolean shouldRetry = false;
+            do {
+                ServerCache cache = null;
+                if (indexMaintainers != null) {
+                    byte[] attribValue = null;
+                    byte[] uuidValue;
+                    if (IndexMetaDataCacheClient.useIndexMetadataCache(connection, mutations, indexMaintainers.getLength())) {
+                        IndexMetaDataCacheClient client = new IndexMetaDataCacheClient(connection, tableRef);
+                        cache = client.addIndexMetadataCache(mutations, indexMaintainers);
+                        uuidValue = cache.getId();
+                        // If we haven't retried yet, retry for this case only, as it's possible that
+                        // a split will occur after we send the index metadata cache to all known
+                        // region servers.
+                        shouldRetry = true;
+                    } else {
+                        attribValue = ByteUtil.copyKeyBytesIfNecessary(indexMaintainers);
+                        uuidValue = ServerCacheClient.generateId();
+                    }
+                    // Either set the UUID to be able to access the index metadata from the cache
+                    // or set the index metadata directly on the Mutation
+                    for (Mutation mutation : mutations) {
+                        if (tenantId != null) {
+                            mutation.setAttribute(PhoenixRuntime.TENANT_ID_ATTRIB, tenantId);
+                        }
+                        mutation.setAttribute(PhoenixIndexCodec.INDEX_UUID, uuidValue);
+                        if (attribValue != null) {
+                            mutation.setAttribute(PhoenixIndexCodec.INDEX_MD, attribValue);
+                        }
+                    }
+                }
+                
+                Exception sqlE = null;
+                HTableInterface hTable = connection.getQueryServices().getTable(htableName);
+                try {
+                    if (logger.isDebugEnabled()) logMutationSize(hTable, mutations);
+                    long startTime = System.currentTimeMillis();
+                    hTable.batch(mutations);
+                    shouldRetry = false;
+                    if (logger.isDebugEnabled()) logger.debug("Total time for batch call of  " + mutations.size() + " mutations into " + Bytes.toString(htableName) + ": " + (System.currentTimeMillis() - startTime) + " ms");
+                } catch (Exception e) {
+                    SQLException inferredE = ServerUtil.parseServerExceptionOrNull(e);
+                    if (inferredE != null) {
+                        if (shouldRetry && retryCount == 0 && inferredE.getErrorCode() == SQLExceptionCode.INDEX_METADATA_NOT_FOUND.getErrorCode()) {
+                            // Swallow this exception once, as it's possible that we split after sending the index metadata
+                            // and one of the region servers doesn't have it. This will cause it to have it the next go around.
+                            // If it fails again, we don't retry.
+                            logger.warn("Swallowing exception and retrying after clearing meta cache on connection. " + inferredE);
+                            connection.getQueryServices().clearTableRegionCache(htableName);
+                            continue;
+                        }
+                        e = inferredE;
+                    }
+                    sqlE = e;
+                } finally {
                     try {
-                        if (logger.isDebugEnabled()) logMutationSize(hTable, mutations);
-                        long startTime = System.currentTimeMillis();
-                        hTable.batch(mutations);
-                        shouldRetry = false;
-                        if (logger.isDebugEnabled()) logger.debug("Total time for batch call of  " + mutations.size() + " mutations into " + table.getName().getString() + ": " + (System.currentTimeMillis() - startTime) + " ms");
-                        committedList.add(entry);
-                    } catch (Exception e) {
-                        SQLException inferredE = ServerUtil.parseServerExceptionOrNull(e);
-                        if (inferredE != null) {
-                            if (shouldRetry && retryCount == 0 && inferredE.getErrorCode() == SQLExceptionCode.INDEX_METADATA_NOT_FOUND.getErrorCode()) {
-                                // Swallow this exception once, as it's possible that we split after sending the index metadata
-                                // and one of the region servers doesn't have it. This will cause it to have it the next go around.
-                                // If it fails again, we don't retry.
-                                logger.warn("Swallowing exception and retrying after clearing meta cache on connection. " + inferredE);
-                                connection.getQueryServices().clearTableRegionCache(htableName);
-                                continue;
-                            }
-                            e = inferredE;
+                        hTable.close();
+                    } catch (IOException e) {
+                        if (sqlE == null) {
+                            sqlE = ServerUtil.parseServerException(e);
+                        } else if (sqlE instanceof SQLException) {
+                            ((SQLException)sqlE).setNextException(ServerUtil.parseServerException(e));
                         }
-                        // Throw to client with both what was committed so far and what is left to be committed.
-                        // That way, client can either undo what was done or try again with what was not done.
-                        sqlE = new CommitException(e, this, new MutationState(committedList, this.sizeOffset, this.maxSize, this.connection));
                     } finally {
                         try {
-                            hTable.close();
-                        } catch (IOException e) {
-                            if (sqlE != null) {
-                                sqlE.setNextException(ServerUtil.parseServerException(e));
-                            } else {
-                                sqlE = ServerUtil.parseServerException(e);
+                            if (cache != null) {
+                                cache.close();
                             }
                         } finally {
-                            try {
-                                if (cache != null) {
-                                    cache.close();
-                                }
-                            } finally {
-                                if (sqlE != null) {
-                                    throw sqlE;
-                                }
+                            if (sqlE != null) {
+                                throw sqlE;
                             }
                         }
                     }
-                } while (shouldRetry && retryCount++ < 1);
-                isDataTable = false;
-            }
-            numRows -= entry.getValue().size();
-            iterator.remove(); // Remove batches as we process them
+                }
+            } while (shouldRetry && retryCount++ < 1);
         }
-        assert(numRows==0);
-        assert(this.mutations.isEmpty());
     }
     
     public void rollback(PhoenixConnection connection) throws SQLException {
@@ -19,8 +19,12 @@ package org.apache.phoenix.execute;
 
 
 import java.sql.SQLException;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.List;
 
+import org.apache.hadoop.hbase.util.Bytes;
+
 import org.apache.phoenix.compile.GroupByCompiler.GroupBy;
 import org.apache.phoenix.compile.OrderByCompiler.OrderBy;
 import org.apache.phoenix.compile.RowProjector;
@@ -33,18 +37,26 @@ import org.apache.phoenix.iterate.MergeSortRowKeyResultIterator;
 import org.apache.phoenix.iterate.MergeSortTopNResultIterator;
 import org.apache.phoenix.iterate.ParallelIterators;
 import org.apache.phoenix.iterate.ParallelIterators.ParallelIteratorFactory;
+import org.apache.phoenix.iterate.PointLookupResultIterator;
 import org.apache.phoenix.iterate.ResultIterator;
 import org.apache.phoenix.iterate.SequenceResultIterator;
 import org.apache.phoenix.iterate.SpoolingResultIterator;
+import org.apache.phoenix.iterate.TopNThreshold;
+import org.apache.phoenix.join.TupleProjector;
 import org.apache.phoenix.parse.FilterableStatement;
 import org.apache.phoenix.query.KeyRange;
 import org.apache.phoenix.query.QueryConstants;
 import org.apache.phoenix.query.QueryServices;
 import org.apache.phoenix.query.QueryServicesOptions;
 import org.apache.phoenix.schema.PTable;
+import org.apache.phoenix.schema.PTableType;
 import org.apache.phoenix.schema.SaltingUtil;
 import org.apache.phoenix.schema.TableRef;
+import org.apache.phoenix.util.ByteUtil;
 import org.apache.phoenix.util.ScanUtil;
+import org.apache.phoenix.util.SchemaUtil;
+
+import com.google.common.collect.Lists;
 
 
 
@@ -76,10 +88,93 @@ public class ScanPlan extends BasicQueryPlan {
         return splits;
     }
     
+    /**
+     * Rows may only be streamed straight from the region scans when no row key order is expected
+     * and they would otherwise be spooled, as other iterator factories (for example for UPSERT SELECT)
+     * act on each region's rows as a whole.
+     */
+    private boolean isStreaming() {
+        return orderBy != OrderBy.FWD_ROW_KEY_ORDER_BY && orderBy != OrderBy.REV_ROW_KEY_ORDER_BY
+                && parallelIteratorFactory instanceof SpoolingResultIterator.SpoolingResultIteratorFactory
+                && context.getConnection().getQueryServices().getProps().getBoolean(
+                        QueryServices.STREAMING_SCAN_ATTRIB, QueryServicesOptions.DEFAULT_STREAMING_SCAN);
+    }
+    
+    /**
+     * Queries reduced to a set of complete row keys are run as batches of gets, as long as
+     * the rows are not post-processed on the server, for example to be sorted or joined.
+     */
+    private boolean usePointLookupGets() {
+        return context.getScanRanges().isPointLookup()
+                && orderBy.getOrderByExpressions().isEmpty()
+                && parallelIteratorFactory instanceof SpoolingResultIterator.SpoolingResultIteratorFactory
+                && PointLookupResultIterator.isSupported(context.getScan())
+                && context.getConnection().getQueryServices().getProps().getBoolean(
+                        QueryServices.POINT_LOOKUP_GETS_ATTRIB, QueryServicesOptions.DEFAULT_POINT_LOOKUP_GETS);
+    }
+    
+    /**
+     * @return the keys of the point lookup in the order their rows are expected in
+     */
+    private List<byte[]> getPointLookupKeys(boolean isRowKeyOrdered) {
+        List<KeyRange> keyRanges = context.getScanRanges().getRanges().get(0);
+        List<byte[]> keys = Lists.newArrayListWithExpectedSize(keyRanges.size());
+        for (KeyRange keyRange : keyRanges) {
+            keys.add(keyRange.getLowerRange());
+        }
+        // Keys are sorted including their salt byte, while rows are expected in row key order without it
+        if (isRowKeyOrdered && getTableRef().getTable().getBucketNum() != null) {
+            Collections.sort(keys, new Comparator<byte[]>() {
+                @Override
+                public int compare(byte[] key1, byte[] key2) {
+                    return Bytes.compareTo(key1, SaltingUtil.NUM_SALTING_BYTES, key1.length - SaltingUtil.NUM_SALTING_BYTES,
+                            key2, SaltingUtil.NUM_SALTING_BYTES, key2.length - SaltingUtil.NUM_SALTING_BYTES);
+                }
+            });
+        }
+        return orderBy == OrderBy.REV_ROW_KEY_ORDER_BY ? Lists.reverse(keys) : keys;
+    }
+    
+    /**
+     * The regions of a TopN query scanned after others have completed only need to return the rows
+     * not sorting after the ones already returned, unless the rows are projected before being sorted
+     * on the server, for example for a join.
+     * @return the bound shared by the scans, or null if none is used
+     */
+    private TopNThreshold newTopNThreshold() {
+        if (limit == null || orderBy.getOrderByExpressions().isEmpty()
+                || TupleProjector.hasProjector(context.getScan())
+                || !context.getConnection().getQueryServices().getProps().getBoolean(
+                        QueryServices.TOPN_THRESHOLD_PUSHDOWN_ATTRIB, QueryServicesOptions.DEFAULT_TOPN_THRESHOLD_PUSHDOWN)) {
+            return null;
+        }
+        PTable table = getTableRef().getTable();
+        byte[] essentialCF = table.getType() == PTableType.VIEW 
+                ? ByteUtil.EMPTY_BYTE_ARRAY 
+                : SchemaUtil.getEmptyColumnFamily(table);
+        return new TopNThreshold(orderBy.getOrderByExpressions().get(0), limit, essentialCF);
+    }
+    
     @Override
     protected ResultIterator newIterator() throws SQLException {
         // Set any scan attributes before creating the scanner, as it will be too late afterwards
         context.getScan().setAttribute(BaseScannerRegionObserver.NON_AGGREGATE_QUERY, QueryConstants.TRUE);
+        if (usePointLookupGets()) {
+            boolean isRowKeyOrdered = orderBy == OrderBy.FWD_ROW_KEY_ORDER_BY || orderBy == OrderBy.REV_ROW_KEY_ORDER_BY
+                    || context.getConnection().getQueryServices().getProps().getBoolean(
+                            QueryServices.ROW_KEY_ORDER_SALTED_TABLE_ATTRIB, QueryServicesOptions.DEFAULT_ROW_KEY_ORDER_SALTED_TABLE);
+            int batchSize = context.getConnection().getQueryServices().getProps().getInt(
+                    QueryServices.POINT_LOOKUP_BATCH_SIZE_ATTRIB, QueryServicesOptions.DEFAULT_POINT_LOOKUP_BATCH_SIZE);
+            splits = Collections.emptyList();
+            ResultIterator scanner = new PointLookupResultIterator(context, getTableRef(), getPointLookupKeys(isRowKeyOrdered), batchSize);
+            if (limit != null) {
+                scanner = new LimitingResultIterator(scanner, limit);
+            }
+            if (context.getSequenceManager().getSequenceCount() > 0) {
+                scanner = new SequenceResultIterator(scanner, context.getSequenceManager());
+            }
+            return scanner;
+        }
         if (OrderBy.REV_ROW_KEY_ORDER_BY.equals(orderBy)) {
             ScanUtil.setReversed(context.getScan());
         }
@@ -91,7 +186,7 @@ public class ScanPlan extends BasicQueryPlan {
          * limit is provided, run query serially.
          */
         boolean isOrdered = !orderBy.getOrderByExpressions().isEmpty();
-        ParallelIterators iterators = new ParallelIterators(context, tableRef, statement, projection, GroupBy.EMPTY_GROUP_BY, !allowPageFilter || isOrdered ? null : limit, parallelIteratorFactory);
+        ParallelIterators iterators = new ParallelIterators(context, tableRef, statement, projection, GroupBy.EMPTY_GROUP_BY, !allowPageFilter || isOrdered ? null : limit, parallelIteratorFactory, newTopNThreshold());
         splits = iterators.getSplits();
         if (isOrdered) {
             scanner = new MergeSortTopNResultIterator(iterators, limit, orderBy.getOrderByExpressions());
@@ -103,6 +198,8 @@ public class ScanPlan extends BasicQueryPlan {
                      orderBy == OrderBy.FWD_ROW_KEY_ORDER_BY ||
                      orderBy == OrderBy.REV_ROW_KEY_ORDER_BY)) { // ORDER BY was optimized out b/c query is in row key order
                 scanner = new MergeSortRowKeyResultIterator(iterators, SaltingUtil.NUM_SALTING_BYTES, orderBy == OrderBy.REV_ROW_KEY_ORDER_BY);
+            } else if (isStreaming()) {
+                scanner = iterators.getStreamingIterator();
             } else {
                 scanner = new ConcatResultIterator(iterators);
             }
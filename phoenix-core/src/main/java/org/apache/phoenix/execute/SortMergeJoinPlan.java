@@ -0,0 +1,417 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.phoenix.execute;
+
+import java.io.IOException;
+import java.sql.ParameterMetaData;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+
+import org.apache.hadoop.hbase.io.ImmutableBytesWritable;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.apache.phoenix.compile.ExplainPlan;
+import org.apache.phoenix.compile.GroupByCompiler.GroupBy;
+import org.apache.phoenix.compile.OrderByCompiler.OrderBy;
+import org.apache.phoenix.compile.QueryPlan;
+import org.apache.phoenix.compile.RowProjector;
+import org.apache.phoenix.compile.StatementContext;
+import org.apache.phoenix.expression.Expression;
+import org.apache.phoenix.expression.OrderByExpression;
+import org.apache.phoenix.iterate.LimitingResultIterator;
+import org.apache.phoenix.iterate.OrderedResultIterator;
+import org.apache.phoenix.iterate.PeekingResultIterator;
+import org.apache.phoenix.iterate.ResultIterator;
+import org.apache.phoenix.join.HashJoinInfo;
+import org.apache.phoenix.join.TupleProjector;
+import org.apache.phoenix.join.TupleProjector.ProjectedValueTuple;
+import org.apache.phoenix.parse.FilterableStatement;
+import org.apache.phoenix.parse.JoinTableNode.JoinType;
+import org.apache.phoenix.query.KeyRange;
+import org.apache.phoenix.query.QueryServices;
+import org.apache.phoenix.query.QueryServicesOptions;
+import org.apache.phoenix.schema.IllegalDataException;
+import org.apache.phoenix.schema.KeyValueSchema;
+import org.apache.phoenix.schema.PTable;
+import org.apache.phoenix.schema.TableRef;
+import org.apache.phoenix.schema.ValueBitSet;
+import org.apache.phoenix.schema.tuple.Tuple;
+import org.apache.phoenix.util.ServerUtil;
+
+import com.google.common.collect.Lists;
+
+
+/**
+ *
+ * Query plan for joins of two sides that are too large to be kept in a server cache.
+ * Each side is sorted on its join key, spilling to disk when beyond the spool threshold,
+ * and the two sorted streams are merged on the client. Only the rows sharing a join key
+ * with the current row of the right hand side are held in memory.
+ * <p>
+ * The right hand side is the driving side, as for hash joins, so its rows are merged with
+ * the projected rows of the left hand side into the joined schema.
+ *
+ *
+ * @since 3.0
+ */
+public class SortMergeJoinPlan implements QueryPlan {
+    private final FilterableStatement statement;
+    private final JoinType type;
+    private final QueryPlan lhsPlan;
+    private final BasicQueryPlan rhsPlan;
+    private final List<Expression> lhsKeyExpressions;
+    private final List<Expression> rhsKeyExpressions;
+    private final TupleProjector lhsClientProjector;
+    private final KeyValueSchema joinedSchema;
+    private final KeyValueSchema lhsSchema;
+    private final KeyValueSchema rhsSchema;
+    private final int fieldPosition;
+    private final Expression postJoinFilterExpression;
+    private final OrderBy orderBy;
+    private final Integer limit;
+
+    public SortMergeJoinPlan(FilterableStatement statement, JoinType type,
+            QueryPlan lhsPlan, BasicQueryPlan rhsPlan,
+            List<Expression> lhsKeyExpressions, List<Expression> rhsKeyExpressions,
+            TupleProjector lhsClientProjector, PTable joinedTable, PTable lhsTable, PTable rhsTable,
+            int fieldPosition, Expression postJoinFilterExpression, OrderBy orderBy, Integer limit) {
+        this.statement = statement;
+        this.type = type;
+        this.lhsPlan = lhsPlan;
+        this.rhsPlan = rhsPlan;
+        this.lhsKeyExpressions = lhsKeyExpressions;
+        this.rhsKeyExpressions = rhsKeyExpressions;
+        this.lhsClientProjector = lhsClientProjector;
+        this.joinedSchema = HashJoinInfo.buildSchema(joinedTable);
+        this.lhsSchema = HashJoinInfo.buildSchema(lhsTable);
+        this.rhsSchema = HashJoinInfo.buildSchema(rhsTable);
+        this.fieldPosition = fieldPosition;
+        this.postJoinFilterExpression = postJoinFilterExpression;
+        this.orderBy = orderBy;
+        this.limit = limit;
+    }
+
+    @Override
+    public Integer getLimit() {
+        return limit;
+    }
+
+    @Override
+    public OrderBy getOrderBy() {
+        return orderBy;
+    }
+
+    @Override
+    public RowProjector getProjector() {
+        return rhsPlan.getProjector();
+    }
+
+    @Override
+    public ResultIterator iterator() throws SQLException {
+        int thresholdBytes = getContext().getConnection().getQueryServices().getProps().getInt(
+                QueryServices.SPOOL_THRESHOLD_BYTES_ATTRIB, QueryServicesOptions.DEFAULT_SPOOL_THRESHOLD_BYTES);
+        ResultIterator lhsIterator = lhsPlan.iterator();
+        if (lhsClientProjector != null) {
+            lhsIterator = new ProjectingResultIterator(lhsIterator, lhsClientProjector);
+        }
+        PeekingResultIterator lhs = new OrderedResultIterator(lhsIterator, toOrderByExpressions(lhsKeyExpressions), thresholdBytes);
+        PeekingResultIterator rhs = new OrderedResultIterator(rhsPlan.iterator(), toOrderByExpressions(rhsKeyExpressions), thresholdBytes);
+        ResultIterator iterator = new SortMergeJoinIterator(lhs, rhs);
+        if (!orderBy.getOrderByExpressions().isEmpty()) {
+            iterator = new OrderedResultIterator(iterator, orderBy.getOrderByExpressions(), thresholdBytes, limit);
+        } else if (limit != null) {
+            iterator = new LimitingResultIterator(iterator, limit);
+        }
+        return iterator;
+    }
+
+    /**
+     * Both sides are sorted ascending with nulls first, the same order in which
+     * {@link SortMergeJoinIterator} compares their join keys.
+     */
+    private static List<OrderByExpression> toOrderByExpressions(List<Expression> keyExpressions) {
+        List<OrderByExpression> orderByExpressions = new ArrayList<OrderByExpression>(keyExpressions.size());
+        for (Expression expression : keyExpressions) {
+            orderByExpressions.add(new OrderByExpression(expression, false, true));
+        }
+        return orderByExpressions;
+    }
+
+    private static ImmutableBytesWritable[] evaluateKey(Tuple tuple, List<Expression> keyExpressions) {
+        ImmutableBytesWritable[] key = new ImmutableBytesWritable[keyExpressions.size()];
+        for (int i = 0; i < key.length; i++) {
+            ImmutableBytesWritable ptr = new ImmutableBytesWritable();
+            Expression expression = keyExpressions.get(i);
+            key[i] = expression.evaluate(tuple, ptr) && ptr.getLength() > 0 ? ptr : null;
+            expression.reset();
+        }
+        return key;
+    }
+
+    private static int compareKeys(ImmutableBytesWritable[] lhsKey, ImmutableBytesWritable[] rhsKey) {
+        for (int i = 0; i < lhsKey.length; i++) {
+            ImmutableBytesWritable l = lhsKey[i];
+            ImmutableBytesWritable r = rhsKey[i];
+            if (l == null || r == null) {
+                if (l != r) {
+                    return l == null ? -1 : 1;
+                }
+                continue;
+            }
+            int c = Bytes.compareTo(l.get(), l.getOffset(), l.getLength(), r.get(), r.getOffset(), r.getLength());
+            if (c != 0) {
+                return c;
+            }
+        }
+        return 0;
+    }
+
+    private static boolean hasNull(ImmutableBytesWritable[] key) {
+        for (ImmutableBytesWritable ptr : key) {
+            if (ptr == null) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static class ProjectingResultIterator implements ResultIterator {
+        private final ResultIterator delegate;
+        private final TupleProjector projector;
+
+        ProjectingResultIterator(ResultIterator delegate, TupleProjector projector) {
+            this.delegate = delegate;
+            this.projector = projector;
+        }
+
+        @Override
+        public Tuple next() throws SQLException {
+            Tuple tuple = delegate.next();
+            return tuple == null ? null : projector.projectResults(tuple);
+        }
+
+        @Override
+        public void close() throws SQLException {
+            delegate.close();
+        }
+
+        @Override
+        public void explain(List<String> planSteps) {
+            delegate.explain(planSteps);
+        }
+    }
+
+    /**
+     * Merges the two sides, both sorted on their join key. Rows with a null in their
+     * join key never match, but are still returned padded with nulls for outer joins.
+     */
+    private class SortMergeJoinIterator implements ResultIterator {
+        private final PeekingResultIterator lhs;
+        private final PeekingResultIterator rhs;
+        private final LinkedList<Tuple> resultQueue = new LinkedList<Tuple>();
+        private final List<Tuple> lhsRun = new ArrayList<Tuple>();
+        private final ValueBitSet destBitSet = ValueBitSet.newInstance(joinedSchema);
+        private final ValueBitSet lhsBitSet = ValueBitSet.newInstance(lhsSchema);
+        private final ValueBitSet rhsBitSet = ValueBitSet.newInstance(rhsSchema);
+        private final ImmutableBytesWritable tempPtr = new ImmutableBytesWritable();
+        private Tuple lhsTuple;
+        private ImmutableBytesWritable[] lhsKey;
+        private Tuple rhsTuple;
+        private ImmutableBytesWritable[] rhsKey;
+
+        SortMergeJoinIterator(PeekingResultIterator lhs, PeekingResultIterator rhs) {
+            this.lhs = lhs;
+            this.rhs = rhs;
+        }
+
+        @Override
+        public Tuple next() throws SQLException {
+            try {
+                while (resultQueue.isEmpty()) {
+                    if (!advance()) {
+                        return null;
+                    }
+                }
+            } catch (IOException e) {
+                throw ServerUtil.parseServerException(e);
+            }
+            return resultQueue.poll();
+        }
+
+        private ImmutableBytesWritable[] peekLhsKey() throws SQLException {
+            Tuple tuple = lhs.peek();
+            if (tuple != lhsTuple) {
+                lhsTuple = tuple;
+                lhsKey = tuple == null ? null : evaluateKey(tuple, lhsKeyExpressions);
+            }
+            return lhsKey;
+        }
+
+        private ImmutableBytesWritable[] peekRhsKey() throws SQLException {
+            Tuple tuple = rhs.peek();
+            if (tuple != rhsTuple) {
+                rhsTuple = tuple;
+                rhsKey = tuple == null ? null : evaluateKey(tuple, rhsKeyExpressions);
+            }
+            return rhsKey;
+        }
+
+        /**
+         * Consumes the next key of either side, queueing the joined rows it produces.
+         * @return false once both sides are exhausted
+         */
+        private boolean advance() throws SQLException, IOException {
+            ImmutableBytesWritable[] lKey = peekLhsKey();
+            ImmutableBytesWritable[] rKey = peekRhsKey();
+            if (lKey == null && rKey == null) {
+                return false;
+            }
+            int c = lKey == null ? 1 : rKey == null ? -1 : compareKeys(lKey, rKey);
+            if (c < 0 || (c == 0 && hasNull(lKey))) {
+                Tuple l = lhs.next();
+                if (type == JoinType.Left || type == JoinType.Full) {
+                    offer(merge(TupleProjector.newNullProjectedValueTuple(l, rhsBitSet), l));
+                }
+                return true;
+            }
+            if (c > 0) {
+                Tuple r = rhs.next();
+                if (type == JoinType.Right || type == JoinType.Full) {
+                    offer(TupleProjector.toProjectedValueTuple(r, rhsBitSet));
+                }
+                return true;
+            }
+            lhsRun.clear();
+            do {
+                lhsRun.add(lhs.next());
+            } while (lhs.peek() != null && compareKeys(peekLhsKey(), lKey) == 0);
+            while (rhs.peek() != null && compareKeys(peekRhsKey(), lKey) == 0) {
+                ProjectedValueTuple r = TupleProjector.toProjectedValueTuple(rhs.next(), rhsBitSet);
+                for (Tuple l : lhsRun) {
+                    offer(merge(r, l));
+                }
+            }
+            return true;
+        }
+
+        private Tuple merge(ProjectedValueTuple dest, Tuple src) throws IOException {
+            if (lhsBitSet == ValueBitSet.EMPTY_VALUE_BITSET) {
+                return dest;
+            }
+            return TupleProjector.mergeProjectedValue(dest, joinedSchema, destBitSet, src, lhsSchema, lhsBitSet, fieldPosition);
+        }
+
+        private void offer(Tuple tuple) {
+            if (postJoinFilterExpression != null) {
+                try {
+                    if (!postJoinFilterExpression.evaluate(tuple, tempPtr)) {
+                        return;
+                    }
+                } catch (IllegalDataException e) {
+                    return;
+                } finally {
+                    postJoinFilterExpression.reset();
+                }
+                Boolean b = (Boolean)postJoinFilterExpression.getDataType().toObject(tempPtr);
+                if (!b.booleanValue()) {
+                    return;
+                }
+            }
+            resultQueue.offer(tuple);
+        }
+
+        @Override
+        public void close() throws SQLException {
+            resultQueue.clear();
+            try {
+                lhs.close();
+            } finally {
+                rhs.close();
+            }
+        }
+
+        @Override
+        public void explain(List<String> planSteps) {
+        }
+    }
+
+    @Override
+    public long getEstimatedSize() {
+        return lhsPlan.getEstimatedSize() + rhsPlan.getEstimatedSize();
+    }
+
+    @Override
+    public List<KeyRange> getSplits() {
+        return rhsPlan.getSplits();
+    }
+
+    @Override
+    public ExplainPlan getExplainPlan() throws SQLException {
+        List<String> planSteps = Lists.newArrayList();
+        planSteps.add("SORT-MERGE-JOIN (" + type.toString().toUpperCase() + ") TABLES");
+        for (String step : lhsPlan.getExplainPlan().getPlanSteps()) {
+            planSteps.add("    " + step);
+        }
+        planSteps.add("AND");
+        for (String step : rhsPlan.getExplainPlan().getPlanSteps()) {
+            planSteps.add("    " + step);
+        }
+        if (postJoinFilterExpression != null) {
+            planSteps.add("AFTER-JOIN CLIENT FILTER BY " + postJoinFilterExpression.toString());
+        }
+        if (!orderBy.getOrderByExpressions().isEmpty()) {
+            planSteps.add("CLIENT" + (limit == null ? "" : " TOP " + limit + " ROW"  + (limit == 1 ? "" : "S"))  + " SORTED BY " + orderBy.getOrderByExpressions().toString());
+        } else if (limit != null) {
+            planSteps.add("CLIENT " + limit + " ROW LIMIT");
+        }
+
+        return new ExplainPlan(planSteps);
+    }
+
+    @Override
+    public ParameterMetaData getParameterMetaData() {
+        return rhsPlan.getParameterMetaData();
+    }
+
+    @Override
+    public StatementContext getContext() {
+        return rhsPlan.getContext();
+    }
+
+    @Override
+    public GroupBy getGroupBy() {
+        return GroupBy.EMPTY_GROUP_BY;
+    }
+
+    @Override
+    public TableRef getTableRef() {
+        return rhsPlan.getTableRef();
+    }
+
+    @Override
+    public FilterableStatement getStatement() {
+        return statement;
+    }
+
+    @Override
+    public boolean isDegenerate() {
+        return false;
+    }
+
+}
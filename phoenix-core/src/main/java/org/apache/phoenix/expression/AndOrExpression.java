@@ -24,6 +24,7 @@ import org.apache.hadoop.hbase.io.ImmutableBytesWritable;
 
 import org.apache.phoenix.schema.PDataType;
 import org.apache.phoenix.schema.tuple.Tuple;
+import org.apache.phoenix.schema.tuple.TupleBatch;
 
 
 /**
@@ -36,6 +37,9 @@ import org.apache.phoenix.schema.tuple.Tuple;
 public abstract class AndOrExpression extends BaseCompoundExpression {
     // Remember evaluation of child expression for partial evaluation
     private BitSet partialEvalState;
+    // Rows left to decide and rows with a child that could not be evaluated, during batch evaluation
+    private int[] pendingRows;
+    private boolean[] isNull;
    
     public AndOrExpression() {
     }
@@ -93,5 +97,56 @@ public abstract class AndOrExpression extends BaseCompoundExpression {
         return true;
     }
 
+    /**
+     * Evaluates each child only over the rows not yet decided by the previous children.
+     */
+    @Override
+    public void evaluate(TupleBatch batch, ColumnVector vector) {
+        int[] selection = batch.getSelection();
+        int selectedCount = batch.getSelectedCount();
+        if (pendingRows == null || pendingRows.length < batch.getCapacity()) {
+            pendingRows = new int[batch.getCapacity()];
+            isNull = new boolean[batch.getCapacity()];
+        }
+        boolean stopValue = getStopValue();
+        int pendingCount = 0;
+        for (int i = 0; i < selectedCount; i++) {
+            pendingRows[pendingCount++] = selection[i];
+            isNull[selection[i]] = false;
+        }
+        ColumnVector childVector = null;
+        try {
+            for (int i = 0; i < children.size() && pendingCount > 0; i++) {
+                batch.select(pendingRows, pendingCount);
+                childVector = evaluateChild(i, batch);
+                int count = 0;
+                for (int j = 0; j < pendingCount; j++) {
+                    int row = pendingRows[j];
+                    if (!childVector.isSet(row)) {
+                        isNull[row] = true;
+                    } else if (!childVector.isNull(row) && childVector.isTrue(row) == stopValue) {
+                        // Short circuit if we see our stop value
+                        vector.setBoolean(row, stopValue);
+                        continue;
+                    }
+                    pendingRows[count++] = row;
+                }
+                pendingCount = count;
+            }
+        } finally {
+            batch.select(selection, selectedCount);
+        }
+        ImmutableBytesWritable ptr = new ImmutableBytesWritable();
+        for (int j = 0; j < pendingCount; j++) {
+            int row = pendingRows[j];
+            // Otherwise the value is the one of the last child, as with row by row evaluation
+            if (isNull[row] || !childVector.get(row, ptr)) {
+                vector.setUnset(row);
+            } else {
+                vector.set(row, ptr);
+            }
+        }
+    }
+
     protected abstract boolean getStopValue();
 }
@@ -26,6 +26,7 @@ import java.util.List;
 
 import org.apache.hadoop.io.WritableUtils;
 import org.apache.phoenix.expression.visitor.ExpressionVisitor;
+import org.apache.phoenix.schema.tuple.TupleBatch;
 
 import com.google.common.collect.ImmutableList;
 
@@ -36,6 +37,8 @@ public abstract class BaseCompoundExpression extends BaseExpression {
     private boolean isStateless;
     private boolean isDeterministic;
     private boolean requiresFinalEvaluation;
+    // Values of the children during batch evaluation, reused from one batch to the next
+    private ColumnVector[] childVectors;
    
     public BaseCompoundExpression() {
         init(Collections.<Expression>emptyList());
@@ -62,6 +65,7 @@ public abstract class BaseCompoundExpression extends BaseExpression {
         this.isDeterministic = isDeterministic;
         this.isNullable = isNullable;
         this.requiresFinalEvaluation = requiresFinalEvaluation;
+        this.childVectors = null;
     }
     
     @Override
@@ -125,6 +129,33 @@ public abstract class BaseCompoundExpression extends BaseExpression {
         }
     }
 
+    /**
+     * Evaluates a child expression over the selected rows of the batch
+     * @return the values of the child, valid until the child is evaluated again
+     */
+    protected ColumnVector evaluateChild(int index, TupleBatch batch) {
+        if (childVectors == null) {
+            childVectors = new ColumnVector[children.size()];
+        }
+        ColumnVector vector = childVectors[index];
+        if (vector == null || vector.getCapacity() < batch.getCapacity()) {
+            vector = childVectors[index] = new ColumnVector(batch.getCapacity());
+        }
+        children.get(index).evaluate(batch, vector);
+        return vector;
+    }
+
+    /**
+     * Evaluates all the child expressions over the selected rows of the batch
+     * @return the values of the children, valid until they are evaluated again
+     */
+    protected ColumnVector[] evaluateChildren(TupleBatch batch) {
+        for (int i = 0; i < children.size(); i++) {
+            evaluateChild(i, batch);
+        }
+        return childVectors;
+    }
+
     @Override
     public void reset() {
         for (int i = 0; i < children.size(); i++) {
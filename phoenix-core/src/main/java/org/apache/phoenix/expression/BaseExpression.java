@@ -27,6 +27,7 @@ import java.util.Iterator;
 import java.util.List;
 
 import org.apache.hadoop.hbase.filter.CompareFilter.CompareOp;
+import org.apache.hadoop.hbase.io.ImmutableBytesWritable;
 import org.apache.phoenix.expression.function.CeilDecimalExpression;
 import org.apache.phoenix.expression.function.CeilTimestampExpression;
 import org.apache.phoenix.expression.function.FloorDateExpression;
@@ -36,6 +37,7 @@ import org.apache.phoenix.expression.visitor.ExpressionVisitor;
 import org.apache.phoenix.schema.PDataType;
 import org.apache.phoenix.schema.SortOrder;
 import org.apache.phoenix.schema.TypeMismatchException;
+import org.apache.phoenix.schema.tuple.TupleBatch;
 
 import com.google.common.collect.Lists;
 
@@ -208,6 +210,23 @@ public abstract class BaseExpression implements Expression {
         return SortOrder.getDefault();
     }    
 
+    /**
+     * Evaluates the rows one at a time, for expressions without a batch implementation
+     */
+    @Override
+    public void evaluate(TupleBatch batch, ColumnVector vector) {
+        ImmutableBytesWritable ptr = new ImmutableBytesWritable();
+        int[] selection = batch.getSelection();
+        for (int i = 0; i < batch.getSelectedCount(); i++) {
+            int row = selection[i];
+            if (evaluate(batch.get(row), ptr)) {
+                vector.set(row, ptr);
+            } else {
+                vector.setUnset(row);
+            }
+        }
+    }
+    
     @Override
     public void readFields(DataInput input) throws IOException {
     }
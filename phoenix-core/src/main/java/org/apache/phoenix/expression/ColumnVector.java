@@ -0,0 +1,209 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.phoenix.expression;
+
+import java.math.BigDecimal;
+
+import org.apache.hadoop.hbase.io.ImmutableBytesWritable;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.apache.phoenix.schema.PDataType;
+import org.apache.phoenix.schema.SortOrder;
+import org.apache.phoenix.schema.tuple.TupleBatch;
+import org.apache.phoenix.util.ByteUtil;
+
+/**
+ * 
+ * Values of an expression over the rows of a {@link TupleBatch}. A value either points into the
+ * bytes it was evaluated from, which must stay valid while the batch is evaluated, or is held as a
+ * long or double by arithmetic expressions. Such values are only serialized when asked for as bytes,
+ * so that nested arithmetic and comparisons work on primitives throughout.
+ *
+ */
+public class ColumnVector {
+    private static final byte UNSET = 0;
+    private static final byte BYTES = 1;
+    private static final byte LONG = 2;
+    private static final byte DOUBLE = 3;
+
+    private final byte[] states;
+    private final byte[][] buffers;
+    private final int[] offsets;
+    private final int[] lengths;
+    private long[] longs;
+    private double[] doubles;
+    private byte[] encoded;
+
+    public ColumnVector(int capacity) {
+        this.states = new byte[capacity];
+        this.buffers = new byte[capacity][];
+        this.offsets = new int[capacity];
+        this.lengths = new int[capacity];
+    }
+
+    public int getCapacity() {
+        return states.length;
+    }
+
+    /**
+     * Marks the value of the row as one that could not be evaluated
+     */
+    public void setUnset(int row) {
+        states[row] = UNSET;
+        buffers[row] = null;
+    }
+
+    public void set(int row, ImmutableBytesWritable ptr) {
+        set(row, ptr.get(), ptr.getOffset(), ptr.getLength());
+    }
+
+    public void set(int row, byte[] bytes) {
+        set(row, bytes, 0, bytes.length);
+    }
+
+    public void set(int row, byte[] bytes, int offset, int length) {
+        states[row] = BYTES;
+        buffers[row] = bytes;
+        offsets[row] = offset;
+        lengths[row] = length;
+    }
+
+    public void setNull(int row) {
+        set(row, ByteUtil.EMPTY_BYTE_ARRAY);
+    }
+
+    public void setBoolean(int row, boolean value) {
+        set(row, value ? PDataType.TRUE_BYTES : PDataType.FALSE_BYTES);
+    }
+
+    /**
+     * Sets the value of the row to a {@link PDataType#LONG}
+     */
+    public void setLong(int row, long value) {
+        if (longs == null) {
+            longs = new long[states.length];
+        }
+        states[row] = LONG;
+        buffers[row] = null;
+        longs[row] = value;
+    }
+
+    /**
+     * Sets the value of the row to a {@link PDataType#DOUBLE}
+     */
+    public void setDouble(int row, double value) {
+        if (doubles == null) {
+            doubles = new double[states.length];
+        }
+        states[row] = DOUBLE;
+        buffers[row] = null;
+        doubles[row] = value;
+    }
+
+    public boolean isSet(int row) {
+        return states[row] != UNSET;
+    }
+
+    /**
+     * @return true if the value of the row was evaluated to null
+     */
+    public boolean isNull(int row) {
+        return states[row] == BYTES && lengths[row] == 0;
+    }
+
+    /**
+     * @return true if the value of the row is the boolean TRUE
+     */
+    public boolean isTrue(int row) {
+        return states[row] == BYTES && Boolean.TRUE.equals(PDataType.BOOLEAN.toObject(buffers[row], offsets[row], lengths[row]));
+    }
+
+    /**
+     * Points ptr to the serialized value of the row
+     * @return false if the value of the row could not be evaluated
+     */
+    public boolean get(int row, ImmutableBytesWritable ptr) {
+        switch (states[row]) {
+        case UNSET:
+            return false;
+        case LONG:
+            ptr.set(encode(row), row * Bytes.SIZEOF_LONG, PDataType.LONG.getCodec().encodeLong(longs[row], encoded, row * Bytes.SIZEOF_LONG));
+            return true;
+        case DOUBLE:
+            ptr.set(encode(row), row * Bytes.SIZEOF_DOUBLE, PDataType.DOUBLE.getCodec().encodeDouble(doubles[row], encoded, row * Bytes.SIZEOF_DOUBLE));
+            return true;
+        default:
+            ptr.set(buffers[row], offsets[row], lengths[row]);
+            return true;
+        }
+    }
+
+    private byte[] encode(int row) {
+        if (encoded == null) {
+            encoded = new byte[states.length * Bytes.SIZEOF_LONG];
+        }
+        return encoded;
+    }
+
+    /**
+     * Gets the non null value of the row as a long
+     * @param type the data type of the expression the vector was evaluated for
+     * @param sortOrder the sort order of the expression the vector was evaluated for
+     */
+    public long getLong(int row, PDataType type, SortOrder sortOrder) {
+        switch (states[row]) {
+        case LONG:
+            return longs[row];
+        case DOUBLE:
+            return (long)doubles[row];
+        default:
+            return type.getCodec().decodeLong(buffers[row], offsets[row], sortOrder);
+        }
+    }
+
+    /**
+     * Gets the non null value of the row as a double
+     * @param type the data type of the expression the vector was evaluated for
+     * @param sortOrder the sort order of the expression the vector was evaluated for
+     */
+    public double getDouble(int row, PDataType type, SortOrder sortOrder) {
+        switch (states[row]) {
+        case LONG:
+            return longs[row];
+        case DOUBLE:
+            return doubles[row];
+        default:
+            return type.getCodec().decodeDouble(buffers[row], offsets[row], sortOrder);
+        }
+    }
+
+    /**
+     * Gets the non null value of the row as a {@link BigDecimal}
+     * @param type the data type of the expression the vector was evaluated for
+     * @param sortOrder the sort order of the expression the vector was evaluated for
+     */
+    public BigDecimal getDecimal(int row, PDataType type, SortOrder sortOrder) {
+        switch (states[row]) {
+        case LONG:
+            return (BigDecimal)PDataType.DECIMAL.toObject(longs[row], PDataType.LONG);
+        case DOUBLE:
+            return (BigDecimal)PDataType.DECIMAL.toObject(doubles[row], PDataType.DOUBLE);
+        default:
+            return (BigDecimal)PDataType.DECIMAL.toObject(buffers[row], offsets[row], lengths[row], type, sortOrder);
+        }
+    }
+}
@@ -34,11 +34,14 @@ import org.apache.phoenix.schema.PDataType;
 import org.apache.phoenix.schema.SortOrder;
 import org.apache.phoenix.schema.TypeMismatchException;
 import org.apache.phoenix.schema.tuple.Tuple;
+import org.apache.phoenix.schema.tuple.TupleBatch;
 import org.apache.phoenix.util.ByteUtil;
 import org.apache.phoenix.util.ExpressionUtil;
 import org.apache.phoenix.util.StringUtil;
 
 import com.google.common.collect.Lists;
+import com.google.common.primitives.Doubles;
+import com.google.common.primitives.Longs;
 
 
 /**
@@ -333,6 +336,56 @@ public class ComparisonExpression extends BaseCompoundExpression {
         return true;
     }
     
+    @Override
+    public void evaluate(TupleBatch batch, ColumnVector vector) {
+        ColumnVector lhsVector = evaluateChild(0, batch);
+        ColumnVector rhsVector = evaluateChild(1, batch);
+        PDataType lhsDataType = children.get(0).getDataType();
+        SortOrder lhsSortOrder = children.get(0).getSortOrder();
+        PDataType rhsDataType = children.get(1).getDataType();
+        SortOrder rhsSortOrder = children.get(1).getSortOrder();
+        // Compare numbers as primitives, as the values of arithmetic children are kept that way
+        boolean isLong = lhsDataType.getCodec() != null && rhsDataType.getCodec() != null 
+                && lhsDataType.isCoercibleTo(PDataType.LONG) && rhsDataType.isCoercibleTo(PDataType.LONG);
+        boolean isDouble = !isLong && PDataType.isDoubleOrFloat(lhsDataType) && PDataType.isDoubleOrFloat(rhsDataType);
+        ImmutableBytesWritable lhsPtr = new ImmutableBytesWritable();
+        ImmutableBytesWritable rhsPtr = new ImmutableBytesWritable();
+        int[] selection = batch.getSelection();
+        for (int i = 0; i < batch.getSelectedCount(); i++) {
+            int row = selection[i];
+            if (!lhsVector.isSet(row)) {
+                vector.setUnset(row);
+            } else if (lhsVector.isNull(row)) { // null comparison evals to null
+                vector.setNull(row);
+            } else if (!rhsVector.isSet(row)) {
+                vector.setUnset(row);
+            } else if (rhsVector.isNull(row)) {
+                vector.setNull(row);
+            } else {
+                int comparisonResult;
+                if (isLong) {
+                    comparisonResult = Longs.compare(lhsVector.getLong(row, lhsDataType, lhsSortOrder), rhsVector.getLong(row, rhsDataType, rhsSortOrder));
+                } else if (isDouble) {
+                    comparisonResult = Doubles.compare(lhsVector.getDouble(row, lhsDataType, lhsSortOrder), rhsVector.getDouble(row, rhsDataType, rhsSortOrder));
+                } else {
+                    lhsVector.get(row, lhsPtr);
+                    rhsVector.get(row, rhsPtr);
+                    int lhsLength = lhsPtr.getLength();
+                    int rhsLength = rhsPtr.getLength();
+                    if (rhsDataType == PDataType.CHAR) {
+                        rhsLength = StringUtil.getUnpaddedCharLength(rhsPtr.get(), rhsPtr.getOffset(), rhsLength, rhsSortOrder);
+                    }
+                    if (lhsDataType == PDataType.CHAR) {
+                        lhsLength = StringUtil.getUnpaddedCharLength(lhsPtr.get(), lhsPtr.getOffset(), lhsLength, lhsSortOrder);
+                    }
+                    comparisonResult = lhsDataType.compareTo(lhsPtr.get(), lhsPtr.getOffset(), lhsLength, lhsSortOrder, 
+                            rhsPtr.get(), rhsPtr.getOffset(), rhsLength, rhsSortOrder, rhsDataType);
+                }
+                vector.setBoolean(row, ByteUtil.compare(op, comparisonResult));
+            }
+        }
+    }
+    
     @Override
     public void readFields(DataInput input) throws IOException {
         op = CompareOp.values()[WritableUtils.readVInt(input)];
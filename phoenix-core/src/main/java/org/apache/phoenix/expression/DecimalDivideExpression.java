@@ -25,6 +25,7 @@ import org.apache.phoenix.exception.ValueTypeIncompatibleException;
 import org.apache.phoenix.schema.PDataType;
 import org.apache.phoenix.schema.SortOrder;
 import org.apache.phoenix.schema.tuple.Tuple;
+import org.apache.phoenix.schema.tuple.TupleBatch;
 import org.apache.phoenix.util.NumberUtil;
 
 
@@ -69,6 +70,41 @@ public class DecimalDivideExpression extends DivideExpression {
         return true;
     }
 
+    @Override
+    public void evaluate(TupleBatch batch, ColumnVector vector) {
+        ColumnVector[] childVectors = evaluateChildren(batch);
+        int[] selection = batch.getSelection();
+        rows: for (int i = 0; i < batch.getSelectedCount(); i++) {
+            int row = selection[i];
+            BigDecimal result = null;
+            for (int j = 0; j < children.size(); j++) {
+                Expression childExpr = children.get(j);
+                ColumnVector childVector = childVectors[j];
+                if (!childVector.isSet(row)) {
+                    vector.setUnset(row);
+                    continue rows;
+                }
+                if (childVector.isNull(row)) {
+                    vector.setNull(row);
+                    continue rows;
+                }
+                BigDecimal bd = childVector.getDecimal(row, childExpr.getDataType(), childExpr.getSortOrder());
+                if (result == null) {
+                    result = bd;
+                } else {
+                    result = result.divide(bd, PDataType.DEFAULT_MATH_CONTEXT);
+                }
+            }
+            if (getMaxLength() != null || getScale() != null) {
+                result = NumberUtil.setDecimalWidthAndScale(result, getMaxLength(), getScale());
+            }
+            if (result == null) {
+                throw new ValueTypeIncompatibleException(PDataType.DECIMAL, getMaxLength(), getScale());
+            }
+            vector.set(row, PDataType.DECIMAL.toBytes(result));
+        }
+    }
+
     @Override
     public PDataType getDataType() {
         return PDataType.DECIMAL;
@@ -25,6 +25,7 @@ import org.apache.phoenix.exception.ValueTypeIncompatibleException;
 import org.apache.phoenix.schema.PDataType;
 import org.apache.phoenix.schema.SortOrder;
 import org.apache.phoenix.schema.tuple.Tuple;
+import org.apache.phoenix.schema.tuple.TupleBatch;
 import org.apache.phoenix.util.NumberUtil;
 
 
@@ -96,6 +97,50 @@ public class DecimalSubtractExpression extends SubtractExpression {
         return true;
     }
 
+    @Override
+    public void evaluate(TupleBatch batch, ColumnVector vector) {
+        ColumnVector[] childVectors = evaluateChildren(batch);
+        int[] selection = batch.getSelection();
+        rows: for (int i = 0; i < batch.getSelectedCount(); i++) {
+            int row = selection[i];
+            BigDecimal result = null;
+            for (int j = 0; j < children.size(); j++) {
+                Expression childExpr = children.get(j);
+                ColumnVector childVector = childVectors[j];
+                if (!childVector.isSet(row)) {
+                    vector.setUnset(row);
+                    continue rows;
+                }
+                if (childVector.isNull(row)) {
+                    vector.setNull(row);
+                    continue rows;
+                }
+                PDataType childType = childExpr.getDataType();
+                boolean isDate = childType.isCoercibleTo(PDataType.DATE);
+                SortOrder childSortOrder = childExpr.getSortOrder();
+                BigDecimal bd = isDate ?
+                        BigDecimal.valueOf(childVector.getLong(row, childType, childSortOrder)) :
+                        childVector.getDecimal(row, childType, childSortOrder);
+                if (result == null) {
+                    result = bd;
+                } else {
+                    result = result.subtract(bd);
+                    // Special case for date subtraction, as with row by row evaluation
+                    if (isDate) {
+                        result = result.divide(BD_MILLIS_IN_DAY, PDataType.DEFAULT_MATH_CONTEXT);
+                    }
+                }
+            }
+            if (maxLength != null || scale != null) {
+                result = NumberUtil.setDecimalWidthAndScale(result, maxLength, scale);
+            }
+            if (result == null) {
+                throw new ValueTypeIncompatibleException(PDataType.DECIMAL, maxLength, scale);
+            }
+            vector.set(row, PDataType.DECIMAL.toBytes(result));
+        }
+    }
+
     @Override
     public PDataType getDataType() {
         return PDataType.DECIMAL;
@@ -23,6 +23,7 @@ import org.apache.hadoop.hbase.io.ImmutableBytesWritable;
 
 import org.apache.phoenix.schema.PDataType;
 import org.apache.phoenix.schema.tuple.Tuple;
+import org.apache.phoenix.schema.tuple.TupleBatch;
 
 public class DoubleDivideExpression extends DivideExpression {
 
@@ -64,6 +65,41 @@ public class DoubleDivideExpression extends DivideExpression {
         return true;
     }
 
+    @Override
+    public void evaluate(TupleBatch batch, ColumnVector vector) {
+        ColumnVector[] childVectors = evaluateChildren(batch);
+        int[] selection = batch.getSelection();
+        rows: for (int i = 0; i < batch.getSelectedCount(); i++) {
+            int row = selection[i];
+            double result = 0.0;
+            for (int j = 0; j < children.size(); j++) {
+                Expression child = children.get(j);
+                ColumnVector childVector = childVectors[j];
+                if (!childVector.isSet(row)) {
+                    vector.setUnset(row);
+                    continue rows;
+                }
+                if (childVector.isNull(row)) {
+                    vector.setNull(row);
+                    continue rows;
+                }
+                double childvalue = childVector.getDouble(row, child.getDataType(), child.getSortOrder());
+                if (Double.isNaN(childvalue)
+                        || childvalue == Double.NEGATIVE_INFINITY
+                        || childvalue == Double.POSITIVE_INFINITY) {
+                    vector.setUnset(row);
+                    continue rows;
+                }
+                if (j == 0) {
+                    result = childvalue;
+                } else {
+                    result /= childvalue;
+                }
+            }
+            vector.setDouble(row, result);
+        }
+    }
+
     @Override
     public PDataType getDataType() {
         return PDataType.DOUBLE;
@@ -24,6 +24,7 @@ import org.apache.hadoop.io.Writable;
 import org.apache.phoenix.expression.visitor.ExpressionVisitor;
 import org.apache.phoenix.schema.PDatum;
 import org.apache.phoenix.schema.tuple.Tuple;
+import org.apache.phoenix.schema.tuple.TupleBatch;
 
 
 /**
@@ -44,6 +45,16 @@ public interface Expression extends PDatum, Writable {
      */
     boolean evaluate(Tuple tuple, ImmutableBytesWritable ptr);
     
+    /**
+     * Evaluates the expression over the selected rows of a batch at once, rather than
+     * through the whole expression tree for each row. Only fully formed rows may be
+     * evaluated this way, never the partial rows seen by incremental filter evaluation.
+     * @param batch rows to evaluate, of which only the selected ones are read
+     * @param vector receives the value of each selected row, which is left unset for
+     * the rows on which {@link #evaluate(Tuple, ImmutableBytesWritable)} would return false
+     */
+    void evaluate(TupleBatch batch, ColumnVector vector);
+    
     /**
      * Means of traversing expression tree through visitor.
      * @param visitor
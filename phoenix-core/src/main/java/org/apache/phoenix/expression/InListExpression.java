@@ -35,6 +35,7 @@ import org.apache.phoenix.hbase.index.util.ImmutableBytesPtr;
 import org.apache.phoenix.schema.PDataType;
 import org.apache.phoenix.schema.SortOrder;
 import org.apache.phoenix.schema.tuple.Tuple;
+import org.apache.phoenix.schema.tuple.TupleBatch;
 import org.apache.phoenix.util.ByteUtil;
 import org.apache.phoenix.util.ExpressionUtil;
 
@@ -56,6 +57,7 @@ public class InListExpression extends BaseSingleExpression {
     private boolean containsNull;
     private int fixedWidth = -1;
     private ImmutableBytesPtr value = new ImmutableBytesPtr();
+    private ColumnVector childVector; // values of the child during batch evaluation
     private List<Expression> keyExpressions; // client side only
 
     public static Expression create (List<Expression> children, boolean isNegate, ImmutableBytesWritable ptr) throws SQLException {
@@ -161,6 +163,39 @@ public class InListExpression extends BaseSingleExpression {
         return true;
     }
 
+    @Override
+    public void evaluate(TupleBatch batch, ColumnVector vector) {
+        if (childVector == null || childVector.getCapacity() < batch.getCapacity()) {
+            childVector = new ColumnVector(batch.getCapacity());
+        }
+        getChild().evaluate(batch, childVector);
+        ImmutableBytesWritable ptr = new ImmutableBytesWritable();
+        int[] selection = batch.getSelection();
+        for (int i = 0; i < batch.getSelectedCount(); i++) {
+            int row = selection[i];
+            if (!childVector.get(row, ptr)) {
+                vector.setUnset(row);
+                continue;
+            }
+            // Only hash the values within the range of the list
+            if (ptr.getLength() > 0 && !values.isEmpty()
+                    && Bytes.compareTo(ptr.get(), ptr.getOffset(), ptr.getLength(), minValue.get(), minValue.getOffset(), minValue.getLength()) >= 0
+                    && Bytes.compareTo(ptr.get(), ptr.getOffset(), ptr.getLength(), maxValue.get(), maxValue.getOffset(), maxValue.getLength()) <= 0
+                    && contains(ptr)) {
+                vector.setBoolean(row, true);
+            } else if (containsNull) { // If any null value and value not found
+                vector.setNull(row);
+            } else {
+                vector.setBoolean(row, false);
+            }
+        }
+    }
+
+    private boolean contains(ImmutableBytesWritable ptr) {
+        value.set(ptr);
+        return values.contains(value);
+    }
+
     @Override
     public int hashCode() {
         final int prime = 31;
@@ -193,7 +228,8 @@ public class InListExpression extends BaseSingleExpression {
 
     private int readValue(DataInput input, byte[] valuesBytes, int offset, ImmutableBytesPtr ptr) throws IOException {
         int valueLen = fixedWidth == -1 ? WritableUtils.readVInt(input) : fixedWidth;
-        values.add(new ImmutableBytesPtr(valuesBytes,offset,valueLen));
+        ptr.set(valuesBytes,offset,valueLen);
+        values.add(ptr);
         return offset + valueLen;
     }
     
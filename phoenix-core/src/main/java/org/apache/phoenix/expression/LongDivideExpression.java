@@ -23,6 +23,7 @@ import org.apache.hadoop.hbase.io.ImmutableBytesWritable;
 
 import org.apache.phoenix.schema.PDataType;
 import org.apache.phoenix.schema.tuple.Tuple;
+import org.apache.phoenix.schema.tuple.TupleBatch;
 
 
 public class LongDivideExpression extends DivideExpression {
@@ -56,6 +57,31 @@ public class LongDivideExpression extends DivideExpression {
         return true;
     }
 
+    @Override
+    public void evaluate(TupleBatch batch, ColumnVector vector) {
+        ColumnVector[] childVectors = evaluateChildren(batch);
+        int[] selection = batch.getSelection();
+        rows: for (int i = 0; i < batch.getSelectedCount(); i++) {
+            int row = selection[i];
+            long finalResult=0;
+            for (int j = 0; j < children.size(); j++) {
+                Expression child = children.get(j);
+                ColumnVector childVector = childVectors[j];
+                if (!childVector.isSet(row) || childVector.isNull(row)) {
+                    vector.setUnset(row);
+                    continue rows;
+                }
+                long childvalue = childVector.getLong(row, child.getDataType(), child.getSortOrder());
+                if (j == 0) {
+                    finalResult = childvalue;
+                } else {
+                    finalResult /= childvalue;
+                }
+            }
+            vector.setLong(row, finalResult);
+        }
+    }
+
     @Override
     public final PDataType getDataType() {
         return PDataType.LONG;
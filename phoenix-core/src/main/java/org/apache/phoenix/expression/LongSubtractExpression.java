@@ -24,6 +24,7 @@ import org.apache.hadoop.hbase.io.ImmutableBytesWritable;
 import org.apache.phoenix.query.QueryConstants;
 import org.apache.phoenix.schema.PDataType;
 import org.apache.phoenix.schema.tuple.Tuple;
+import org.apache.phoenix.schema.tuple.TupleBatch;
 
 
 
@@ -73,6 +74,36 @@ public class LongSubtractExpression extends SubtractExpression {
 		return true;
 	}
 
+    @Override
+    public void evaluate(TupleBatch batch, ColumnVector vector) {
+        ColumnVector[] childVectors = evaluateChildren(batch);
+        int[] selection = batch.getSelection();
+        rows: for (int i = 0; i < batch.getSelectedCount(); i++) {
+            int row = selection[i];
+            long finalResult=0;
+            for (int j = 0; j < children.size(); j++) {
+                Expression child = children.get(j);
+                ColumnVector childVector = childVectors[j];
+                if (!childVector.isSet(row) || childVector.isNull(row)) {
+                    vector.setUnset(row);
+                    continue rows;
+                }
+                PDataType childType = child.getDataType();
+                long childvalue = childVector.getLong(row, childType, child.getSortOrder());
+                if (j == 0) {
+                    finalResult = childvalue;
+                } else {
+                    finalResult -= childvalue;
+                    // Special case for date subtraction, as with row by row evaluation
+                    if (childType.isCoercibleTo(PDataType.DATE)) {
+                        finalResult /= QueryConstants.MILLIS_IN_DAY;
+                    }
+                }
+            }
+            vector.setLong(row, finalResult);
+        }
+    }
+
 	@Override
 	public final PDataType getDataType() {
 		return PDataType.LONG;
@@ -26,6 +26,7 @@ import org.apache.phoenix.expression.Expression;
 import org.apache.phoenix.hbase.index.util.ImmutableBytesPtr;
 import org.apache.phoenix.schema.SortOrder;
 import org.apache.phoenix.schema.PDataType;
+import org.apache.phoenix.schema.PDataType.PDataCodec;
 import org.apache.phoenix.schema.tuple.Tuple;
 
 /**
@@ -60,20 +61,22 @@ public abstract class BaseStddevAggregator extends DistinctValueWithCountClientA
     protected abstract long getDataPointsCount();
     
     private double sumSquaredDeviation() {
-        double m = mean();
+        // Decode the values directly rather than through boxed Doubles
+        PDataCodec codec = this.stdDevColExp.getDataType().getCodec();
+        double m = mean(codec);
         double result = 0.0;
         for (Entry<ImmutableBytesPtr, Integer> entry : valueVsCount.entrySet()) {
-            double colValue = (Double)PDataType.DOUBLE.toObject(entry.getKey(), this.stdDevColExp.getDataType());
+            double colValue = codec.decodeDouble(entry.getKey(), SortOrder.getDefault());
             double delta = colValue - m;
             result += (delta * delta) * entry.getValue();
         }
         return result;
     }
 
-    private double mean() {
+    private double mean(PDataCodec codec) {
         double sum = 0.0;
         for (Entry<ImmutableBytesPtr, Integer> entry : valueVsCount.entrySet()) {
-            double colValue = (Double)PDataType.DOUBLE.toObject(entry.getKey(), this.stdDevColExp.getDataType());
+            double colValue = codec.decodeDouble(entry.getKey(), SortOrder.getDefault());
             sum += colValue * entry.getValue();
         }
         return sum / totalCount;
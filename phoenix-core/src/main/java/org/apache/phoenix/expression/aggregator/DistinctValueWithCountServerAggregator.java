@@ -54,7 +54,17 @@ public class DistinctValueWithCountServerAggregator extends BaseAggregator {
 
     private int compressThreshold;
     private byte[] buffer = null;
-    private Map<ImmutableBytesPtr, Integer> valueVsCount = new HashMap<ImmutableBytesPtr, Integer>();
+    private Map<ImmutableBytesPtr, Count> valueVsCount = new HashMap<ImmutableBytesPtr, Count>();
+    // Used to look values up, so that only distinct values are copied
+    private final ImmutableBytesPtr lookupKey = new ImmutableBytesPtr();
+    
+    private static class Count {
+        private int value;
+        
+        private Count(int value) {
+            this.value = value;
+        }
+    }
 
     public DistinctValueWithCountServerAggregator(Configuration conf) {
         super(SortOrder.getDefault());
@@ -64,17 +74,19 @@ public class DistinctValueWithCountServerAggregator extends BaseAggregator {
 
     public DistinctValueWithCountServerAggregator(Configuration conf, DistinctValueWithCountClientAggregator clientAgg) {
         this(conf);
-        valueVsCount = clientAgg.valueVsCount;
+        for (Entry<ImmutableBytesPtr, Integer> entry : clientAgg.valueVsCount.entrySet()) {
+            valueVsCount.put(entry.getKey(), new Count(entry.getValue()));
+        }
     }
 
     @Override
     public void aggregate(Tuple tuple, ImmutableBytesWritable ptr) {
-        ImmutableBytesPtr key = new ImmutableBytesPtr(ptr.get(), ptr.getOffset(), ptr.getLength());
-        Integer count = this.valueVsCount.get(key);
+        lookupKey.set(ptr.get(), ptr.getOffset(), ptr.getLength());
+        Count count = this.valueVsCount.get(lookupKey);
         if (count == null) {
-            this.valueVsCount.put(key, 1);
+            this.valueVsCount.put(new ImmutableBytesPtr(ptr.copyBytes()), new Count(1));
         } else {
-            this.valueVsCount.put(key, ++count);
+            count.value++;
         }
     }
 
@@ -92,12 +104,12 @@ public class DistinctValueWithCountServerAggregator extends BaseAggregator {
         buffer = new byte[serializationSize];
         int offset = 1;
         offset += ByteUtil.vintToBytes(buffer, offset, this.valueVsCount.size());
-        for (Entry<ImmutableBytesPtr, Integer> entry : this.valueVsCount.entrySet()) {
+        for (Entry<ImmutableBytesPtr, Count> entry : this.valueVsCount.entrySet()) {
             ImmutableBytesPtr key = entry.getKey();
             offset += ByteUtil.vintToBytes(buffer, offset, key.getLength());
             System.arraycopy(key.get(), key.getOffset(), buffer, offset, key.getLength());
             offset += key.getLength();
-            offset += ByteUtil.vintToBytes(buffer, offset, entry.getValue().intValue());
+            offset += ByteUtil.vintToBytes(buffer, offset, entry.getValue().value);
         }
         if (serializationSize > compressThreshold) {
             // The size for the map serialization is above the threshold. We will do the Snappy compression here.
@@ -158,7 +170,7 @@ public class DistinctValueWithCountServerAggregator extends BaseAggregator {
 
     @Override
     public void reset() {
-        valueVsCount = new HashMap<ImmutableBytesPtr, Integer>();
+        valueVsCount = new HashMap<ImmutableBytesPtr, Count>();
         buffer = null;
         super.reset();
     }
@@ -20,11 +20,15 @@ package org.apache.phoenix.expression.aggregator;
 import org.apache.hadoop.hbase.io.ImmutableBytesWritable;
 import org.apache.hadoop.hbase.util.Bytes;
 
+import org.apache.phoenix.schema.PDataType;
+import org.apache.phoenix.schema.PDataType.PDataCodec;
 import org.apache.phoenix.schema.SortOrder;
 import org.apache.phoenix.schema.tuple.Tuple;
 import org.apache.phoenix.util.ByteUtil;
 import org.apache.phoenix.util.SizedUtil;
 
+import com.google.common.primitives.Doubles;
+
 
 /**
  * Aggregator that finds the min of values. Inverse of {@link MaxAggregator}.
@@ -33,8 +37,22 @@ import org.apache.phoenix.util.SizedUtil;
  * @since 0.1
  */
 abstract public class MinAggregator extends BaseAggregator {
+    private static final int UNKNOWN_VALUES = 0;
+    private static final int BYTES_VALUES = 1;
+    private static final int LONG_VALUES = 2;
+    private static final int DOUBLE_VALUES = 3;
+    
     /** Used to store the accumulate the results of the MIN function */
     protected final ImmutableBytesWritable value = new ImmutableBytesWritable(ByteUtil.EMPTY_BYTE_ARRAY);
+    // Copy of the bytes of the current value, so that the row it came from is not retained
+    private byte[] buffer;
+    // How the values are compared, determined on the first value as getDataType() is overridden in anonymous classes
+    private int valueKind = UNKNOWN_VALUES;
+    private PDataCodec codec;
+    private int byteSize;
+    // Decoded current value, valid if the current value has the byte size of the data type
+    private long longValue;
+    private double doubleValue;
     
     public MinAggregator(SortOrder sortOrder) {
         super(sortOrder);
@@ -48,7 +66,7 @@ abstract public class MinAggregator extends BaseAggregator {
 
     @Override
     public int getSize() {
-        return super.getSize() + /*value*/ SizedUtil.IMMUTABLE_BYTES_WRITABLE_SIZE;
+        return super.getSize() + /*value*/ SizedUtil.IMMUTABLE_BYTES_WRITABLE_SIZE + /*buffer*/ SizedUtil.ARRAY_SIZE + 2 * SizedUtil.LONG_SIZE;
     }
 
     /**
@@ -64,18 +82,73 @@ abstract public class MinAggregator extends BaseAggregator {
         return 0 >= getDataType().compareTo(ibw1, sortOrder, ibw2, sortOrder, getDataType());
     }
 
+    /**
+     * Same as {@link #keepFirst(ImmutableBytesWritable, ImmutableBytesWritable)} for decoded integral values.
+     */
+    protected boolean keepFirst(long v1, long v2) {
+        return v1 <= v2;
+    }
+
+    /**
+     * Same as {@link #keepFirst(ImmutableBytesWritable, ImmutableBytesWritable)} for decoded floating point values.
+     */
+    protected boolean keepFirst(double v1, double v2) {
+        return Doubles.compare(v1, v2) <= 0;
+    }
+
     private boolean isNull() {
         return value.get() == ByteUtil.EMPTY_BYTE_ARRAY;
     }
     
+    private int getValueKind() {
+        if (valueKind == UNKNOWN_VALUES) {
+            PDataType type = getDataType();
+            codec = type.getCodec();
+            // Timestamps have a codec for their millisecond part only
+            if (codec == null || !type.isFixedWidth() || type.getByteSize() > Bytes.SIZEOF_LONG) {
+                valueKind = BYTES_VALUES;
+            } else {
+                valueKind = PDataType.isDoubleOrFloat(type) ? DOUBLE_VALUES : LONG_VALUES;
+                byteSize = type.getByteSize();
+            }
+        }
+        return valueKind;
+    }
+    
+    private void setValue(ImmutableBytesWritable ptr) {
+        int length = ptr.getLength();
+        if (buffer == null || buffer.length < length) {
+            buffer = new byte[length];
+        }
+        System.arraycopy(ptr.get(), ptr.getOffset(), buffer, 0, length);
+        value.set(buffer, 0, length);
+    }
+    
     @Override
     public void aggregate(Tuple tuple, ImmutableBytesWritable ptr) {
-        if (isNull()) {
-            value.set(ptr.get(), ptr.getOffset(), ptr.getLength());
-        } else {
-            if (!keepFirst(value, ptr)) {
-                // replace the value with the new value
-                value.set(ptr.get(), ptr.getOffset(), ptr.getLength());
+        int valueKind = getValueKind();
+        // Null values are only compared as bytes
+        if (valueKind != BYTES_VALUES && ptr.getLength() == byteSize && (isNull() || value.getLength() == byteSize)) {
+            if (valueKind == LONG_VALUES) {
+                long v = codec.decodeLong(ptr, sortOrder);
+                if (isNull() || !keepFirst(longValue, v)) {
+                    longValue = v;
+                    setValue(ptr);
+                }
+            } else {
+                double v = codec.decodeDouble(ptr, sortOrder);
+                if (isNull() || !keepFirst(doubleValue, v)) {
+                    doubleValue = v;
+                    setValue(ptr);
+                }
+            }
+        } else if (isNull() || !keepFirst(value, ptr)) {
+            // replace the value with the new value
+            setValue(ptr);
+            if (valueKind == LONG_VALUES && ptr.getLength() == byteSize) {
+                longValue = codec.decodeLong(ptr, sortOrder);
+            } else if (valueKind == DOUBLE_VALUES && ptr.getLength() == byteSize) {
+                doubleValue = codec.decodeDouble(ptr, sortOrder);
             }
         }
     }
@@ -0,0 +1,252 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.phoenix.filter;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.hadoop.hbase.Cell;
+import org.apache.hadoop.hbase.exceptions.DeserializationException;
+import org.apache.hadoop.hbase.filter.FilterBase;
+import org.apache.hadoop.hbase.io.ImmutableBytesWritable;
+import org.apache.hadoop.hbase.util.Writables;
+import org.apache.hadoop.io.Writable;
+import org.apache.hadoop.io.WritableUtils;
+import org.apache.phoenix.expression.Expression;
+import org.apache.phoenix.expression.ExpressionType;
+import org.apache.phoenix.schema.tuple.MultiKeyValueTuple;
+import org.apache.phoenix.util.ServerUtil;
+import org.apache.phoenix.util.TupleUtil;
+
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
+
+
+/**
+ *
+ * Filter that drops the rows of the probe side of an inner hash join whose join key
+ * is known not to be in the hash cache. The Bloom filter is built by the client over
+ * the keys of the build side while the hash cache is serialized, so that rows without
+ * a match never reach the join loop of the region scanner.
+ *
+ *
+ * @since 3.0
+ */
+public class JoinKeyBloomFilter extends FilterBase implements Writable {
+    private static final HashFunction HASH_FUNCTION = Hashing.murmur3_128();
+    private static final int BITS_PER_KEY = 10;
+    private static final int NUM_HASHES = 7; // Optimal for 10 bits per key, with a false positive rate of about 1%
+
+    private List<Expression> joinExpressions;
+    private long[] bits;
+    private int numHashes;
+    private boolean filterRow;
+    private final MultiKeyValueTuple inputTuple = new MultiKeyValueTuple();
+
+    public JoinKeyBloomFilter() {
+    }
+
+    private JoinKeyBloomFilter(List<Expression> joinExpressions, long[] bits, int numHashes) {
+        this.joinExpressions = joinExpressions;
+        this.bits = bits;
+        this.numHashes = numHashes;
+    }
+
+    /**
+     *
+     * Collects the distinct hashes of the join keys of the build side, to size the filter once all keys are known.
+     * The build side may repeat a key in many rows, so duplicates are dropped whenever the hashes fill up.
+     * A builder kept with a reused hash cache may be built by several queries at once.
+     *
+     *
+     * @since 3.0
+     */
+    public static class Builder {
+        private long[] hashes = new long[16];
+        private int size;
+
+        public synchronized void add(ImmutableBytesWritable key) {
+            if (size == hashes.length) {
+                dedupe();
+                // Only grow if the distinct hashes still take more than half of the space
+                if (size > hashes.length / 2) {
+                    hashes = Arrays.copyOf(hashes, hashes.length * 2);
+                }
+            }
+            hashes[size++] = hash(key);
+        }
+
+        private void dedupe() {
+            Arrays.sort(hashes, 0, size);
+            int distinct = 0;
+            for (int i = 0; i < size; i++) {
+                if (distinct == 0 || hashes[i] != hashes[distinct - 1]) {
+                    hashes[distinct++] = hashes[i];
+                }
+            }
+            size = distinct;
+        }
+
+        /**
+         * @param joinExpressions the expressions evaluating the join key of the probe side
+         * @param maxBytes max size of the bit set
+         * @return the filter, or null if there are too many keys for the filter to be useful within maxBytes
+         */
+        public synchronized JoinKeyBloomFilter build(List<Expression> joinExpressions, long maxBytes) {
+            dedupe();
+            long nBits = Math.max(Long.SIZE, (long)size * BITS_PER_KEY);
+            if (nBits / Byte.SIZE > maxBytes) {
+                return null;
+            }
+            long[] bits = new long[(int)((nBits + Long.SIZE - 1) / Long.SIZE)];
+            for (int i = 0; i < size; i++) {
+                set(bits, NUM_HASHES, hashes[i]);
+            }
+            return new JoinKeyBloomFilter(joinExpressions, bits, NUM_HASHES);
+        }
+    }
+
+    private static long hash(ImmutableBytesWritable key) {
+        return HASH_FUNCTION.hashBytes(key.get(), key.getOffset(), key.getLength()).asLong();
+    }
+
+    /**
+     * Derives the bit positions from the two halves of the hash (Kirsch and Mitzenmacher).
+     * Computed as a long, as the number of bits may exceed the range of an int.
+     */
+    static long position(long nBits, long hash, int i) {
+        long hash1 = (int)hash;
+        long hash2 = (int)(hash >>> 32);
+        long combined = hash1 + i * hash2;
+        return (combined & Long.MAX_VALUE) % nBits;
+    }
+
+    private static void set(long[] bits, int numHashes, long hash) {
+        long nBits = (long)bits.length * Long.SIZE;
+        for (int i = 0; i < numHashes; i++) {
+            long position = position(nBits, hash, i);
+            bits[(int)(position >>> 6)] |= 1L << position;
+        }
+    }
+
+    private static boolean mightContain(long[] bits, int numHashes, long hash) {
+        long nBits = (long)bits.length * Long.SIZE;
+        for (int i = 0; i < numHashes; i++) {
+            long position = position(nBits, hash, i);
+            if ((bits[(int)(position >>> 6)] & (1L << position)) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public List<Expression> getJoinExpressions() {
+        return joinExpressions;
+    }
+
+    @Override
+    public boolean hasFilterRow() {
+        return true;
+    }
+
+    /**
+     * Evaluate once the entire row is known, as the join key may span several columns.
+     */
+    @Override
+    public void filterRowCells(List<Cell> cells) throws IOException {
+        if (cells.isEmpty()) {
+            return;
+        }
+        inputTuple.setKeyValues(cells);
+        ImmutableBytesWritable key = TupleUtil.getConcatenatedValue(inputTuple, joinExpressions);
+        filterRow = !mightContain(bits, numHashes, hash(key));
+    }
+
+    @Override
+    public boolean filterRow() {
+        return filterRow;
+    }
+
+    @Override
+    public void reset() {
+        filterRow = false;
+        for (Expression expression : joinExpressions) {
+            expression.reset();
+        }
+    }
+
+    @Override
+    public void readFields(DataInput input) throws IOException {
+        try {
+            int nExpressions = WritableUtils.readVInt(input);
+            joinExpressions = new ArrayList<Expression>(nExpressions);
+            for (int i = 0; i < nExpressions; i++) {
+                Expression expression = ExpressionType.values()[WritableUtils.readVInt(input)].newInstance();
+                expression.readFields(input);
+                joinExpressions.add(expression);
+            }
+            numHashes = WritableUtils.readVInt(input);
+            bits = new long[WritableUtils.readVInt(input)];
+            for (int i = 0; i < bits.length; i++) {
+                bits[i] = input.readLong();
+            }
+        } catch (Throwable t) { // Catches incompatibilities during reading/writing and doesn't retry
+            ServerUtil.throwIOException("JoinKeyBloomFilter failed during reading", t);
+        }
+    }
+
+    @Override
+    public void write(DataOutput output) throws IOException {
+        try {
+            WritableUtils.writeVInt(output, joinExpressions.size());
+            for (Expression expression : joinExpressions) {
+                WritableUtils.writeVInt(output, ExpressionType.valueOf(expression).ordinal());
+                expression.write(output);
+            }
+            WritableUtils.writeVInt(output, numHashes);
+            WritableUtils.writeVInt(output, bits.length);
+            for (int i = 0; i < bits.length; i++) {
+                output.writeLong(bits[i]);
+            }
+        } catch (Throwable t) { // Catches incompatibilities during reading/writing and doesn't retry
+            ServerUtil.throwIOException("JoinKeyBloomFilter failed during writing", t);
+        }
+    }
+
+    @Override
+    public byte[] toByteArray() throws IOException {
+        return Writables.getBytes(this);
+    }
+
+    public static JoinKeyBloomFilter parseFrom(final byte [] pbBytes) throws DeserializationException {
+        try {
+            return (JoinKeyBloomFilter)Writables.getWritable(pbBytes, new JoinKeyBloomFilter());
+        } catch (IOException e) {
+            throw new DeserializationException(e);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "JoinKeyBloomFilter " + joinExpressions + " (" + bits.length * Long.SIZE + " bits)";
+    }
+}
@@ -61,6 +61,8 @@ public class SkipScanFilter extends FilterBase implements Writable {
     private enum Terminate {AT, AFTER};
     // Conjunctive normal form of or-ed ranges or point lookups
     private List<List<KeyRange>> slots;
+    // slots compiled into flat arrays, searched while navigating
+    private CompiledSlot[] compiledSlots;
     // schema of the row key
     private RowKeySchema schema;
     // current position for each slot
@@ -94,6 +96,10 @@ public class SkipScanFilter extends FilterBase implements Writable {
         }
         this.slots = slots;
         this.schema = schema;
+        this.compiledSlots = new CompiledSlot[slots.size()];
+        for (int i = 0; i < compiledSlots.length; i++) {
+            compiledSlots[i] = new CompiledSlot(slots.get(i));
+        }
         this.maxKeyLength = SchemaUtil.getMaxKeyLength(schema, slots);
         this.position = new int[slots.size()];
         startKey = new byte[maxKeyLength];
@@ -118,7 +124,8 @@ public class SkipScanFilter extends FilterBase implements Writable {
 
     @Override
     public Cell getNextCellHint(Cell kv) {
-        // TODO: don't allocate new key value every time here if possible
+        // A new key value is needed for each hint, since the store scanners may hold on to it
+        // for their lazy seeks after we've moved on to the next hint.
         return isDone ? null : new KeyValue(startKey, 0, startKeyLength,
                 null, 0, 0, null, 0, 0, HConstants.LATEST_TIMESTAMP, Type.Maximum, null, 0, 0);
     }
@@ -141,7 +148,7 @@ public class SkipScanFilter extends FilterBase implements Writable {
     
     private boolean areSlotsSingleKey(int startPosInclusive, int endPosExclusive) {
         for (int i = startPosInclusive; i < endPosExclusive; i++) {
-            if (!slots.get(i).get(position[i]).isSingleKey()) {
+            if (!compiledSlots[i].isSingleKey(position[i])) {
                 return false;
             }
         }
@@ -233,7 +240,7 @@ public class SkipScanFilter extends FilterBase implements Writable {
 
     private int previousPosition(int i) {
         while (i >= 0 && --position[i] < 0) {
-            position[i] = slots.get(i).size()-1;
+            position[i] = compiledSlots[i].size()-1;
             i--;
         }
         return i;
@@ -252,7 +259,7 @@ public class SkipScanFilter extends FilterBase implements Writable {
 
             // If key range of last slot is a single key, we can increment our position
             // since we know we'll be past the current row after including it.
-            if (slots.get(nSlots-1).get(position[nSlots-1]).isSingleKey()) {
+            if (compiledSlots[nSlots-1].isSingleKey(position[nSlots-1])) {
                 if (nextPosition(nSlots-1) < 0) {
                     // Current row will be included, but we have no more
                     isDone = true;
@@ -265,7 +272,7 @@ public class SkipScanFilter extends FilterBase implements Writable {
                 // less significant slots.
                 int earliestRangeIndex = nSlots-1;
                 for (int i = 0; i < nSlots; i++) {
-                    if (!slots.get(i).get(position[i]).isSingleKey()) {
+                    if (!compiledSlots[i].isSingleKey(position[i])) {
                         earliestRangeIndex = i;
                         break;
                     }
@@ -287,12 +294,11 @@ public class SkipScanFilter extends FilterBase implements Writable {
         int maxOffset = schema.iterator(currentKey, minOffset, length, ptr);
         schema.next(ptr, i, maxOffset);
         while (true) {
-            // Increment to the next range while the upper bound of our current slot is less than our current key
-            while (position[i] < slots.get(i).size() && slots.get(i).get(position[i]).compareUpperToLowerBound(ptr) < 0) {
-                position[i]++;
-            }
+            // Move to the first range whose upper bound is not less than our current key
+            CompiledSlot slot = compiledSlots[i];
+            position[i] = slot.search(position[i], ptr);
             Arrays.fill(position, i+1, position.length, 0);
-            if (position[i] >= slots.get(i).size()) {
+            if (position[i] >= slot.size()) {
                 // Our current key is bigger than the last range of the current slot.
                 // If navigating after current key, backtrack and increment the key of the previous slot values.
                 // If navigating to current key, just return
@@ -311,7 +317,7 @@ public class SkipScanFilter extends FilterBase implements Writable {
                 // If we're positioned at a single key, no need to copy the current key and get the next key .
                 // Instead, just increment to the next key and continue.
                 boolean incremented = false;
-                while (j >= 0 && slots.get(j).get(position[j]).isSingleKey() && (incremented=true) && (position[j] = (position[j] + 1) % slots.get(j).size()) == 0) {
+                while (j >= 0 && compiledSlots[j].isSingleKey(position[j]) && (incremented=true) && (position[j] = (position[j] + 1) % compiledSlots[j].size()) == 0) {
                     j--;
                     incremented = false;
                 }
@@ -338,13 +344,13 @@ public class SkipScanFilter extends FilterBase implements Writable {
                     ByteUtil.nextKey(startKey, currentLength);
                 }
                 i = j;
-            } else if (slots.get(i).get(position[i]).compareLowerToUpperBound(ptr) > 0) {
+            } else if (slot.isAfter(position[i], ptr)) {
                 // Our current key is less than the lower range of the current position in the current slot.
                 // Seek to the lower range, since it's bigger than the current key
                 setStartKey(ptr, minOffset, i);
                 return ReturnCode.SEEK_NEXT_USING_HINT;
             } else { // We're in range, check the next slot
-                if (!slots.get(i).get(position[i]).isSingleKey() && i < earliestRangeIndex) {
+                if (!slot.isSingleKey(position[i]) && i < earliestRangeIndex) {
                     earliestRangeIndex = i;
                 }
                 // If we're past the last slot or we know we're seeking to the next (in
@@ -398,7 +404,7 @@ public class SkipScanFilter extends FilterBase implements Writable {
     }
     
     private int nextPosition(int i) {
-        while (i >= 0 && slots.get(i).get(position[i]).isSingleKey() && (position[i] = (position[i] + 1) % slots.get(i).size()) == 0) {
+        while (i >= 0 && compiledSlots[i].isSingleKey(position[i]) && (position[i] = (position[i] + 1) % compiledSlots[i].size()) == 0) {
             i--;
         }
         return i;
@@ -434,12 +440,161 @@ public class SkipScanFilter extends FilterBase implements Writable {
 
     private static byte[] copyKey(byte[] targetKey, int targetLength, byte[] sourceKey, int offset, int length) {
         if (targetLength > targetKey.length) {
-            targetKey = new byte[targetLength];
+            // Grow geometrically, so that the buffer is reallocated only a few times per scan
+            targetKey = new byte[Math.max(targetLength, targetKey.length * 2)];
         }
         System.arraycopy(sourceKey, offset, targetKey, 0, length);
         return targetKey;
     }
 
+    /**
+     * 
+     * Key ranges of a slot compiled into flat arrays, so that navigating does not go through
+     * the KeyRange objects for each row. The upper bounds of the ranges are stored back to back
+     * in a single byte array, which is binary searched since the ranges of a slot are sorted
+     * and do not overlap. When all the ranges are single keys, as for an IN list, their lower
+     * and upper bounds are the same and are compared directly against the row key.
+     *
+     */
+    private static final class CompiledSlot {
+        private final KeyRange[] ranges;
+        private final byte[] upperBounds;
+        // Offset of the upper bound of each range in upperBounds, with one extra for the end
+        private final int[] upperOffsets;
+        private final boolean[] upperInclusive;
+        private final boolean[] upperUnbound;
+        private final boolean[] singleKey;
+        private final boolean isPointLookup;
+        private final boolean isSorted;
+        
+        private CompiledSlot(List<KeyRange> slot) {
+            int size = slot.size();
+            ranges = slot.toArray(new KeyRange[size]);
+            upperOffsets = new int[size + 1];
+            upperInclusive = new boolean[size];
+            upperUnbound = new boolean[size];
+            singleKey = new boolean[size];
+            int length = 0;
+            boolean isPointLookup = true;
+            for (int i = 0; i < size; i++) {
+                KeyRange range = ranges[i];
+                upperOffsets[i] = length;
+                upperInclusive[i] = range.isUpperInclusive();
+                upperUnbound[i] = range.upperUnbound();
+                singleKey[i] = range.isSingleKey();
+                isPointLookup &= singleKey[i];
+                length += range.getUpperRange().length;
+            }
+            upperOffsets[size] = length;
+            upperBounds = new byte[length];
+            for (int i = 0; i < size; i++) {
+                byte[] upper = ranges[i].getUpperRange();
+                System.arraycopy(upper, 0, upperBounds, upperOffsets[i], upper.length);
+            }
+            this.isPointLookup = isPointLookup;
+            this.isSorted = isSorted();
+        }
+        
+        /**
+         * The ranges of a slot are expected to be sorted, but if they are not we
+         * fall back to scanning them one after the other as they are.
+         */
+        private boolean isSorted() {
+            for (int i = 1; i < ranges.length; i++) {
+                if (upperUnbound[i-1]) {
+                    return false;
+                }
+                if (upperUnbound[i]) {
+                    continue;
+                }
+                int cmp = compareUpper(i-1, upperBounds, upperOffsets[i], upperOffsets[i+1] - upperOffsets[i]);
+                if (cmp > 0 || (cmp == 0 && upperInclusive[i-1] && !upperInclusive[i])) {
+                    return false;
+                }
+            }
+            return true;
+        }
+        
+        public int size() {
+            return ranges.length;
+        }
+        
+        public boolean isSingleKey(int position) {
+            return singleKey[position];
+        }
+        
+        private int compareUpper(int position, byte[] b, int o, int l) {
+            return Bytes.compareTo(upperBounds, upperOffsets[position], upperOffsets[position+1] - upperOffsets[position], b, o, l);
+        }
+        
+        /**
+         * @return true if the range at the given position is entirely before the key,
+         * the equivalent of {@link KeyRange#compareUpperToLowerBound(ImmutableBytesWritable)} &lt; 0
+         */
+        private boolean isBefore(int position, byte[] b, int o, int l) {
+            if (isPointLookup) {
+                return compareUpper(position, b, o, l) < 0;
+            }
+            if (upperUnbound[position] || b == KeyRange.UNBOUND) {
+                return false;
+            }
+            int cmp = compareUpper(position, b, o, l);
+            return cmp < 0 || (cmp == 0 && !upperInclusive[position]);
+        }
+        
+        /**
+         * @return true if the range at the given position is entirely after the key,
+         * the equivalent of {@link KeyRange#compareLowerToUpperBound(ImmutableBytesWritable)} &gt; 0
+         */
+        public boolean isAfter(int position, ImmutableBytesWritable ptr) {
+            if (singleKey[position]) {
+                // Lower and upper bounds are the same and both inclusive
+                return ptr.get() != KeyRange.UNBOUND && compareUpper(position, ptr.get(), ptr.getOffset(), ptr.getLength()) > 0;
+            }
+            return ranges[position].compareLowerToUpperBound(ptr) > 0;
+        }
+        
+        /**
+         * Finds the first range, starting at the given position, that is not entirely before the key.
+         * Since rows are visited in order, the search gallops forward from the current position
+         * before binary searching, so that moving to a nearby range only takes a few comparisons.
+         * @return the position of the range or {@link #size()} if all the ranges are before the key
+         */
+        public int search(int position, ImmutableBytesWritable ptr) {
+            byte[] b = ptr.get();
+            int o = ptr.getOffset();
+            int l = ptr.getLength();
+            int size = ranges.length;
+            if (position >= size || !isBefore(position, b, o, l)) {
+                return position;
+            }
+            if (!isSorted) {
+                while (++position < size && isBefore(position, b, o, l)) {
+                }
+                return position;
+            }
+            // All the ranges before low are before the key, and the one at high, if any, is not
+            int low = position + 1;
+            int high = low;
+            int step = 1;
+            while (high < size && isBefore(high, b, o, l)) {
+                low = high + 1;
+                step <<= 1;
+                high = position + step;
+            }
+            high = Math.min(high, size);
+            while (low < high) {
+                int mid = (low + high) >>> 1;
+                if (isBefore(mid, b, o, l)) {
+                    low = mid + 1;
+                } else {
+                    high = mid;
+                }
+            }
+            return low;
+        }
+    }
+
     @Override
     public void readFields(DataInput in) throws IOException {
         RowKeySchema schema = new RowKeySchema();
@@ -49,6 +49,7 @@ import org.apache.hadoop.hbase.regionserver.KeyValueScanner;
 import org.apache.hadoop.hbase.regionserver.MiniBatchOperationInProgress;
 import org.apache.hadoop.hbase.regionserver.ScanType;
 import org.apache.hadoop.hbase.regionserver.Store;
+import org.apache.hadoop.hbase.regionserver.wal.HLog;
 import org.apache.hadoop.hbase.regionserver.wal.HLogKey;
 import org.apache.hadoop.hbase.regionserver.wal.WALEdit;
 import org.apache.hadoop.hbase.util.Pair;
@@ -58,7 +59,9 @@ import org.apache.phoenix.hbase.index.table.HTableInterfaceReference;
 import org.apache.phoenix.hbase.index.util.ImmutableBytesPtr;
 import org.apache.phoenix.hbase.index.util.IndexManagementUtil;
 import org.apache.phoenix.hbase.index.util.VersionUtil;
+import org.apache.phoenix.hbase.index.wal.IndexLogRollSynchronizer;
 import org.apache.phoenix.hbase.index.wal.IndexedKeyValue;
+import org.apache.phoenix.hbase.index.write.AsyncIndexWriter;
 import org.apache.phoenix.hbase.index.write.IndexFailurePolicy;
 import org.apache.phoenix.hbase.index.write.IndexWriter;
 import org.apache.phoenix.hbase.index.write.recovery.PerRegionIndexWriteCache;
@@ -122,6 +125,19 @@ public class Indexer extends BaseRegionObserver {
    */
   private IndexWriter recoveryWriter;
 
+  /**
+   * Writes the index updates in the background once they are in the WAL, if enabled through
+   * {@link AsyncIndexWriter#ASYNC_INDEX_WRITES_CONF_KEY}. <tt>null</tt> otherwise.
+   */
+  private AsyncIndexWriter asyncWriter;
+
+  /**
+   * Keeps the WAL of the region from archiving logs holding index updates not written yet by the
+   * {@link #asyncWriter}, registered on {@link #log}. <tt>null</tt> if there is no async writer.
+   */
+  private IndexLogRollSynchronizer logRollSynchronizer;
+  private HLog log;
+
   private boolean stopped;
   private boolean disabled;
 
@@ -153,6 +169,12 @@ public class Indexer extends BaseRegionObserver {
 
         // setup the actual index writer
         this.writer = new IndexWriter(env, serverName + "-index-writer");
+        if (env.getConfiguration().getBoolean(AsyncIndexWriter.ASYNC_INDEX_WRITES_CONF_KEY, false)) {
+          this.asyncWriter = new AsyncIndexWriter(writer, env, serverName + "-async-index-writer");
+          this.log = env.getRegion().getLog();
+          this.logRollSynchronizer = new IndexLogRollSynchronizer(asyncWriter);
+          this.log.registerWALActionsListener(logRollSynchronizer);
+        }
     
         // setup the recovery writer that does retries on the failed edits
         TrackingParallelWriterIndexCommitter recoveryCommmiter =
@@ -192,6 +214,10 @@ public class Indexer extends BaseRegionObserver {
     this.stopped = true;
     String msg = "Indexer is being stopped";
     this.builder.stop(msg);
+    if (this.asyncWriter != null) {
+      this.log.unregisterWALActionsListener(logRollSynchronizer);
+      this.asyncWriter.stop(msg);
+    }
     this.writer.stop(msg);
     this.recoveryWriter.stop(msg);
   }
@@ -317,7 +343,10 @@ public class Indexer extends BaseRegionObserver {
         this.builder.getIndexUpdate(miniBatchOp, mutations.values());
 
     // write them, either to WAL or the index tables
-    doPre(indexUpdates, edit, durability);
+    if (doPre(indexUpdates, edit, durability) && asyncWriter != null) {
+      // the updates are in the WALEdit, so they must be tracked until they are queued
+      asyncWriter.batchStarted();
+    }
   }
 
   private class MultiMutation extends Mutation {
@@ -431,12 +460,18 @@ public class Indexer extends BaseRegionObserver {
           super.postBatchMutate(c, miniBatchOp);
           return;
         }
-    this.builder.batchCompleted(miniBatchOp);
-
-    //each batch operation, only the first one will have anything useful, so we can just grab that
-    Mutation mutation = miniBatchOp.getOperation(0);
-    WALEdit edit = miniBatchOp.getWalEdit(0);
-    doPost(edit, mutation, mutation.getDurability());
+    try {
+      this.builder.batchCompleted(miniBatchOp);
+
+      //each batch operation, only the first one will have anything useful, so we can just grab that
+      Mutation mutation = miniBatchOp.getOperation(0);
+      WALEdit edit = miniBatchOp.getWalEdit(0);
+      doPost(edit, mutation, mutation.getDurability());
+    } finally {
+      if (asyncWriter != null) {
+        asyncWriter.batchFinished();
+      }
+    }
   }
 
   private void doPost(WALEdit edit, Mutation m, final Durability durability) throws IOException {
@@ -483,7 +518,12 @@ public class Indexer extends BaseRegionObserver {
       // references originally - therefore, we just pass in a null factory here and use the ones
       // already specified on each reference
       try {
-          writer.writeAndKillYourselfOnFailure(indexUpdates);
+          if (asyncWriter != null) {
+            // the updates are durable in the WAL, so they don't need to be written before we return
+            asyncWriter.write(indexUpdates);
+          } else {
+            writer.writeAndKillYourselfOnFailure(indexUpdates);
+          }
       } finally {
         // With a custom kill policy, we may throw instead of kill the server.
         // Without doing this in a finally block (at least with the mini cluster),
@@ -552,6 +592,20 @@ public class Indexer extends BaseRegionObserver {
     }
   }
 
+  @Override
+  public void preClose(ObserverContext<RegionCoprocessorEnvironment> c, boolean abortRequested)
+      throws IOException {
+    if (this.disabled) {
+      super.preClose(c, abortRequested);
+      return;
+    }
+    // once closed, the region no longer holds back the archiving of its logs, so the index updates
+    // must be written first. When aborting, WAL replay takes care of the index updates not written yet
+    if (this.asyncWriter != null && !abortRequested) {
+      this.asyncWriter.waitForPendingWrites();
+    }
+  }
+
   @Override
   public void preWALRestore(ObserverContext<RegionCoprocessorEnvironment> env, HRegionInfo info,
       HLogKey logKey, WALEdit logEdit) throws IOException {
@@ -60,6 +60,11 @@ public abstract class BaseIndexBuilder implements IndexBuilder {
   public void batchCompleted(MiniBatchOperationInProgress<Mutation> miniBatchOp) {
     // noop
   }
+
+  @Override
+  public void batchUpdatesBuilt(MiniBatchOperationInProgress<Mutation> miniBatchOp) {
+    // noop
+  }
   
   /**
    * By default, we always attempt to index the mutation. Commonly this can be slow (because the
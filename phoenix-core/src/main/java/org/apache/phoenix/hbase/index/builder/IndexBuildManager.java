@@ -116,6 +116,17 @@ public class IndexBuildManager implements Stoppable {
   public Collection<Pair<Mutation, byte[]>> getIndexUpdate(
       MiniBatchOperationInProgress<Mutation> miniBatchOp,
       Collection<? extends Mutation> mutations) throws Throwable {
+    try {
+      return getIndexUpdateWithinBatch(miniBatchOp, mutations);
+    } finally {
+      // the batch may still fail before it completes, so release its state here
+      this.delegate.batchUpdatesBuilt(miniBatchOp);
+    }
+  }
+
+  private Collection<Pair<Mutation, byte[]>> getIndexUpdateWithinBatch(
+      MiniBatchOperationInProgress<Mutation> miniBatchOp,
+      Collection<? extends Mutation> mutations) throws Throwable {
     // notify the delegate that we have started processing a batch
     this.delegate.batchStarted(miniBatchOp);
 
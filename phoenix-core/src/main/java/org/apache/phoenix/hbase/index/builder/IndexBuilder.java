@@ -118,6 +118,16 @@ public interface IndexBuilder extends Stoppable {
    */
   public void batchStarted(MiniBatchOperationInProgress<Mutation> miniBatchOp) throws IOException;
 
+  /**
+   * Notification that the index updates of a batch have been built, or failed to be built.
+   * <p>
+   * Unlike {@link #batchCompleted}, this is always called once {@link #batchStarted} has been, even
+   * if the batch then fails, so anything kept for building the updates of the batch can be released
+   * here.
+   * @param miniBatchOp the full batch operation to be written
+   */
+  public void batchUpdatesBuilt(MiniBatchOperationInProgress<Mutation> miniBatchOp);
+
   /**
    * This allows the codec to dynamically change whether or not indexing should take place for a
    * table. If it doesn't take place, we can save a lot of time on the regular Put patch. By making
@@ -0,0 +1,110 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.phoenix.hbase.index.covered.data;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.apache.hadoop.hbase.Cell;
+import org.apache.hadoop.hbase.CellUtil;
+import org.apache.hadoop.hbase.client.Mutation;
+import org.apache.hadoop.hbase.client.Result;
+
+import org.apache.phoenix.hbase.index.covered.update.ColumnReference;
+import org.apache.phoenix.hbase.index.util.ImmutableBytesPtr;
+
+/**
+ * {@link LocalHBaseState} that serves the current state of the rows of a batch from the result of
+ * a single scan over all of them, rather than scanning each row on its own. Rows that were not
+ * loaded, or that were loaded without all the families a lookup needs, are read through the
+ * delegate.
+ * <p>
+ * The state of the rows of a batch is only kept while the index updates of the batch are built, and
+ * is removed once they are, whether or not the batch succeeds. The state of a row is replaced each
+ * time it is loaded.
+ */
+public class CachedLocalTable implements LocalHBaseState {
+
+  private final LocalHBaseState delegate;
+  private final ConcurrentMap<ImmutableBytesPtr, RowState> rowStates =
+      new ConcurrentHashMap<ImmutableBytesPtr, RowState>();
+
+  public CachedLocalTable(LocalHBaseState delegate) {
+    this.delegate = delegate;
+  }
+
+  /**
+   * @param row key of the row
+   * @param families families that were scanned for the row, compared with Bytes.BYTES_COMPARATOR
+   * @param cells all the versions of the cells of the given families, in scan order. Empty if the
+   *          row does not exist.
+   */
+  public void setRowState(ImmutableBytesPtr row, Set<byte[]> families, List<Cell> cells) {
+    rowStates.put(row, new RowState(families, cells));
+  }
+
+  public void removeRowState(ImmutableBytesPtr row) {
+    rowStates.remove(row);
+  }
+
+  @Override
+  public Result getCurrentRowState(Mutation m, Collection<? extends ColumnReference> toCover)
+      throws IOException {
+    RowState state = rowStates.get(new ImmutableBytesPtr(m.getRow()));
+    if (state == null) {
+      return delegate.getCurrentRowState(m, toCover);
+    }
+    for (ColumnReference ref : toCover) {
+      if (!state.families.contains(ref.getFamily())) {
+        return delegate.getCurrentRowState(m, toCover);
+      }
+    }
+    // Only return the families that a scan of the row for these columns would have returned
+    List<Cell> cells = new ArrayList<Cell>(state.cells.size());
+    for (Cell cell : state.cells) {
+      if (isCovered(cell, toCover)) {
+        cells.add(cell);
+      }
+    }
+    return Result.create(cells);
+  }
+
+  private static boolean isCovered(Cell cell, Collection<? extends ColumnReference> toCover) {
+    for (ColumnReference ref : toCover) {
+      if (CellUtil.matchingFamily(cell, ref.getFamily())) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private static class RowState {
+    private final Set<byte[]> families;
+    private final List<Cell> cells;
+
+    private RowState(Set<byte[]> families, List<Cell> cells) {
+      this.families = families;
+      this.cells = cells;
+    }
+  }
+}
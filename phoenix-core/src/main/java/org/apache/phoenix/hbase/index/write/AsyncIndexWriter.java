@@ -0,0 +1,331 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.phoenix.hbase.index.write;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hbase.Stoppable;
+import org.apache.hadoop.hbase.client.Mutation;
+import org.apache.hadoop.hbase.coprocessor.RegionCoprocessorEnvironment;
+import org.apache.hadoop.hbase.regionserver.HRegion;
+import org.apache.hadoop.hbase.util.Pair;
+import org.apache.phoenix.hbase.index.exception.IndexWriteException;
+import org.apache.phoenix.hbase.index.parallel.ThreadPoolBuilder;
+import org.apache.phoenix.hbase.index.parallel.ThreadPoolManager;
+import org.apache.phoenix.hbase.index.table.HTableInterfaceReference;
+import org.apache.phoenix.hbase.index.write.recovery.PerRegionIndexWriteCache;
+
+import com.google.common.collect.ArrayListMultimap;
+import com.google.common.collect.Multimap;
+
+/**
+ * Write index updates to the index tables in the background, so that the write to the primary
+ * table does not wait on the slowest index region. Only used for updates that are already durable
+ * in the WAL (as {@link org.apache.phoenix.hbase.index.wal.IndexedKeyValue}s), so the updates can
+ * always be replayed from there if this server dies before they are written.
+ * <p>
+ * Updates are drained to the index tables by a single task at a time per region, in the order in
+ * which they were queued, grouping all the updates queued since the last write into a single write
+ * per index table. Failed updates are kept in a {@link PerRegionIndexWriteCache} and retried along
+ * with the updates queued in the meantime. Once the retries are exhausted, the updates are handed
+ * to the {@link IndexWriter}'s failure policy, which by default kills the server so the WAL gets
+ * replayed.
+ * <p>
+ * The WAL entries of the queued updates must not be dropped before the updates are written. A
+ * flush covers the edits of batches whose updates are not queued yet, so instead the WAL must
+ * {@link #waitForPendingWrites()} before archiving a log (see
+ * {@link org.apache.phoenix.hbase.index.wal.IndexLogRollSynchronizer}), and so must the region
+ * before it closes. For that, the batches between the moment their updates are added to the
+ * WALEdit and the moment they are queued are tracked through {@link #batchStarted()} and
+ * {@link #batchFinished()}.
+ * <p>
+ * At most {@link #MAX_PENDING_CONF_KEY} updates are queued or being written at once. Further
+ * writes block until the queue has room, pushing back on the clients.
+ */
+public class AsyncIndexWriter implements Stoppable {
+
+  private static final Log LOG = LogFactory.getLog(AsyncIndexWriter.class);
+  /** Configuration key to write index updates in the background once they are in the WAL */
+  public static final String ASYNC_INDEX_WRITES_CONF_KEY = "index.writer.async";
+  public static final String NUM_ASYNC_INDEX_WRITER_THREADS_CONF_KEY = "index.writer.async.threads.max";
+  private static final int DEFAULT_ASYNC_INDEX_WRITER_THREADS = 10;
+  private static final String ASYNC_INDEX_WRITER_KEEP_ALIVE_TIME_CONF_KEY =
+      "index.writer.async.threads.keepalivetime";
+  public static final String MAX_RETRIES_CONF_KEY = "index.writer.async.retries.max";
+  private static final int DEFAULT_MAX_RETRIES = 5;
+  public static final String RETRY_PAUSE_CONF_KEY = "index.writer.async.retry.pause";
+  private static final long DEFAULT_RETRY_PAUSE = 1000;
+  public static final String MAX_PENDING_CONF_KEY = "index.writer.async.queue.max";
+  private static final int DEFAULT_MAX_PENDING = 100000;
+  /**
+   * Time after which a batch that never queued its updates is considered failed. Such a batch
+   * would otherwise hold up {@link #waitForPendingWrites()} forever.
+   */
+  public static final String BATCH_TIMEOUT_CONF_KEY = "index.writer.async.batch.timeout";
+  private static final long DEFAULT_BATCH_TIMEOUT = 60000;
+
+  private final IndexWriter writer;
+  private final HRegion region;
+  private final ExecutorService pool;
+  private final int maxRetries;
+  private final long retryPause;
+  private final int maxPending;
+  private final long batchTimeout;
+  private final PerRegionIndexWriteCache failedEdits = new PerRegionIndexWriteCache();
+  private final Object lock = new Object();
+  // guarded by lock
+  private Multimap<HTableInterfaceReference, Mutation> pending = ArrayListMultimap.create();
+  private boolean draining;
+  // guarded by lock, the number of updates queued or being written
+  private int pendingCount;
+  // batches whose updates are in the WAL but not queued yet, by sequence, with their start time
+  private final ConcurrentSkipListMap<Long, Long> openBatches = new ConcurrentSkipListMap<Long, Long>();
+  private final AtomicLong batchSequence = new AtomicLong();
+  private final ThreadLocal<Long> currentBatch = new ThreadLocal<Long>();
+  // only accessed by the draining task
+  private int failedAttempts;
+  private volatile boolean stopped;
+
+  public AsyncIndexWriter(IndexWriter writer, RegionCoprocessorEnvironment env, String name) {
+    this(writer, env.getRegion(), ThreadPoolManager.getExecutor(
+      new ThreadPoolBuilder(name, env.getConfiguration()).
+        setMaxThread(NUM_ASYNC_INDEX_WRITER_THREADS_CONF_KEY, DEFAULT_ASYNC_INDEX_WRITER_THREADS).
+        setCoreTimeout(ASYNC_INDEX_WRITER_KEEP_ALIVE_TIME_CONF_KEY), env), env.getConfiguration());
+  }
+
+  /**
+   * Exposed for TESTING
+   */
+  AsyncIndexWriter(IndexWriter writer, HRegion region, ExecutorService pool, Configuration conf) {
+    this.writer = writer;
+    this.region = region;
+    this.pool = pool;
+    this.maxRetries = conf.getInt(MAX_RETRIES_CONF_KEY, DEFAULT_MAX_RETRIES);
+    this.retryPause = conf.getLong(RETRY_PAUSE_CONF_KEY, DEFAULT_RETRY_PAUSE);
+    this.maxPending = conf.getInt(MAX_PENDING_CONF_KEY, DEFAULT_MAX_PENDING);
+    this.batchTimeout = conf.getLong(BATCH_TIMEOUT_CONF_KEY, DEFAULT_BATCH_TIMEOUT);
+  }
+
+  /**
+   * Called once the index updates of a batch are added to its WALEdit, before the batch is written
+   * to the memstore, from the thread that later calls {@link #batchFinished()} for the batch.
+   */
+  public void batchStarted() {
+    Long previous = currentBatch.get();
+    if (previous != null) {
+      // the previous batch of this thread failed before queueing its updates
+      openBatches.remove(previous);
+    }
+    Long batch = batchSequence.incrementAndGet();
+    openBatches.put(batch, System.currentTimeMillis());
+    currentBatch.set(batch);
+  }
+
+  /**
+   * Called once the updates of the batch started by this thread are queued, or if it has none.
+   */
+  public void batchFinished() {
+    Long batch = currentBatch.get();
+    if (batch == null) {
+      return;
+    }
+    currentBatch.remove();
+    openBatches.remove(batch);
+    synchronized (lock) {
+      lock.notifyAll();
+    }
+  }
+
+  /**
+   * Queue the updates to be written to their index tables, returning right away.
+   * Blocks while the queue is full.
+   * @param indexUpdates updates that are already durable in the WAL
+   * @throws InterruptedIOException if interrupted while waiting for room in the queue
+   */
+  public void write(Collection<Pair<Mutation, byte[]>> indexUpdates) throws InterruptedIOException {
+    Multimap<HTableInterfaceReference, Mutation> toWrite =
+        IndexWriter.resolveTableReferences(indexUpdates);
+    synchronized (lock) {
+      // always accept updates once the queue is empty, however many they are
+      while (pendingCount > 0 && pendingCount + toWrite.size() > maxPending && !stopped) {
+        try {
+          lock.wait();
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+          throw new InterruptedIOException("Interrupted while waiting to queue index updates of "
+              + region);
+        }
+      }
+      pending.putAll(toWrite);
+      pendingCount += toWrite.size();
+      if (draining) {
+        return;
+      }
+      draining = true;
+    }
+    try {
+      pool.execute(new Runnable() {
+        @Override
+        public void run() {
+          drain();
+        }
+      });
+    } catch (RejectedExecutionException e) {
+      // the pool is shutting down, so just write them ourselves
+      drain();
+    }
+  }
+
+  /**
+   * Block until the batches started so far have queued their updates, and all the updates queued
+   * have been written, or handed to the failure policy.
+   * @throws InterruptedIOException if interrupted while waiting
+   */
+  public void waitForPendingWrites() throws InterruptedIOException {
+    long lastBatch = batchSequence.get();
+    synchronized (lock) {
+      while (true) {
+        Map.Entry<Long, Long> oldest = openBatches.firstEntry();
+        if (oldest == null || oldest.getKey() > lastBatch) {
+          break;
+        }
+        long waitTime = oldest.getValue() + batchTimeout - System.currentTimeMillis();
+        if (waitTime <= 0) {
+          LOG.warn("Batch of " + region + " did not queue its index updates after " + batchTimeout
+              + "ms, assuming it failed");
+          openBatches.remove(oldest.getKey());
+          continue;
+        }
+        try {
+          lock.wait(waitTime);
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+          throw new InterruptedIOException("Interrupted while waiting for index updates of "
+              + region + " to be queued");
+        }
+      }
+      while (draining) {
+        try {
+          lock.wait();
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+          throw new InterruptedIOException("Interrupted while waiting for index updates of "
+              + region + " to be written");
+        }
+      }
+    }
+  }
+
+  private void drain() {
+    while (true) {
+      Multimap<HTableInterfaceReference, Mutation> toWrite;
+      synchronized (lock) {
+        // retry the failed updates first, so they are not overwritten by older values
+        toWrite = failedEdits.getEdits(region);
+        if (toWrite == null) {
+          toWrite = pending;
+        } else {
+          toWrite.putAll(pending);
+        }
+        pending = ArrayListMultimap.create();
+        if (toWrite.isEmpty()) {
+          pendingCount = 0;
+          draining = false;
+          lock.notifyAll();
+          return;
+        }
+      }
+      if (failedAttempts >= maxRetries || stopped) {
+        failedAttempts = 0;
+        try {
+          writer.writeAndKillYourselfOnFailure(toWrite);
+        } catch (IOException e) {
+          LOG.error("Exception thrown instead of killing server during index writing", e);
+        }
+        written(toWrite.size());
+        continue;
+      }
+      try {
+        writer.write(toWrite);
+        failedAttempts = 0;
+        written(toWrite.size());
+      } catch (IndexWriteException e) {
+        failedAttempts++;
+        LOG.warn("Failed to write index updates of " + region + ", attempt " + failedAttempts
+            + " of " + maxRetries, e);
+        synchronized (lock) {
+          for (HTableInterfaceReference table : toWrite.keySet()) {
+            failedEdits.addEdits(region, table, toWrite.get(table));
+          }
+        }
+        try {
+          Thread.sleep(retryPause * failedAttempts);
+        } catch (InterruptedException ie) {
+          Thread.currentThread().interrupt();
+          // give up retrying, the next round hands the updates to the failure policy
+          failedAttempts = maxRetries;
+        }
+      }
+    }
+  }
+
+  /**
+   * Make room in the queue for the updates waiting to be queued
+   */
+  private void written(int count) {
+    synchronized (lock) {
+      pendingCount -= count;
+      lock.notifyAll();
+    }
+  }
+
+  /**
+   * {@inheritDoc}
+   * <p>
+   * Updates still queued are handed to the failure policy on their next failure instead of being
+   * retried. This does not stop the {@link IndexWriter} passed in the constructor.
+   */
+  @Override
+  public void stop(String why) {
+    if (this.stopped) {
+      return;
+    }
+    this.stopped = true;
+    LOG.debug("Stopping because " + why);
+    this.pool.shutdown();
+    synchronized (lock) {
+      // don't keep writers waiting for room
+      lock.notifyAll();
+    }
+  }
+
+  @Override
+  public boolean isStopped() {
+    return this.stopped;
+  }
+}
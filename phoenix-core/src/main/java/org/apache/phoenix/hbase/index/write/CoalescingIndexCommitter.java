@@ -0,0 +1,385 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.phoenix.hbase.index.write;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map.Entry;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hbase.Stoppable;
+import org.apache.hadoop.hbase.client.HTableInterface;
+import org.apache.hadoop.hbase.client.Mutation;
+import org.apache.hadoop.hbase.coprocessor.RegionCoprocessorEnvironment;
+import org.apache.phoenix.hbase.index.exception.SingleIndexWriteFailureException;
+import org.apache.phoenix.hbase.index.parallel.ThreadPoolBuilder;
+import org.apache.phoenix.hbase.index.parallel.ThreadPoolManager;
+import org.apache.phoenix.hbase.index.table.CachingHTableFactory;
+import org.apache.phoenix.hbase.index.table.HTableFactory;
+import org.apache.phoenix.hbase.index.table.HTableInterfaceReference;
+import org.apache.phoenix.hbase.index.util.ImmutableBytesPtr;
+import org.apache.phoenix.hbase.index.util.KeyValueBuilder;
+
+import com.google.common.collect.Multimap;
+
+/**
+ * Write index updates to the index tables, merging the updates to the same index table made by
+ * concurrent writers on this server into a single batch. The first update to an index table opens
+ * a batch that is written once it has been open for a short window, or once it holds enough
+ * mutations, whichever comes first; the updates made in the meantime by any region of this server
+ * are added to it. A batch is written right away when no other writer has updates to that table in
+ * flight, since nothing would be added to it. Each writer still blocks until all of its own updates
+ * have been written.
+ * <p>
+ * Enable it by setting <tt>index.writer.commiter.class</tt> to this class.
+ */
+public class CoalescingIndexCommitter implements IndexCommitter {
+
+  public static final String NUM_CONCURRENT_INDEX_WRITER_THREADS_CONF_KEY =
+      ParallelWriterIndexCommitter.NUM_CONCURRENT_INDEX_WRITER_THREADS_CONF_KEY;
+  private static final int DEFAULT_CONCURRENT_INDEX_WRITER_THREADS = 10;
+  private static final String INDEX_WRITER_KEEP_ALIVE_TIME_CONF_KEY =
+      "index.writer.threads.keepalivetime";
+  /** Time a batch stays open for updates from other writers */
+  public static final String COALESCE_WINDOW_MS_CONF_KEY = "index.writer.coalesce.window.ms";
+  private static final long DEFAULT_COALESCE_WINDOW_MS = 2;
+  /** Number of mutations after which a batch is written without waiting for the window to end */
+  public static final String COALESCE_MAX_MUTATIONS_CONF_KEY = "index.writer.coalesce.max.mutations";
+  private static final int DEFAULT_COALESCE_MAX_MUTATIONS = 1000;
+  private static final Log LOG = LogFactory.getLog(CoalescingIndexCommitter.class);
+
+  private Stoppable stopped;
+  private KeyValueBuilder kvBuilder;
+  private Coalescer coalescer;
+
+  public CoalescingIndexCommitter() {
+  }
+
+  // For testing
+  public CoalescingIndexCommitter(String hbaseVersion) {
+    kvBuilder = KeyValueBuilder.get(hbaseVersion);
+  }
+
+  @Override
+  public void setup(IndexWriter parent, RegionCoprocessorEnvironment env, String name) {
+    Configuration conf = env.getConfiguration();
+    // the batches are shared by all the regions of the server, so they are written by a coalescer
+    // that lives until the last of the regions stops
+    ConcurrentMap<String, Object> sharedData = env.getSharedData();
+    String coalescerKey = name + "-coalescer";
+    Coalescer coalescer;
+    synchronized (sharedData) {
+      coalescer = (Coalescer) sharedData.get(coalescerKey);
+      if (coalescer == null || !coalescer.retain()) {
+        coalescer = new Coalescer(IndexWriterUtils.getDefaultDelegateHTableFactory(env),
+            ThreadPoolManager.getExecutor(
+              new ThreadPoolBuilder(name, conf).
+                setMaxThread(NUM_CONCURRENT_INDEX_WRITER_THREADS_CONF_KEY,
+                  DEFAULT_CONCURRENT_INDEX_WRITER_THREADS).
+                setCoreTimeout(INDEX_WRITER_KEEP_ALIVE_TIME_CONF_KEY), env),
+            CachingHTableFactory.getCacheSize(conf),
+            conf.getLong(COALESCE_WINDOW_MS_CONF_KEY, DEFAULT_COALESCE_WINDOW_MS),
+            conf.getInt(COALESCE_MAX_MUTATIONS_CONF_KEY, DEFAULT_COALESCE_MAX_MUTATIONS));
+        coalescer.retain();
+        sharedData.put(coalescerKey, coalescer);
+      }
+    }
+    this.coalescer = coalescer;
+    this.stopped = parent;
+    this.kvBuilder = KeyValueBuilder.get(env.getHBaseVersion());
+  }
+
+  /**
+   * Setup <tt>this</tt> to write through the given coalescer, which is retained until
+   * {@link #stop(String)}.
+   * <p>
+   * Exposed for TESTING
+   */
+  void setup(Coalescer coalescer, Stoppable stop) {
+    if (!coalescer.retain()) {
+      throw new IllegalStateException("Coalescer already stopped");
+    }
+    this.coalescer = coalescer;
+    this.stopped = stop;
+  }
+
+  @Override
+  public void write(Multimap<HTableInterfaceReference, Mutation> toWrite)
+      throws SingleIndexWriteFailureException {
+    if (this.stopped.isStopped()) {
+      throw new SingleIndexWriteFailureException(
+          "Committer stopped, not attempting to write to the index!", null);
+    }
+    List<Batch> batches = new ArrayList<Batch>(toWrite.keySet().size());
+    List<Collection<Mutation>> ownMutations = new ArrayList<Collection<Mutation>>(toWrite.keySet().size());
+    try {
+      for (Entry<HTableInterfaceReference, Collection<Mutation>> entry : toWrite.asMap().entrySet()) {
+        HTableInterfaceReference tableReference = entry.getKey();
+        batches.add(coalescer.getBatcher(tableReference).add(this, tableReference, entry.getValue()));
+        ownMutations.add(entry.getValue());
+      }
+
+      for (int i = 0; i < batches.size(); i++) {
+        Batch batch = batches.get(i);
+        try {
+          batch.done.await();
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+          throw new SingleIndexWriteFailureException(batch.tableReference.toString(),
+              new ArrayList<Mutation>(ownMutations.get(i)), e);
+        }
+        if (batch.failure != null) {
+          LOG.error("Found a failed index update!");
+          if (batch.failure instanceof SingleIndexWriteFailureException) {
+            throw (SingleIndexWriteFailureException) batch.failure;
+          }
+          throw new SingleIndexWriteFailureException(batch.tableReference.toString(),
+              new ArrayList<Mutation>(ownMutations.get(i)), batch.failure);
+        }
+      }
+    } finally {
+      for (Batch batch : batches) {
+        batch.batcher.writerFinished();
+      }
+    }
+  }
+
+  /**
+   * {@inheritDoc}
+   * <p>
+   * This method should only be called <b>once</b>. Stopped state ({@link #isStopped()}) is managed
+   * by the external {@link Stoppable}. This call does not delegate the stop down to the
+   * {@link Stoppable} passed in the constructor. The shared coalescer is only shut down once the
+   * committers of all the regions have stopped, so the batches other regions are waiting on still
+   * get written.
+   * @param why the reason for stopping
+   */
+  @Override
+  public void stop(String why) {
+    LOG.info("Shutting down " + this.getClass().getSimpleName() + " because " + why);
+    this.coalescer.release(why);
+  }
+
+  @Override
+  public boolean isStopped() {
+    return this.stopped.isStopped();
+  }
+
+  /**
+   * Writes the batches of all the committers of the server, with its own pool and tables. It is
+   * retained by each committer using it and shut down when the last one releases it.
+   */
+  static class Coalescer {
+    private final HTableFactory factory;
+    private final ExecutorService pool;
+    private final ConcurrentMap<ImmutableBytesPtr, TableBatcher> batchers =
+        new ConcurrentHashMap<ImmutableBytesPtr, TableBatcher>();
+    private final long windowMs;
+    private final int maxMutations;
+    // guarded by this
+    private int references;
+    private volatile boolean stopped;
+
+    Coalescer(HTableFactory factory, ExecutorService pool, int cacheSize, long windowMs,
+        int maxMutations) {
+      this.factory = new CachingHTableFactory(factory, cacheSize);
+      this.pool = pool;
+      this.windowMs = windowMs;
+      this.maxMutations = maxMutations;
+    }
+
+    /**
+     * @return <tt>true</tt> if the coalescer was retained, <tt>false</tt> if it has already been
+     *         shut down and a new one is needed
+     */
+    synchronized boolean retain() {
+      if (stopped) {
+        return false;
+      }
+      references++;
+      return true;
+    }
+
+    synchronized void release(String why) {
+      if (--references > 0) {
+        return;
+      }
+      LOG.info("Shutting down the index update coalescer because " + why);
+      stopped = true;
+      this.pool.shutdown();
+      this.factory.shutdown();
+    }
+
+    private TableBatcher getBatcher(HTableInterfaceReference tableReference) {
+      TableBatcher batcher = batchers.get(tableReference.get());
+      if (batcher == null) {
+        TableBatcher newBatcher = new TableBatcher(maxMutations);
+        batcher = batchers.putIfAbsent(tableReference.get(), newBatcher);
+        if (batcher == null) {
+          batcher = newBatcher;
+        }
+      }
+      return batcher;
+    }
+
+    /**
+     * Write the batch once it is closed, from the pool
+     */
+    private void submit(final CoalescingIndexCommitter committer, final Batch batch) {
+      Runnable flush = new Runnable() {
+        @Override
+        public void run() {
+          try {
+            batch.batcher.close(batch, windowMs);
+            flush(committer.kvBuilder, batch);
+          } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            batch.failure = e;
+          } catch (Throwable t) {
+            batch.failure = t;
+          } finally {
+            batch.done.countDown();
+          }
+        }
+      };
+      try {
+        pool.execute(flush);
+      } catch (RejectedExecutionException e) {
+        // the pool is shutting down, so write it ourselves
+        flush.run();
+      }
+    }
+
+    @SuppressWarnings("deprecation")
+    private void flush(KeyValueBuilder kvBuilder, Batch batch) throws Exception {
+      if (this.stopped) {
+        throw new SingleIndexWriteFailureException(
+            "Committer stopped, not attempting to write to the index!", null);
+      }
+      List<Mutation> mutations = kvBuilder.cloneIfNecessary(batch.mutations);
+      if (LOG.isDebugEnabled()) {
+        LOG.debug("Writing " + mutations.size() + " coalesced index updates to table: "
+            + batch.tableReference);
+      }
+      try {
+        HTableInterface table = factory.getTable(batch.tableReference.get());
+        table.batch(mutations);
+      } catch (IOException e) {
+        throw new SingleIndexWriteFailureException(batch.tableReference.toString(), mutations, e);
+      }
+    }
+  }
+
+  /**
+   * Updates to a single index table waiting to be written together
+   */
+  private static class Batch {
+    private final TableBatcher batcher;
+    private final HTableInterfaceReference tableReference;
+    // guarded by the TableBatcher until the batch is closed
+    private final List<Mutation> mutations = new ArrayList<Mutation>();
+    private int writers;
+    private final CountDownLatch done = new CountDownLatch(1);
+    private volatile Throwable failure;
+
+    private Batch(TableBatcher batcher, HTableInterfaceReference tableReference) {
+      this.batcher = batcher;
+      this.tableReference = tableReference;
+    }
+  }
+
+  /**
+   * Collects the updates to an index table into the currently open batch. Shared by the
+   * committers of all the regions of the server.
+   */
+  static class TableBatcher {
+    private final int maxMutations;
+    // guarded by this
+    private Batch open;
+    // writers with updates to this table that have not been written yet, guarded by this
+    private int writers;
+
+    private TableBatcher(int maxMutations) {
+      this.maxMutations = maxMutations;
+    }
+
+    /**
+     * Add the mutations to the open batch, opening a new one, to be written by the coalescer of the
+     * given committer, if there is none
+     * @return the batch to which the mutations were added
+     */
+    private Batch add(CoalescingIndexCommitter committer, HTableInterfaceReference tableReference,
+        Collection<Mutation> mutations) {
+      boolean isNew = false;
+      Batch batch;
+      synchronized (this) {
+        if (open == null) {
+          open = new Batch(this, tableReference);
+          isNew = true;
+        }
+        batch = open;
+        batch.mutations.addAll(mutations);
+        batch.writers++;
+        writers++;
+        if (batch.mutations.size() >= maxMutations) {
+          // write it right away, without waiting for the window to end
+          open = null;
+          notifyAll();
+        }
+      }
+      if (isNew) {
+        committer.coalescer.submit(committer, batch);
+      }
+      return batch;
+    }
+
+    /**
+     * A writer is done waiting on its batch, so it won't add to the open batch any time soon
+     */
+    private synchronized void writerFinished() {
+      writers--;
+      notifyAll();
+    }
+
+    /**
+     * Wait for the window to end, unless the batch fills up before or there is no other writer that
+     * could add to it, and close the batch
+     */
+    private synchronized void close(Batch batch, long windowMs)
+        throws InterruptedException {
+      long end = System.currentTimeMillis() + windowMs;
+      long remaining = windowMs;
+      while (open == batch && remaining > 0 && writers > batch.writers) {
+        wait(remaining);
+        remaining = end - System.currentTimeMillis();
+      }
+      if (open == batch) {
+        open = null;
+      }
+    }
+  }
+}
@@ -42,6 +42,11 @@ public class IndexMetaDataCacheFactory implements ServerCacheFactory {
     public void write(DataOutput arg0) throws IOException {
     }
 
+    @Override
+    public long getEstimatedSize(ImmutableBytesWritable cachePtr) {
+        return cachePtr.getLength();
+    }
+
     @Override
     public Closeable newCache (ImmutableBytesWritable cachePtr, final MemoryChunk chunk) throws SQLException {
         // just use the standard keyvalue builder - this doesn't really need to be fast
@@ -21,43 +21,71 @@ import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
+import java.util.Set;
 
 import org.apache.hadoop.hbase.Cell;
 import org.apache.hadoop.hbase.client.Mutation;
 import org.apache.hadoop.hbase.client.Scan;
+import org.apache.hadoop.hbase.coprocessor.RegionCoprocessorEnvironment;
 import org.apache.hadoop.hbase.regionserver.HRegion;
 import org.apache.hadoop.hbase.regionserver.MiniBatchOperationInProgress;
 import org.apache.hadoop.hbase.regionserver.RegionScanner;
 import org.apache.phoenix.compile.ScanRanges;
 import org.apache.phoenix.hbase.index.covered.CoveredColumnsIndexBuilder;
+import org.apache.phoenix.hbase.index.covered.data.CachedLocalTable;
+import org.apache.phoenix.hbase.index.util.ImmutableBytesPtr;
 import org.apache.phoenix.hbase.index.util.IndexManagementUtil;
 import org.apache.phoenix.query.KeyRange;
 import org.apache.phoenix.schema.PDataType;
 import org.apache.phoenix.util.SchemaUtil;
 
 import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
 
 /**
  * Index builder for covered-columns index that ties into phoenix for faster use.
  */
 public class PhoenixIndexBuilder extends CoveredColumnsIndexBuilder {
 
+    private CachedLocalTable cachedLocalTable;
+
+    @Override
+    public void setup(RegionCoprocessorEnvironment env) throws IOException {
+        super.setup(env);
+        this.cachedLocalTable = new CachedLocalTable(this.localTable);
+        this.localTable = cachedLocalTable;
+    }
+
     @Override
     public void batchStarted(MiniBatchOperationInProgress<Mutation> miniBatchOp) throws IOException {
-        // The entire purpose of this method impl is to get the existing rows for the
-        // table rows being indexed into the block cache, as the index maintenance code
-        // does a point scan per row
+        // Get the current state of all the rows of the batch in a single skip scan, rather than
+        // doing a point scan per row when the index updates are built
         List<KeyRange> keys = Lists.newArrayListWithExpectedSize(miniBatchOp.size());
+        Set<ImmutableBytesPtr> rows = Sets.newHashSetWithExpectedSize(miniBatchOp.size());
         List<IndexMaintainer> maintainers = new ArrayList<IndexMaintainer>();
         for (int i = 0; i < miniBatchOp.size(); i++) {
             Mutation m = miniBatchOp.getOperation(i);
-            keys.add(PDataType.VARBINARY.getKeyRange(m.getRow()));
-            maintainers.addAll(getCodec().getIndexMaintainers(m.getAttributesMap()));
+            List<IndexMaintainer> mutationMaintainers = getCodec().getIndexMaintainers(m.getAttributesMap());
+            if (mutationMaintainers.isEmpty()) {
+                continue;
+            }
+            if (rows.add(new ImmutableBytesPtr(m.getRow()))) {
+                keys.add(PDataType.VARBINARY.getKeyRange(m.getRow()));
+            }
+            maintainers.addAll(mutationMaintainers);
+        }
+        if (keys.isEmpty()) {
+            return;
         }
         Scan scan = IndexManagementUtil.newLocalStateScan(maintainers);
         ScanRanges scanRanges = ScanRanges.create(Collections.singletonList(keys), SchemaUtil.VAR_BINARY_SCHEMA);
         scanRanges.setScanStartStopRow(scan);
         scan.setFilter(scanRanges.getSkipScanFilter());
+        Set<byte[]> families = scan.getFamilyMap().keySet();
+        // Rows that are not found have no current state
+        for (ImmutableBytesPtr row : rows) {
+            cachedLocalTable.setRowState(row, families, Collections.<Cell>emptyList());
+        }
         HRegion region = this.env.getRegion();
         RegionScanner scanner = region.getScanner(scan);
         // Run through the scanner using internal nextRaw method
@@ -70,6 +98,11 @@ public class PhoenixIndexBuilder extends CoveredColumnsIndexBuilder {
                 // since this is an indication of whether or not there are more values after the
                 // ones returned
                 hasMore = scanner.nextRaw(results);
+                if (!results.isEmpty()) {
+                    Cell cell = results.get(0);
+                    ImmutableBytesPtr row = new ImmutableBytesPtr(cell.getRowArray(), cell.getRowOffset(), cell.getRowLength());
+                    cachedLocalTable.setRowState(row, families, results);
+                }
             } while (hasMore);
         } finally {
             try {
@@ -80,6 +113,14 @@ public class PhoenixIndexBuilder extends CoveredColumnsIndexBuilder {
         }
     }
 
+    @Override
+    public void batchUpdatesBuilt(MiniBatchOperationInProgress<Mutation> miniBatchOp) {
+        // The updates are built, so the state is not needed anymore, even if the batch then fails
+        for (int i = 0; i < miniBatchOp.size(); i++) {
+            cachedLocalTable.removeRowState(new ImmutableBytesPtr(miniBatchOp.getOperation(i).getRow()));
+        }
+    }
+
     private PhoenixIndexCodec getCodec() {
         return (PhoenixIndexCodec)this.codec;
     }
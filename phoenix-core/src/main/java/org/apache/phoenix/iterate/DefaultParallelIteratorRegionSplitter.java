@@ -18,6 +18,7 @@
 package org.apache.phoenix.iterate;
 
 import java.sql.SQLException;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.List;
@@ -140,19 +141,25 @@ public class DefaultParallelIteratorRegionSplitter implements ParallelIteratorRe
         // distributed across regions, using this scheme compensates for regions that
         // have more rows than others, by applying tighter splits and therefore spawning
         // off more scans over the overloaded regions.
-        int splitsPerRegion = regions.size() >= targetConcurrency ? 1 : (regions.size() > targetConcurrency / 2 ? maxConcurrency : targetConcurrency) / regions.size();
-        splitsPerRegion = Math.min(splitsPerRegion, maxIntraRegionParallelization);
+        //
+        // When the size of each region is known, the splits are instead spread across
+        // regions in proportion to their size, so that each split covers about as much
+        // data (see getSplitsPerRegion).
+        int[] splitsPerRegion = getSplitsPerRegion(regions, statsManager);
+        int maxSplits = 0;
+        for (int splits : splitsPerRegion) {
+            maxSplits += splits;
+        }
         // Create a multi-map of ServerName to List<KeyRange> which we'll use to round robin from to ensure
         // that we keep each region server busy for each query.
-        ListMultimap<HRegionLocation,KeyRange> keyRangesPerRegion = ArrayListMultimap.create(regions.size(),regions.size() * splitsPerRegion);;
-        if (splitsPerRegion == 1) {
-            for (HRegionLocation region : regions) {
+        ListMultimap<HRegionLocation,KeyRange> keyRangesPerRegion = ArrayListMultimap.create(regions.size(), maxSplits / regions.size() + 1);
+        // Maintain bucket for each server and then returns KeyRanges in round-robin
+        // order to ensure all servers are utilized.
+        for (int r = 0; r < regions.size(); r++) {
+            HRegionLocation region = regions.get(r);
+            if (splitsPerRegion[r] == 1) {
                 keyRangesPerRegion.put(region, ParallelIterators.TO_KEY_RANGE.apply(region));
-            }
-        } else {
-            // Maintain bucket for each server and then returns KeyRanges in round-robin
-            // order to ensure all servers are utilized.
-            for (HRegionLocation region : regions) {
+            } else {
                 byte[] startKey = region.getRegionInfo().getStartKey();
                 byte[] stopKey = region.getRegionInfo().getEndKey();
                 boolean lowerUnbound = Bytes.compareTo(startKey, HConstants.EMPTY_START_ROW) == 0;
@@ -180,7 +187,7 @@ public class DefaultParallelIteratorRegionSplitter implements ParallelIteratorRe
                 
                 byte[][] boundaries = null;
                 // Both startKey and stopKey will be empty the first time
-                if (Bytes.compareTo(startKey, stopKey) >= 0 || (boundaries = Bytes.split(startKey, stopKey, splitsPerRegion - 1)) == null) {
+                if (Bytes.compareTo(startKey, stopKey) >= 0 || (boundaries = Bytes.split(startKey, stopKey, splitsPerRegion[r] - 1)) == null) {
                     // Bytes.split may return null if the key space
                     // between start and end key is too small
                     keyRangesPerRegion.put(region,ParallelIterators.TO_KEY_RANGE.apply(region));
@@ -195,7 +202,7 @@ public class DefaultParallelIteratorRegionSplitter implements ParallelIteratorRe
                 }
             }
         }
-        List<KeyRange> splits = Lists.newArrayListWithCapacity(regions.size() * splitsPerRegion);
+        List<KeyRange> splits = Lists.newArrayListWithCapacity(maxSplits);
         // as documented for ListMultimap
         Collection<Collection<KeyRange>> values = keyRangesPerRegion.asMap().values();
         List<Collection<KeyRange>> keyRangesList = Lists.newArrayList(values);
@@ -220,6 +227,43 @@ public class DefaultParallelIteratorRegionSplitter implements ParallelIteratorRe
         return splits;
     }
 
+    /**
+     * Computes the number of splits of each region. Without region sizes, each region gets
+     * the same number of splits, s, as documented in {@link #genKeyRanges(List)}. With them,
+     * the r*s splits, or r splits if r >= t, are handed out to the regions in proportion to
+     * their size, with at least one split and at most the max intra region parallelization
+     * per region. A region ten times bigger than the others is then split in ten even when
+     * there are enough regions to reach the target concurrency.
+     */
+    protected int[] getSplitsPerRegion(List<HRegionLocation> regions, StatsManager statsManager) {
+        int nRegions = regions.size();
+        int splitsPerRegion = nRegions >= targetConcurrency ? 1 : (nRegions > targetConcurrency / 2 ? maxConcurrency : targetConcurrency) / nRegions;
+        splitsPerRegion = Math.min(splitsPerRegion, maxIntraRegionParallelization);
+        int[] splits = new int[nRegions];
+        Arrays.fill(splits, splitsPerRegion);
+        if (maxIntraRegionParallelization == 1) {
+            return splits;
+        }
+        long[] sizes = new long[nRegions];
+        long totalSize = 0;
+        for (int i = 0; i < nRegions; i++) {
+            sizes[i] = statsManager.getRegionSize(tableRef, regions.get(i).getRegionInfo());
+            if (sizes[i] < 0) { // Unknown, so keep splitting evenly
+                return splits;
+            }
+            totalSize += sizes[i];
+        }
+        if (totalSize == 0) {
+            return splits;
+        }
+        long totalSplits = (long)nRegions * Math.max(1, splitsPerRegion);
+        for (int i = 0; i < nRegions; i++) {
+            long regionSplits = sizes[i] * totalSplits / totalSize;
+            splits[i] = (int)Math.max(1, Math.min(regionSplits, maxIntraRegionParallelization));
+        }
+        return splits;
+    }
+
     @Override
     public List<KeyRange> getSplits() throws SQLException {
         return genKeyRanges(getAllRegions());
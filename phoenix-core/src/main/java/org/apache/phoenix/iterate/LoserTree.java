@@ -0,0 +1,116 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.phoenix.iterate;
+
+import java.util.Comparator;
+
+/**
+ * 
+ * Tournament tree of losers merging the heads of k sorted sources. Each internal node holds
+ * the source that lost the match played there, so that replacing the head of the winning
+ * source only replays the matches on the path from its leaf to the root: log2(k) comparisons,
+ * against the two per level of a binary heap. Exhausted sources have a null head, which loses
+ * to any other head. Ties are won by the source with the lowest index.
+ *
+ * 
+ * @since 3.0
+ */
+public class LoserTree<T> {
+    private final Comparator<? super T> comparator;
+    private final Object[] heads;
+    // tree[0] is the overall winner, tree[1..k-1] the losers of each match
+    private final int[] tree;
+    
+    /**
+     * @param comparator the order of the merged sources
+     * @param heads the first element of each source, or null for an empty source
+     */
+    public LoserTree(Comparator<? super T> comparator, T[] heads) {
+        int k = heads.length;
+        this.comparator = comparator;
+        this.heads = heads.clone();
+        this.tree = new int[Math.max(k, 1)];
+        if (k == 0) {
+            return;
+        }
+        // Leaves are the nodes k to 2k-1, the children of node n being nodes 2n and 2n+1
+        int[] winners = new int[2 * k];
+        for (int i = 0; i < k; i++) {
+            winners[k + i] = i;
+        }
+        for (int n = k - 1; n >= 1; n--) {
+            int left = winners[2 * n];
+            int right = winners[2 * n + 1];
+            if (isBefore(left, right)) {
+                winners[n] = left;
+                tree[n] = right;
+            } else {
+                winners[n] = right;
+                tree[n] = left;
+            }
+        }
+        tree[0] = winners[1];
+    }
+    
+    @SuppressWarnings("unchecked")
+    private T head(int source) {
+        return (T)heads[source];
+    }
+    
+    private boolean isBefore(int source1, int source2) {
+        T head1 = head(source1);
+        T head2 = head(source2);
+        if (head1 == null || head2 == null) {
+            return head2 == null && (head1 != null || source1 < source2);
+        }
+        int c = comparator.compare(head1, head2);
+        return c < 0 || (c == 0 && source1 < source2);
+    }
+    
+    /**
+     * @return the index of the source whose head comes first, or -1 if all sources are exhausted
+     */
+    public int getWinner() {
+        return heads.length == 0 || heads[tree[0]] == null ? -1 : tree[0];
+    }
+    
+    /**
+     * @return the head of the source coming first, or null if all sources are exhausted
+     */
+    public T peek() {
+        return heads.length == 0 ? null : head(tree[0]);
+    }
+    
+    /**
+     * Replaces the head of the winning source by its next element.
+     * @param next the next element of the winning source, or null if it is exhausted
+     */
+    public void replaceWinner(T next) {
+        int winner = tree[0];
+        heads[winner] = next;
+        int k = heads.length;
+        for (int n = (winner + k) / 2; n >= 1; n /= 2) {
+            if (isBefore(tree[n], winner)) {
+                int loser = winner;
+                winner = tree[n];
+                tree[n] = loser;
+            }
+        }
+        tree[0] = winner;
+    }
+}
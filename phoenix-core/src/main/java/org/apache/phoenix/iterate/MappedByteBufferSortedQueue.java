@@ -47,16 +47,14 @@ public class MappedByteBufferSortedQueue extends AbstractQueue<ResultEntry> {
     private final int thresholdBytes;
     private List<MappedByteBufferPriorityQueue> queues = new ArrayList<MappedByteBufferPriorityQueue>();
     private MappedByteBufferPriorityQueue currentQueue = null;
-    private int currentIndex = 0;
-    MinMaxPriorityQueue<IndexedResultEntry> mergedQueue = null;
+    private LoserTree<ResultEntry> mergedQueue = null;
 
     public MappedByteBufferSortedQueue(Comparator<ResultEntry> comparator,
             Integer limit, int thresholdBytes) throws IOException {
         this.comparator = comparator;
         this.limit = limit == null ? -1 : limit;
         this.thresholdBytes = thresholdBytes;
-        this.currentQueue = new MappedByteBufferPriorityQueue(0,
-                this.limit, thresholdBytes, comparator);
+        this.currentQueue = new MappedByteBufferPriorityQueue(this.limit, thresholdBytes, comparator);
         this.queues.add(currentQueue);
     }
 
@@ -65,9 +63,7 @@ public class MappedByteBufferSortedQueue extends AbstractQueue<ResultEntry> {
         try {
             boolean isFlush = this.currentQueue.writeResult(e);
             if (isFlush) {
-                currentIndex++;
-                currentQueue = new MappedByteBufferPriorityQueue(currentIndex,
-                        limit, thresholdBytes, comparator);
+                currentQueue = new MappedByteBufferPriorityQueue(limit, thresholdBytes, comparator);
                 queues.add(currentQueue);
             }
         } catch (IOException ioe) {
@@ -77,63 +73,44 @@ public class MappedByteBufferSortedQueue extends AbstractQueue<ResultEntry> {
         return true;
     }
 
-    @Override
-    public ResultEntry poll() {
+    /**
+     * Merges the sorted runs of the queue, of which all but the last one were flushed to disk,
+     * through a {@link LoserTree} over the next entry of each run.
+     */
+    private LoserTree<ResultEntry> getMergedQueue() {
         if (mergedQueue == null) {
-            mergedQueue = MinMaxPriorityQueue.<ResultEntry> orderedBy(
-                    comparator).maximumSize(queues.size()).create();
-            for (MappedByteBufferPriorityQueue queue : queues) {
+            ResultEntry[] heads = new ResultEntry[queues.size()];
+            for (int i = 0; i < heads.length; i++) {
                 try {
-                    IndexedResultEntry next = queue.getNextResult();
-                    if (next != null) {
-                        mergedQueue.add(next);
-                    }
+                    heads[i] = queues.get(i).getNextResult();
                 } catch (IOException e) {
                     throw new RuntimeException(e);
                 }
             }
+            mergedQueue = new LoserTree<ResultEntry>(comparator, heads);
         }
-        if (!mergedQueue.isEmpty()) {
-            IndexedResultEntry re = mergedQueue.pollFirst();
-            if (re != null) {
-                IndexedResultEntry next = null;
-                try {
-                    next = queues.get(re.getIndex()).getNextResult();
-                } catch (IOException e) {
-                    throw new RuntimeException(e);
-                }
-                if (next != null) {
-                    mergedQueue.add(next);
-                }
-                return re;
-            }
-        }
-        return null;
+        return mergedQueue;
     }
 
     @Override
-    public ResultEntry peek() {
-        if (mergedQueue == null) {
-            mergedQueue = MinMaxPriorityQueue.<ResultEntry> orderedBy(
-                    comparator).maximumSize(queues.size()).create();
-            for (MappedByteBufferPriorityQueue queue : queues) {
-                try {
-                    IndexedResultEntry next = queue.getNextResult();
-                    if (next != null) {
-                        mergedQueue.add(next);
-                    }
-                } catch (IOException e) {
-                    throw new RuntimeException(e);
-                }
-            }
+    public ResultEntry poll() {
+        LoserTree<ResultEntry> mergedQueue = getMergedQueue();
+        int index = mergedQueue.getWinner();
+        if (index < 0) {
+            return null;
         }
-        if (!mergedQueue.isEmpty()) {
-            IndexedResultEntry re = mergedQueue.peekFirst();
-            if (re != null) {
-                return re;
-            }
+        ResultEntry re = mergedQueue.peek();
+        try {
+            mergedQueue.replaceWinner(queues.get(index).getNextResult());
+        } catch (IOException e) {
+            throw new RuntimeException(e);
         }
-        return null;
+        return re;
+    }
+
+    @Override
+    public ResultEntry peek() {
+        return getMergedQueue().peek();
     }
 
     @Override
@@ -162,23 +139,11 @@ public class MappedByteBufferSortedQueue extends AbstractQueue<ResultEntry> {
         }
     }
 
-    private static class IndexedResultEntry extends ResultEntry {
-        private int index;
-
-        public IndexedResultEntry(int index, ResultEntry resultEntry) {
-            super(resultEntry.sortKeys, resultEntry.result);
-            this.index = index;
-        }
-
-        public int getIndex() {
-            return this.index;
-        }
-    }
-
     private static class MappedByteBufferPriorityQueue {
     	// at least create 128 KB MappedByteBuffers
         private static final long DEFAULT_MAPPING_SIZE = 128 * 1024;
         
+        private final Comparator<ResultEntry> comparator;
         private final int limit;
         private final int thresholdBytes;
         private long totalResultSize = 0;
@@ -194,12 +159,11 @@ public class MappedByteBufferSortedQueue extends AbstractQueue<ResultEntry> {
         private boolean isClosed = false;
         MinMaxPriorityQueue<ResultEntry> results = null;
         private boolean flushBuffer = false;
-        private int index;
         private int flushedCount;
 
-        public MappedByteBufferPriorityQueue(int index, int limit, int thresholdBytes,
+        public MappedByteBufferPriorityQueue(int limit, int thresholdBytes,
                 Comparator<ResultEntry> comparator) throws IOException {
-            this.index = index;
+            this.comparator = comparator;
             this.limit = limit;
             this.thresholdBytes = thresholdBytes;
             results = limit < 0 ? 
@@ -257,6 +221,11 @@ public class MappedByteBufferSortedQueue extends AbstractQueue<ResultEntry> {
             if (flushBuffer)
                 throw new IOException("Results already flushed");
             
+            // Once the queue is full, a row not sorting before its last one would be evicted right away
+            if (limit >= 0 && !results.isEmpty() && results.size() >= limit
+                    && comparator.compare(entry, results.peekLast()) >= 0) {
+                return false;
+            }
             int sortKeySize = sizeof(entry.sortKeys);
             int resultSize = sizeof(toKeyValues(entry)) + sortKeySize;
             boolean added = results.add(entry);
@@ -310,7 +279,7 @@ public class MappedByteBufferSortedQueue extends AbstractQueue<ResultEntry> {
             return flushBuffer;
         }
 
-        public IndexedResultEntry getNextResult() throws IOException {
+        public ResultEntry getNextResult() throws IOException {
             if (isClosed)
                 return null;
             
@@ -320,7 +289,7 @@ public class MappedByteBufferSortedQueue extends AbstractQueue<ResultEntry> {
                     reachedEnd();
                     return null;
                 }
-                return new IndexedResultEntry(index, re);
+                return re;
             }
             
             if (readBuffer == null) {
@@ -355,7 +324,7 @@ public class MappedByteBufferSortedQueue extends AbstractQueue<ResultEntry> {
                 readBuffer = fc.map(MapMode.READ_ONLY, readIndex, mappingSize);
             }
             
-            return new IndexedResultEntry(index, new ResultEntry(sortKeys, rt));
+            return new ResultEntry(sortKeys, rt);
         }
 
         private void reachedEnd() {
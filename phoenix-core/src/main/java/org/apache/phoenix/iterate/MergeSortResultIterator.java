@@ -18,10 +18,11 @@
 package org.apache.phoenix.iterate;
 
 import java.sql.SQLException;
+import java.util.Comparator;
 import java.util.List;
 
 import org.apache.hadoop.hbase.io.ImmutableBytesWritable;
-
+import org.apache.hadoop.hbase.util.Bytes;
 import org.apache.phoenix.schema.tuple.Tuple;
 import org.apache.phoenix.util.SQLCloseables;
 
@@ -29,7 +30,11 @@ import org.apache.phoenix.util.SQLCloseables;
 /**
  * 
  * Base class for a ResultIterator that does a merge sort on the list of iterators
- * provided.
+ * provided. The head rows of the iterators are merged through a {@link LoserTree},
+ * along with a normalized prefix of their sort key, so that choosing the next row takes
+ * log2(k) comparisons of these prefixes. Rows whose prefixes are equal are compared on
+ * their binary sort key if the subclass provides one, and through
+ * {@link #compare(Tuple, Tuple)} otherwise.
  *
  * 
  * @since 1.2
@@ -38,16 +43,64 @@ public abstract class MergeSortResultIterator implements PeekingResultIterator {
     protected final ResultIterators resultIterators;
     protected final ImmutableBytesWritable tempPtr = new ImmutableBytesWritable();
     private List<PeekingResultIterator> iterators;
+    private LoserTree<Head> tree;
+    
+    /** The next row of one of the iterators, along with its sort key and its prefix. */
+    private static class Head {
+        private final Tuple tuple;
+        private final byte[] key;
+        private final long prefix;
+        
+        private Head(Tuple tuple, byte[] key, long prefix) {
+            this.tuple = tuple;
+            this.key = key;
+            this.prefix = prefix;
+        }
+    }
+    
+    private final Comparator<Head> headComparator = new Comparator<Head>() {
+        @Override
+        public int compare(Head head1, Head head2) {
+            if (head1.prefix != head2.prefix) {
+                // Flipping the sign bit makes the signed comparison of longs an unsigned one
+                return (head1.prefix ^ Long.MIN_VALUE) < (head2.prefix ^ Long.MIN_VALUE) ? -1 : 1;
+            }
+            if (head1.key != null && head2.key != null) {
+                return Bytes.compareTo(head1.key, head2.key);
+            }
+            return MergeSortResultIterator.this.compare(head1.tuple, head2.tuple);
+        }
+    };
     
     public MergeSortResultIterator(ResultIterators iterators) {
         this.resultIterators = iterators;
     }
     
-    private List<PeekingResultIterator> getIterators() throws SQLException {
-        if (iterators == null) {
+    private LoserTree<Head> getTree() throws SQLException {
+        if (tree == null) {
             iterators = resultIterators.getIterators();
+            int size = iterators.size();
+            Head[] heads = new Head[size];
+            // Iterators are entered last first, as rows comparing equal are returned from the last iterator first
+            for (int i = 0; i < size; i++) {
+                heads[i] = nextHead(size - 1 - i);
+            }
+            tree = new LoserTree<Head>(headComparator, heads);
+        }
+        return tree;
+    }
+    
+    private Head nextHead(int index) throws SQLException {
+        PeekingResultIterator iterator = iterators.get(index);
+        Tuple tuple = iterator.peek();
+        if (tuple == null) {
+            // Release what the iterator holds as soon as it is exhausted
+            iterator.close();
+            iterators.set(index, EMPTY_ITERATOR);
+            return null;
         }
-        return iterators;
+        byte[] key = getSortKey(tuple);
+        return new Head(tuple, key, key == null ? getPrefix(tuple) : toPrefix(key, 0, key.length));
     }
     
     @Override
@@ -59,35 +112,53 @@ public abstract class MergeSortResultIterator implements PeekingResultIterator {
 
     abstract protected int compare(Tuple t1, Tuple t2);
     
-    private PeekingResultIterator minIterator() throws SQLException {
-        List<PeekingResultIterator> iterators = getIterators();
-        Tuple minResult = null;
-        PeekingResultIterator minIterator = EMPTY_ITERATOR;
-        for (int i = iterators.size()-1; i >= 0; i--) {
-            PeekingResultIterator iterator = iterators.get(i);
-            Tuple r = iterator.peek();
-            if (r != null) {
-                if (minResult == null || compare(r, minResult) < 0) {
-                    minResult = r;
-                    minIterator = iterator;
-                }
-                continue;
-            }
-            iterator.close();
-            iterators.remove(i);
+    /**
+     * Encodes the sort key of a row once per row, such that rows are ordered by comparing their
+     * keys byte by byte, consistently with {@link #compare(Tuple, Tuple)}. Returns null by
+     * default, in which case rows are ordered through {@link #getPrefix(Tuple)} and
+     * {@link #compare(Tuple, Tuple)}.
+     */
+    protected byte[] getSortKey(Tuple t) {
+        return null;
+    }
+    
+    /**
+     * Computes a normalized prefix of the sort key of a row, once per row. Prefixes compare as
+     * unsigned longs, and must be consistent with {@link #compare(Tuple, Tuple)}: a row coming
+     * before another must not have a greater prefix. Returns 0 by default, so that all rows are
+     * compared through {@link #compare(Tuple, Tuple)}.
+     */
+    protected long getPrefix(Tuple t) {
+        return 0;
+    }
+    
+    /**
+     * @return the first 8 bytes of the given key as a long, padded with zero bytes
+     */
+    protected static long toPrefix(byte[] key, int offset, int length) {
+        long prefix = 0;
+        for (int i = 0; i < Bytes.SIZEOF_LONG; i++) {
+            prefix = (prefix << 8) | (i < length ? key[offset + i] & 0xFF : 0);
         }
-        return minIterator;
+        return prefix;
     }
     
     @Override
     public Tuple peek() throws SQLException {
-        PeekingResultIterator iterator = minIterator();
-        return iterator.peek();
+        Head head = getTree().peek();
+        return head == null ? null : head.tuple;
     }
 
     @Override
     public Tuple next() throws SQLException {
-        PeekingResultIterator iterator = minIterator();
-        return iterator.next();
+        LoserTree<Head> tree = getTree();
+        int winner = tree.getWinner();
+        if (winner < 0) {
+            return null;
+        }
+        int index = iterators.size() - 1 - winner;
+        Tuple tuple = iterators.get(index).next();
+        tree.replaceWinner(nextHead(index));
+        return tuple;
     }
 }
@@ -51,6 +51,13 @@ public class MergeSortRowKeyResultIterator extends MergeSortResultIterator {
         return factor * TupleUtil.compare(t1, t2, tempPtr, keyOffset);
     }
 
+    @Override
+    protected long getPrefix(Tuple t) {
+        t.getKey(tempPtr);
+        long prefix = toPrefix(tempPtr.get(), tempPtr.getOffset() + keyOffset, tempPtr.getLength() - keyOffset);
+        return factor < 0 ? ~prefix : prefix;
+    }
+
     @Override
     public void explain(List<String> planSteps) {
         resultIterators.explain(planSteps);
@@ -20,8 +20,7 @@ package org.apache.phoenix.iterate;
 import java.sql.SQLException;
 import java.util.List;
 
-import org.apache.hadoop.hbase.io.ImmutableBytesWritable;
-import org.apache.phoenix.expression.Expression;
+import org.apache.hadoop.hbase.util.Bytes;
 import org.apache.phoenix.expression.OrderByExpression;
 import org.apache.phoenix.schema.tuple.Tuple;
 
@@ -39,36 +38,23 @@ public class MergeSortTopNResultIterator extends MergeSortResultIterator {
     private final int limit;
     private int count = 0;
     private final List<OrderByExpression> orderByColumns;
-    private final ImmutableBytesWritable ptr1 = new ImmutableBytesWritable();
-    private final ImmutableBytesWritable ptr2 = new ImmutableBytesWritable();
+    private final SortKeyEncoder encoder;
     
     public MergeSortTopNResultIterator(ResultIterators iterators, Integer limit, List<OrderByExpression> orderByColumns) {
         super(iterators);
         this.limit = limit == null ? -1 : limit;
         this.orderByColumns = orderByColumns;
+        this.encoder = new SortKeyEncoder(orderByColumns);
     }
 
     @Override
     protected int compare(Tuple t1, Tuple t2) {
-        for (int i = 0; i < orderByColumns.size(); i++) {
-            OrderByExpression order = orderByColumns.get(i);
-            Expression orderExpr = order.getExpression();
-            boolean isNull1 = !orderExpr.evaluate(t1, ptr1) || ptr1.getLength() == 0;
-            boolean isNull2 = !orderExpr.evaluate(t2, ptr2) || ptr2.getLength() == 0;
-            if (isNull1 && isNull2) {
-                continue;
-            } else if (isNull1) {
-                return order.isNullsLast() ? 1 : -1;
-            } else if (isNull2) {
-                return order.isNullsLast() ? -1 : 1;
-            }
-            int cmp = ptr1.compareTo(ptr2);
-            if (cmp == 0) {
-                continue;
-            }
-            return order.isAscending() ? cmp : -cmp;
-        }
-        return 0;
+        return Bytes.compareTo(encoder.encode(t1), encoder.encode(t2));
+    }
+
+    @Override
+    protected byte[] getSortKey(Tuple t) {
+        return encoder.encode(t);
     }
 
     @Override
@@ -19,6 +19,7 @@ package org.apache.phoenix.iterate;
 
 import static com.google.common.base.Preconditions.checkArgument;
 import static com.google.common.base.Preconditions.checkPositionIndex;
+import static com.google.common.base.Preconditions.checkState;
 
 import java.io.IOException;
 import java.sql.SQLException;
@@ -27,12 +28,8 @@ import java.util.List;
 
 import org.apache.hadoop.hbase.client.Result;
 import org.apache.hadoop.hbase.io.ImmutableBytesWritable;
+import org.apache.hadoop.hbase.util.Bytes;
 
-import com.google.common.base.Function;
-import com.google.common.collect.Collections2;
-import com.google.common.collect.Lists;
-import com.google.common.collect.Ordering;
-import org.apache.phoenix.expression.Expression;
 import org.apache.phoenix.expression.OrderByExpression;
 import org.apache.phoenix.schema.tuple.Tuple;
 import org.apache.phoenix.util.SizedUtil;
@@ -40,7 +37,8 @@ import org.apache.phoenix.util.SizedUtil;
 /**
  * Result scanner that sorts aggregated rows by columns specified in the ORDER BY clause.
  * <p>
- * Note that currently the sort is entirely done in memory. 
+ * Rows are sorted on a single key encoding all the columns, spilling sorted runs to
+ * disk past the threshold. 
  *  
  * 
  * @since 0.1
@@ -67,28 +65,20 @@ public class OrderedResultIterator implements PeekingResultIterator {
         }
     }
     
-    /** A function that returns Nth key for a given {@link ResultEntry}. */
-    private static class NthKey implements Function<ResultEntry, ImmutableBytesWritable> {
-        private final int index;
-
-        NthKey(int index) {
-            this.index = index;
-        }
-        @Override
-        public ImmutableBytesWritable apply(ResultEntry entry) {
-            return entry.getSortKey(index);
-        }
-    }
-
-    /** Returns the expression of a given {@link OrderByExpression}. */
-    private static final Function<OrderByExpression, Expression> TO_EXPRESSION = new Function<OrderByExpression, Expression>() {
+    /**
+     * Compares entries on their single sort key, encoded by {@link SortKeyEncoder}
+     * from all the expressions of the ORDER BY clause.
+     */
+    private static final Comparator<ResultEntry> SORT_KEY_COMPARATOR = new Comparator<ResultEntry>() {
         @Override
-        public Expression apply(OrderByExpression column) {
-            return column.getExpression();
+        public int compare(ResultEntry entry1, ResultEntry entry2) {
+            ImmutableBytesWritable key1 = entry1.sortKeys[0];
+            ImmutableBytesWritable key2 = entry2.sortKeys[0];
+            return Bytes.compareTo(key1.get(), key1.getOffset(), key1.getLength(), key2.get(), key2.getOffset(), key2.getLength());
         }
     };
 
-    private final int thresholdBytes;
+    private int thresholdBytes;
     private final Integer limit;
     private final ResultIterator delegate;
     private final List<OrderByExpression> orderByExpressions;
@@ -122,8 +112,8 @@ public class OrderedResultIterator implements PeekingResultIterator {
         long estimatedEntrySize =
             // ResultEntry
             SizedUtil.OBJECT_SIZE + 
-            // ImmutableBytesWritable[]
-            SizedUtil.ARRAY_SIZE + orderByExpressions.size() * SizedUtil.IMMUTABLE_BYTES_WRITABLE_SIZE +
+            // ImmutableBytesWritable[] holding the single sort key
+            SizedUtil.ARRAY_SIZE + SizedUtil.IMMUTABLE_BYTES_WRITABLE_SIZE +
             // Tuple
             SizedUtil.OBJECT_SIZE + estimatedRowSize;
 
@@ -137,6 +127,20 @@ public class OrderedResultIterator implements PeekingResultIterator {
         return limit;
     }
 
+    public int getThresholdBytes() {
+        return thresholdBytes;
+    }
+
+    /**
+     * Sets the size of the rows held in memory before they are spilled to disk as a sorted run,
+     * for example to the memory that could be reserved for the sort. Must be called before
+     * the first row is read.
+     */
+    public void setThresholdBytes(int thresholdBytes) {
+        checkState(resultIterator == null);
+        this.thresholdBytes = thresholdBytes;
+    }
+
     public long getEstimatedByteSize() {
         return estimatedByteSize;
     }
@@ -144,26 +148,6 @@ public class OrderedResultIterator implements PeekingResultIterator {
     public long getByteSize() {
         return byteSize;
     }
-    /**
-     * Builds a comparator from the list of columns in ORDER BY clause.
-     * @param orderByExpressions the columns in ORDER BY clause.
-     * @return the comparator built from the list of columns in ORDER BY clause.
-     */
-    // ImmutableBytesWritable.Comparator doesn't implement generics
-    @SuppressWarnings("unchecked")
-    private static Comparator<ResultEntry> buildComparator(List<OrderByExpression> orderByExpressions) {
-        Ordering<ResultEntry> ordering = null;
-        int pos = 0;
-        for (OrderByExpression col : orderByExpressions) {
-            Ordering<ImmutableBytesWritable> o = Ordering.from(new ImmutableBytesWritable.Comparator());
-            if(!col.isAscending()) o = o.reverse();
-            o = col.isNullsLast() ? o.nullsLast() : o.nullsFirst();
-            Ordering<ResultEntry> entryOrdering = o.onResultOf(new NthKey(pos++));
-            ordering = ordering == null ? entryOrdering : ordering.compound(entryOrdering);
-        }
-        return ordering;
-    }
-
     @Override
     public Tuple next() throws SQLException {
         return getResultIterator().next();
@@ -174,11 +158,9 @@ public class OrderedResultIterator implements PeekingResultIterator {
             return resultIterator;
         }
         
-        final int numSortKeys = orderByExpressions.size();
-        List<Expression> expressions = Lists.newArrayList(Collections2.transform(orderByExpressions, TO_EXPRESSION));
-        final Comparator<ResultEntry> comparator = buildComparator(orderByExpressions);
+        SortKeyEncoder encoder = new SortKeyEncoder(orderByExpressions);
         try{
-            final MappedByteBufferSortedQueue queueEntries = new MappedByteBufferSortedQueue(comparator, limit, thresholdBytes);
+            final MappedByteBufferSortedQueue queueEntries = new MappedByteBufferSortedQueue(SORT_KEY_COMPARATOR, limit, thresholdBytes);
             resultIterator = new PeekingResultIterator() {
                 int count = 0;
                 @Override
@@ -213,14 +195,7 @@ public class OrderedResultIterator implements PeekingResultIterator {
                 }
             };
             for (Tuple result = delegate.next(); result != null; result = delegate.next()) {
-                int pos = 0;
-                ImmutableBytesWritable[] sortKeys = new ImmutableBytesWritable[numSortKeys];
-                for (Expression expression : expressions) {
-                    final ImmutableBytesWritable sortKey = new ImmutableBytesWritable();
-                    boolean evaluated = expression.evaluate(result, sortKey);
-                    // set the sort key that failed to get evaluated with null
-                    sortKeys[pos++] = evaluated && sortKey.getLength() > 0 ? sortKey : null;
-                }
+                ImmutableBytesWritable[] sortKeys = new ImmutableBytesWritable[] {new ImmutableBytesWritable(encoder.encode(result))};
                 queueEntries.add(new ResultEntry(sortKeys, result));
             }
             this.byteSize = queueEntries.getByteSize();
@@ -57,6 +57,7 @@ public class ParallelIterators extends ExplainTable implements ResultIterators {
 	private static final Logger logger = LoggerFactory.getLogger(ParallelIterators.class);
     private final List<KeyRange> splits;
     private final ParallelIteratorFactory iteratorFactory;
+    private final TopNThreshold topNThreshold;
     
     public static interface ParallelIteratorFactory {
         PeekingResultIterator newIterator(StatementContext context, ResultIterator scanner) throws SQLException;
@@ -74,9 +75,20 @@ public class ParallelIterators extends ExplainTable implements ResultIterators {
     public ParallelIterators(StatementContext context, TableRef tableRef, FilterableStatement statement,
             RowProjector projector, GroupBy groupBy, Integer limit, ParallelIteratorFactory iteratorFactory)
             throws SQLException {
+        this(context, tableRef, statement, projector, groupBy, limit, iteratorFactory, null);
+    }
+
+    /**
+     * @param topNThreshold the bound shared by the scans of a TopN query, used to filter the
+     *  rows of the scans starting after others have completed, or null if there is none
+     */
+    public ParallelIterators(StatementContext context, TableRef tableRef, FilterableStatement statement,
+            RowProjector projector, GroupBy groupBy, Integer limit, ParallelIteratorFactory iteratorFactory,
+            TopNThreshold topNThreshold) throws SQLException {
         super(context, tableRef, groupBy);
         this.splits = getSplits(context, tableRef, statement.getHint());
         this.iteratorFactory = iteratorFactory;
+        this.topNThreshold = topNThreshold;
         Scan scan = context.getScan();
         PTable table = tableRef.getTable();
         if (projector.isProjectEmptyKeyValue()) {
@@ -209,6 +221,36 @@ public class ParallelIterators extends ExplainTable implements ResultIterators {
         return splits;
     }
 
+    /**
+     * Intersects the statement's scan with each split.
+     * @return the start key of each split paired with the scan to run over it, omitting the
+     *  splits that do not overlap the scan
+     */
+    private List<Pair<byte[],Scan>> getSplitScans() {
+        List<Pair<byte[],Scan>> splitScans = new ArrayList<Pair<byte[],Scan>>(splits.size());
+        for (KeyRange split : splits) {
+            final Scan splitScan = new Scan(this.context.getScan());
+            // Intersect with existing start/stop key if the table is salted
+            // If not salted, we've already intersected it. If salted, we need
+            // to wait until now to intersect, as we're running parallel scans
+            // on all the possible regions here.
+            if (tableRef.getTable().getBucketNum() != null) {
+                KeyRange minMaxRange = context.getMinMaxRange();
+                if (minMaxRange != null) {
+                    // Add salt byte based on current split, as minMaxRange won't have it
+                    minMaxRange = SaltingUtil.addSaltByte(split.getLowerRange(), minMaxRange);
+                    split = split.intersect(minMaxRange);
+                }
+            }
+            if (ScanUtil.intersectScanRange(splitScan, split.getLowerRange(), split.getUpperRange(), this.context.getScanRanges().useSkipScanFilter())) {
+                // Delay the swapping of start/stop row until row so we don't muck with the intersect logic
+                ScanUtil.swapStartStopRowIfReversed(splitScan);
+                splitScans.add(new Pair<byte[],Scan>(split.getLowerRange(), splitScan));
+            }
+        }
+        return splitScans;
+    }
+
     /**
      * Executes the scan in parallel across all regions, blocking until all scans are complete.
      * @return the result iterators for the scan of each region
@@ -224,49 +266,39 @@ public class ParallelIterators extends ExplainTable implements ResultIterators {
         final UUID scanId = UUID.randomUUID();
         try {
             ExecutorService executor = services.getExecutor();
-            for (KeyRange split : splits) {
-                final Scan splitScan = new Scan(this.context.getScan());
-                // Intersect with existing start/stop key if the table is salted
-                // If not salted, we've already intersected it. If salted, we need
-                // to wait until now to intersect, as we're running parallel scans
-                // on all the possible regions here.
-                if (tableRef.getTable().getBucketNum() != null) {
-                    KeyRange minMaxRange = context.getMinMaxRange();
-                    if (minMaxRange != null) {
-                        // Add salt byte based on current split, as minMaxRange won't have it
-                        minMaxRange = SaltingUtil.addSaltByte(split.getLowerRange(), minMaxRange);
-                        split = split.intersect(minMaxRange);
-                    }
-                }
-                if (ScanUtil.intersectScanRange(splitScan, split.getLowerRange(), split.getUpperRange(), this.context.getScanRanges().useSkipScanFilter())) {
-                    // Delay the swapping of start/stop row until row so we don't muck with the intersect logic
-                    ScanUtil.swapStartStopRowIfReversed(splitScan);
-                    Future<PeekingResultIterator> future =
-                        executor.submit(new JobCallable<PeekingResultIterator>() {
+            for (Pair<byte[],Scan> splitScanPair : getSplitScans()) {
+                final Scan splitScan = splitScanPair.getSecond();
+                Future<PeekingResultIterator> future =
+                    executor.submit(new JobCallable<PeekingResultIterator>() {
 
-                        @Override
-                        public PeekingResultIterator call() throws Exception {
-                            // TODO: different HTableInterfaces for each thread or the same is better?
-                        	long startTime = System.currentTimeMillis();
-                            ResultIterator scanner = new TableResultIterator(context, tableRef, splitScan);
-                            if (logger.isDebugEnabled()) {
-                            	logger.debug("Id: " + scanId + ", Time: " + (System.currentTimeMillis() - startTime) + "ms, Scan: " + splitScan);
-                            }
-                            return iteratorFactory.newIterator(context, scanner);
+                    @Override
+                    public PeekingResultIterator call() throws Exception {
+                        // TODO: different HTableInterfaces for each thread or the same is better?
+                    	long startTime = System.currentTimeMillis();
+                        if (topNThreshold != null) {
+                            topNThreshold.applyTo(splitScan);
                         }
-
-                        /**
-                         * Defines the grouping for round robin behavior.  All threads spawned to process
-                         * this scan will be grouped together and time sliced with other simultaneously
-                         * executing parallel scans.
-                         */
-                        @Override
-                        public Object getJobId() {
-                            return ParallelIterators.this;
+                        ResultIterator scanner = new TableResultIterator(context, tableRef, splitScan);
+                        if (logger.isDebugEnabled()) {
+                        	logger.debug("Id: " + scanId + ", Time: " + (System.currentTimeMillis() - startTime) + "ms, Scan: " + splitScan);
                         }
-                    });
-                    futures.add(new Pair<byte[],Future<PeekingResultIterator>>(split.getLowerRange(),future));
-                }
+                        if (topNThreshold != null) {
+                            scanner = topNThreshold.track(scanner);
+                        }
+                        return iteratorFactory.newIterator(context, scanner);
+                    }
+
+                    /**
+                     * Defines the grouping for round robin behavior.  All threads spawned to process
+                     * this scan will be grouped together and time sliced with other simultaneously
+                     * executing parallel scans.
+                     */
+                    @Override
+                    public Object getJobId() {
+                        return ParallelIterators.this;
+                    }
+                });
+                futures.add(new Pair<byte[],Future<PeekingResultIterator>>(splitScanPair.getFirst(),future));
             }
 
             int timeoutMs = props.getInt(QueryServices.THREAD_TIMEOUT_MS_ATTRIB, DEFAULT_THREAD_TIMEOUT_MS);
@@ -298,6 +330,44 @@ public class ParallelIterators extends ExplainTable implements ResultIterators {
         }
     }
 
+    /**
+     * Executes the scan in parallel across all regions without waiting for any of them to complete.
+     * The rows of every region are handed to the returned iterator in batches as they are scanned,
+     * bypassing the {@link ParallelIteratorFactory}, so this may only be used when the order of
+     * the rows does not matter.
+     * @return an iterator over the rows of all regions in no particular order
+     */
+    public PeekingResultIterator getStreamingIterator() {
+        final ConnectionQueryServices services = context.getConnection().getQueryServices();
+        ReadOnlyProps props = services.getProps();
+        final UUID scanId = UUID.randomUUID();
+        List<Pair<byte[],Scan>> splitScans = getSplitScans();
+        List<Callable<ResultIterator>> scanners = new ArrayList<Callable<ResultIterator>>(splitScans.size());
+        for (Pair<byte[],Scan> splitScanPair : splitScans) {
+            final Scan splitScan = splitScanPair.getSecond();
+            scanners.add(new Callable<ResultIterator>() {
+                @Override
+                public ResultIterator call() throws Exception {
+                    long startTime = System.currentTimeMillis();
+                    ResultIterator scanner = new TableResultIterator(context, tableRef, splitScan);
+                    if (logger.isDebugEnabled()) {
+                        logger.debug("Id: " + scanId + ", Time: " + (System.currentTimeMillis() - startTime) + "ms, Scan: " + splitScan);
+                    }
+                    return scanner;
+                }
+            });
+        }
+        int batchSize = props.getInt(QueryServices.STREAMING_SCAN_BATCH_SIZE_ATTRIB, QueryServicesOptions.DEFAULT_STREAMING_SCAN_BATCH_SIZE);
+        int queueSize = props.getInt(QueryServices.STREAMING_SCAN_QUEUE_SIZE_ATTRIB, QueryServicesOptions.DEFAULT_STREAMING_SCAN_QUEUE_SIZE);
+        int timeoutMs = props.getInt(QueryServices.THREAD_TIMEOUT_MS_ATTRIB, DEFAULT_THREAD_TIMEOUT_MS);
+        return new StreamingResultIterator(services.getExecutor(), this, scanners, batchSize, queueSize, timeoutMs) {
+            @Override
+            public void explain(List<String> planSteps) {
+                ParallelIterators.this.explain(planSteps);
+            }
+        };
+    }
+
     @Override
     public int size() {
         return this.splits.size();
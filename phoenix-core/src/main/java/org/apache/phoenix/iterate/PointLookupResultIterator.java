@@ -0,0 +1,196 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.phoenix.iterate;
+
+import java.io.IOException;
+import java.sql.SQLException;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.Set;
+
+import org.apache.hadoop.hbase.client.Get;
+import org.apache.hadoop.hbase.client.HTableInterface;
+import org.apache.hadoop.hbase.client.Result;
+import org.apache.hadoop.hbase.client.Scan;
+import org.apache.hadoop.hbase.filter.Filter;
+import org.apache.hadoop.hbase.filter.FilterList;
+import org.apache.hadoop.hbase.io.TimeRange;
+import org.apache.phoenix.compile.QueryCompiler;
+import org.apache.phoenix.compile.StatementContext;
+import org.apache.phoenix.coprocessor.BaseScannerRegionObserver;
+import org.apache.phoenix.filter.SkipScanFilter;
+import org.apache.phoenix.schema.TableRef;
+import org.apache.phoenix.schema.tuple.ResultTuple;
+import org.apache.phoenix.schema.tuple.Tuple;
+import org.apache.phoenix.util.PhoenixRuntime;
+import org.apache.phoenix.util.ServerUtil;
+
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Lists;
+
+
+/**
+ *
+ * Iterator over the rows of a point lookup, fetched through batches of gets instead
+ * of through a scan per region. The HBase client groups each batch by region server,
+ * so that a batch costs one round trip to each of the servers holding some of its keys.
+ * Rows are returned in the order of the keys, missing rows being skipped.
+ *
+ * Gets do not go through the region observers that post-process scans, so only scans
+ * that rely on nothing but their filter and projected columns may be run this way.
+ *
+ */
+public class PointLookupResultIterator extends ExplainTable implements ResultIterator {
+    // Attributes of a scan that have no bearing on the rows it returns
+    private static final Set<String> IGNORED_SCAN_ATTRIBUTES = ImmutableSet.of(
+            BaseScannerRegionObserver.NON_AGGREGATE_QUERY,
+            BaseScannerRegionObserver.QUERY_ID,
+            PhoenixRuntime.TENANT_ID_ATTRIB,
+            QueryCompiler.LOAD_COLUMN_FAMILIES_ON_DEMAND_ATTR);
+    private static final Result[] NO_RESULTS = new Result[0];
+    
+    private final Scan scan;
+    private final Filter filter;
+    private final List<byte[]> keys;
+    private final int batchSize;
+    private int keyIndex;
+    private Result[] results = NO_RESULTS;
+    private int resultIndex;
+    // Opened on the first lookup, so that a plan that is only explained holds no table
+    private HTableInterface htable;
+
+    /**
+     * @param keys the complete row keys to look up, in the order their rows should be returned
+     * @param batchSize the maximum number of keys looked up at once
+     */
+    public PointLookupResultIterator(StatementContext context, TableRef tableRef, List<byte[]> keys, int batchSize) throws SQLException {
+        super(context, tableRef);
+        this.scan = context.getScan();
+        // The skip scan filter has nothing left to skip over once on a single row
+        this.filter = removeSkipScanFilter(scan.getFilter());
+        this.keys = keys;
+        this.batchSize = Math.max(1, batchSize);
+    }
+    
+    /**
+     * @return true if the rows of the scan may be looked up through gets, which is
+     * the case when none of its attributes requires processing by a region observer
+     */
+    public static boolean isSupported(Scan scan) {
+        for (String name : scan.getAttributesMap().keySet()) {
+            if (!IGNORED_SCAN_ATTRIBUTES.contains(name)) {
+                return false;
+            }
+        }
+        return true;
+    }
+    
+    private static Filter removeSkipScanFilter(Filter filter) {
+        if (filter instanceof SkipScanFilter) {
+            return null;
+        }
+        if (filter instanceof FilterList && ((FilterList)filter).getOperator() == FilterList.Operator.MUST_PASS_ALL) {
+            List<Filter> filters = ((FilterList)filter).getFilters();
+            List<Filter> remainingFilters = Lists.newArrayListWithExpectedSize(filters.size());
+            for (Filter f : filters) {
+                if (!(f instanceof SkipScanFilter)) {
+                    remainingFilters.add(f);
+                }
+            }
+            if (remainingFilters.size() == filters.size()) {
+                return filter;
+            }
+            if (remainingFilters.isEmpty()) {
+                return null;
+            }
+            return remainingFilters.size() == 1 ? remainingFilters.get(0) : new FilterList(FilterList.Operator.MUST_PASS_ALL, remainingFilters);
+        }
+        return filter;
+    }
+    
+    private Get newGet(byte[] key) throws IOException {
+        Get get = new Get(key);
+        // The column sets are only read when the get is sent, so they may be shared with the scan
+        for (Map.Entry<byte[], NavigableSet<byte[]>> entry : scan.getFamilyMap().entrySet()) {
+            get.getFamilyMap().put(entry.getKey(), entry.getValue());
+        }
+        TimeRange timeRange = scan.getTimeRange();
+        get.setTimeRange(timeRange.getMin(), timeRange.getMax());
+        get.setMaxVersions(scan.getMaxVersions());
+        get.setCacheBlocks(scan.getCacheBlocks());
+        get.setFilter(filter);
+        return get;
+    }
+    
+    private void nextBatch() throws SQLException {
+        if (htable == null) {
+            htable = context.getConnection().getQueryServices().getTable(tableRef.getTable().getPhysicalName().getBytes());
+        }
+        int endIndex = Math.min(keyIndex + batchSize, keys.size());
+        List<Get> gets = Lists.newArrayListWithExpectedSize(endIndex - keyIndex);
+        try {
+            for (; keyIndex < endIndex; keyIndex++) {
+                gets.add(newGet(keys.get(keyIndex)));
+            }
+            results = htable.get(gets);
+        } catch (IOException e) {
+            throw ServerUtil.parseServerException(e);
+        }
+        resultIndex = 0;
+    }
+
+    @Override
+    public Tuple next() throws SQLException {
+        while (true) {
+            while (resultIndex < results.length) {
+                Result result = results[resultIndex];
+                // Let go of the rows already returned
+                results[resultIndex++] = null;
+                if (result != null && !result.isEmpty()) {
+                    return new ResultTuple(result);
+                }
+            }
+            if (keyIndex >= keys.size()) {
+                return null;
+            }
+            nextBatch();
+        }
+    }
+
+    @Override
+    public void close() throws SQLException {
+        results = NO_RESULTS;
+        keyIndex = keys.size();
+        if (htable == null) {
+            return;
+        }
+        try {
+            htable.close();
+        } catch (IOException e) {
+            throw ServerUtil.parseServerException(e);
+        } finally {
+            htable = null;
+        }
+    }
+
+    @Override
+    public void explain(List<String> planSteps) {
+        explain("CLIENT BATCHED GET ", planSteps);
+    }
+}
@@ -0,0 +1,113 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.phoenix.iterate;
+
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.hadoop.hbase.io.ImmutableBytesWritable;
+import org.apache.phoenix.expression.Expression;
+import org.apache.phoenix.expression.OrderByExpression;
+import org.apache.phoenix.schema.PDataType;
+import org.apache.phoenix.schema.tuple.Tuple;
+
+/**
+ * 
+ * Encodes the values of the ORDER BY expressions of a row into a single key, such that
+ * comparing the keys of two rows byte by byte orders them as the ORDER BY clause does.
+ * Rows can then be sorted and merged through {@link org.apache.hadoop.hbase.util.Bytes#compareTo(byte[], byte[])}
+ * alone, their keys being encoded once per row instead of evaluated on every comparison.
+ * <p>
+ * Each expression is encoded as a marker byte placing nulls first or last, followed for non
+ * null values by the bytes of the value. Variable width values have their zero bytes escaped
+ * and are terminated by two zero bytes, so that no encoded value is a prefix of another. The
+ * bytes of a value are inverted for a descending expression.
+ *
+ * 
+ * @since 3.0
+ */
+public class SortKeyEncoder {
+    private static final byte NULL_FIRST = 0x00;
+    private static final byte NOT_NULL = 0x01;
+    private static final byte NULL_LAST = 0x02;
+    private static final byte ESCAPE = (byte)0xFF;
+    private static final byte TERMINATOR = 0x00;
+    
+    private final List<OrderByExpression> orderByExpressions;
+    private final Integer[] byteSizes;
+    private final ImmutableBytesWritable ptr = new ImmutableBytesWritable();
+    private byte[] buffer = new byte[64];
+    
+    public SortKeyEncoder(List<OrderByExpression> orderByExpressions) {
+        this.orderByExpressions = orderByExpressions;
+        this.byteSizes = new Integer[orderByExpressions.size()];
+        for (int i = 0; i < byteSizes.length; i++) {
+            PDataType type = orderByExpressions.get(i).getExpression().getDataType();
+            byteSizes[i] = type != null && type.isFixedWidth() ? type.getByteSize() : null;
+        }
+    }
+    
+    /**
+     * @return the sort key of the given row. Not thread safe, as the key is built in a buffer
+     *  shared by all rows.
+     */
+    public byte[] encode(Tuple tuple) {
+        int length = 0;
+        for (int i = 0; i < byteSizes.length; i++) {
+            OrderByExpression orderByExpression = orderByExpressions.get(i);
+            Expression expression = orderByExpression.getExpression();
+            if (!expression.evaluate(tuple, ptr) || ptr.getLength() == 0) {
+                ensureCapacity(length + 1);
+                buffer[length++] = orderByExpression.isNullsLast() ? NULL_LAST : NULL_FIRST;
+                continue;
+            }
+            byte[] bytes = ptr.get();
+            int offset = ptr.getOffset();
+            int valueLength = ptr.getLength();
+            // Worst case of a variable width value made of zero bytes
+            ensureCapacity(length + 1 + 2 * valueLength + 2);
+            buffer[length++] = NOT_NULL;
+            int start = length;
+            if (byteSizes[i] != null && byteSizes[i] == valueLength) {
+                System.arraycopy(bytes, offset, buffer, length, valueLength);
+                length += valueLength;
+            } else {
+                for (int j = offset; j < offset + valueLength; j++) {
+                    buffer[length++] = bytes[j];
+                    if (bytes[j] == 0) {
+                        buffer[length++] = ESCAPE;
+                    }
+                }
+                buffer[length++] = TERMINATOR;
+                buffer[length++] = TERMINATOR;
+            }
+            if (!orderByExpression.isAscending()) {
+                for (int j = start; j < length; j++) {
+                    buffer[j] = (byte)~buffer[j];
+                }
+            }
+        }
+        return Arrays.copyOf(buffer, length);
+    }
+    
+    private void ensureCapacity(int capacity) {
+        if (capacity > buffer.length) {
+            buffer = Arrays.copyOf(buffer, Math.max(capacity, buffer.length * 2));
+        }
+    }
+}
@@ -17,13 +17,14 @@
  */
 package org.apache.phoenix.iterate;
 
-import java.io.BufferedInputStream;
-import java.io.DataInputStream;
+import java.io.BufferedOutputStream;
 import java.io.DataOutputStream;
-import java.io.EOFException;
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
 import java.sql.SQLException;
 import java.util.List;
 
@@ -100,7 +101,8 @@ public class SpoolingResultIterator implements PeekingResultIterator {
                     chunk.close();
                 }
             };
-            DataOutputStream out = new DataOutputStream(spoolTo);
+            // Buffered, as rows are written a few bytes at a time once spooled to the file
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(spoolTo));
             final long maxBytesAllowed = maxSpoolToDisk == -1 ? 
             		Long.MAX_VALUE : thresholdBytes + maxSpoolToDisk;
             long bytesWritten = 0L;
@@ -113,7 +115,7 @@ public class SpoolingResultIterator implements PeekingResultIterator {
                 }
                 maxSize = Math.max(length, maxSize);
             }
-            spoolTo.close();
+            out.close();
             if (spoolTo.isInMemory()) {
                 byte[] data = spoolTo.getData();
                 chunk.resize(data.length);
@@ -212,31 +214,45 @@ public class SpoolingResultIterator implements PeekingResultIterator {
     
     /**
      * 
-     * Backing result iterator if results were spooled to disk
+     * Backing result iterator if results were spooled to disk. The spool file is memory mapped
+     * and copied out in blocks holding many rows, which the returned tuples point into, so that
+     * rows are neither read through a stream nor copied one at a time. A new block is allocated
+     * each time, as tuples may still be referenced after advancing past them.
      *
      * 
      * @since 0.1
      */
     private static class OnDiskResultIterator implements PeekingResultIterator {
+        // copy rows out of the mapping 64 KB at a time, unless a single row is bigger
+        private static final int BLOCK_SIZE = 64 * 1024;
+        // map at most 64 MB of the file at a time
+        private static final long MAPPING_SIZE = 64 * 1024 * 1024;
+        
         private final File file;
-        private DataInputStream spoolFrom;
+        private final int blockSize;
+        private RandomAccessFile spoolFrom;
+        private FileChannel channel;
+        private long fileLength;
+        private MappedByteBuffer mapping;
+        private long mappingOffset;
+        private byte[] block;
+        private long blockOffset;
+        private int position;
         private Tuple next;
-        private int maxSize;
-        private int bufferIndex;
-        private byte[][] buffers = new byte[2][];
         private boolean isClosed;
         
         private OnDiskResultIterator (int maxSize, File file) {
             this.file = file;
-            this.maxSize = maxSize;
+            // A block must at least fit the largest row along with its length
+            this.blockSize = Math.max(BLOCK_SIZE, maxSize + WritableUtils.getVIntSize(maxSize));
         }
         
         private synchronized void init() throws IOException {
             if (spoolFrom == null) {
-                spoolFrom = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
-                // We need two so that we can have a current and a next without them stomping on each other
-                buffers[0] = new byte[maxSize];
-                buffers[1] = new byte[maxSize];
+                spoolFrom = new RandomAccessFile(file, "r");
+                channel = spoolFrom.getChannel();
+                fileLength = channel.size();
+                block = ByteUtil.EMPTY_BYTE_ARRAY;
                 advance();
             }
         }
@@ -244,6 +260,8 @@ public class SpoolingResultIterator implements PeekingResultIterator {
         private synchronized void reachedEnd() throws IOException {
             next = null;
             isClosed = true;
+            mapping = null;
+            block = null;
             try {
                 if (spoolFrom != null) {
                     spoolFrom.close();
@@ -253,32 +271,49 @@ public class SpoolingResultIterator implements PeekingResultIterator {
             }
         }
         
+        /**
+         * Copies the next block of the file, starting at the first row not returned yet.
+         * @return false if the end of the file has been reached
+         */
+        private boolean readBlock() throws IOException {
+            long offset = blockOffset + position;
+            int length = (int)Math.min(blockSize, fileLength - offset);
+            if (length <= 0) {
+                return false;
+            }
+            if (mapping == null || offset + length > mappingOffset + mapping.capacity()) {
+                mappingOffset = offset;
+                mapping = channel.map(MapMode.READ_ONLY, offset, Math.min(Math.max(MAPPING_SIZE, length), fileLength - offset));
+            }
+            mapping.position((int)(offset - mappingOffset));
+            block = new byte[length];
+            mapping.get(block);
+            blockOffset = offset;
+            position = 0;
+            return true;
+        }
+        
+        private boolean hasRow() {
+            if (position >= block.length || position + WritableUtils.decodeVIntSize(block[position]) > block.length) {
+                return false;
+            }
+            int length = ByteUtil.vintFromBytes(block, position);
+            return position + WritableUtils.getVIntSize(length) + length <= block.length;
+        }
+        
         private synchronized Tuple advance() throws IOException {
             if (isClosed) {
                 return next;
             }
-            int length;
-            try {
-                length = WritableUtils.readVInt(spoolFrom);
-            } catch (EOFException e) {
+            // Any row not entirely in the current block starts the next one
+            if (!hasRow() && (!readBlock() || !hasRow())) {
                 reachedEnd();
                 return next;
             }
-            int totalBytesRead = 0;
-            int offset = 0;
-            // Alternate between buffers so that the current one is not affected by advancing
-            bufferIndex = (bufferIndex + 1) % 2;
-            byte[] buffer = buffers [bufferIndex];
-            while(totalBytesRead < length) {
-                int bytesRead = spoolFrom.read(buffer, offset, length);
-                if (bytesRead == -1) {
-                    reachedEnd();
-                    return next;
-                }
-                offset += bytesRead;
-                totalBytesRead += bytesRead;
-            }
-            next = new ResultTuple(ResultUtil.toResult(new ImmutableBytesWritable(buffer,0,length)));
+            int length = ByteUtil.vintFromBytes(block, position);
+            position += WritableUtils.getVIntSize(length);
+            next = new ResultTuple(ResultUtil.toResult(new ImmutableBytesWritable(block, position, length)));
+            position += length;
             return next;
         }
         
@@ -0,0 +1,231 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.phoenix.iterate;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.apache.phoenix.job.JobManager.JobCallable;
+import org.apache.phoenix.schema.tuple.Tuple;
+import org.apache.phoenix.util.ServerUtil;
+
+
+/**
+ *
+ * Result iterator that runs a set of scans in parallel and returns rows as soon as
+ * any of the scans produces them. Each scan hands its rows over in batches through
+ * a bounded queue, so the first row is available once the fastest scan has produced
+ * a batch. When the queue is full, the scans block until the client catches up.
+ * Rows are returned in no particular order.
+ *
+ *
+ * @since 3.0
+ */
+public class StreamingResultIterator implements PeekingResultIterator {
+    private static final long OFFER_INTERVAL_MS = 100;
+    // Marker put on the queue by each scan once it has finished
+    private static final List<Tuple> END_OF_SCAN = new ArrayList<Tuple>(0);
+
+    private final ExecutorService executor;
+    private final Object jobId;
+    private final List<? extends Callable<? extends ResultIterator>> scanners;
+    private final int batchSize;
+    private final long timeoutMs;
+    private final BlockingQueue<List<Tuple>> queue = new LinkedBlockingQueue<List<Tuple>>();
+    // Bounds the number of batches on the queue; end markers do not take a permit
+    private final Semaphore queuedBatchPermits;
+    private final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+    private volatile boolean isClosed;
+    private boolean isStarted;
+    private int remainingScans;
+    private List<Tuple> batch;
+    private int index;
+
+    /**
+     * @param executor executor used to run the scans
+     * @param jobId id used to group the scans for round robin processing by the executor
+     * @param scanners factories for the scans to run. Each one is called on its own thread.
+     * @param batchSize max number of rows a scan hands over at once
+     * @param maxQueuedBatches max number of batches buffered before the scans block
+     * @param timeoutMs max time to wait for the next batch
+     */
+    public StreamingResultIterator(ExecutorService executor, Object jobId, List<? extends Callable<? extends ResultIterator>> scanners,
+            int batchSize, int maxQueuedBatches, long timeoutMs) {
+        this.executor = executor;
+        this.jobId = jobId;
+        this.scanners = scanners;
+        this.batchSize = batchSize;
+        this.timeoutMs = timeoutMs;
+        this.queuedBatchPermits = new Semaphore(maxQueuedBatches);
+    }
+
+    private void init() throws SQLException {
+        if (isStarted) {
+            return;
+        }
+        isStarted = true;
+        try {
+            for (final Callable<? extends ResultIterator> scanner : scanners) {
+                executor.submit(new JobCallable<Void>() {
+    
+                    @Override
+                    public Void call() throws Exception {
+                        produce(scanner);
+                        return null;
+                    }
+    
+                    @Override
+                    public Object getJobId() {
+                        return jobId;
+                    }
+                });
+                remainingScans++;
+            }
+        } catch (RejectedExecutionException e) {
+            close();
+            throw ServerUtil.parseServerException(e);
+        }
+    }
+
+    private boolean isStopped() {
+        return isClosed || failure.get() != null;
+    }
+
+    private void produce(Callable<? extends ResultIterator> scannerFactory) {
+        ResultIterator scanner = null;
+        try {
+            if (isStopped()) {
+                return;
+            }
+            scanner = scannerFactory.call();
+            List<Tuple> batch = new ArrayList<Tuple>(batchSize);
+            for (Tuple tuple = scanner.next(); tuple != null; tuple = scanner.next()) {
+                batch.add(tuple);
+                if (batch.size() == batchSize) {
+                    if (!offer(batch)) {
+                        return;
+                    }
+                    batch = new ArrayList<Tuple>(batchSize);
+                }
+            }
+            if (!batch.isEmpty()) {
+                offer(batch);
+            }
+        } catch (Throwable t) {
+            failure.compareAndSet(null, t);
+        } finally {
+            try {
+                if (scanner != null) {
+                    scanner.close();
+                }
+            } catch (Throwable t) {
+                failure.compareAndSet(null, t);
+            } finally {
+                queue.add(END_OF_SCAN);
+            }
+        }
+    }
+
+    /**
+     * Blocks until the batch fits on the queue, which pauses the scan while the client lags behind.
+     * @return true if the batch was queued and false if the iterator was closed or failed in the meantime
+     */
+    private boolean offer(List<Tuple> batch) throws InterruptedException {
+        while (!isStopped()) {
+            if (queuedBatchPermits.tryAcquire(OFFER_INTERVAL_MS, TimeUnit.MILLISECONDS)) {
+                queue.add(batch);
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void throwIfFailed() throws SQLException {
+        Throwable t = failure.get();
+        if (t != null) {
+            throw ServerUtil.parseServerException(t);
+        }
+    }
+
+    private List<Tuple> currentBatch() throws SQLException {
+        if (isClosed) {
+            return null;
+        }
+        init();
+        while (batch == null || index >= batch.size()) {
+            batch = null;
+            index = 0;
+            if (remainingScans == 0) {
+                throwIfFailed();
+                return null;
+            }
+            List<Tuple> next;
+            try {
+                next = queue.poll(timeoutMs, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw ServerUtil.parseServerException(e);
+            }
+            throwIfFailed();
+            if (next == null) {
+                throw ServerUtil.parseServerException(new TimeoutException("No rows received after " + timeoutMs + "ms"));
+            }
+            if (next == END_OF_SCAN) {
+                remainingScans--;
+            } else {
+                queuedBatchPermits.release();
+                batch = next;
+            }
+        }
+        return batch;
+    }
+
+    @Override
+    public Tuple peek() throws SQLException {
+        List<Tuple> batch = currentBatch();
+        return batch == null ? null : batch.get(index);
+    }
+
+    @Override
+    public Tuple next() throws SQLException {
+        List<Tuple> batch = currentBatch();
+        return batch == null ? null : batch.get(index++);
+    }
+
+    @Override
+    public void close() throws SQLException {
+        // Running scans notice this the next time they try to hand over a batch and close themselves
+        isClosed = true;
+        batch = null;
+        queue.clear();
+    }
+
+    @Override
+    public void explain(List<String> planSteps) {
+    }
+}
@@ -0,0 +1,159 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.phoenix.iterate;
+
+import java.sql.SQLException;
+import java.util.Arrays;
+
+import org.apache.hadoop.hbase.client.Scan;
+import org.apache.hadoop.hbase.filter.CompareFilter.CompareOp;
+import org.apache.hadoop.hbase.filter.Filter;
+import org.apache.hadoop.hbase.io.ImmutableBytesWritable;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.apache.phoenix.expression.ComparisonExpression;
+import org.apache.phoenix.expression.Expression;
+import org.apache.phoenix.expression.IsNullExpression;
+import org.apache.phoenix.expression.KeyValueColumnExpression;
+import org.apache.phoenix.expression.LiteralExpression;
+import org.apache.phoenix.expression.OrExpression;
+import org.apache.phoenix.expression.OrderByExpression;
+import org.apache.phoenix.expression.visitor.KeyValueExpressionVisitor;
+import org.apache.phoenix.filter.MultiCFCQKeyValueComparisonFilter;
+import org.apache.phoenix.filter.RowKeyComparisonFilter;
+import org.apache.phoenix.schema.PDataType;
+import org.apache.phoenix.schema.SortOrder;
+import org.apache.phoenix.schema.tuple.Tuple;
+import org.apache.phoenix.util.ScanUtil;
+
+/**
+ * 
+ * Bound on the first ORDER BY expression of a TopN query, shared by its parallel scans.
+ * Each region returns its own top N rows in order, so once a region has returned N rows,
+ * no row sorting after the last of them on the first ORDER BY expression can be part of
+ * the overall top N. The scans that have not started yet are given the tightest such bound
+ * as a filter, so that their regions skip these rows instead of sorting and returning them.
+ *
+ * 
+ * @since 3.0
+ */
+public class TopNThreshold {
+    private final OrderByExpression orderByExpression;
+    private final int limit;
+    private final byte[] essentialCF;
+    private byte[] threshold;
+    
+    /**
+     * @param orderByExpression the first expression of the ORDER BY clause
+     * @param limit the number of rows returned by the query
+     * @param essentialCF the column family the filter needs to load when the
+     *  ORDER BY expression only references the row key
+     */
+    public TopNThreshold(OrderByExpression orderByExpression, int limit, byte[] essentialCF) {
+        this.orderByExpression = orderByExpression;
+        this.limit = limit;
+        this.essentialCF = essentialCF;
+    }
+    
+    /**
+     * @return an iterator over the rows of the given region scan, offering the
+     *  last of them as a threshold once the scan completes with at least limit rows
+     */
+    public ResultIterator track(ResultIterator scanner) {
+        return new DelegateResultIterator(scanner) {
+            private Tuple last;
+            private int count;
+            
+            @Override
+            public Tuple next() throws SQLException {
+                Tuple tuple = super.next();
+                if (tuple != null) {
+                    last = tuple;
+                    count++;
+                } else if (last != null) {
+                    if (count >= limit) {
+                        offer(last);
+                    }
+                    last = null;
+                }
+                return tuple;
+            }
+        };
+    }
+    
+    private void offer(Tuple tuple) {
+        ImmutableBytesWritable ptr = new ImmutableBytesWritable();
+        // A null key bounds nothing, as it sorts on either end
+        if (!orderByExpression.getExpression().evaluate(tuple, ptr) || ptr.getLength() == 0) {
+            return;
+        }
+        byte[] value = ptr.copyBytes();
+        synchronized (this) {
+            if (threshold == null || compare(value, threshold) < 0) {
+                threshold = value;
+            }
+        }
+    }
+    
+    private int compare(byte[] value1, byte[] value2) {
+        int c = Bytes.compareTo(value1, value2);
+        return orderByExpression.isAscending() ? c : -c;
+    }
+    
+    /**
+     * Filters out of the given scan the rows sorting after the current threshold,
+     * if any region has offered one yet. Must be called before the scan is started.
+     */
+    public void applyTo(Scan scan) throws SQLException {
+        byte[] value;
+        synchronized (this) {
+            value = threshold;
+        }
+        if (value != null) {
+            ScanUtil.andFilterAtEnd(scan, newFilter(value));
+        }
+    }
+    
+    private Filter newFilter(byte[] value) throws SQLException {
+        Expression expression = orderByExpression.getExpression();
+        PDataType type = expression.getDataType();
+        ImmutableBytesWritable ptr = new ImmutableBytesWritable(value);
+        LiteralExpression literal = LiteralExpression.newConstant(
+                type.toObject(ptr, expression.getSortOrder(), expression.getMaxLength(), expression.getScale()), 
+                type, expression.getMaxLength(), expression.getScale());
+        // The ORDER BY direction applies to the serialized bytes, which are inverted for a DESC expression
+        boolean isValueAscending = orderByExpression.isAscending() == (expression.getSortOrder() == SortOrder.ASC);
+        Expression bound = ComparisonExpression.create(isValueAscending ? CompareOp.LESS_OR_EQUAL : CompareOp.GREATER_OR_EQUAL, 
+                Arrays.<Expression>asList(expression, literal), ptr);
+        if (!orderByExpression.isNullsLast()) {
+            bound = new OrExpression(Arrays.<Expression>asList(bound, IsNullExpression.create(expression, false, ptr)));
+        }
+        return hasKeyValueColumn(expression) ? new MultiCFCQKeyValueComparisonFilter(bound) : new RowKeyComparisonFilter(bound, essentialCF);
+    }
+    
+    private static boolean hasKeyValueColumn(Expression expression) {
+        final boolean[] hasKeyValueColumn = new boolean[1];
+        expression.accept(new KeyValueExpressionVisitor() {
+            @Override
+            public Void visit(KeyValueColumnExpression node) {
+                hasKeyValueColumn[0] = true;
+                return null;
+            }
+        });
+        return hasKeyValueColumn[0];
+    }
+}
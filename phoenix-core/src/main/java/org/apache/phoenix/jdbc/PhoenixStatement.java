@@ -117,6 +117,7 @@ import org.apache.phoenix.util.SQLCloseables;
 import org.apache.phoenix.util.ServerUtil;
 
 import com.google.common.base.Throwables;
+import com.google.common.cache.Cache;
 import com.google.common.collect.ListMultimap;
 import com.google.common.collect.Lists;
 
@@ -879,14 +880,33 @@ public class PhoenixStatement implements Statement, SQLCloseable, org.apache.pho
         return Collections.<Object>emptyList();
     }
     
+    /**
+     * Parse trees hold nothing but the statement text, and are only read when compiled, so that
+     * DML statements may be parsed once and shared. Other statements are rarely repeated.
+     */
+    private static boolean isCacheable(CompilableStatement statement) {
+        return statement instanceof ExecutableSelectStatement
+                || statement instanceof ExecutableUpsertStatement
+                || statement instanceof ExecutableDeleteStatement;
+    }
+    
     protected CompilableStatement parseStatement(String sql) throws SQLException {
+        // Only compilable statements are put in the cache
+        Cache<String, BindableStatement> cache = connection.getQueryServices().getParsedStatementCache();
+        CompilableStatement statement = cache == null ? null : (CompilableStatement)cache.getIfPresent(sql);
+        if (statement != null) {
+            return statement;
+        }
         PhoenixStatementParser parser = null;
         try {
             parser = new PhoenixStatementParser(sql, new ExecutableNodeFactory());
         } catch (IOException e) {
             throw ServerUtil.parseServerException(e);
         }
-        CompilableStatement statement = parser.parseStatement();
+        statement = parser.parseStatement();
+        if (cache != null && isCacheable(statement)) {
+            cache.put(sql, statement);
+        }
         return statement;
     }
     
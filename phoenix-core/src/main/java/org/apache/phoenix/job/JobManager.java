@@ -41,6 +41,7 @@ import com.google.common.util.concurrent.ThreadFactoryBuilder;
 public class JobManager<T> extends AbstractRoundRobinQueue<T> {
 	
     private static final AtomicLong PHOENIX_POOL_INDEX = new AtomicLong(1);
+    private static final ThreadLocal<Boolean> IS_JOB_THREAD = new ThreadLocal<Boolean>();
 	
     public JobManager(int maxSize) {
         super(maxSize, true); // true -> new producers move to front of queue; this reduces latency.
@@ -51,6 +52,16 @@ public class JobManager<T> extends AbstractRoundRobinQueue<T> {
         return ((JobFutureTask)o).getJobId();
     }        
 
+    /**
+     * @return true if the current thread is one of the threads of a pool created through
+     * {@link #createThreadPoolExec(int, int, int)}. Work submitted from such a thread to the
+     * same pool and then waited for may never run once the pool is busy, so it should be
+     * run inline instead.
+     */
+    public static boolean isJobThread() {
+        return IS_JOB_THREAD.get() != null;
+    }
+
     public static interface JobRunnable<T> extends Runnable {
         public Object getJobId();
     }
@@ -82,6 +93,11 @@ public class JobManager<T> extends AbstractRoundRobinQueue<T> {
                 return new JobFutureTask<T>(runnable, value);
             }
             
+            @Override
+            protected void beforeExecute(Thread t, Runnable r) {
+                IS_JOB_THREAD.set(Boolean.TRUE);
+            }
+            
         };
         
         exec.allowCoreThreadTimeOut(true); // ... and allow core threads to time out.  This just keeps things clean when idle, and is nice for ftests modes, etc., where we'd especially like these not to linger.
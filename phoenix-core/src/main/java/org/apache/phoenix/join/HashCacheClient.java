@@ -20,22 +20,29 @@ package org.apache.phoenix.join;
 import java.io.DataOutputStream;
 import java.io.IOException;
 import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.LinkedList;
 import java.util.List;
 
 import org.apache.hadoop.hbase.io.ImmutableBytesWritable;
 import org.apache.hadoop.hbase.util.Bytes;
 import org.apache.hadoop.io.WritableUtils;
 import org.apache.phoenix.cache.ServerCacheClient;
+import org.apache.phoenix.cache.ServerCacheClient.PendingServerCache;
 import org.apache.phoenix.cache.ServerCacheClient.ServerCache;
 import org.apache.phoenix.compile.ScanRanges;
+import org.apache.phoenix.coprocessor.ServerCachingProtocol.ServerCacheFactory;
 import org.apache.phoenix.expression.Expression;
 import org.apache.phoenix.expression.ExpressionType;
+import org.apache.phoenix.filter.JoinKeyBloomFilter;
 import org.apache.phoenix.iterate.ResultIterator;
 import org.apache.phoenix.jdbc.PhoenixConnection;
+import org.apache.phoenix.query.ConnectionQueryServices;
 import org.apache.phoenix.query.QueryServices;
 import org.apache.phoenix.query.QueryServicesOptions;
 import org.apache.phoenix.schema.TableRef;
 import org.apache.phoenix.schema.tuple.Tuple;
+import org.apache.phoenix.util.SQLCloseables;
 import org.apache.phoenix.util.ServerUtil;
 import org.apache.phoenix.util.TrustedByteArrayOutputStream;
 import org.apache.phoenix.util.TupleUtil;
@@ -70,64 +77,115 @@ public class HashCacheClient  {
      * size
      */
     public ServerCache addHashCache(ScanRanges keyRanges, ResultIterator iterator, TupleProjector projector, long estimatedSize, List<Expression> onExpressions, TableRef cacheUsingTableRef) throws SQLException {
-        /**
-         * Serialize and compress hashCacheTable
-         */
-        ImmutableBytesWritable ptr = new ImmutableBytesWritable();
-        serialize(ptr, iterator, projector, estimatedSize, onExpressions);
-        return serverCache.addServerCache(keyRanges, ptr, new HashCacheFactory(), cacheUsingTableRef);
+        return addHashCaches(keyRanges, iterator, projector, estimatedSize, onExpressions, cacheUsingTableRef, null, 0, false).get(0);
     }
     
-    private void serialize(ImmutableBytesWritable ptr, ResultIterator iterator, TupleProjector projector, long estimatedSize, List<Expression> onExpressions) throws SQLException {
-        long maxSize = serverCache.getConnection().getQueryServices().getProps().getLong(QueryServices.MAX_SERVER_CACHE_SIZE_ATTRIB, QueryServicesOptions.DEFAULT_MAX_SERVER_CACHE_SIZE);
-        estimatedSize = Math.min(estimatedSize, maxSize);
+    /**
+     * Same as {@link #addHashCache(ScanRanges, ResultIterator, TupleProjector, long, List, TableRef)}, except that
+     * the rows are sent in chunks of about chunkSize bytes. Each chunk starts being broadcast as soon as it is full,
+     * while the scan goes on filling the next one. Only once more than {@link QueryServices#HASH_CACHE_CHUNKS_IN_FLIGHT_ATTRIB}
+     * chunks are being sent does the scan wait for the oldest of them, which bounds the chunks held on the client.
+     * The chunks are not handed to executor tasks of their own, as the calling thread runs on the query executor
+     * already: waiting there on tasks queued behind busy executor threads could never return.
+     * @param keyFilterBuilder builder to which the join key of each cached row is added, or null if none
+     * @param chunkSize uncompressed size of the rows after which a chunk is sent, or 0 to send all rows at once
+     * @param reusable true if the caches are registered in {@link HashCacheRegistry} to be shared with later queries
+     * @return the caches holding the chunks, in the order of their rows
+     */
+    public List<ServerCache> addHashCaches(ScanRanges keyRanges, ResultIterator iterator, TupleProjector projector, long estimatedSize, List<Expression> onExpressions, TableRef cacheUsingTableRef, JoinKeyBloomFilter.Builder keyFilterBuilder, long chunkSize, boolean reusable) throws SQLException {
+        ServerCacheFactory cacheFactory = reusable ? new ReusableHashCacheFactory() : new HashCacheFactory();
+        ConnectionQueryServices services = serverCache.getConnection().getQueryServices();
+        long maxSize = services.getProps().getLong(QueryServices.MAX_SERVER_CACHE_SIZE_ATTRIB, QueryServicesOptions.DEFAULT_MAX_SERVER_CACHE_SIZE);
+        int maxChunksInFlight = services.getProps().getInt(QueryServices.HASH_CACHE_CHUNKS_IN_FLIGHT_ATTRIB, QueryServicesOptions.DEFAULT_HASH_CACHE_CHUNKS_IN_FLIGHT);
+        if (chunkSize <= 0) {
+            chunkSize = Long.MAX_VALUE;
+        }
+        estimatedSize = Math.min(estimatedSize, Math.min(maxSize, chunkSize));
         if (estimatedSize > Integer.MAX_VALUE) {
             throw new IllegalStateException("Estimated size(" + estimatedSize + ") must not be greater than Integer.MAX_VALUE(" + Integer.MAX_VALUE + ")");
         }
+        List<ServerCache> caches = new ArrayList<ServerCache>();
+        // Chunks being sent, oldest first
+        LinkedList<PendingServerCache> pendingCaches = new LinkedList<PendingServerCache>();
+        boolean success = false;
         try {
             TrustedByteArrayOutputStream baOut = new TrustedByteArrayOutputStream((int)estimatedSize);
             DataOutputStream out = new DataOutputStream(baOut);
-            // Write onExpressions first, for hash key evaluation along with deserialization
-            out.writeInt(onExpressions.size());
-            for (Expression expression : onExpressions) {
-                WritableUtils.writeVInt(out, ExpressionType.valueOf(expression).ordinal());
-                expression.write(out);                
-            }
-            int exprSize = baOut.size() + Bytes.SIZEOF_INT;
-            out.writeInt(exprSize);
+            int nRowsOffset = writeHeader(out, baOut, onExpressions);
             int nRows = 0;
-            out.writeInt(nRows); // In the end will be replaced with total number of rows            
+            long sentSize = 0;
             for (Tuple result = iterator.next(); result != null; result = iterator.next()) {
                 if (projector != null) {
                     result = projector.projectResults(result);
                 }
+                if (keyFilterBuilder != null) {
+                    // Same key as the one the region servers compute when building the cache
+                    keyFilterBuilder.add(TupleUtil.getConcatenatedValue(result, onExpressions));
+                }
                 TupleUtil.write(result, out);
-                if (baOut.size() > maxSize) {
-                    throw new MaxServerCacheSizeExceededException("Size of hash cache (" + baOut.size() + " bytes) exceeds the maximum allowed size (" + maxSize + " bytes)");
+                if (sentSize + baOut.size() > maxSize) {
+                    throw new MaxServerCacheSizeExceededException("Size of hash cache (" + (sentSize + baOut.size()) + " bytes) exceeds the maximum allowed size (" + maxSize + " bytes)");
                 }
                 nRows++;
+                if (baOut.size() >= chunkSize) {
+                    pendingCaches.add(serverCache.startServerCache(keyRanges, compress(baOut, nRowsOffset, nRows), cacheFactory, cacheUsingTableRef));
+                    while (pendingCaches.size() > maxChunksInFlight) {
+                        caches.add(pendingCaches.removeFirst().get());
+                    }
+                    sentSize += baOut.size();
+                    baOut = new TrustedByteArrayOutputStream((int)estimatedSize);
+                    out = new DataOutputStream(baOut);
+                    nRowsOffset = writeHeader(out, baOut, onExpressions);
+                    nRows = 0;
+                }
             }
-            TrustedByteArrayOutputStream sizeOut = new TrustedByteArrayOutputStream(Bytes.SIZEOF_INT);
-            DataOutputStream dataOut = new DataOutputStream(sizeOut);
-            try {
-                dataOut.writeInt(nRows);
-                dataOut.flush();
-                byte[] cache = baOut.getBuffer();
-                // Replace number of rows written above with the correct value.
-                System.arraycopy(sizeOut.getBuffer(), 0, cache, exprSize, sizeOut.size());
-                // Reallocate to actual size plus compressed buffer size (which is allocated below)
-                int maxCompressedSize = Snappy.maxCompressedLength(baOut.size());
-                byte[] compressed = new byte[maxCompressedSize]; // size for worst case
-                int compressedSize = Snappy.compress(baOut.getBuffer(), 0, baOut.size(), compressed, 0);
-                // Last realloc to size of compressed buffer.
-                ptr.set(compressed,0,compressedSize);
-            } finally {
-                dataOut.close();
+            // The last chunk is sent even if empty, so that there is always at least one cache
+            if (nRows > 0 || (caches.isEmpty() && pendingCaches.isEmpty())) {
+                pendingCaches.add(serverCache.startServerCache(keyRanges, compress(baOut, nRowsOffset, nRows), cacheFactory, cacheUsingTableRef));
             }
+            while (!pendingCaches.isEmpty()) {
+                caches.add(pendingCaches.removeFirst().get());
+            }
+            success = true;
+            return caches;
         } catch (IOException e) {
             throw ServerUtil.parseServerException(e);
         } finally {
-            iterator.close();
+            try {
+                iterator.close();
+            } finally {
+                if (!success) {
+                    // Remove the chunks already broadcast or being sent
+                    for (PendingServerCache pendingCache : pendingCaches) {
+                        pendingCache.cancel();
+                    }
+                    SQLCloseables.closeAllQuietly(caches);
+                }
+            }
+        }
+    }
+    
+    /**
+     * Write onExpressions first, for hash key evaluation along with deserialization
+     * @return the offset of the row count, filled in once the chunk is complete
+     */
+    static int writeHeader(DataOutputStream out, TrustedByteArrayOutputStream baOut, List<Expression> onExpressions) throws IOException {
+        out.writeInt(onExpressions.size());
+        for (Expression expression : onExpressions) {
+            WritableUtils.writeVInt(out, ExpressionType.valueOf(expression).ordinal());
+            expression.write(out);                
         }
+        int exprSize = baOut.size() + Bytes.SIZEOF_INT;
+        out.writeInt(exprSize);
+        out.writeInt(0); // In the end will be replaced with total number of rows
+        return exprSize;
+    }
+    
+    static ImmutableBytesWritable compress(TrustedByteArrayOutputStream baOut, int nRowsOffset, int nRows) throws IOException {
+        Bytes.putInt(baOut.getBuffer(), nRowsOffset, nRows);
+        int maxCompressedSize = Snappy.maxCompressedLength(baOut.size());
+        byte[] compressed = new byte[maxCompressedSize]; // size for worst case
+        int compressedSize = Snappy.compress(baOut.getBuffer(), 0, baOut.size(), compressed, 0);
+        return new ImmutableBytesWritable(compressed, 0, compressedSize);
     }
 }
@@ -21,8 +21,6 @@ import java.io.*;
 import java.sql.SQLException;
 import java.util.*;
 
-import net.jcip.annotations.Immutable;
-
 import org.apache.hadoop.hbase.io.ImmutableBytesWritable;
 import org.apache.hadoop.hbase.util.Bytes;
 import org.apache.hadoop.io.WritableUtils;
@@ -34,11 +32,14 @@ import org.apache.phoenix.expression.Expression;
 import org.apache.phoenix.expression.ExpressionType;
 import org.apache.phoenix.hbase.index.util.ImmutableBytesPtr;
 import org.apache.phoenix.memory.MemoryManager.MemoryChunk;
-import org.apache.phoenix.schema.tuple.ResultTuple;
+import org.apache.phoenix.schema.tuple.SerializedResultTuple;
 import org.apache.phoenix.schema.tuple.Tuple;
 import org.apache.phoenix.util.*;
 
+import com.google.common.collect.UnmodifiableIterator;
+
 public class HashCacheFactory implements ServerCacheFactory {
+    private static final int NO_ROW = -1;
 
     public HashCacheFactory() {
     }
@@ -51,6 +52,15 @@ public class HashCacheFactory implements ServerCacheFactory {
     public void write(DataOutput output) throws IOException {
     }
 
+    @Override
+    public long getEstimatedSize(ImmutableBytesWritable cachePtr) throws SQLException {
+        try {
+            return Snappy.uncompressedLength(cachePtr.get(), cachePtr.getOffset(), cachePtr.getLength());
+        } catch (IOException e) {
+            throw ServerUtil.parseServerException(e);
+        }
+    }
+
     @Override
     public Closeable newCache(ImmutableBytesWritable cachePtr, MemoryChunk chunk) throws SQLException {
         try {
@@ -62,18 +72,67 @@ public class HashCacheFactory implements ServerCacheFactory {
             throw ServerUtil.parseServerException(e);
         }
     }
+    
+    /**
+     * Gets a single hash table over the chunks of one that was sent in several pieces, so that each key is looked
+     * up once rather than in every chunk. The index over the keys of all the chunks is built by the first scanner
+     * asking for it and then kept with the first chunk, which is charged for it. The chunks themselves are owned
+     * by the tenant cache, which closes them.
+     * @param chunks the chunks, in the order their rows were sent
+     */
+    public static HashCache getChunkedCache(HashCache[] chunks) {
+        HashCacheImpl[] chunkImpls = new HashCacheImpl[chunks.length];
+        for (int i = 0; i < chunks.length; i++) {
+            chunkImpls[i] = (HashCacheImpl)chunks[i];
+        }
+        return chunkImpls[0].getChunkedCache(chunkImpls);
+    }
+    
+    // Spread the bits as the hash of short keys tends to vary in its low bits only
+    private static int mix(int hash) {
+        hash ^= (hash >>> 16);
+        hash *= 0x85ebca6b;
+        return hash ^ (hash >>> 13);
+    }
 
-    @Immutable
+    /**
+     * Hash cache kept in a handful of arrays rather than a map of lists of tuples. The rows stay
+     * serialized in the uncompressed cache buffer, which is all that is held of them: their join keys
+     * are evaluated in place while the table is built and probes get tuples reading them in place too.
+     * The distinct join keys are copied into a single key buffer and found through an open addressing
+     * table, while rows with the same key are chained by index.
+     */
     private class HashCacheImpl implements HashCache {
-        private final Map<ImmutableBytesPtr,List<Tuple>> hashCache;
+        // Size of the per row int arrays, and of the per key int arrays along with the hash table slots
+        private static final int ROW_SIZE = 3 * SizedUtil.INT_SIZE;
+        private static final int KEY_SIZE = 5 * SizedUtil.INT_SIZE + 2 * SizedUtil.INT_SIZE;
+        
         private final MemoryChunk memoryChunk;
+        private final byte[] hashCacheBytes;
+        // Per row: location in hashCacheBytes and the index of the next row with the same key
+        private final int[] rowOffsets;
+        private final int[] rowLengths;
+        private final int[] nextRows;
+        // Per distinct key: location in keyBytes, hash, first row and row count
+        private final byte[] keyBytes;
+        private final int[] keyOffsets;
+        private final int[] keyLengths;
+        private final int[] keyHashes;
+        private final int[] firstRows;
+        private final int[] rowCounts;
+        // Open addressing table holding key index + 1, with 0 for an empty slot
+        private final int[] slots;
+        private final int slotMask;
+        private final long size;
+        // Index over the chunks of the hash table this is the first chunk of, if it was sent in several
+        private ChunkedHashCache chunkedCache;
         
         private HashCacheImpl(byte[] hashCacheBytes, MemoryChunk memoryChunk) {
             try {
                 this.memoryChunk = memoryChunk;
-                byte[] hashCacheByteArray = hashCacheBytes;
+                this.hashCacheBytes = hashCacheBytes;
                 int offset = 0;
-                ByteArrayInputStream input = new ByteArrayInputStream(hashCacheByteArray, offset, hashCacheBytes.length);
+                ByteArrayInputStream input = new ByteArrayInputStream(hashCacheBytes, offset, hashCacheBytes.length);
                 DataInputStream dataInput = new DataInputStream(input);
                 int nExprs = dataInput.readInt();
                 List<Expression> onExpressions = new ArrayList<Expression>(nExprs);
@@ -86,30 +145,101 @@ public class HashCacheFactory implements ServerCacheFactory {
                 int exprSize = dataInput.readInt();
                 offset += exprSize;
                 int nRows = dataInput.readInt();
-                long estimatedSize = SizedUtil.sizeOfMap(nRows, SizedUtil.IMMUTABLE_BYTES_WRITABLE_SIZE, SizedUtil.RESULT_SIZE) + hashCacheBytes.length;
+                int nSlots = Integer.highestOneBit(Math.max(1, nRows * 4 / 3)) << 1;
+                long estimatedSize = hashCacheBytes.length + (long)nRows * (ROW_SIZE + KEY_SIZE) + 10 * SizedUtil.ARRAY_SIZE;
                 this.memoryChunk.resize(estimatedSize);
-                HashMap<ImmutableBytesPtr,List<Tuple>> hashCacheMap = new HashMap<ImmutableBytesPtr,List<Tuple>>(nRows * 5 / 4);
+                this.rowOffsets = new int[nRows];
+                this.rowLengths = new int[nRows];
+                this.nextRows = new int[nRows];
+                int[] keyOffsets = new int[nRows];
+                int[] keyLengths = new int[nRows];
+                int[] keyHashes = new int[nRows];
+                int[] firstRows = new int[nRows];
+                int[] lastRows = new int[nRows];
+                int[] rowCounts = new int[nRows];
+                this.slots = new int[nSlots];
+                this.slotMask = nSlots - 1;
+                TrustedByteArrayOutputStream keyOut = new TrustedByteArrayOutputStream(nRows * Bytes.SIZEOF_LONG);
+                // Repositioned over each row in turn to evaluate its key
+                SerializedResultTuple result = new SerializedResultTuple();
+                int nKeys = 0;
                 offset += Bytes.SIZEOF_INT;
-                // Build Map with evaluated hash key as key and row as value
+                // Build table with evaluated hash key as key and chain of rows as value
                 for (int i = 0; i < nRows; i++) {
-                    int resultSize = (int)Bytes.readVLong(hashCacheByteArray, offset);
-                    offset += WritableUtils.decodeVIntSize(hashCacheByteArray[offset]);
-                    ImmutableBytesWritable value = new ImmutableBytesWritable(hashCacheByteArray,offset,resultSize);
-                    Tuple result = new ResultTuple(ResultUtil.toResult(value));
+                    int resultSize = (int)Bytes.readVLong(hashCacheBytes, offset);
+                    offset += WritableUtils.decodeVIntSize(hashCacheBytes[offset]);
+                    rowOffsets[i] = offset;
+                    rowLengths[i] = resultSize;
+                    nextRows[i] = NO_ROW;
+                    result.setBytes(hashCacheBytes, offset, resultSize);
                     ImmutableBytesPtr key = TupleUtil.getConcatenatedValue(result, onExpressions);
-                    List<Tuple> tuples = hashCacheMap.get(key);
-                    if (tuples == null) {
-                        tuples = new LinkedList<Tuple>();
-                        hashCacheMap.put(key, tuples);
+                    int hash = key.hashCode();
+                    int slot = findSlot(keyOut.getBuffer(), keyOffsets, keyLengths, keyHashes, key, hash);
+                    if (slots[slot] == 0) {
+                        keyOffsets[nKeys] = keyOut.size();
+                        keyLengths[nKeys] = key.getLength();
+                        keyHashes[nKeys] = hash;
+                        keyOut.write(key.get(), key.getOffset(), key.getLength());
+                        firstRows[nKeys] = i;
+                        lastRows[nKeys] = i;
+                        rowCounts[nKeys] = 1;
+                        slots[slot] = ++nKeys;
+                    } else {
+                        // Append to the chain so that rows come back in the order they were cached
+                        int keyIndex = slots[slot] - 1;
+                        nextRows[lastRows[keyIndex]] = i;
+                        lastRows[keyIndex] = i;
+                        rowCounts[keyIndex]++;
                     }
-                    tuples.add(result);
                     offset += resultSize;
                 }
-                this.hashCache = Collections.unmodifiableMap(hashCacheMap);
+                this.keyBytes = Arrays.copyOf(keyOut.getBuffer(), keyOut.size());
+                this.keyOffsets = Arrays.copyOf(keyOffsets, nKeys);
+                this.keyLengths = Arrays.copyOf(keyLengths, nKeys);
+                this.keyHashes = Arrays.copyOf(keyHashes, nKeys);
+                this.firstRows = Arrays.copyOf(firstRows, nKeys);
+                this.rowCounts = Arrays.copyOf(rowCounts, nKeys);
+                this.size = hashCacheBytes.length + keyBytes.length + (long)nRows * ROW_SIZE
+                        + (long)nKeys * 5 * SizedUtil.INT_SIZE + (long)nSlots * SizedUtil.INT_SIZE + 9 * SizedUtil.ARRAY_SIZE;
+                this.memoryChunk.resize(size);
             } catch (IOException e) { // Not possible with ByteArrayInputStream
                 throw new RuntimeException(e);
             }
         }
+        
+        /**
+         * Linear probe for the key, stopping at either the slot holding it or the first empty slot.
+         */
+        private int findSlot(byte[] keyBytes, int[] keyOffsets, int[] keyLengths, int[] keyHashes, ImmutableBytesPtr key, int hash) {
+            int slot = mix(hash) & slotMask;
+            while (true) {
+                int keyIndex = slots[slot] - 1;
+                if (keyIndex < 0) {
+                    return slot;
+                }
+                if (keyHashes[keyIndex] == hash 
+                        && Bytes.equals(keyBytes, keyOffsets[keyIndex], keyLengths[keyIndex], key.get(), key.getOffset(), key.getLength())) {
+                    return slot;
+                }
+                slot = (slot + 1) & slotMask;
+            }
+        }
+        
+        private Tuple newTuple(int row) {
+            return new SerializedResultTuple(hashCacheBytes, rowOffsets[row], rowLengths[row]);
+        }
+
+        /**
+         * Gets the index over the chunks of the hash table starting with this chunk, building it the first time.
+         */
+        private synchronized ChunkedHashCache getChunkedCache(HashCacheImpl[] chunks) {
+            if (chunkedCache == null || !Arrays.equals(chunkedCache.chunks, chunks)) {
+                ChunkedHashCache chunkedCache = new ChunkedHashCache(chunks);
+                memoryChunk.resize(size + chunkedCache.size);
+                this.chunkedCache = chunkedCache;
+            }
+            return chunkedCache;
+        }
 
         @Override
         public void close() {
@@ -117,9 +247,224 @@ public class HashCacheFactory implements ServerCacheFactory {
         }
         
         @Override
-        public List<Tuple> get(ImmutableBytesPtr hashKey) {
-            return hashCache.get(hashKey);
+        public Lookup newLookup() {
+            return new RowList();
+        }
+        
+        /**
+         * Read-only view over the chain of rows of the key last looked up, handing out a new tuple over
+         * the serialized row each time a row is visited.
+         */
+        private class RowList extends AbstractList<Tuple> implements Lookup {
+            private int keyIndex;
+            
+            @Override
+            public List<Tuple> get(ImmutableBytesPtr hashKey) {
+                keyIndex = slots[findSlot(keyBytes, keyOffsets, keyLengths, keyHashes, hashKey, hashKey.hashCode())] - 1;
+                return keyIndex < 0 ? null : this;
+            }
+            
+            @Override
+            public int size() {
+                return rowCounts[keyIndex];
+            }
+
+            @Override
+            public Tuple get(int index) {
+                if (index < 0 || index >= size()) {
+                    throw new IndexOutOfBoundsException(Integer.toString(index));
+                }
+                int row = firstRows[keyIndex];
+                while (index-- > 0) {
+                    row = nextRows[row];
+                }
+                return newTuple(row);
+            }
+
+            @Override
+            public Iterator<Tuple> iterator() {
+                return new UnmodifiableIterator<Tuple>() {
+                    private int row = firstRows[keyIndex];
+                    
+                    @Override
+                    public boolean hasNext() {
+                        return row != NO_ROW;
+                    }
+
+                    @Override
+                    public Tuple next() {
+                        if (row == NO_ROW) {
+                            throw new NoSuchElementException();
+                        }
+                        Tuple tuple = newTuple(row);
+                        row = nextRows[row];
+                        return tuple;
+                    }
+                };
+            }
         }
     }
-}
+    
+    /**
+     * Open addressing table over the distinct keys of the chunks of a hash table. The rows of a key in a chunk
+     * make up a segment, and the segments of a key are chained in chunk order.
+     */
+    private static class ChunkedHashCache implements HashCache {
+        private static final int NO_SEGMENT = -1;
+        
+        private final HashCacheImpl[] chunks;
+        // Per distinct key: chunk and index in that chunk of its first segment, hash, first segment and row count
+        private final int[] keyChunks;
+        private final int[] chunkKeys;
+        private final int[] keyHashes;
+        private final int[] firstSegments;
+        private final int[] rowCounts;
+        // Per segment: chunk, index of the key in that chunk and the next segment of the same key
+        private final int[] segmentChunks;
+        private final int[] segmentKeys;
+        private final int[] nextSegments;
+        // Open addressing table holding key index + 1, with 0 for an empty slot
+        private final int[] slots;
+        private final int slotMask;
+        private final long size;
+        
+        private ChunkedHashCache(HashCacheImpl[] chunks) {
+            this.chunks = chunks;
+            int nSegments = 0;
+            for (HashCacheImpl chunk : chunks) {
+                nSegments += chunk.keyHashes.length;
+            }
+            int nSlots = Integer.highestOneBit(Math.max(1, nSegments * 4 / 3)) << 1;
+            // Sized for as many keys as segments, which is the case unless rows of a key are in several chunks
+            this.keyChunks = new int[nSegments];
+            this.chunkKeys = new int[nSegments];
+            this.keyHashes = new int[nSegments];
+            this.firstSegments = new int[nSegments];
+            this.rowCounts = new int[nSegments];
+            this.segmentChunks = new int[nSegments];
+            this.segmentKeys = new int[nSegments];
+            this.nextSegments = new int[nSegments];
+            this.slots = new int[nSlots];
+            this.slotMask = nSlots - 1;
+            int[] lastSegments = new int[nSegments];
+            int nKeys = 0;
+            int segment = 0;
+            for (int i = 0; i < chunks.length; i++) {
+                HashCacheImpl chunk = chunks[i];
+                for (int j = 0; j < chunk.keyHashes.length; j++, segment++) {
+                    segmentChunks[segment] = i;
+                    segmentKeys[segment] = j;
+                    nextSegments[segment] = NO_SEGMENT;
+                    int slot = findSlot(chunk.keyBytes, chunk.keyOffsets[j], chunk.keyLengths[j], chunk.keyHashes[j]);
+                    if (slots[slot] == 0) {
+                        keyChunks[nKeys] = i;
+                        chunkKeys[nKeys] = j;
+                        keyHashes[nKeys] = chunk.keyHashes[j];
+                        firstSegments[nKeys] = segment;
+                        lastSegments[nKeys] = segment;
+                        rowCounts[nKeys] = chunk.rowCounts[j];
+                        slots[slot] = ++nKeys;
+                    } else {
+                        int keyIndex = slots[slot] - 1;
+                        nextSegments[lastSegments[keyIndex]] = segment;
+                        lastSegments[keyIndex] = segment;
+                        rowCounts[keyIndex] += chunk.rowCounts[j];
+                    }
+                }
+            }
+            this.size = (long)nSegments * 8 * SizedUtil.INT_SIZE + (long)nSlots * SizedUtil.INT_SIZE + 9 * SizedUtil.ARRAY_SIZE;
+        }
+        
+        /**
+         * Linear probe for the key, stopping at either the slot holding it or the first empty slot.
+         */
+        private int findSlot(byte[] key, int offset, int length, int hash) {
+            int slot = mix(hash) & slotMask;
+            while (true) {
+                int keyIndex = slots[slot] - 1;
+                if (keyIndex < 0) {
+                    return slot;
+                }
+                if (keyHashes[keyIndex] == hash) {
+                    HashCacheImpl chunk = chunks[keyChunks[keyIndex]];
+                    int chunkKey = chunkKeys[keyIndex];
+                    if (Bytes.equals(chunk.keyBytes, chunk.keyOffsets[chunkKey], chunk.keyLengths[chunkKey], key, offset, length)) {
+                        return slot;
+                    }
+                }
+                slot = (slot + 1) & slotMask;
+            }
+        }
+        
+        private int firstRow(int segment) {
+            return segment == NO_SEGMENT ? NO_ROW : chunks[segmentChunks[segment]].firstRows[segmentKeys[segment]];
+        }
+
+        @Override
+        public void close() {
+        }
+        
+        @Override
+        public Lookup newLookup() {
+            return new RowList();
+        }
+        
+        /**
+         * Read-only view over the segments of the key last looked up, chunk after chunk.
+         */
+        private class RowList extends AbstractList<Tuple> implements Lookup {
+            private int keyIndex;
+            
+            @Override
+            public List<Tuple> get(ImmutableBytesPtr hashKey) {
+                keyIndex = slots[findSlot(hashKey.get(), hashKey.getOffset(), hashKey.getLength(), hashKey.hashCode())] - 1;
+                return keyIndex < 0 ? null : this;
+            }
+            
+            @Override
+            public int size() {
+                return rowCounts[keyIndex];
+            }
+
+            @Override
+            public Tuple get(int index) {
+                if (index < 0 || index >= size()) {
+                    throw new IndexOutOfBoundsException(Integer.toString(index));
+                }
+                Iterator<Tuple> iterator = iterator();
+                while (index-- > 0) {
+                    iterator.next();
+                }
+                return iterator.next();
+            }
 
+            @Override
+            public Iterator<Tuple> iterator() {
+                return new UnmodifiableIterator<Tuple>() {
+                    private int segment = firstSegments[keyIndex];
+                    private int row = firstRow(segment);
+                    
+                    @Override
+                    public boolean hasNext() {
+                        return row != NO_ROW;
+                    }
+
+                    @Override
+                    public Tuple next() {
+                        if (row == NO_ROW) {
+                            throw new NoSuchElementException();
+                        }
+                        HashCacheImpl chunk = chunks[segmentChunks[segment]];
+                        Tuple tuple = chunk.newTuple(row);
+                        row = chunk.nextRows[row];
+                        if (row == NO_ROW) {
+                            segment = nextSegments[segment];
+                            row = firstRow(segment);
+                        }
+                        return tuple;
+                    }
+                };
+            }
+        }
+    }
+}
@@ -0,0 +1,133 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.phoenix.join;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.phoenix.filter.JoinKeyBloomFilter;
+import org.apache.phoenix.query.ConnectionQueryServices;
+import org.apache.phoenix.query.QueryServices;
+import org.apache.phoenix.query.QueryServicesOptions;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
+/**
+ * 
+ * Client side registry of the hash caches broadcast with a {@link ReusableHashCacheFactory}, so that
+ * queries with the same build side join against the caches already on the region servers instead of
+ * building and broadcasting them again. Caches are registered under a key that identifies the build
+ * side plan along with the timestamps of the tables it reads, and are reused for at most
+ * {@link QueryServices#HASH_CACHE_REUSE_TIME_TO_LIVE_MS_ATTRIB} milliseconds. Changes made to the rows
+ * of the build side tables in that time are not seen by the joins.
+ * 
+ * Reused caches are not removed from the region servers once a query completes. They age out there
+ * like any other cache once no query has used them for {@link QueryServices#MAX_SERVER_CACHE_TIME_TO_LIVE_MS_ATTRIB}
+ * milliseconds, which is why a registered cache left unused for half that time is built again.
+ *
+ */
+public class HashCacheRegistry {
+    private static final Cache<ConnectionQueryServices, HashCacheRegistry> REGISTRIES = CacheBuilder.newBuilder().weakKeys().build();
+    
+    private final Cache<String, Entry> entries;
+    private final long maxIdleTimeMs;
+    
+    private HashCacheRegistry(long timeToLiveMs, long maxIdleTimeMs) {
+        this.entries = CacheBuilder.newBuilder()
+                .expireAfterWrite(timeToLiveMs, TimeUnit.MILLISECONDS)
+                .build();
+        this.maxIdleTimeMs = maxIdleTimeMs;
+    }
+    
+    /**
+     * @return the registry of the hash caches of the given services, or null if hash caches are not reused
+     */
+    public static HashCacheRegistry getInstance(final ConnectionQueryServices services) {
+        final int timeToLiveMs = services.getProps().getInt(QueryServices.HASH_CACHE_REUSE_TIME_TO_LIVE_MS_ATTRIB, QueryServicesOptions.DEFAULT_HASH_CACHE_REUSE_TIME_TO_LIVE_MS);
+        if (timeToLiveMs <= 0) {
+            return null;
+        }
+        try {
+            return REGISTRIES.get(services, new Callable<HashCacheRegistry>() {
+                @Override
+                public HashCacheRegistry call() throws Exception {
+                    int maxServerCacheTimeToLive = services.getProps().getInt(QueryServices.MAX_SERVER_CACHE_TIME_TO_LIVE_MS_ATTRIB, QueryServicesOptions.DEFAULT_MAX_SERVER_CACHE_TIME_TO_LIVE_MS);
+                    return new HashCacheRegistry(timeToLiveMs, maxServerCacheTimeToLive / 2);
+                }
+            });
+        } catch (ExecutionException e) {
+            throw new IllegalStateException(e.getCause());
+        }
+    }
+    
+    /**
+     * @return the registered caches, or null if there are none that may still be used
+     */
+    public Entry get(String key) {
+        Entry entry = entries.getIfPresent(key);
+        if (entry == null) {
+            return null;
+        }
+        long now = System.currentTimeMillis();
+        if (now - entry.lastAccessTime >= maxIdleTimeMs) {
+            entries.invalidate(key);
+            return null;
+        }
+        entry.lastAccessTime = now;
+        return entry;
+    }
+    
+    /**
+     * Registers the caches just broadcast
+     * @param joinId the ids of the caches holding the chunks of the hash table, as sent to the region servers
+     * @param keyFilterBuilder the builder holding the join keys of all the cached rows
+     */
+    public void put(String key, byte[] joinId, JoinKeyBloomFilter.Builder keyFilterBuilder) {
+        entries.put(key, new Entry(joinId, keyFilterBuilder, System.currentTimeMillis()));
+    }
+    
+    /**
+     * Stops reusing the caches registered under the key, for example when a query using them failed
+     * because a region server had evicted them.
+     */
+    public void invalidate(String key) {
+        entries.invalidate(key);
+    }
+    
+    public static class Entry {
+        private final byte[] joinId;
+        private final JoinKeyBloomFilter.Builder keyFilterBuilder;
+        private volatile long lastAccessTime;
+        
+        private Entry(byte[] joinId, JoinKeyBloomFilter.Builder keyFilterBuilder, long lastAccessTime) {
+            this.joinId = joinId;
+            this.keyFilterBuilder = keyFilterBuilder;
+            this.lastAccessTime = lastAccessTime;
+        }
+        
+        public byte[] getJoinId() {
+            return joinId;
+        }
+        
+        public JoinKeyBloomFilter.Builder getKeyFilterBuilder() {
+            return keyFilterBuilder;
+        }
+    }
+}
@@ -22,6 +22,7 @@ import java.io.ByteArrayOutputStream;
 import java.io.DataInputStream;
 import java.io.DataOutputStream;
 import java.io.IOException;
+import java.util.Arrays;
 import java.util.List;
 
 import org.apache.hadoop.hbase.Cell;
@@ -103,6 +104,10 @@ public class TupleProjector {
         
     }
     
+    public static boolean hasProjector(Scan scan) {
+        return scan.getAttribute(SCAN_PROJECTOR) != null;
+    }
+    
     public static TupleProjector deserializeProjectorFromScan(Scan scan) {
         byte[] proj = scan.getAttribute(SCAN_PROJECTOR);
         if (proj == null) {
@@ -208,12 +213,43 @@ public class TupleProjector {
         return new ProjectedValueTuple(base.getRowArray(), base.getRowOffset(), base.getRowLength(), base.getTimestamp(), bytesValue, valueSet.getEstimatedLength());
     }
     
+    /**
+     * Wraps a row that was projected on the server, so that other projected values can be merged into it.
+     * @param bitSet the value bit set of the schema the row was projected with
+     */
+    public static ProjectedValueTuple toProjectedValueTuple(Tuple tuple, ValueBitSet bitSet) throws IOException {
+        ImmutableBytesWritable value = new ImmutableBytesWritable();
+        decodeProjectedValue(tuple, value);
+        bitSet.clear();
+        bitSet.or(value);
+        Cell base = tuple.getValue(0);
+        return new ProjectedValueTuple(base.getRowArray(), base.getRowOffset(), base.getRowLength(), base.getTimestamp(), value.copyBytes(), bitSet.getEstimatedLength());
+    }
+
+    /**
+     * Creates a projected row with all its values null, as needed for the missing side of an outer join.
+     * @param keyTuple the row providing the key and timestamp
+     * @param bitSet the value bit set of the schema of the missing side
+     */
+    public static ProjectedValueTuple newNullProjectedValueTuple(Tuple keyTuple, ValueBitSet bitSet) {
+        bitSet.clear();
+        byte[] value = new byte[bitSet.getEstimatedLength()];
+        bitSet.toBytes(value, 0);
+        Cell base = keyTuple.getValue(0);
+        return new ProjectedValueTuple(base.getRowArray(), base.getRowOffset(), base.getRowLength(), base.getTimestamp(), value, value.length);
+    }
+
     public static void decodeProjectedValue(Tuple tuple, ImmutableBytesWritable ptr) throws IOException {
     	boolean b = tuple.getValue(VALUE_COLUMN_FAMILY, VALUE_COLUMN_QUALIFIER, ptr);
         if (!b)
             throw new IOException("Trying to decode a non-projected value.");
     }
     
+    @Override
+    public String toString() {
+        return "TupleProjector" + Arrays.asList(expressions);
+    }
+    
     public static ProjectedValueTuple mergeProjectedValue(ProjectedValueTuple dest, KeyValueSchema destSchema, ValueBitSet destBitSet,
     		Tuple src, KeyValueSchema srcSchema, ValueBitSet srcBitSet, int offset) throws IOException {
     	ImmutableBytesWritable destValue = new ImmutableBytesWritable(dest.getProjectedValue());
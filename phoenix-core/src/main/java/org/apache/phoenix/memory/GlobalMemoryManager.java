@@ -17,6 +17,13 @@
  */
 package org.apache.phoenix.memory;
 
+import java.util.LinkedList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
 import org.apache.http.annotation.GuardedBy;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -25,6 +32,13 @@ import org.slf4j.LoggerFactory;
 /**
  * 
  * Global memory manager to track course grained memory usage across all requests.
+ * <p>
+ * Memory is reserved by compare-and-set on the number of used bytes, without any lock
+ * as long as nobody is waiting. Requests that cannot be satisfied right away join a
+ * queue, and only the request at its head retries when memory is freed: the requests
+ * behind it wait until it is served or times out. While requests are waiting, new
+ * requests queue behind them instead of taking the memory being freed, so that one big
+ * request is not starved by a stream of smaller ones.
  *
  * 
  * @since 0.1
@@ -32,11 +46,15 @@ import org.slf4j.LoggerFactory;
 public class GlobalMemoryManager implements MemoryManager {
     private static final Logger logger = LoggerFactory.getLogger(GlobalMemoryManager.class);
     
-    private final Object sync = new Object();
     private final long maxMemoryBytes;
     private final int maxWaitMs;
-    @GuardedBy("sync")
-    private volatile long usedMemoryBytes;
+    private final AtomicLong usedMemoryBytes = new AtomicLong();
+    private final AtomicInteger waitingCount = new AtomicInteger();
+    private final ReentrantLock waitLock = new ReentrantLock();
+    // Signalled whenever memory is freed or the head of the queue changes
+    private final Condition memoryFreed = waitLock.newCondition();
+    @GuardedBy("waitLock")
+    private final LinkedList<Thread> waiters = new LinkedList<Thread>();
     
     public GlobalMemoryManager(long maxBytes, int maxWaitMs) {
         if (maxBytes <= 0) {
@@ -47,14 +65,11 @@ public class GlobalMemoryManager implements MemoryManager {
         }
         this.maxMemoryBytes = maxBytes;
         this.maxWaitMs = maxWaitMs;
-        this.usedMemoryBytes = 0;
     }
     
     @Override
     public long getAvailableMemory() {
-        synchronized(sync) {
-            return maxMemoryBytes - usedMemoryBytes;
-        }
+        return maxMemoryBytes - usedMemoryBytes.get();
     }
 
     @Override
@@ -62,8 +77,31 @@ public class GlobalMemoryManager implements MemoryManager {
         return maxMemoryBytes;
     }
 
+    /**
+     * @return the number of requests waiting for memory
+     */
+    int getWaitingCount() {
+        return waitingCount.get();
+    }
+
+    /**
+     * Reserves at most reqBytes, but at least minBytes, if available.
+     * @return the number of bytes reserved, or -1 if minBytes are not available
+     */
+    private long tryAllocateBytes(long minBytes, long reqBytes) {
+        while (true) {
+            long usedBytes = usedMemoryBytes.get();
+            long availBytes = maxMemoryBytes - usedBytes;
+            if (availBytes < minBytes) {
+                return -1;
+            }
+            long nBytes = Math.min(reqBytes, availBytes);
+            if (usedMemoryBytes.compareAndSet(usedBytes, usedBytes + nBytes)) {
+                return nBytes;
+            }
+        }
+    }
 
-    // TODO: Work on fairness: One big memory request can cause all others to block here.
     private long allocateBytes(long minBytes, long reqBytes) {
         if (minBytes < 0 || reqBytes < 0) {
             throw new IllegalStateException("Minimum requested bytes (" + minBytes + ") and requested bytes (" + reqBytes + ") must be greater than zero");
@@ -71,28 +109,64 @@ public class GlobalMemoryManager implements MemoryManager {
         if (minBytes > maxMemoryBytes) { // No need to wait, since we'll never have this much available
             throw new InsufficientMemoryException("Requested memory of " + minBytes + " bytes is larger than global pool of " + maxMemoryBytes + " bytes.");
         }
-        long startTimeMs = System.currentTimeMillis(); // Get time outside of sync block to account for waiting for lock
-        long nBytes;
-        synchronized(sync) {
-            while (usedMemoryBytes + minBytes > maxMemoryBytes) { // Only wait if minBytes not available
-                try {
+        // Don't take memory ahead of the requests already waiting for it
+        if (waitingCount.get() == 0) {
+            long nBytes = tryAllocateBytes(minBytes, reqBytes);
+            if (nBytes >= 0) {
+                return nBytes;
+            }
+        }
+        long startTimeMs = System.currentTimeMillis();
+        Thread waiter = Thread.currentThread();
+        waitLock.lock();
+        try {
+            waiters.addLast(waiter);
+            waitingCount.incrementAndGet();
+            try {
+                while (true) {
+                    if (waiters.getFirst() == waiter) {
+                        long nBytes = tryAllocateBytes(minBytes, reqBytes);
+                        if (nBytes >= 0) {
+                            return nBytes;
+                        }
+                    }
                     long remainingWaitTimeMs = maxWaitMs - (System.currentTimeMillis() - startTimeMs);
                     if (remainingWaitTimeMs <= 0) { // Ran out of time waiting for some memory to get freed up
-                        throw new InsufficientMemoryException("Requested memory of " + minBytes + " bytes could not be allocated from remaining memory of " + usedMemoryBytes + " bytes from global pool of " + maxMemoryBytes + " bytes after waiting for " + maxWaitMs + "ms.");
+                        throw newInsufficientMemoryException(minBytes);
                     }
-                    sync.wait(remainingWaitTimeMs);
-                } catch (InterruptedException ie) {
-                    throw new RuntimeException("Interrupted allocation of " + minBytes + " bytes", ie);
+                    memoryFreed.await(remainingWaitTimeMs, TimeUnit.MILLISECONDS);
+                }
+            } finally {
+                boolean wasFirst = waiters.getFirst() == waiter;
+                waiters.remove(waiter);
+                waitingCount.decrementAndGet();
+                if (wasFirst) { // Let the next request in line try
+                    memoryFreed.signalAll();
                 }
             }
-            // Allocate at most reqBytes, but at least minBytes
-            nBytes = Math.min(reqBytes, maxMemoryBytes - usedMemoryBytes);
-            if (nBytes < minBytes) {
-                throw new IllegalStateException("Allocated bytes (" + nBytes + ") should be at least the minimum requested bytes (" + minBytes + ")");
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted allocation of " + minBytes + " bytes", ie);
+        } finally {
+            waitLock.unlock();
+        }
+    }
+    
+    private InsufficientMemoryException newInsufficientMemoryException(long minBytes) {
+        return new InsufficientMemoryException("Requested memory of " + minBytes + " bytes could not be allocated from remaining memory of " + getAvailableMemory() + " bytes from global pool of " + maxMemoryBytes + " bytes after waiting for " + maxWaitMs + "ms.");
+    }
+    
+    private void freeBytes(long nBytes) {
+        usedMemoryBytes.addAndGet(-nBytes);
+        // Only take the lock when a request may be waiting for the memory just freed
+        if (waitingCount.get() > 0) {
+            waitLock.lock();
+            try {
+                memoryFreed.signalAll();
+            } finally {
+                waitLock.unlock();
             }
-            usedMemoryBytes += nBytes;
         }
-        return nBytes;
     }
 
     @Override
@@ -122,26 +196,21 @@ public class GlobalMemoryManager implements MemoryManager {
 
         @Override
         public long getSize() {
-            synchronized(sync) {
-                return size; // TODO: does this need to be synchronized?
-            }
+            return size;
         }
         
         @Override
-        public void resize(long nBytes) {
+        public synchronized void resize(long nBytes) {
             if (nBytes < 0) {
                 throw new IllegalStateException("Number of bytes to resize to must be greater than zero, but instead is " + nBytes);
             }
-            synchronized(sync) {
-                long nAdditionalBytes = (nBytes - size);
-                if (nAdditionalBytes < 0) {
-                    usedMemoryBytes += nAdditionalBytes;
-                    size = nBytes;
-                    sync.notifyAll();
-                } else {
-                    allocateBytes(nAdditionalBytes, nAdditionalBytes);
-                    size = nBytes;
-                }
+            long nAdditionalBytes = (nBytes - size);
+            if (nAdditionalBytes < 0) {
+                size = nBytes;
+                freeBytes(-nAdditionalBytes);
+            } else {
+                allocateBytes(nAdditionalBytes, nAdditionalBytes);
+                size = nBytes;
             }
         }
         
@@ -164,13 +233,12 @@ public class GlobalMemoryManager implements MemoryManager {
         }
         
         @Override
-        public void close() {
-            synchronized(sync) {
-                usedMemoryBytes -= size;
-                size = 0;
-                sync.notifyAll();
+        public synchronized void close() {
+            long nBytes = size;
+            size = 0;
+            if (nBytes > 0) {
+                freeBytes(nBytes);
             }
         }
     }
 }
- 
@@ -92,6 +92,11 @@ public class HintNode {
         * between 2 selected columns this will be give better performance.
         */
       NO_SEEK_TO_COLUMN,
+      /**
+       * Use a sort-merge join instead of a hash join, for joins whose sides are
+       * both too large to fit into a server cache.
+       */
+      USE_SORT_MERGE_JOIN,
     };
 
     private final Map<Hint,String> hints;
@@ -34,12 +34,15 @@ import org.apache.phoenix.coprocessor.MetaDataProtocol.MetaDataMutationResult;
 import org.apache.phoenix.execute.MutationState;
 import org.apache.phoenix.hbase.index.util.KeyValueBuilder;
 import org.apache.phoenix.jdbc.PhoenixConnection;
+import org.apache.phoenix.parse.BindableStatement;
 import org.apache.phoenix.schema.PName;
 import org.apache.phoenix.schema.PTable;
 import org.apache.phoenix.schema.PTableType;
 import org.apache.phoenix.schema.Sequence;
 import org.apache.phoenix.schema.SequenceKey;
 
+import com.google.common.cache.Cache;
+
 
 public interface ConnectionQueryServices extends QueryServices, MetaDataMutated {
     public static final int INITIAL_META_DATA_TABLE_CAPACITY = 100;
@@ -101,6 +104,12 @@ public interface ConnectionQueryServices extends QueryServices, MetaDataMutated
      */
     public KeyValueBuilder getKeyValueBuilder();
     
+    /**
+     * @return the parse trees of the DML statements of the connections of these services, keyed by
+     * their SQL text, or null if they are not cached
+     */
+    public Cache<String, BindableStatement> getParsedStatementCache();
+    
     public enum Feature {REVERSE_SCAN};
     public boolean supportsFeature(Feature feature);
 }
\ No newline at end of file
@@ -130,6 +130,7 @@ import org.apache.phoenix.index.PhoenixIndexCodec;
 import org.apache.phoenix.jdbc.PhoenixConnection;
 import org.apache.phoenix.jdbc.PhoenixDatabaseMetaData;
 import org.apache.phoenix.jdbc.PhoenixEmbeddedDriver.ConnectionInfo;
+import org.apache.phoenix.parse.BindableStatement;
 import org.apache.phoenix.protobuf.ProtobufUtil;
 import org.apache.phoenix.schema.EmptySequenceCacheException;
 import org.apache.phoenix.schema.MetaDataSplitPolicy;
@@ -166,6 +167,8 @@ import org.slf4j.LoggerFactory;
 
 import com.google.common.base.Objects;
 import com.google.common.base.Throwables;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Iterators;
 import com.google.common.collect.Lists;
@@ -211,6 +214,7 @@ public class ConnectionQueryServicesImpl extends DelegateQueryServices implement
     private volatile SQLException initializationException;
     private ConcurrentMap<SequenceKey,Sequence> sequenceMap = Maps.newConcurrentMap();
     private KeyValueBuilder kvBuilder;
+    private final Cache<String, BindableStatement> parsedStatementCache;
 
     private PMetaData newEmptyMetaData() {
         long maxSizeBytes = props.getLong(QueryServices.MAX_CLIENT_METADATA_CACHE_SIZE_ATTRIB,
@@ -250,6 +254,12 @@ public class ConnectionQueryServicesImpl extends DelegateQueryServices implement
         // find the HBase version and use that to determine the KeyValueBuilder that should be used
         String hbaseVersion = VersionInfo.getVersion();
         this.kvBuilder = KeyValueBuilder.get(hbaseVersion);
+        this.parsedStatementCache = newParsedStatementCache();
+    }
+    
+    private Cache<String, BindableStatement> newParsedStatementCache() {
+        int maxSize = getProps().getInt(QueryServices.PARSED_STATEMENT_CACHE_SIZE_ATTRIB, QueryServicesOptions.DEFAULT_PARSED_STATEMENT_CACHE_SIZE);
+        return maxSize <= 0 ? null : CacheBuilder.newBuilder().maximumSize(maxSize).<String, BindableStatement>build();
     }
     
     private void openConnection() throws SQLException {
@@ -1932,6 +1942,11 @@ public class ConnectionQueryServicesImpl extends DelegateQueryServices implement
         return this.kvBuilder;
     }
 
+    @Override
+    public Cache<String, BindableStatement> getParsedStatementCache() {
+        return parsedStatementCache;
+    }
+
     @Override
     public boolean supportsFeature(Feature feature) {
         // TODO: Keep map of Feature -> min HBase version
@@ -48,6 +48,7 @@ import org.apache.phoenix.hbase.index.util.GenericKeyValueBuilder;
 import org.apache.phoenix.hbase.index.util.KeyValueBuilder;
 import org.apache.phoenix.jdbc.PhoenixConnection;
 import org.apache.phoenix.jdbc.PhoenixDatabaseMetaData;
+import org.apache.phoenix.parse.BindableStatement;
 import org.apache.phoenix.schema.NewerTableAlreadyExistsException;
 import org.apache.phoenix.schema.PColumn;
 import org.apache.phoenix.schema.PIndexState;
@@ -71,6 +72,8 @@ import org.apache.phoenix.util.PhoenixRuntime;
 import org.apache.phoenix.util.PropertiesUtil;
 import org.apache.phoenix.util.SchemaUtil;
 
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
 import com.google.common.collect.Maps;
 
 
@@ -86,6 +89,7 @@ public class ConnectionlessQueryServicesImpl extends DelegateQueryServices imple
     private PMetaData metaData;
     private final Map<SequenceKey, Long> sequenceMap = Maps.newHashMap();
     private KeyValueBuilder kvBuilder;
+    private final Cache<String, BindableStatement> parsedStatementCache;
     private volatile boolean initialized;
     private volatile SQLException initializationException;
     
@@ -94,6 +98,12 @@ public class ConnectionlessQueryServicesImpl extends DelegateQueryServices imple
         metaData = newEmptyMetaData();
         // Use KeyValueBuilder that builds real KeyValues, as our test utils require this
         this.kvBuilder = GenericKeyValueBuilder.INSTANCE;
+        this.parsedStatementCache = newParsedStatementCache();
+    }
+
+    private Cache<String, BindableStatement> newParsedStatementCache() {
+        int maxSize = getProps().getInt(QueryServices.PARSED_STATEMENT_CACHE_SIZE_ATTRIB, QueryServicesOptions.DEFAULT_PARSED_STATEMENT_CACHE_SIZE);
+        return maxSize <= 0 ? null : CacheBuilder.newBuilder().maximumSize(maxSize).<String, BindableStatement>build();
     }
 
     private PMetaData newEmptyMetaData() {
@@ -126,6 +136,11 @@ public class ConnectionlessQueryServicesImpl extends DelegateQueryServices imple
                 return HConstants.EMPTY_END_ROW;
             }
 
+            @Override
+            public long getRegionSize(TableRef table, HRegionInfo region) {
+                return -1;
+            }
+
             @Override
             public void updateStats(TableRef table) throws SQLException {
             }
@@ -401,6 +416,11 @@ public class ConnectionlessQueryServicesImpl extends DelegateQueryServices imple
         return this.kvBuilder;
     }
 
+    @Override
+    public Cache<String, BindableStatement> getParsedStatementCache() {
+        return parsedStatementCache;
+    }
+
     @Override
     public boolean supportsFeature(Feature feature) {
         return false;
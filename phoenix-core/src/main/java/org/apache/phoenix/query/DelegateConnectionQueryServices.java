@@ -34,6 +34,7 @@ import org.apache.phoenix.coprocessor.MetaDataProtocol.MetaDataMutationResult;
 import org.apache.phoenix.execute.MutationState;
 import org.apache.phoenix.hbase.index.util.KeyValueBuilder;
 import org.apache.phoenix.jdbc.PhoenixConnection;
+import org.apache.phoenix.parse.BindableStatement;
 import org.apache.phoenix.schema.PColumn;
 import org.apache.phoenix.schema.PMetaData;
 import org.apache.phoenix.schema.PName;
@@ -220,6 +221,11 @@ public class DelegateConnectionQueryServices extends DelegateQueryServices imple
         return getDelegate().getKeyValueBuilder();
     }
 
+    @Override
+    public Cache<String, BindableStatement> getParsedStatementCache() {
+        return getDelegate().getParsedStatementCache();
+    }
+
     @Override
     public boolean supportsFeature(Feature feature) {
         return getDelegate().supportsFeature(feature);
@@ -63,6 +63,11 @@ public interface QueryServices extends SQLCloseable {
     public static final String MAX_MEMORY_WAIT_MS_ATTRIB = "phoenix.query.maxGlobalMemoryWaitMs";
     public static final String MAX_TENANT_MEMORY_PERC_ATTRIB = "phoenix.query.maxTenantMemoryPercentage";
     public static final String MAX_SERVER_CACHE_SIZE_ATTRIB = "phoenix.query.maxServerCacheBytes";
+    public static final String MAX_JOIN_KEY_FILTER_SIZE_ATTRIB = "phoenix.query.maxJoinKeyFilterBytes";
+    public static final String HASH_CACHE_CHUNK_SIZE_ATTRIB = "phoenix.query.hashCacheChunkBytes";
+    public static final String HASH_CACHE_CHUNKS_IN_FLIGHT_ATTRIB = "phoenix.query.hashCacheChunksInFlight";
+    public static final String HASH_CACHE_REUSE_TIME_TO_LIVE_MS_ATTRIB = "phoenix.query.hashCacheReuseTimeToLiveMs";
+    public static final String FILTER_BATCH_SIZE_ATTRIB = "phoenix.query.filterBatchSize";
     public static final String TARGET_QUERY_CONCURRENCY_ATTRIB = "phoenix.query.targetConcurrency";
     public static final String MAX_QUERY_CONCURRENCY_ATTRIB = "phoenix.query.maxConcurrency";
     public static final String DATE_FORMAT_ATTRIB = "phoenix.query.dateFormat";
@@ -73,6 +78,8 @@ public interface QueryServices extends SQLCloseable {
     public static final String SCAN_CACHE_SIZE_ATTRIB = "hbase.client.scanner.caching";
     public static final String MAX_MUTATION_SIZE_ATTRIB = "phoenix.mutate.maxSize";
     public static final String MUTATE_BATCH_SIZE_ATTRIB = "phoenix.mutate.batchSize";
+    public static final String COMMIT_CHUNK_SIZE_ATTRIB = "phoenix.mutate.commitChunkSize";
+    public static final String COMMIT_MAX_IN_FLIGHT_BYTES_ATTRIB = "phoenix.mutate.maxInFlightBytes";
     public static final String MAX_SERVER_CACHE_TIME_TO_LIVE_MS_ATTRIB = "phoenix.coprocessor.maxServerCacheTimeToLiveMs";
     public static final String MAX_INTRA_REGION_PARALLELIZATION_ATTRIB  = "phoenix.query.maxIntraRegionParallelization";
     public static final String ROW_KEY_ORDER_SALTED_TABLE_ATTRIB  = "phoenix.query.rowKeyOrderSaltedTable";
@@ -84,6 +91,15 @@ public interface QueryServices extends SQLCloseable {
     public static final String GROUPBY_SPILL_FILES_ATTRIB = "phoenix.groupby.spillFiles";
     public static final String GROUPBY_MAX_CACHE_SIZE_ATTRIB = "phoenix.groupby.maxCacheSize";
     public static final String GROUPBY_ESTIMATED_DISTINCT_VALUES_ATTRIB = "phoenix.groupby.estimatedDistinctValues";
+    public static final String GROUPBY_SERVER_THREADS_ATTRIB = "phoenix.groupby.serverThreads";
+    public static final String GROUPBY_MAX_SERVER_THREADS_ATTRIB = "phoenix.groupby.maxServerThreads";
+    public static final String STREAMING_SCAN_ATTRIB = "phoenix.query.streamingScan";
+    public static final String STREAMING_SCAN_BATCH_SIZE_ATTRIB = "phoenix.query.streamingScanBatchSize";
+    public static final String STREAMING_SCAN_QUEUE_SIZE_ATTRIB = "phoenix.query.streamingScanQueueSize";
+    public static final String POINT_LOOKUP_GETS_ATTRIB = "phoenix.query.pointLookupGets";
+    public static final String POINT_LOOKUP_BATCH_SIZE_ATTRIB = "phoenix.query.pointLookupBatchSize";
+    public static final String PARSED_STATEMENT_CACHE_SIZE_ATTRIB = "phoenix.query.parsedStatementCacheSize";
+    public static final String TOPN_THRESHOLD_PUSHDOWN_ATTRIB = "phoenix.query.topNThresholdPushdown";
 
     public static final String CALL_QUEUE_PRODUCER_ATTRIB_NAME = "CALL_QUEUE_PRODUCER";
     
@@ -19,17 +19,26 @@ package org.apache.phoenix.query;
 
 import static org.apache.phoenix.query.QueryServices.CALL_QUEUE_PRODUCER_ATTRIB_NAME;
 import static org.apache.phoenix.query.QueryServices.CALL_QUEUE_ROUND_ROBIN_ATTRIB;
+import static org.apache.phoenix.query.QueryServices.COMMIT_CHUNK_SIZE_ATTRIB;
+import static org.apache.phoenix.query.QueryServices.COMMIT_MAX_IN_FLIGHT_BYTES_ATTRIB;
 import static org.apache.phoenix.query.QueryServices.DATE_FORMAT_ATTRIB;
 import static org.apache.phoenix.query.QueryServices.DROP_METADATA_ATTRIB;
+import static org.apache.phoenix.query.QueryServices.FILTER_BATCH_SIZE_ATTRIB;
 import static org.apache.phoenix.query.QueryServices.GROUPBY_MAX_CACHE_SIZE_ATTRIB;
+import static org.apache.phoenix.query.QueryServices.GROUPBY_MAX_SERVER_THREADS_ATTRIB;
+import static org.apache.phoenix.query.QueryServices.GROUPBY_SERVER_THREADS_ATTRIB;
 import static org.apache.phoenix.query.QueryServices.GROUPBY_SPILLABLE_ATTRIB;
 import static org.apache.phoenix.query.QueryServices.GROUPBY_SPILL_FILES_ATTRIB;
+import static org.apache.phoenix.query.QueryServices.HASH_CACHE_CHUNKS_IN_FLIGHT_ATTRIB;
+import static org.apache.phoenix.query.QueryServices.HASH_CACHE_CHUNK_SIZE_ATTRIB;
+import static org.apache.phoenix.query.QueryServices.HASH_CACHE_REUSE_TIME_TO_LIVE_MS_ATTRIB;
 import static org.apache.phoenix.query.QueryServices.IMMUTABLE_ROWS_ATTRIB;
 import static org.apache.phoenix.query.QueryServices.INDEX_MUTATE_BATCH_SIZE_THRESHOLD_ATTRIB;
 import static org.apache.phoenix.query.QueryServices.KEEP_ALIVE_MS_ATTRIB;
 import static org.apache.phoenix.query.QueryServices.MASTER_INFO_PORT_ATTRIB;
 import static org.apache.phoenix.query.QueryServices.MAX_CLIENT_METADATA_CACHE_SIZE_ATTRIB;
 import static org.apache.phoenix.query.QueryServices.MAX_INTRA_REGION_PARALLELIZATION_ATTRIB;
+import static org.apache.phoenix.query.QueryServices.MAX_JOIN_KEY_FILTER_SIZE_ATTRIB;
 import static org.apache.phoenix.query.QueryServices.MAX_MEMORY_PERC_ATTRIB;
 import static org.apache.phoenix.query.QueryServices.MAX_MEMORY_WAIT_MS_ATTRIB;
 import static org.apache.phoenix.query.QueryServices.MAX_MUTATION_SIZE_ATTRIB;
@@ -40,6 +49,9 @@ import static org.apache.phoenix.query.QueryServices.MAX_SERVER_METADATA_CACHE_S
 import static org.apache.phoenix.query.QueryServices.MAX_SPOOL_TO_DISK_BYTES_ATTRIB;
 import static org.apache.phoenix.query.QueryServices.MAX_TENANT_MEMORY_PERC_ATTRIB;
 import static org.apache.phoenix.query.QueryServices.MUTATE_BATCH_SIZE_ATTRIB;
+import static org.apache.phoenix.query.QueryServices.PARSED_STATEMENT_CACHE_SIZE_ATTRIB;
+import static org.apache.phoenix.query.QueryServices.POINT_LOOKUP_BATCH_SIZE_ATTRIB;
+import static org.apache.phoenix.query.QueryServices.POINT_LOOKUP_GETS_ATTRIB;
 import static org.apache.phoenix.query.QueryServices.QUEUE_SIZE_ATTRIB;
 import static org.apache.phoenix.query.QueryServices.REGIONSERVER_INFO_PORT_ATTRIB;
 import static org.apache.phoenix.query.QueryServices.REGIONSERVER_LEASE_PERIOD_ATTRIB;
@@ -49,9 +61,13 @@ import static org.apache.phoenix.query.QueryServices.SCAN_CACHE_SIZE_ATTRIB;
 import static org.apache.phoenix.query.QueryServices.SEQUENCE_CACHE_SIZE_ATTRIB;
 import static org.apache.phoenix.query.QueryServices.SPOOL_THRESHOLD_BYTES_ATTRIB;
 import static org.apache.phoenix.query.QueryServices.STATS_UPDATE_FREQ_MS_ATTRIB;
+import static org.apache.phoenix.query.QueryServices.STREAMING_SCAN_ATTRIB;
+import static org.apache.phoenix.query.QueryServices.STREAMING_SCAN_BATCH_SIZE_ATTRIB;
+import static org.apache.phoenix.query.QueryServices.STREAMING_SCAN_QUEUE_SIZE_ATTRIB;
 import static org.apache.phoenix.query.QueryServices.TARGET_QUERY_CONCURRENCY_ATTRIB;
 import static org.apache.phoenix.query.QueryServices.THREAD_POOL_SIZE_ATTRIB;
 import static org.apache.phoenix.query.QueryServices.THREAD_TIMEOUT_MS_ATTRIB;
+import static org.apache.phoenix.query.QueryServices.TOPN_THRESHOLD_PUSHDOWN_ATTRIB;
 import static org.apache.phoenix.query.QueryServices.USE_INDEXES_ATTRIB;
 
 import java.util.Map.Entry;
@@ -80,6 +96,11 @@ public class QueryServicesOptions {
 	public static final int DEFAULT_MAX_MEMORY_WAIT_MS = 10000;
 	public static final int DEFAULT_MAX_TENANT_MEMORY_PERC = 100;
 	public static final long DEFAULT_MAX_SERVER_CACHE_SIZE = 1024*1024*100;  // 100 Mb
+	public static final long DEFAULT_MAX_JOIN_KEY_FILTER_SIZE = 1024*1024;  // 1 Mb, 0 to disable join key filters
+	public static final long DEFAULT_HASH_CACHE_CHUNK_SIZE = 1024*1024*16;  // 16 Mb, 0 to send hash caches in one piece
+	public static final int DEFAULT_HASH_CACHE_CHUNKS_IN_FLIGHT = 2;  // chunks sent while the next one is filled, 0 to send them one at a time
+	public static final int DEFAULT_HASH_CACHE_REUSE_TIME_TO_LIVE_MS = 0;  // 0 to build hash caches for each query
+	public static final int DEFAULT_FILTER_BATCH_SIZE = 0;  // 0 to evaluate WHERE clause filters one row at a time
     public static final int DEFAULT_TARGET_QUERY_CONCURRENCY = 32;
     public static final int DEFAULT_MAX_QUERY_CONCURRENCY = 64;
     public static final String DEFAULT_DATE_FORMAT = DateUtil.DEFAULT_DATE_FORMAT;
@@ -93,6 +114,9 @@ public class QueryServicesOptions {
     public static final boolean DEFAULT_DROP_METADATA = true; // Drop meta data also.
     
     public final static int DEFAULT_MUTATE_BATCH_SIZE = 1000; // Batch size for UPSERT SELECT and DELETE
+    // Commit sends the mutations of a table in chunks of about this many bytes, grouped by region, in parallel
+    public static final int DEFAULT_COMMIT_CHUNK_SIZE = 1024 * 1024 * 2; // 2 Mb
+    public static final int DEFAULT_COMMIT_MAX_IN_FLIGHT_BYTES = 1024 * 1024 * 64; // 64 Mb being sent at once per commit
 	// The only downside of it being out-of-sync is that the parallelization of the scan won't be as balanced as it could be.
     public static final int DEFAULT_MAX_SERVER_CACHE_TIME_TO_LIVE_MS = 30000; // 30 sec (with no activity)
     public static final int DEFAULT_SCAN_CACHE_SIZE = 1000;
@@ -111,6 +135,12 @@ public class QueryServicesOptions {
     public static final int DEFAULT_GROUPBY_SPILL_FILES = 2;
     // Max size of 1st level main memory cache in bytes --> upper bound
     public static final long DEFAULT_GROUPBY_MAX_CACHE_MAX = 1024L*1024L*100L;  // 100 Mb
+    // Number of threads aggregating the rows of an unordered group by within a region,
+    // each over its own partition of the group keys. 1 to aggregate on the scanning thread.
+    public static final int DEFAULT_GROUPBY_SERVER_THREADS = 1;
+    // Threads shared by the parallel unordered group bys of a region server. Regions for which
+    // not enough of them are left are aggregated on their scanning thread.
+    public static final int DEFAULT_GROUPBY_MAX_SERVER_THREADS = 32;
     
     public static final long DEFAULT_SEQUENCE_CACHE_SIZE = 100;  // reserve 100 sequences at a time
     public static final int DEFAULT_INDEX_MAX_FILESIZE_PERC = 50; // % of data table max file size for index table
@@ -120,6 +150,22 @@ public class QueryServicesOptions {
     public static final int DEFAULT_GROUPBY_ESTIMATED_DISTINCT_VALUES = 1000;
     public static final int DEFAULT_CLOCK_SKEW_INTERVAL = 2000;
     
+    // Stream rows of unordered scans to the client as regions produce them instead of
+    // waiting for every region to be spooled
+    public static final boolean DEFAULT_STREAMING_SCAN = false;
+    public static final int DEFAULT_STREAMING_SCAN_BATCH_SIZE = 100; // rows handed over per batch
+    public static final int DEFAULT_STREAMING_SCAN_QUEUE_SIZE = 64; // batches buffered before region scans pause
+    
+    // Run queries reduced to a set of complete row keys as batches of gets instead of scans
+    public static final boolean DEFAULT_POINT_LOOKUP_GETS = true;
+    public static final int DEFAULT_POINT_LOOKUP_BATCH_SIZE = 1000; // keys per multi-get
+    
+    // Parse each distinct DML statement once, across the connections sharing the same query services
+    public static final int DEFAULT_PARSED_STATEMENT_CACHE_SIZE = 1000; // statements
+    
+    // Filter the regions of a TopN query scanned last by the N-th row of those already scanned
+    public static final boolean DEFAULT_TOPN_THRESHOLD_PUSHDOWN = true;
+    
     private final Configuration config;
     
     private QueryServicesOptions(Configuration config) {
@@ -155,6 +201,11 @@ public class QueryServicesOptions {
             .setIfUnset(MAX_MEMORY_WAIT_MS_ATTRIB, DEFAULT_MAX_MEMORY_WAIT_MS)
             .setIfUnset(MAX_TENANT_MEMORY_PERC_ATTRIB, DEFAULT_MAX_TENANT_MEMORY_PERC)
             .setIfUnset(MAX_SERVER_CACHE_SIZE_ATTRIB, DEFAULT_MAX_SERVER_CACHE_SIZE)
+            .setIfUnset(MAX_JOIN_KEY_FILTER_SIZE_ATTRIB, DEFAULT_MAX_JOIN_KEY_FILTER_SIZE)
+            .setIfUnset(HASH_CACHE_CHUNK_SIZE_ATTRIB, DEFAULT_HASH_CACHE_CHUNK_SIZE)
+            .setIfUnset(HASH_CACHE_CHUNKS_IN_FLIGHT_ATTRIB, DEFAULT_HASH_CACHE_CHUNKS_IN_FLIGHT)
+            .setIfUnset(HASH_CACHE_REUSE_TIME_TO_LIVE_MS_ATTRIB, DEFAULT_HASH_CACHE_REUSE_TIME_TO_LIVE_MS)
+            .setIfUnset(FILTER_BATCH_SIZE_ATTRIB, DEFAULT_FILTER_BATCH_SIZE)
             .setIfUnset(SCAN_CACHE_SIZE_ATTRIB, DEFAULT_SCAN_CACHE_SIZE)
             .setIfUnset(TARGET_QUERY_CONCURRENCY_ATTRIB, DEFAULT_TARGET_QUERY_CONCURRENCY)
             .setIfUnset(MAX_QUERY_CONCURRENCY_ATTRIB, DEFAULT_MAX_QUERY_CONCURRENCY)
@@ -162,6 +213,8 @@ public class QueryServicesOptions {
             .setIfUnset(STATS_UPDATE_FREQ_MS_ATTRIB, DEFAULT_STATS_UPDATE_FREQ_MS)
             .setIfUnset(CALL_QUEUE_ROUND_ROBIN_ATTRIB, DEFAULT_CALL_QUEUE_ROUND_ROBIN)
             .setIfUnset(MAX_MUTATION_SIZE_ATTRIB, DEFAULT_MAX_MUTATION_SIZE)
+            .setIfUnset(COMMIT_CHUNK_SIZE_ATTRIB, DEFAULT_COMMIT_CHUNK_SIZE)
+            .setIfUnset(COMMIT_MAX_IN_FLIGHT_BYTES_ATTRIB, DEFAULT_COMMIT_MAX_IN_FLIGHT_BYTES)
             .setIfUnset(MAX_INTRA_REGION_PARALLELIZATION_ATTRIB, DEFAULT_MAX_INTRA_REGION_PARALLELIZATION)
             .setIfUnset(ROW_KEY_ORDER_SALTED_TABLE_ATTRIB, DEFAULT_ROW_KEY_ORDER_SALTED_TABLE)
             .setIfUnset(USE_INDEXES_ATTRIB, DEFAULT_USE_INDEXES)
@@ -172,7 +225,16 @@ public class QueryServicesOptions {
             .setIfUnset(GROUPBY_SPILLABLE_ATTRIB, DEFAULT_GROUPBY_SPILLABLE)
             .setIfUnset(GROUPBY_MAX_CACHE_SIZE_ATTRIB, DEFAULT_GROUPBY_MAX_CACHE_MAX)
             .setIfUnset(GROUPBY_SPILL_FILES_ATTRIB, DEFAULT_GROUPBY_SPILL_FILES)
+            .setIfUnset(GROUPBY_SERVER_THREADS_ATTRIB, DEFAULT_GROUPBY_SERVER_THREADS)
+            .setIfUnset(GROUPBY_MAX_SERVER_THREADS_ATTRIB, DEFAULT_GROUPBY_MAX_SERVER_THREADS)
             .setIfUnset(SEQUENCE_CACHE_SIZE_ATTRIB, DEFAULT_SEQUENCE_CACHE_SIZE)
+            .setIfUnset(STREAMING_SCAN_ATTRIB, DEFAULT_STREAMING_SCAN)
+            .setIfUnset(STREAMING_SCAN_BATCH_SIZE_ATTRIB, DEFAULT_STREAMING_SCAN_BATCH_SIZE)
+            .setIfUnset(STREAMING_SCAN_QUEUE_SIZE_ATTRIB, DEFAULT_STREAMING_SCAN_QUEUE_SIZE)
+            .setIfUnset(POINT_LOOKUP_GETS_ATTRIB, DEFAULT_POINT_LOOKUP_GETS)
+            .setIfUnset(POINT_LOOKUP_BATCH_SIZE_ATTRIB, DEFAULT_POINT_LOOKUP_BATCH_SIZE)
+            .setIfUnset(PARSED_STATEMENT_CACHE_SIZE_ATTRIB, DEFAULT_PARSED_STATEMENT_CACHE_SIZE)
+            .setIfUnset(TOPN_THRESHOLD_PUSHDOWN_ATTRIB, DEFAULT_TOPN_THRESHOLD_PUSHDOWN)
             ;
         // HBase sets this to 1, so we reset it to something more appropriate.
         // Hopefully HBase will change this, because we can't know if a user set
@@ -247,6 +309,26 @@ public class QueryServicesOptions {
         return set(MAX_SERVER_CACHE_SIZE_ATTRIB, maxServerCacheSize);
     }
 
+    public QueryServicesOptions setMaxJoinKeyFilterSize(long maxJoinKeyFilterSize) {
+        return set(MAX_JOIN_KEY_FILTER_SIZE_ATTRIB, maxJoinKeyFilterSize);
+    }
+
+    public QueryServicesOptions setHashCacheChunkSize(long hashCacheChunkSize) {
+        return set(HASH_CACHE_CHUNK_SIZE_ATTRIB, hashCacheChunkSize);
+    }
+
+    public QueryServicesOptions setHashCacheChunksInFlight(int hashCacheChunksInFlight) {
+        return set(HASH_CACHE_CHUNKS_IN_FLIGHT_ATTRIB, hashCacheChunksInFlight);
+    }
+
+    public QueryServicesOptions setHashCacheReuseTTLMs(int ttl) {
+        return set(HASH_CACHE_REUSE_TIME_TO_LIVE_MS_ATTRIB, ttl);
+    }
+
+    public QueryServicesOptions setFilterBatchSize(int filterBatchSize) {
+        return set(FILTER_BATCH_SIZE_ATTRIB, filterBatchSize);
+    }
+
     public QueryServicesOptions setMaxServerMetaDataCacheSize(long maxMetaDataCacheSize) {
         return set(MAX_SERVER_METADATA_CACHE_SIZE_ATTRIB, maxMetaDataCacheSize);
     }
@@ -287,6 +369,14 @@ public class QueryServicesOptions {
         return set(MUTATE_BATCH_SIZE_ATTRIB, mutateBatchSize);
     }
     
+    public QueryServicesOptions setCommitChunkSize(int chunkSize) {
+        return set(COMMIT_CHUNK_SIZE_ATTRIB, chunkSize);
+    }
+    
+    public QueryServicesOptions setCommitMaxInFlightBytes(int maxInFlightBytes) {
+        return set(COMMIT_MAX_IN_FLIGHT_BYTES_ATTRIB, maxInFlightBytes);
+    }
+    
     public QueryServicesOptions setMaxIntraRegionParallelization(int maxIntraRegionParallelization) {
         return set(MAX_INTRA_REGION_PARALLELIZATION_ATTRIB, maxIntraRegionParallelization);
     }
@@ -310,6 +400,42 @@ public class QueryServicesOptions {
     public QueryServicesOptions setGroupBySpillNumSpillFiles(long num) {
         return set(GROUPBY_SPILL_FILES_ATTRIB, num);
     }
+    
+    public QueryServicesOptions setGroupByServerThreads(int threads) {
+        return set(GROUPBY_SERVER_THREADS_ATTRIB, threads);
+    }
+    
+    public QueryServicesOptions setGroupByMaxServerThreads(int threads) {
+        return set(GROUPBY_MAX_SERVER_THREADS_ATTRIB, threads);
+    }
+    
+    public QueryServicesOptions setStreamingScan(boolean enabled) {
+        return set(STREAMING_SCAN_ATTRIB, enabled);
+    }
+    
+    public QueryServicesOptions setStreamingScanBatchSize(int batchSize) {
+        return set(STREAMING_SCAN_BATCH_SIZE_ATTRIB, batchSize);
+    }
+    
+    public QueryServicesOptions setStreamingScanQueueSize(int queueSize) {
+        return set(STREAMING_SCAN_QUEUE_SIZE_ATTRIB, queueSize);
+    }
+    
+    public QueryServicesOptions setPointLookupGets(boolean enabled) {
+        return set(POINT_LOOKUP_GETS_ATTRIB, enabled);
+    }
+    
+    public QueryServicesOptions setPointLookupBatchSize(int batchSize) {
+        return set(POINT_LOOKUP_BATCH_SIZE_ATTRIB, batchSize);
+    }
+    
+    public QueryServicesOptions setParsedStatementCacheSize(int maxSize) {
+        return set(PARSED_STATEMENT_CACHE_SIZE_ATTRIB, maxSize);
+    }
+    
+    public QueryServicesOptions setTopNThresholdPushdown(boolean enabled) {
+        return set(TOPN_THRESHOLD_PUSHDOWN_ATTRIB, enabled);
+    }
 
     
     private QueryServicesOptions set(String name, boolean value) {
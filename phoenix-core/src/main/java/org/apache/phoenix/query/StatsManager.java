@@ -19,6 +19,7 @@ package org.apache.phoenix.query;
 
 import java.sql.SQLException;
 
+import org.apache.hadoop.hbase.HRegionInfo;
 import org.apache.phoenix.schema.TableRef;
 
 
@@ -48,6 +49,15 @@ public interface StatsManager {
      */
     byte[] getMaxKey(TableRef table);
     
+    /**
+     * Get the size of the data held by a region of the given table,
+     * as last reported by its region server
+     * @param table the table
+     * @param region the region
+     * @return the size in bytes or -1 if unknown
+     */
+    long getRegionSize(TableRef table, HRegionInfo region);
+    
     /**
      * Manually update the cached table statistics
      * @param table the table
@@ -19,21 +19,33 @@ package org.apache.phoenix.query;
 
 import java.io.IOException;
 import java.sql.SQLException;
-import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
 import java.util.concurrent.Callable;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
 
+import org.apache.hadoop.hbase.ClusterStatus;
 import org.apache.hadoop.hbase.HConstants;
+import org.apache.hadoop.hbase.HRegionInfo;
+import org.apache.hadoop.hbase.HRegionLocation;
+import org.apache.hadoop.hbase.RegionLoad;
+import org.apache.hadoop.hbase.ServerLoad;
+import org.apache.hadoop.hbase.client.HBaseAdmin;
 import org.apache.hadoop.hbase.client.HTableInterface;
 import org.apache.hadoop.hbase.client.Result;
 import org.apache.hadoop.hbase.client.ResultScanner;
 import org.apache.hadoop.hbase.client.Scan;
 import org.apache.hadoop.hbase.filter.KeyOnlyFilter;
+import org.apache.hadoop.hbase.util.Bytes;
 import org.apache.phoenix.schema.TableRef;
 import org.apache.phoenix.util.SchemaUtil;
 import org.apache.phoenix.util.ServerUtil;
 import org.apache.phoenix.util.TimeKeeper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 
 /**
@@ -49,11 +61,16 @@ import org.apache.phoenix.util.TimeKeeper;
  * 2) the query to get the stats pulls a single row so it's very cheap
  * 3) it's async and if it takes too long it won't lead to anything except less optimal
  *  parallelization.
+ * 
+ * Along with the min and max key, the size of each region of the table is collected from
+ * the load the region servers report to the master, so that the scans of the regions holding
+ * the most data may be split the most.
  *
  * 
  * @since 0.1
  */
 public class StatsManagerImpl implements StatsManager {
+    private static final Logger logger = LoggerFactory.getLogger(StatsManagerImpl.class);
     private final ConnectionQueryServices services;
     private final int statsUpdateFrequencyMs;
     private final int maxStatsAgeMs;
@@ -78,7 +95,9 @@ public class StatsManagerImpl implements StatsManager {
     @Override
     public void updateStats(TableRef tableRef) throws SQLException {
         SQLException sqlE = null;
-        HTableInterface hTable = services.getTable(tableRef.getTable().getPhysicalName().getBytes());
+        byte[] physicalName = tableRef.getTable().getPhysicalName().getBytes();
+        Map<byte[],Long> regionSizes = getRegionSizes(physicalName);
+        HTableInterface hTable = services.getTable(physicalName);
         try {
             byte[] minKey = null, maxKey = null;
             // Do a key-only scan to get the first row of a table. This is the min
@@ -107,7 +126,7 @@ public class StatsManagerImpl implements StatsManager {
             } finally {
                 scanner.close();
             }
-            tableStatsMap.put(tableRef.getTable().getName().getString(), new PTableStats(timeKeeper.getCurrentTime(),minKey,maxKey));
+            tableStatsMap.put(tableRef.getTable().getName().getString(), new PTableStats(timeKeeper.getCurrentTime(),minKey,maxKey,regionSizes));
         } catch (IOException e) {
             sqlE = ServerUtil.parseServerException(e);
         } finally {
@@ -127,11 +146,42 @@ public class StatsManagerImpl implements StatsManager {
         }
     }
     
+    /**
+     * @return the size in bytes of the store files and memstores of each region of the table,
+     * by region name, as last reported by the region servers, or no sizes at all if the master
+     * could not be asked for them, in which case the regions are split evenly
+     */
+    private Map<byte[],Long> getRegionSizes(byte[] physicalName) {
+        Map<byte[],Long> regionSizes = new TreeMap<byte[],Long>(Bytes.BYTES_COMPARATOR);
+        try {
+            List<HRegionLocation> locations = services.getAllTableRegions(physicalName);
+            HBaseAdmin admin = services.getAdmin();
+            try {
+                ClusterStatus status = admin.getClusterStatus();
+                for (HRegionLocation location : locations) {
+                    ServerLoad serverLoad = location.getServerName() == null ? null : status.getLoad(location.getServerName());
+                    RegionLoad regionLoad = serverLoad == null ? null : serverLoad.getRegionsLoad().get(location.getRegionInfo().getRegionName());
+                    if (regionLoad != null) {
+                        long sizeMB = regionLoad.getStorefileSizeMB() + regionLoad.getMemStoreSizeMB();
+                        regionSizes.put(location.getRegionInfo().getRegionName(), sizeMB * 1024 * 1024);
+                    }
+                }
+            } finally {
+                admin.close();
+            }
+        } catch (Exception e) {
+            logger.warn("Unable to get the region sizes of " + Bytes.toString(physicalName) + ", splitting its regions evenly", e);
+            regionSizes.clear();
+        }
+        return regionSizes;
+    }
+    
     private PTableStats getStats(final TableRef table) {
-        PTableStats stats = tableStatsMap.get(table);
+        String tableName = table.getTable().getName().getString();
+        PTableStats stats = tableStatsMap.get(tableName);
         if (stats == null) {
             PTableStats newStats = new PTableStats();
-            stats = tableStatsMap.putIfAbsent(table.getTable().getName().getString(), newStats);
+            stats = tableStatsMap.putIfAbsent(tableName, newStats);
             stats = stats == null ? newStats : stats;
         }
         // Synchronize on the current stats for a table to prevent
@@ -174,19 +224,28 @@ public class StatsManagerImpl implements StatsManager {
         return stats.getMaxKey();
     }
 
+    @Override
+    public long getRegionSize(TableRef table, HRegionInfo region) {
+        PTableStats stats = getStats(table);
+        Long size = stats.getRegionSizes().get(region.getRegionName());
+        return size == null ? -1 : size;
+    }
+
     private static class PTableStats {
         private static final PTableStats NO_STATS = new PTableStats();
         private long initiatedTime;
         private final long completedTime;
         private final byte[] minKey;
         private final byte[] maxKey;
+        private final Map<byte[],Long> regionSizes;
         
         public PTableStats() {
-            this(-1,null,null);
+            this(-1,null,null,Collections.<byte[],Long>emptyMap());
         }
-        public PTableStats(long completedTime, byte[] minKey, byte[] maxKey) {
+        public PTableStats(long completedTime, byte[] minKey, byte[] maxKey, Map<byte[],Long> regionSizes) {
             this.minKey = minKey;
             this.maxKey = maxKey;
+            this.regionSizes = regionSizes;
             this.completedTime = this.initiatedTime = completedTime;
         }
 
@@ -198,6 +257,10 @@ public class StatsManagerImpl implements StatsManager {
             return maxKey;
         }
 
+        private Map<byte[],Long> getRegionSizes() {
+            return regionSizes;
+        }
+
         private long getCompletedTime() {
             return completedTime;
         }
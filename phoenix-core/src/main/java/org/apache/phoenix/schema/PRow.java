@@ -18,11 +18,9 @@
 package org.apache.phoenix.schema;
 
 import java.util.List;
-import java.util.Map;
 
 import org.apache.hadoop.hbase.client.Mutation;
 
-import com.google.common.collect.ImmutableMap;
 
 /**
  * 
@@ -35,8 +33,6 @@ import com.google.common.collect.ImmutableMap;
  * @since 0.1
  */
 public interface PRow {
-    Map<PColumn, byte[]> DELETE_MARKER = ImmutableMap.of();
-
     /**
      * Get the list of {@link org.apache.hadoop.hbase.client.Mutation} used to
      * update an HTable after all mutations through calls to
@@ -0,0 +1,145 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.phoenix.schema.tuple;
+
+import org.apache.hadoop.hbase.KeyValue;
+import org.apache.hadoop.hbase.io.ImmutableBytesWritable;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.apache.phoenix.util.ByteUtil;
+
+/**
+ * Tuple over a row serialized by {@link org.apache.phoenix.util.TupleUtil#write}, that is a sequence
+ * of KeyValues each prefixed by its length. Columns are looked up in place in the serialized bytes, so
+ * the tuple holds no more than a pointer to them and only allocates a KeyValue when one is asked for.
+ */
+public class SerializedResultTuple extends BaseTuple {
+    private byte[] bytes;
+    private int offset;
+    private int length;
+    private int size;
+    
+    public SerializedResultTuple(byte[] bytes, int offset, int length) {
+        setBytes(bytes, offset, length);
+    }
+    
+    public SerializedResultTuple() {
+    }
+    
+    public void setBytes(byte[] bytes, int offset, int length) {
+        this.bytes = bytes;
+        this.offset = offset;
+        this.length = length;
+        this.size = -1;
+    }
+    
+    @Override
+    public void getKey(ImmutableBytesWritable ptr) {
+        if (length == 0) {
+            ptr.set(ByteUtil.EMPTY_BYTE_ARRAY);
+            return;
+        }
+        int rowOffset = offset + Bytes.SIZEOF_INT + KeyValue.ROW_OFFSET;
+        ptr.set(bytes, rowOffset + Bytes.SIZEOF_SHORT, Bytes.toShort(bytes, rowOffset));
+    }
+
+    @Override
+    public boolean isImmutable() {
+        return true;
+    }
+
+    @Override
+    public int size() {
+        if (size < 0) {
+            int count = 0;
+            for (int kvOffset = offset, end = offset + length; kvOffset < end; kvOffset += Bytes.SIZEOF_INT + Bytes.toInt(bytes, kvOffset)) {
+                count++;
+            }
+            size = count;
+        }
+        return size;
+    }
+
+    @Override
+    public KeyValue getValue(int index) {
+        if (index >= 0) {
+            int i = 0;
+            for (int kvOffset = offset, end = offset + length; kvOffset < end; kvOffset += Bytes.SIZEOF_INT + Bytes.toInt(bytes, kvOffset)) {
+                if (i++ == index) {
+                    return new KeyValue(bytes, kvOffset + Bytes.SIZEOF_INT, Bytes.toInt(bytes, kvOffset));
+                }
+            }
+        }
+        throw new IndexOutOfBoundsException(Integer.toString(index));
+    }
+
+    @Override
+    public KeyValue getValue(byte[] family, byte[] qualifier) {
+        int kvOffset = findColumn(family, qualifier);
+        return kvOffset < 0 ? null : new KeyValue(bytes, kvOffset + Bytes.SIZEOF_INT, Bytes.toInt(bytes, kvOffset));
+    }
+
+    @Override
+    public boolean getValue(byte[] family, byte[] qualifier, ImmutableBytesWritable ptr) {
+        int kvOffset = findColumn(family, qualifier);
+        if (kvOffset < 0) {
+            return false;
+        }
+        kvOffset += Bytes.SIZEOF_INT;
+        int keyLength = Bytes.toInt(bytes, kvOffset);
+        int valueLength = Bytes.toInt(bytes, kvOffset + Bytes.SIZEOF_INT);
+        ptr.set(bytes, kvOffset + KeyValue.ROW_OFFSET + keyLength, valueLength);
+        return true;
+    }
+    
+    /**
+     * Finds the first KeyValue of the column, which is its latest one as the KeyValues of a row are
+     * serialized in order.
+     * @return the offset of the length prefix of the KeyValue, or -1 if the row has no such column
+     */
+    private int findColumn(byte[] family, byte[] qualifier) {
+        for (int kvOffset = offset, end = offset + length; kvOffset < end; kvOffset += Bytes.SIZEOF_INT + Bytes.toInt(bytes, kvOffset)) {
+            int keyOffset = kvOffset + Bytes.SIZEOF_INT + KeyValue.ROW_OFFSET;
+            int keyLength = Bytes.toInt(bytes, kvOffset + Bytes.SIZEOF_INT);
+            int rowLength = Bytes.toShort(bytes, keyOffset);
+            int familyOffset = keyOffset + Bytes.SIZEOF_SHORT + rowLength + Bytes.SIZEOF_BYTE;
+            int familyLength = bytes[familyOffset - 1];
+            int qualifierLength = keyLength - rowLength - familyLength - KeyValue.KEY_INFRASTRUCTURE_SIZE;
+            if (Bytes.equals(family, 0, family.length, bytes, familyOffset, familyLength)
+                    && Bytes.equals(qualifier, 0, qualifier.length, bytes, familyOffset + familyLength, qualifierLength)) {
+                return kvOffset;
+            }
+        }
+        return -1;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder("keyvalues=");
+        if (length == 0) {
+            return sb.append("NONE").toString();
+        }
+        sb.append("{");
+        for (int i = 0; i < size(); i++) {
+            if (i > 0) {
+                sb.append(", ");
+            }
+            sb.append(getValue(i));
+        }
+        return sb.append("}").toString();
+    }
+}
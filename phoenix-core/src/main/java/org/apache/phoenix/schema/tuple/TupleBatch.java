@@ -0,0 +1,96 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.phoenix.schema.tuple;
+
+import java.util.Arrays;
+
+/**
+ * 
+ * Batch of rows evaluated together by {@link org.apache.phoenix.expression.Expression#evaluate(TupleBatch, org.apache.phoenix.expression.ColumnVector)}.
+ * Expressions only evaluate the selected rows, which lets AND and OR skip the rows already decided
+ * by their previous children.
+ *
+ */
+public class TupleBatch {
+    private final Tuple[] tuples;
+    private final int[] allRows;
+    private int size;
+    private int[] selection;
+    private int selectedCount;
+
+    public TupleBatch(int capacity) {
+        this.tuples = new Tuple[capacity];
+        this.allRows = new int[capacity];
+        for (int i = 0; i < capacity; i++) {
+            allRows[i] = i;
+        }
+        this.selection = allRows;
+    }
+
+    public int getCapacity() {
+        return tuples.length;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isFull() {
+        return size == tuples.length;
+    }
+
+    /**
+     * Adds a row, and selects all the rows of the batch
+     */
+    public void add(Tuple tuple) {
+        tuples[size++] = tuple;
+        selectAll();
+    }
+
+    public Tuple get(int row) {
+        return tuples[row];
+    }
+
+    public void clear() {
+        Arrays.fill(tuples, 0, size, null);
+        size = 0;
+        selectAll();
+    }
+
+    public void selectAll() {
+        selection = allRows;
+        selectedCount = size;
+    }
+
+    /**
+     * @param selection the indexes of the selected rows, in increasing order
+     * @param selectedCount the number of selected rows
+     */
+    public void select(int[] selection, int selectedCount) {
+        this.selection = selection;
+        this.selectedCount = selectedCount;
+    }
+
+    public int[] getSelection() {
+        return selection;
+    }
+
+    public int getSelectedCount() {
+        return selectedCount;
+    }
+}
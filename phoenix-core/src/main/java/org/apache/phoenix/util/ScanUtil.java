@@ -34,6 +34,7 @@ import org.apache.hadoop.hbase.filter.FilterList;
 import org.apache.hadoop.hbase.io.ImmutableBytesWritable;
 import org.apache.hadoop.hbase.util.Bytes;
 import org.apache.phoenix.compile.ScanRanges;
+import org.apache.phoenix.coprocessor.BaseScannerRegionObserver;
 import org.apache.phoenix.coprocessor.MetaDataProtocol;
 import org.apache.phoenix.filter.SkipScanFilter;
 import org.apache.phoenix.query.KeyRange;
@@ -62,6 +63,10 @@ public class ScanUtil {
         scan.setAttribute(PhoenixRuntime.TENANT_ID_ATTRIB, tenantId);
     }
 
+    public static void setQueryId(Scan scan, byte[] queryId) {
+        scan.setAttribute(BaseScannerRegionObserver.QUERY_ID, queryId);
+    }
+
     // Use getTenantId and pass in column name to match against
     // in as PSchema attribute. If column name matches in 
     // KeyExpressions, set on scan as attribute
@@ -0,0 +1,200 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.phoenix.cache;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.Closeable;
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.sql.SQLException;
+
+import org.apache.hadoop.hbase.io.ImmutableBytesWritable;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.apache.phoenix.coprocessor.ServerCachingProtocol.ReusableServerCacheFactory;
+import org.apache.phoenix.coprocessor.ServerCachingProtocol.ServerCacheFactory;
+import org.apache.phoenix.hbase.index.util.ImmutableBytesPtr;
+import org.apache.phoenix.memory.ChildMemoryManager;
+import org.apache.phoenix.memory.GlobalMemoryManager;
+import org.apache.phoenix.memory.InsufficientMemoryException;
+import org.apache.phoenix.memory.MemoryManager;
+import org.apache.phoenix.memory.MemoryManager.MemoryChunk;
+import org.junit.Test;
+
+
+public class TenantCacheTest {
+    private static final ImmutableBytesWritable CACHE = new ImmutableBytesWritable(new byte[100]);
+
+    private static ImmutableBytesPtr cacheId(int id) {
+        return new ImmutableBytesPtr(Bytes.toBytes((long)id));
+    }
+
+    @Test
+    public void testEvictReusableCaches() throws Exception {
+        GlobalMemoryManager memoryManager = new GlobalMemoryManager(250, 1);
+        TenantCache cache = new TenantCacheImpl(memoryManager, 60000);
+        cache.addServerCache(cacheId(1), CACHE, new ReusableCacheFactory());
+        cache.addServerCache(cacheId(2), CACHE, new ReusableCacheFactory());
+        assertNotNull(cache.getServerCache(cacheId(1)));
+        // Least recently used reusable cache makes room for the new one
+        cache.addServerCache(cacheId(3), CACHE, new CacheFactory());
+        assertNotNull(cache.getServerCache(cacheId(1)));
+        assertNull(cache.getServerCache(cacheId(2)));
+        assertEquals(50, memoryManager.getAvailableMemory());
+        cache.addServerCache(cacheId(4), CACHE, new CacheFactory());
+        assertNull(cache.getServerCache(cacheId(1)));
+        assertNotNull(cache.getServerCache(cacheId(3)));
+        // Caches of running queries are never evicted
+        try {
+            cache.addServerCache(cacheId(5), CACHE, new CacheFactory());
+            fail();
+        } catch (InsufficientMemoryException e) { // expected
+        }
+        cache.removeServerCache(cacheId(3));
+        cache.removeServerCache(cacheId(4));
+        assertEquals(250, memoryManager.getAvailableMemory());
+    }
+
+    @Test
+    public void testPinnedCachesAreNotEvicted() throws Exception {
+        GlobalMemoryManager memoryManager = new GlobalMemoryManager(250, 1);
+        TenantCache cache = new TenantCacheImpl(memoryManager, 60000);
+        cache.addServerCache(cacheId(1), CACHE, new ReusableCacheFactory());
+        cache.addServerCache(cacheId(2), CACHE, new ReusableCacheFactory());
+        assertNotNull(cache.pinServerCache(cacheId(1)));
+        assertNotNull(cache.getServerCache(cacheId(2)));
+        // The least recently used cache is being probed, so the other one is evicted
+        cache.addServerCache(cacheId(3), CACHE, new CacheFactory());
+        assertNotNull(cache.getServerCache(cacheId(1)));
+        assertNull(cache.getServerCache(cacheId(2)));
+        try {
+            cache.addServerCache(cacheId(4), CACHE, new CacheFactory());
+            fail();
+        } catch (InsufficientMemoryException e) { // expected
+        }
+        assertNotNull(cache.getServerCache(cacheId(1)));
+        cache.unpinServerCache(cacheId(1));
+        cache.addServerCache(cacheId(4), CACHE, new CacheFactory());
+        assertNull(cache.getServerCache(cacheId(1)));
+        assertNull(cache.pinServerCache(cacheId(1)));
+        cache.removeServerCache(cacheId(3));
+        cache.removeServerCache(cacheId(4));
+        assertEquals(250, memoryManager.getAvailableMemory());
+    }
+
+    @Test
+    public void testEvictForUncompressedSize() throws Exception {
+        GlobalMemoryManager memoryManager = new GlobalMemoryManager(350, 1);
+        TenantCache cache = new TenantCacheImpl(memoryManager, 60000);
+        cache.addServerCache(cacheId(1), CACHE, new ReusableCacheFactory());
+        cache.addServerCache(cacheId(2), CACHE, new ReusableCacheFactory());
+        // Enough memory is left for the bytes sent, but not for the cache built out of them
+        cache.addServerCache(cacheId(3), CACHE, new CompressedCacheFactory());
+        assertNull(cache.getServerCache(cacheId(1)));
+        assertNotNull(cache.getServerCache(cacheId(2)));
+        assertEquals(50, memoryManager.getAvailableMemory());
+        cache.removeServerCache(cacheId(2));
+        cache.removeServerCache(cacheId(3));
+        assertEquals(350, memoryManager.getAvailableMemory());
+    }
+
+    @Test
+    public void testAllocatedMemoryByQuery() throws Exception {
+        GlobalMemoryManager memoryManager = new GlobalMemoryManager(250, 1);
+        TenantCache cache = new TenantCacheImpl(new ChildMemoryManager(memoryManager, 80), 60000);
+        MemoryManager query1 = cache.getQueryMemoryManager(cacheId(1));
+        MemoryChunk c1 = query1.allocate(50);
+        // Each region of a query gets its own memory manager, all accounted for under the same query
+        MemoryChunk c2 = cache.getQueryMemoryManager(cacheId(1)).allocate(30);
+        MemoryChunk c3 = cache.getQueryMemoryManager(cacheId(2)).allocate(20);
+        MemoryChunk c4 = cache.getMemoryManager().allocate(10);
+        assertEquals(80, cache.getAllocatedMemoryByQuery().get(cacheId(1)).longValue());
+        assertEquals(20, cache.getAllocatedMemoryByQuery().get(cacheId(2)).longValue());
+        assertEquals(110, cache.getAllocatedMemory());
+        assertEquals(90, cache.getMemoryManager().getAvailableMemory());
+        c1.resize(70);
+        assertEquals(100, cache.getAllocatedMemoryByQuery().get(cacheId(1)).longValue());
+        assertEquals(130, cache.getAllocatedMemory());
+        try {
+            // The quota of the tenant still applies to its queries
+            query1.allocate(100);
+            fail();
+        } catch (InsufficientMemoryException e) { // expected
+        }
+        assertEquals(100, cache.getAllocatedMemoryByQuery().get(cacheId(1)).longValue());
+        c3.close();
+        c3.close();
+        assertNull(cache.getAllocatedMemoryByQuery().get(cacheId(2)));
+        c1.close();
+        assertEquals(30, cache.getAllocatedMemoryByQuery().get(cacheId(1)).longValue());
+        c2.close();
+        assertTrue(cache.getAllocatedMemoryByQuery().isEmpty());
+        c4.close();
+        assertEquals(0, cache.getAllocatedMemory());
+        assertEquals(250, memoryManager.getAvailableMemory());
+    }
+
+    public static class CacheFactory implements ServerCacheFactory {
+        @Override
+        public void readFields(DataInput input) throws IOException {
+        }
+
+        @Override
+        public void write(DataOutput output) throws IOException {
+        }
+
+        @Override
+        public long getEstimatedSize(ImmutableBytesWritable cachePtr) {
+            return cachePtr.getLength();
+        }
+
+        @Override
+        public Closeable newCache(ImmutableBytesWritable cachePtr, final MemoryChunk chunk) throws SQLException {
+            return new Closeable() {
+                @Override
+                public void close() throws IOException {
+                    chunk.close();
+                }
+            };
+        }
+    }
+
+    public static class ReusableCacheFactory extends CacheFactory implements ReusableServerCacheFactory {
+    }
+
+    /**
+     * Builds caches twice the size of the bytes sent
+     */
+    public static class CompressedCacheFactory extends CacheFactory {
+        @Override
+        public long getEstimatedSize(ImmutableBytesWritable cachePtr) {
+            return 2 * cachePtr.getLength();
+        }
+
+        @Override
+        public Closeable newCache(ImmutableBytesWritable cachePtr, final MemoryChunk chunk) throws SQLException {
+            chunk.resize(getEstimatedSize(cachePtr));
+            return super.newCache(cachePtr, chunk);
+        }
+    }
+}
@@ -27,11 +27,14 @@ import static org.apache.phoenix.util.TestUtil.JOIN_SUPPLIER_TABLE_DISPLAY_NAME;
 import static org.apache.phoenix.util.TestUtil.JOIN_SUPPLIER_TABLE_FULL_NAME;
 import static org.apache.phoenix.util.TestUtil.TEST_PROPERTIES;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
 import java.sql.Connection;
 import java.sql.DriverManager;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
 
 import org.apache.phoenix.compile.JoinCompiler.JoinTable;
 import org.apache.phoenix.jdbc.PhoenixConnection;
@@ -70,6 +73,36 @@ public class JoinQueryCompilerTest extends BaseConnectionlessQueryTest {
         		"    AFTER-JOIN SERVER FILTER BY I.NAME LIKE 'T%'", QueryUtil.getExplainPlan(rs));
     }
 
+    @Test
+    public void testSortMergeJoinExplainPlan() throws Exception {
+        Connection conn = DriverManager.getConnection(getUrl());
+        String query = "EXPLAIN SELECT /*+ USE_SORT_MERGE_JOIN*/ i.name, s.name FROM " + JOIN_ITEM_TABLE_FULL_NAME + " i JOIN "
+                + JOIN_SUPPLIER_TABLE_FULL_NAME + " s ON i.\"supplier_id\" = s.\"supplier_id\" ORDER BY s.name LIMIT 5";
+        ResultSet rs = conn.createStatement().executeQuery(query);
+        String plan = QueryUtil.getExplainPlan(rs);
+        assertTrue(plan.startsWith("SORT-MERGE-JOIN (INNER) TABLES\n" +
+                "    CLIENT PARALLEL 1-WAY FULL SCAN OVER " + JOIN_ITEM_TABLE_DISPLAY_NAME + "\n"));
+        assertTrue(plan.contains("AND\n    CLIENT PARALLEL 1-WAY FULL SCAN OVER " + JOIN_SUPPLIER_TABLE_DISPLAY_NAME + "\n"));
+        assertTrue(plan.contains("\nCLIENT TOP 5 ROWS SORTED BY "));
+        
+        query = "EXPLAIN SELECT i.name, s.name FROM " + JOIN_ITEM_TABLE_FULL_NAME + " i FULL JOIN "
+                + JOIN_SUPPLIER_TABLE_FULL_NAME + " s ON i.\"supplier_id\" = s.\"supplier_id\"";
+        rs = conn.createStatement().executeQuery(query);
+        assertTrue(QueryUtil.getExplainPlan(rs).startsWith("SORT-MERGE-JOIN (FULL) TABLES\n"));
+    }
+
+    @Test
+    public void testSortMergeJoinWithAggregation() throws Exception {
+        Connection conn = DriverManager.getConnection(getUrl());
+        String query = "SELECT /*+ USE_SORT_MERGE_JOIN*/ count(*) FROM " + JOIN_ITEM_TABLE_FULL_NAME + " i JOIN "
+                + JOIN_SUPPLIER_TABLE_FULL_NAME + " s ON i.\"supplier_id\" = s.\"supplier_id\"";
+        try {
+            conn.createStatement().executeQuery(query);
+            fail();
+        } catch (SQLFeatureNotSupportedException e) {
+        }
+    }
+
     @Test
     public void testWhereClauseOptimization() throws Exception {
         PhoenixConnection pconn = DriverManager.getConnection(getUrl(), TEST_PROPERTIES).unwrap(PhoenixConnection.class);
@@ -1430,4 +1430,15 @@ public class QueryCompilerTest extends BaseConnectionlessQueryTest {
             assertFalse("Did not expected to find GROUP BY limit optimization in: " + query, QueryUtil.getExplainPlan(rs).contains(" LIMIT 3 GROUPS"));
         }
     }
+    
+    @Test
+    public void testExplainPointLookupOpensNoTable() throws Exception {
+        // The connectionless query services cannot open tables, so explaining must not open one
+        Connection conn = DriverManager.getConnection(getUrl());
+        conn.createStatement().execute("CREATE TABLE point_lookup (k1 varchar not null, k2 varchar not null, v varchar, constraint pk primary key(k1,k2))");
+        ResultSet rs = conn.createStatement().executeQuery("EXPLAIN SELECT v FROM point_lookup WHERE k1 = 'a' AND k2 IN ('b','c')");
+        String plan = QueryUtil.getExplainPlan(rs);
+        assertTrue(plan, plan.startsWith("CLIENT BATCHED GET"));
+        conn.close();
+    }
 }
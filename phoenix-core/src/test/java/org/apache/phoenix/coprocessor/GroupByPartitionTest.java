@@ -0,0 +1,222 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.phoenix.coprocessor;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.hadoop.hbase.io.ImmutableBytesWritable;
+import org.apache.hadoop.hbase.regionserver.RegionScanner;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.apache.phoenix.coprocessor.GroupedAggregateRegionObserver.GroupByPartition;
+import org.apache.phoenix.expression.aggregator.Aggregator;
+import org.apache.phoenix.expression.aggregator.ServerAggregators;
+import org.apache.phoenix.schema.tuple.SingleKeyValueTuple;
+import org.apache.phoenix.schema.tuple.Tuple;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.common.util.concurrent.Uninterruptibles;
+
+public class GroupByPartitionTest {
+    private static final Tuple ROW = new SingleKeyValueTuple();
+    
+    private ExecutorService pool;
+    
+    @Before
+    public void setUp() {
+        pool = Executors.newCachedThreadPool();
+    }
+    
+    @After
+    public void tearDown() {
+        pool.shutdownNow();
+    }
+    
+    @Test
+    public void testAggregatesEveryRow() throws Exception {
+        CountingCache cache = new CountingCache();
+        GroupByPartition partition = new GroupByPartition(cache, ServerAggregators.EMPTY_AGGREGATORS);
+        partition.start(pool);
+        // Spans several batches, the last of which is partial
+        int nRows = 1000;
+        for (int i = 0; i < nRows; i++) {
+            partition.add(new ImmutableBytesWritable(Bytes.toBytes(i % 7)), ROW);
+        }
+        partition.finish();
+        
+        assertEquals(7, cache.counts.size());
+        int total = 0;
+        for (int i = 0; i < 7; i++) {
+            int count = cache.counts.get(new ImmutableBytesWritable(Bytes.toBytes(i))).get();
+            assertEquals(nRows / 7 + (i < nRows % 7 ? 1 : 0), count);
+            total += count;
+        }
+        assertEquals(nRows, total);
+    }
+    
+    @Test
+    public void testFailureSurfacesOnFinish() throws Exception {
+        final RuntimeException failure = new IllegalStateException("Out of memory");
+        CountingCache cache = new CountingCache() {
+            @Override
+            public Aggregator[] cache(ImmutableBytesWritable key) {
+                throw failure;
+            }
+        };
+        GroupByPartition partition = new GroupByPartition(cache, ServerAggregators.EMPTY_AGGREGATORS);
+        partition.start(pool);
+        partition.add(new ImmutableBytesWritable(Bytes.toBytes(1)), ROW);
+        try {
+            partition.finish();
+            fail();
+        } catch (IllegalStateException e) {
+            assertSame(failure, e);
+        }
+        // The thread has already stopped
+        partition.abort();
+    }
+    
+    @Test
+    public void testAbortWaitsForAggregation() throws Exception {
+        final CountDownLatch aggregating = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final AtomicBoolean aggregated = new AtomicBoolean();
+        CountingCache cache = new CountingCache() {
+            @Override
+            public Aggregator[] cache(ImmutableBytesWritable key) {
+                aggregating.countDown();
+                // Ignores the interrupt of the cancel, as a cache being written to may
+                Uninterruptibles.awaitUninterruptibly(release);
+                aggregated.set(true);
+                return super.cache(key);
+            }
+        };
+        final GroupByPartition partition = new GroupByPartition(cache, ServerAggregators.EMPTY_AGGREGATORS);
+        partition.start(pool);
+        partition.add(new ImmutableBytesWritable(Bytes.toBytes(1)), ROW);
+        // Flush the partial batch by finishing on another thread, as finish waits for the aggregation
+        pool.submit(new FinishTask(partition));
+        assertTrue(aggregating.await(10, TimeUnit.SECONDS));
+        
+        Future<?> abort = pool.submit(new Runnable() {
+            @Override
+            public void run() {
+                partition.abort();
+            }
+        });
+        Thread.sleep(200);
+        assertFalse(abort.isDone());
+        release.countDown();
+        abort.get(10, TimeUnit.SECONDS);
+        assertTrue(aggregated.get());
+    }
+    
+    @Test
+    public void testAbortBeforeStart() throws Exception {
+        CountingCache cache = new CountingCache();
+        GroupByPartition partition = new GroupByPartition(cache, ServerAggregators.EMPTY_AGGREGATORS);
+        // No thread left to aggregate the partition
+        ThreadPoolExecutor busyPool = new ThreadPoolExecutor(1, 1, 60, TimeUnit.SECONDS, new SynchronousQueue<Runnable>());
+        final CountDownLatch release = new CountDownLatch(1);
+        busyPool.submit(new Runnable() {
+            @Override
+            public void run() {
+                Uninterruptibles.awaitUninterruptibly(release);
+            }
+        });
+        try {
+            partition.start(busyPool);
+            fail();
+        } catch (RejectedExecutionException e) {
+        } finally {
+            release.countDown();
+            busyPool.shutdown();
+        }
+        partition.abort();
+        
+        // A partition aborted before its thread picks it up never aggregates
+        partition = new GroupByPartition(cache, ServerAggregators.EMPTY_AGGREGATORS);
+        partition.abort();
+        partition.call();
+        assertTrue(cache.counts.isEmpty());
+    }
+    
+    private static class FinishTask implements Runnable {
+        private final GroupByPartition partition;
+        
+        private FinishTask(GroupByPartition partition) {
+            this.partition = partition;
+        }
+        
+        @Override
+        public void run() {
+            try {
+                partition.finish();
+            } catch (IOException e) {
+            }
+        }
+    }
+    
+    private static class CountingCache implements GroupByCache {
+        private final Map<ImmutableBytesWritable, AtomicInteger> counts = new ConcurrentHashMap<ImmutableBytesWritable, AtomicInteger>();
+        
+        @Override
+        public long size() {
+            return counts.size();
+        }
+
+        @Override
+        public Aggregator[] cache(ImmutableBytesWritable key) {
+            AtomicInteger count = counts.get(key);
+            if (count == null) {
+                count = new AtomicInteger();
+                counts.put(key, count);
+            }
+            count.incrementAndGet();
+            return new Aggregator[0];
+        }
+
+        @Override
+        public RegionScanner getScanner(RegionScanner s) {
+            return s;
+        }
+
+        @Override
+        public void close() throws IOException {
+        }
+    }
+}
@@ -0,0 +1,111 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.phoenix.execute;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.apache.hadoop.hbase.util.Bytes;
+import org.apache.phoenix.hbase.index.util.ImmutableBytesPtr;
+import org.apache.phoenix.schema.PColumn;
+import org.apache.phoenix.schema.PColumnImpl;
+import org.apache.phoenix.schema.PDataType;
+import org.apache.phoenix.schema.PNameFactory;
+import org.apache.phoenix.schema.SortOrder;
+import org.junit.Test;
+
+import com.google.common.collect.Sets;
+
+public class MutationBufferTest {
+    private static final PColumn COL1 = newColumn("C1", 1);
+    private static final PColumn COL2 = newColumn("C2", 2);
+    
+    private static PColumn newColumn(String name, int position) {
+        return new PColumnImpl(PNameFactory.newName(name), PNameFactory.newName("0"), PDataType.VARCHAR, null, null,
+                true, position, SortOrder.getDefault(), 0, null, false);
+    }
+    
+    private static ImmutableBytesPtr key(String key) {
+        return new ImmutableBytesPtr(Bytes.toBytes(key));
+    }
+    
+    @Test
+    public void testRowsAreDeduped() {
+        MutationBuffer buffer = new MutationBuffer(2);
+        int row = buffer.upsertRow(key("a"));
+        buffer.setValue(row, COL1, Bytes.toBytes("x"));
+        assertEquals(row, buffer.upsertRow(key("a")));
+        buffer.setValue(row, COL1, Bytes.toBytes("y"));
+        buffer.deleteRow(key("b"));
+        buffer.deleteRow(key("b"));
+        assertEquals(2, buffer.size());
+    }
+    
+    @Test
+    public void testManyRows() {
+        MutationBuffer buffer = new MutationBuffer(1);
+        for (int i = 0; i < 10000; i++) {
+            int row = buffer.upsertRow(key("row" + i));
+            buffer.setValue(row, COL1, Bytes.toBytes("value" + i));
+        }
+        for (int i = 0; i < 10000; i += 2) {
+            buffer.deleteRow(key("row" + i));
+        }
+        assertEquals(10000, buffer.size());
+        buffer.clear();
+        assertTrue(buffer.isEmpty());
+    }
+    
+    @Test
+    public void testDeleteDiscardsValues() {
+        MutationBuffer buffer = new MutationBuffer();
+        int row = buffer.upsertRow(key("a"));
+        buffer.setValue(row, COL1, Bytes.toBytes("x"));
+        buffer.deleteRow(key("a"));
+        assertTrue(buffer.getUpsertedColumns().isEmpty());
+        row = buffer.upsertRow(key("a"));
+        buffer.setValue(row, COL2, Bytes.toBytes("y"));
+        assertEquals(Sets.newHashSet(COL2), buffer.getUpsertedColumns());
+    }
+    
+    @Test
+    public void testJoin() {
+        MutationBuffer buffer = new MutationBuffer();
+        int row = buffer.upsertRow(key("a"));
+        buffer.setValue(row, COL1, Bytes.toBytes("x"));
+        buffer.deleteRow(key("b"));
+        buffer.upsertRow(key("c"));
+        
+        MutationBuffer newer = new MutationBuffer();
+        row = newer.upsertRow(key("b"));
+        newer.setValue(row, COL2, null);
+        newer.deleteRow(key("c"));
+        newer.deleteRow(key("d"));
+        
+        buffer.join(newer);
+        assertEquals(4, buffer.size());
+        assertEquals(Sets.newHashSet(COL1, COL2), buffer.getUpsertedColumns());
+        
+        MutationBuffer deletes = new MutationBuffer();
+        deletes.deleteRow(key("a"));
+        deletes.deleteRow(key("b"));
+        buffer.join(deletes);
+        assertEquals(4, buffer.size());
+        assertTrue(buffer.getUpsertedColumns().isEmpty());
+    }
+}
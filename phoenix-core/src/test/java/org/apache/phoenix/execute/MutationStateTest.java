@@ -0,0 +1,241 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.phoenix.execute;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.Collections;
+import java.util.List;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
+import org.apache.hadoop.hbase.HConstants;
+import org.apache.hadoop.hbase.HRegionInfo;
+import org.apache.hadoop.hbase.HRegionLocation;
+import org.apache.hadoop.hbase.ServerName;
+import org.apache.hadoop.hbase.TableName;
+import org.apache.hadoop.hbase.client.HTableInterface;
+import org.apache.hadoop.hbase.client.Row;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.apache.phoenix.jdbc.PhoenixConnection;
+import org.apache.phoenix.query.BaseConnectionlessQueryTest;
+import org.apache.phoenix.query.ConnectionQueryServices;
+import org.apache.phoenix.query.DelegateConnectionQueryServices;
+import org.apache.phoenix.query.QueryServices;
+import org.apache.phoenix.util.PhoenixRuntime;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.mockito.Mockito;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
+
+/**
+ * Tests for the chunked commit of {@link MutationState}, sending through a mock table
+ */
+public class MutationStateTest extends BaseConnectionlessQueryTest {
+    private static final String TABLE_NAME = "COMMIT_CHUNKS";
+    private static final int ROW_COUNT = 100;
+    private static final byte[][] SPLITS = new byte[][] {Bytes.toBytes("k025"), Bytes.toBytes("k050"), Bytes.toBytes("k075")};
+    private static final byte[] FAILING_ROW = Bytes.toBytes("k050");
+    
+    @BeforeClass
+    public static void createTable() throws Exception {
+        Connection conn = DriverManager.getConnection(getUrl());
+        try {
+            conn.createStatement().execute("CREATE TABLE IF NOT EXISTS " + TABLE_NAME + " (K VARCHAR NOT NULL PRIMARY KEY, V VARCHAR)");
+        } finally {
+            conn.close();
+        }
+    }
+    
+    /**
+     * Records the rows and the thread of each batch call, failing the batches containing the failing row if asked to.
+     */
+    private static class BatchRecorder implements Answer<Object[]> {
+        private final boolean shouldFail;
+        private final List<List<byte[]>> batches = Collections.synchronizedList(Lists.<List<byte[]>>newArrayList());
+        private final Set<Thread> threads = Collections.synchronizedSet(Sets.<Thread>newHashSet());
+        
+        private BatchRecorder(boolean shouldFail) {
+            this.shouldFail = shouldFail;
+        }
+        
+        @Override
+        public Object[] answer(InvocationOnMock invocation) throws Throwable {
+            threads.add(Thread.currentThread());
+            List<byte[]> rows = Lists.newArrayList();
+            boolean hasFailingRow = false;
+            for (Object row : (List<?>)invocation.getArguments()[0]) {
+                rows.add(((Row)row).getRow());
+                hasFailingRow |= Bytes.equals(FAILING_ROW, ((Row)row).getRow());
+            }
+            batches.add(rows);
+            if (shouldFail && hasFailingRow) {
+                throw new IOException("Failing batch");
+            }
+            return new Object[rows.size()];
+        }
+    }
+    
+    @SuppressWarnings({ "deprecation", "unchecked" })
+    private static PhoenixConnection newConnection(BatchRecorder recorder, Properties props) throws Exception {
+        final HTableInterface hTable = Mockito.mock(HTableInterface.class);
+        Mockito.when(hTable.batch(Mockito.anyList())).thenAnswer(recorder);
+        PhoenixConnection conn = DriverManager.getConnection(getUrl()).unwrap(PhoenixConnection.class);
+        try {
+            ConnectionQueryServices services = new DelegateConnectionQueryServices(conn.getQueryServices()) {
+                @Override
+                public HTableInterface getTable(byte[] tableName) throws SQLException {
+                    return hTable;
+                }
+                
+                @Override
+                public List<HRegionLocation> getAllTableRegions(byte[] tableName) throws SQLException {
+                    List<HRegionLocation> regions = Lists.newArrayListWithExpectedSize(SPLITS.length + 1);
+                    byte[] startKey = HConstants.EMPTY_START_ROW;
+                    for (int i = 0; i <= SPLITS.length; i++) {
+                        byte[] endKey = i < SPLITS.length ? SPLITS[i] : HConstants.EMPTY_END_ROW;
+                        regions.add(new HRegionLocation(new HRegionInfo(TableName.valueOf(tableName), startKey, endKey),
+                                ServerName.valueOf("localhost", HConstants.DEFAULT_REGIONSERVER_PORT, 0), -1));
+                        startKey = endKey;
+                    }
+                    return regions;
+                }
+            };
+            return new PhoenixConnection(services, conn.getURL(), props, conn.getMetaDataCache());
+        } finally {
+            conn.close();
+        }
+    }
+    
+    private static void upsertRows(Connection conn) throws SQLException {
+        PreparedStatement stmt = conn.prepareStatement("UPSERT INTO " + TABLE_NAME + " VALUES(?,?)");
+        for (int i = 0; i < ROW_COUNT; i++) {
+            stmt.setString(1, String.format("k%03d", i));
+            stmt.setString(2, String.format("%0100d", i));
+            stmt.execute();
+        }
+    }
+    
+    @Test
+    public void testCommitInChunks() throws Exception {
+        BatchRecorder recorder = new BatchRecorder(false);
+        PhoenixConnection conn = newConnection(recorder, new Properties());
+        try {
+            upsertRows(conn);
+            conn.commit();
+            // Each chunk is of about 1k in tests
+            assertTrue(recorder.batches.size() > 1);
+            Set<String> rows = Sets.newHashSet();
+            for (List<byte[]> batch : recorder.batches) {
+                for (byte[] row : batch) {
+                    assertTrue(rows.add(Bytes.toString(row)));
+                }
+            }
+            assertEquals(ROW_COUNT, rows.size());
+            assertFalse(PhoenixRuntime.getUncommittedDataIterator(conn).hasNext());
+        } finally {
+            conn.close();
+        }
+    }
+    
+    @Test
+    public void testChunkFailureThrowsCommitException() throws Exception {
+        BatchRecorder recorder = new BatchRecorder(true);
+        PhoenixConnection conn = newConnection(recorder, new Properties());
+        try {
+            upsertRows(conn);
+            try {
+                conn.commit();
+                fail();
+            } catch (CommitException e) {
+                assertTrue(e.getCause() instanceof IOException);
+                // The table was not entirely sent, so it is left to be committed
+                assertEquals(0, e.getCommittedState().getUpdateCount());
+                assertTrue(PhoenixRuntime.getUncommittedDataIterator(conn).hasNext());
+            }
+        } finally {
+            conn.close();
+        }
+    }
+    
+    @Test
+    public void testNoChunkSentAfterFailure() throws Exception {
+        BatchRecorder recorder = new BatchRecorder(true);
+        Properties props = new Properties();
+        // A single chunk being sent at a time, the failure is known before the next one is sent
+        props.setProperty(QueryServices.COMMIT_MAX_IN_FLIGHT_BYTES_ATTRIB, Integer.toString(1));
+        PhoenixConnection conn = newConnection(recorder, props);
+        try {
+            upsertRows(conn);
+            try {
+                conn.commit();
+                fail();
+            } catch (CommitException e) {
+            }
+            List<byte[]> lastBatch = recorder.batches.get(recorder.batches.size() - 1);
+            boolean hasFailingRow = false;
+            for (byte[] row : lastBatch) {
+                hasFailingRow |= Bytes.equals(FAILING_ROW, row);
+            }
+            assertTrue(hasFailingRow);
+        } finally {
+            conn.close();
+        }
+    }
+    
+    @Test
+    public void testCommitOnJobThreadSendsInline() throws Exception {
+        BatchRecorder recorder = new BatchRecorder(false);
+        final PhoenixConnection conn = newConnection(recorder, new Properties());
+        try {
+            upsertRows(conn);
+            Future<Thread> future = conn.getQueryServices().getExecutor().submit(new Callable<Thread>() {
+                @Override
+                public Thread call() throws Exception {
+                    conn.commit();
+                    return Thread.currentThread();
+                }
+            });
+            Thread jobThread;
+            try {
+                jobThread = future.get();
+            } catch (ExecutionException e) {
+                throw (Exception)e.getCause();
+            }
+            assertTrue(recorder.batches.size() > 1);
+            assertEquals(Collections.singleton(jobThread), recorder.threads);
+        } finally {
+            conn.close();
+        }
+    }
+}
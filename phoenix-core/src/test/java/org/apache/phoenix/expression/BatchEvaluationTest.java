@@ -0,0 +1,115 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.phoenix.expression;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.hadoop.hbase.Cell;
+import org.apache.hadoop.hbase.KeyValue;
+import org.apache.hadoop.hbase.filter.CompareFilter.CompareOp;
+import org.apache.hadoop.hbase.io.ImmutableBytesWritable;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.apache.phoenix.schema.PColumnImpl;
+import org.apache.phoenix.schema.PDataType;
+import org.apache.phoenix.schema.PNameFactory;
+import org.apache.phoenix.schema.SortOrder;
+import org.apache.phoenix.schema.tuple.MultiKeyValueTuple;
+import org.apache.phoenix.schema.tuple.Tuple;
+import org.apache.phoenix.schema.tuple.TupleBatch;
+import org.junit.Test;
+
+import com.google.common.collect.Lists;
+
+public class BatchEvaluationTest {
+    private static final byte[] FAMILY = Bytes.toBytes("F");
+    private static final Expression LONG_COLUMN = new KeyValueColumnExpression(new PColumnImpl(PNameFactory.newName("A"), PNameFactory.newName("F"),
+            PDataType.LONG, null, null, true, 1, SortOrder.getDefault(), 0, null, false));
+    private static final Expression DOUBLE_COLUMN = new KeyValueColumnExpression(new PColumnImpl(PNameFactory.newName("B"), PNameFactory.newName("F"),
+            PDataType.DOUBLE, null, null, true, 2, SortOrder.getDefault(), 0, null, false));
+    
+    private static TupleBatch newBatch() {
+        TupleBatch batch = new TupleBatch(8);
+        for (int i = 0; i < 8; i++) {
+            List<Cell> cells = Lists.newArrayList();
+            byte[] row = Bytes.toBytes("r" + i);
+            // Leave some values null
+            if (i % 3 != 0) {
+                cells.add(new KeyValue(row, FAMILY, Bytes.toBytes("A"), PDataType.LONG.toBytes((long)i)));
+            }
+            if (i % 4 != 1) {
+                cells.add(new KeyValue(row, FAMILY, Bytes.toBytes("B"), PDataType.DOUBLE.toBytes(i / 2.0)));
+            }
+            if (cells.isEmpty()) {
+                cells.add(new KeyValue(row, FAMILY, Bytes.toBytes("_0"), new byte[0]));
+            }
+            batch.add(new MultiKeyValueTuple(cells));
+        }
+        return batch;
+    }
+    
+    private static void assertBatchEvaluation(Expression expression) {
+        TupleBatch batch = newBatch();
+        ColumnVector vector = new ColumnVector(batch.getCapacity());
+        expression.evaluate(batch, vector);
+        ImmutableBytesWritable expected = new ImmutableBytesWritable();
+        ImmutableBytesWritable actual = new ImmutableBytesWritable();
+        for (int row = 0; row < batch.size(); row++) {
+            Tuple tuple = batch.get(row);
+            boolean isSet = expression.evaluate(tuple, expected);
+            assertEquals(expression + " on " + tuple, isSet, vector.get(row, actual));
+            if (isSet) {
+                assertArrayEquals(expression + " on " + tuple, expected.copyBytes(), actual.copyBytes());
+            }
+        }
+    }
+    
+    @Test
+    public void testComparison() throws Exception {
+        assertBatchEvaluation(new ComparisonExpression(CompareOp.GREATER, Arrays.asList(LONG_COLUMN, LiteralExpression.newConstant(3L, PDataType.LONG))));
+        assertBatchEvaluation(new ComparisonExpression(CompareOp.LESS_OR_EQUAL, Arrays.asList(DOUBLE_COLUMN, LiteralExpression.newConstant(1.5, PDataType.DOUBLE))));
+    }
+    
+    @Test
+    public void testAndOr() throws Exception {
+        Expression lhs = new ComparisonExpression(CompareOp.GREATER, Arrays.asList(LONG_COLUMN, LiteralExpression.newConstant(2L, PDataType.LONG)));
+        Expression rhs = new ComparisonExpression(CompareOp.LESS, Arrays.asList(DOUBLE_COLUMN, LiteralExpression.newConstant(3.0, PDataType.DOUBLE)));
+        assertBatchEvaluation(new AndExpression(Arrays.asList(lhs, rhs)));
+        assertBatchEvaluation(new OrExpression(Arrays.asList(lhs, rhs)));
+    }
+    
+    @Test
+    public void testInList() throws Exception {
+        Expression expression = InListExpression.create(Arrays.asList(LONG_COLUMN, 
+                LiteralExpression.newConstant(1L, PDataType.LONG), 
+                LiteralExpression.newConstant(4L, PDataType.LONG), 
+                LiteralExpression.newConstant(7L, PDataType.LONG)), false, new ImmutableBytesWritable());
+        assertBatchEvaluation(expression);
+    }
+    
+    @Test
+    public void testArithmetic() throws Exception {
+        assertBatchEvaluation(new LongAddExpression(Arrays.asList(LONG_COLUMN, LiteralExpression.newConstant(10L, PDataType.LONG))));
+        assertBatchEvaluation(new LongMultiplyExpression(Arrays.asList(LONG_COLUMN, LONG_COLUMN)));
+        assertBatchEvaluation(new DoubleSubtractExpression(Arrays.asList(DOUBLE_COLUMN, LiteralExpression.newConstant(0.5, PDataType.DOUBLE))));
+        assertBatchEvaluation(new DoubleMultiplyExpression(Arrays.asList(DOUBLE_COLUMN, LiteralExpression.newConstant(2.0, PDataType.DOUBLE))));
+    }
+}
@@ -0,0 +1,82 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.phoenix.expression.aggregator;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.apache.hadoop.hbase.io.ImmutableBytesWritable;
+import org.apache.phoenix.schema.PDataType;
+import org.apache.phoenix.schema.SortOrder;
+import org.junit.Test;
+
+public class MinMaxAggregatorTest {
+    
+    private static MinAggregator newMinAggregator(final PDataType type, SortOrder sortOrder) {
+        return new MinAggregator(sortOrder) {
+            @Override
+            public PDataType getDataType() {
+                return type;
+            }
+        };
+    }
+    
+    private static MaxAggregator newMaxAggregator(final PDataType type, SortOrder sortOrder) {
+        return new MaxAggregator(sortOrder) {
+            @Override
+            public PDataType getDataType() {
+                return type;
+            }
+        };
+    }
+    
+    private static Object aggregate(Aggregator aggregator, PDataType type, SortOrder sortOrder, Object... values) {
+        for (Object value : values) {
+            byte[] bytes = type.toBytes(value, sortOrder);
+            aggregator.aggregate(null, new ImmutableBytesWritable(bytes));
+            // The aggregator must not keep a reference to the bytes it was passed
+            bytes[0] ^= 0xff;
+        }
+        ImmutableBytesWritable ptr = new ImmutableBytesWritable();
+        assertTrue(aggregator.evaluate(null, ptr));
+        return type.toObject(ptr, sortOrder);
+    }
+    
+    @Test
+    public void testLong() {
+        for (SortOrder sortOrder : SortOrder.values()) {
+            assertEquals(-7L, aggregate(newMinAggregator(PDataType.LONG, sortOrder), PDataType.LONG, sortOrder, 3L, -7L, 12L, 0L));
+            assertEquals(12L, aggregate(newMaxAggregator(PDataType.LONG, sortOrder), PDataType.LONG, sortOrder, 3L, -7L, 12L, 0L));
+        }
+    }
+    
+    @Test
+    public void testDouble() {
+        for (SortOrder sortOrder : SortOrder.values()) {
+            assertEquals(-2.5, aggregate(newMinAggregator(PDataType.DOUBLE, sortOrder), PDataType.DOUBLE, sortOrder, 1.5, -2.5, 0.0));
+            assertEquals(1.5, aggregate(newMaxAggregator(PDataType.DOUBLE, sortOrder), PDataType.DOUBLE, sortOrder, 1.5, -2.5, 0.0));
+        }
+    }
+    
+    @Test
+    public void testVarchar() {
+        SortOrder sortOrder = SortOrder.getDefault();
+        assertEquals("ab", aggregate(newMinAggregator(PDataType.VARCHAR, sortOrder), PDataType.VARCHAR, sortOrder, "b", "ab", "abc"));
+        assertEquals("b", aggregate(newMaxAggregator(PDataType.VARCHAR, sortOrder), PDataType.VARCHAR, sortOrder, "abc", "b", "ab"));
+    }
+}
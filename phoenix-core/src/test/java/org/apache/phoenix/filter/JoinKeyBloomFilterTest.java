@@ -0,0 +1,158 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.phoenix.filter;
+
+import static org.apache.phoenix.query.QueryConstants.SINGLE_COLUMN;
+import static org.apache.phoenix.query.QueryConstants.SINGLE_COLUMN_FAMILY;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import org.apache.hadoop.hbase.Cell;
+import org.apache.hadoop.hbase.KeyValue;
+import org.apache.hadoop.hbase.io.ImmutableBytesWritable;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.apache.hadoop.hbase.util.Writables;
+import org.apache.phoenix.expression.Expression;
+import org.apache.phoenix.expression.RowKeyColumnExpression;
+import org.apache.phoenix.schema.PDataType;
+import org.apache.phoenix.schema.PDatum;
+import org.apache.phoenix.schema.RowKeyValueAccessor;
+import org.apache.phoenix.schema.SortOrder;
+import org.junit.Test;
+
+import com.google.common.collect.Lists;
+
+
+public class JoinKeyBloomFilterTest {
+    private static final PDatum KEY_DATUM = new PDatum() {
+        @Override
+        public boolean isNullable() {
+            return false;
+        }
+
+        @Override
+        public PDataType getDataType() {
+            return PDataType.VARCHAR;
+        }
+
+        @Override
+        public Integer getMaxLength() {
+            return null;
+        }
+
+        @Override
+        public Integer getScale() {
+            return null;
+        }
+
+        @Override
+        public SortOrder getSortOrder() {
+            return SortOrder.getDefault();
+        }
+    };
+
+    private static final List<Expression> JOIN_EXPRESSIONS = Collections.<Expression>singletonList(
+            new RowKeyColumnExpression(KEY_DATUM, new RowKeyValueAccessor(Collections.singletonList(KEY_DATUM), 0)));
+
+    private static boolean filterRow(JoinKeyBloomFilter filter, String row) throws Exception {
+        List<Cell> cells = Lists.<Cell>newArrayList(new KeyValue(Bytes.toBytes(row), SINGLE_COLUMN_FAMILY, SINGLE_COLUMN, Bytes.toBytes(1)));
+        filter.reset();
+        filter.filterRowCells(cells);
+        return filter.filterRow();
+    }
+
+    private static JoinKeyBloomFilter newFilter(long maxBytes, String... keys) {
+        JoinKeyBloomFilter.Builder builder = new JoinKeyBloomFilter.Builder();
+        for (String key : keys) {
+            builder.add(new ImmutableBytesWritable(Bytes.toBytes(key)));
+        }
+        return builder.build(JOIN_EXPRESSIONS, maxBytes);
+    }
+
+    @Test
+    public void testFilterRow() throws Exception {
+        JoinKeyBloomFilter filter = newFilter(1024, "a", "c", "e");
+        assertFalse(filterRow(filter, "a"));
+        assertFalse(filterRow(filter, "c"));
+        assertFalse(filterRow(filter, "e"));
+        int filtered = 0;
+        for (int i = 0; i < 100; i++) {
+            if (filterRow(filter, "b" + i)) {
+                filtered++;
+            }
+        }
+        // Allow for false positives
+        assertTrue(filtered > 90);
+    }
+
+    @Test
+    public void testEmptyBuildSide() throws Exception {
+        JoinKeyBloomFilter filter = newFilter(1024);
+        assertTrue(filterRow(filter, "a"));
+    }
+
+    @Test
+    public void testTooManyKeys() throws Exception {
+        assertNull(newFilter(1, "a", "b", "c", "d", "e", "f", "g"));
+    }
+
+    @Test
+    public void testDuplicateKeysCountOnce() throws Exception {
+        String[] keys = new String[1001];
+        Arrays.fill(keys, "a");
+        keys[500] = "c";
+        // 8 bytes hold the bits of two distinct keys, but not of a thousand rows
+        JoinKeyBloomFilter filter = newFilter(8, keys);
+        assertNotNull(filter);
+        assertFalse(filterRow(filter, "a"));
+        assertFalse(filterRow(filter, "c"));
+    }
+
+    @Test
+    public void testPositionOfLargeFilter() throws Exception {
+        // More bits than an int can address
+        long nBits = 1L << 36;
+        Random random = new Random(3);
+        boolean beyondInt = false;
+        for (int i = 0; i < 1000; i++) {
+            long hash = random.nextLong();
+            for (int j = 0; j < 7; j++) {
+                long position = JoinKeyBloomFilter.position(nBits, hash, j);
+                assertTrue(position >= 0 && position < nBits);
+                beyondInt |= position > Integer.MAX_VALUE;
+            }
+        }
+        assertTrue(beyondInt);
+    }
+
+    @Test
+    public void testSerialization() throws Exception {
+        JoinKeyBloomFilter filter = newFilter(1024, "a", "c", "e");
+        JoinKeyBloomFilter copy = JoinKeyBloomFilter.parseFrom(Writables.getBytes(filter));
+        assertFalse(filterRow(copy, "a"));
+        assertFalse(filterRow(copy, "e"));
+        assertTrue(filterRow(copy, "b") == filterRow(filter, "b"));
+    }
+}
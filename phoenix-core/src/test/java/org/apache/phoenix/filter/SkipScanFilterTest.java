@@ -307,6 +307,26 @@ public class SkipScanFilterTest extends TestCase {
                 new SeekNext("dzzAB250", "dzzAB701"),
                 new Finished("zzzAA000"))
         );
+        testCases.addAll(
+                foreach(new KeyRange[][]{
+                    pointLookups(500),
+                },
+                new int[]{3},
+                new Include("500"),
+                new SeekNext("501", "502"),
+                new Finished("999"))
+        );
+        testCases.addAll(
+                foreach(new KeyRange[][]{
+                    pointLookups(500),
+                    pointLookups(500),
+                },
+                new int[]{3,3},
+                new Include("002500"),
+                new SeekNext("002501", "002502"),
+                new SeekNext("004999", "006000"),
+                new Finished("998999"))
+        );
 // TODO variable length columns
 //        testCases.addAll(
 //                foreach(new KeyRange[][]{{
@@ -327,6 +347,17 @@ public class SkipScanFilterTest extends TestCase {
         return testCases;
     }
 
+    /**
+     * @return single keys for the first count even numbers, as for a large IN list
+     */
+    private static KeyRange[] pointLookups(int count) {
+        KeyRange[] keys = new KeyRange[count];
+        for (int i = 0; i < count; i++) {
+            keys[i] = PDataType.CHAR.getKeyRange(Bytes.toBytes(String.format("%03d", i * 2)));
+        }
+        return keys;
+    }
+
     private static Collection<?> foreach(KeyRange[][] ranges, int[] widths, Expectation... expectations) {
         List<List<KeyRange>> cnf = Lists.transform(Lists.newArrayList(ranges), ARRAY_TO_LIST);
         List<Object> ret = Lists.newArrayList();
@@ -0,0 +1,106 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.phoenix.hbase.index.builder;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.apache.hadoop.hbase.client.Mutation;
+import org.apache.hadoop.hbase.client.Put;
+import org.apache.hadoop.hbase.regionserver.MiniBatchOperationInProgress;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.apache.hadoop.hbase.util.Pair;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.InOrder;
+import org.mockito.Mockito;
+
+import org.apache.phoenix.hbase.index.parallel.QuickFailingTaskRunner;
+
+public class TestIndexBuildManager {
+
+  private ExecutorService executor;
+  private IndexBuilder builder;
+  private MiniBatchOperationInProgress<Mutation> miniBatchOp;
+  private Collection<Mutation> mutations;
+  private IndexBuildManager manager;
+
+  @SuppressWarnings("unchecked")
+  @Before
+  public void setup() {
+    executor = Executors.newSingleThreadExecutor();
+    builder = Mockito.mock(IndexBuilder.class);
+    miniBatchOp = Mockito.mock(MiniBatchOperationInProgress.class);
+    mutations = Collections.<Mutation> singletonList(new Put(Bytes.toBytes("row")));
+    manager = new IndexBuildManager(builder, new QuickFailingTaskRunner(executor));
+  }
+
+  @After
+  public void teardown() {
+    executor.shutdownNow();
+  }
+
+  @Test
+  public void testReleasesBatchAfterBuildingUpdates() throws Throwable {
+    Collection<Pair<Mutation, byte[]>> updates = Collections.emptyList();
+    Mockito.when(builder.getIndexUpdate(Mockito.any(Mutation.class))).thenReturn(updates);
+    assertEquals(0, manager.getIndexUpdate(miniBatchOp, mutations).size());
+
+    InOrder order = Mockito.inOrder(builder);
+    order.verify(builder).batchStarted(miniBatchOp);
+    order.verify(builder).getIndexUpdate(Mockito.any(Mutation.class));
+    order.verify(builder).batchUpdatesBuilt(miniBatchOp);
+    Mockito.verify(builder, Mockito.never()).batchCompleted(miniBatchOp);
+  }
+
+  @Test
+  public void testReleasesBatchWhenBuildingUpdatesFails() throws Throwable {
+    IOException failure = new IOException("lookup failed");
+    Mockito.when(builder.getIndexUpdate(Mockito.any(Mutation.class))).thenThrow(failure);
+    try {
+      manager.getIndexUpdate(miniBatchOp, mutations);
+      fail();
+    } catch (IOException e) {
+      assertSame(failure, e);
+    }
+    Mockito.verify(builder).batchUpdatesBuilt(miniBatchOp);
+  }
+
+  @Test
+  public void testReleasesBatchWhenStartingItFails() throws Throwable {
+    IOException failure = new IOException("scan failed");
+    Mockito.doThrow(failure).when(builder).batchStarted(miniBatchOp);
+    try {
+      manager.getIndexUpdate(miniBatchOp, mutations);
+      fail();
+    } catch (IOException e) {
+      assertSame(failure, e);
+    }
+    Mockito.verify(builder).batchUpdatesBuilt(miniBatchOp);
+    Mockito.verify(builder, Mockito.never()).getIndexUpdate(Mockito.any(Mutation.class));
+  }
+}
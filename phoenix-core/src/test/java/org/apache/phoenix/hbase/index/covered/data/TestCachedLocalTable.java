@@ -0,0 +1,102 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.phoenix.hbase.index.covered.data;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+
+import org.apache.hadoop.hbase.Cell;
+import org.apache.hadoop.hbase.KeyValue;
+import org.apache.hadoop.hbase.client.Put;
+import org.apache.hadoop.hbase.client.Result;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.junit.Test;
+import org.mockito.Mockito;
+
+import org.apache.phoenix.hbase.index.covered.update.ColumnReference;
+import org.apache.phoenix.hbase.index.util.ImmutableBytesPtr;
+
+public class TestCachedLocalTable {
+
+  private static final byte[] row = Bytes.toBytes("row");
+  private static final byte[] fam = Bytes.toBytes("fam");
+  private static final byte[] fam2 = Bytes.toBytes("fam2");
+  private static final byte[] qual = Bytes.toBytes("qual");
+  private static final long ts = 10;
+
+  private static Set<byte[]> families(byte[]... families) {
+    Set<byte[]> set = new TreeSet<byte[]>(Bytes.BYTES_COMPARATOR);
+    set.addAll(Arrays.asList(families));
+    return set;
+  }
+
+  @SuppressWarnings("unchecked")
+  @Test
+  public void testLoadedRowIsNotScannedAgain() throws Exception {
+    LocalHBaseState delegate = Mockito.mock(LocalHBaseState.class);
+    CachedLocalTable table = new CachedLocalTable(delegate);
+    KeyValue kv = new KeyValue(row, fam, qual, ts, Bytes.toBytes("a"));
+    KeyValue kv2 = new KeyValue(row, fam2, qual, ts, Bytes.toBytes("b"));
+    table.setRowState(new ImmutableBytesPtr(row), families(fam, fam2), Arrays.<Cell>asList(kv, kv2));
+
+    Result r = table.getCurrentRowState(new Put(row), Collections.singletonList(new ColumnReference(fam, qual)));
+    // only the families that were asked for are returned
+    assertEquals(1, r.size());
+    assertSame(kv, r.rawCells()[0]);
+    Mockito.verify(delegate, Mockito.never()).getCurrentRowState(Mockito.any(Put.class),
+      Mockito.any(Collection.class));
+  }
+
+  @Test
+  public void testMissingRowHasNoState() throws Exception {
+    LocalHBaseState delegate = Mockito.mock(LocalHBaseState.class);
+    CachedLocalTable table = new CachedLocalTable(delegate);
+    table.setRowState(new ImmutableBytesPtr(row), families(fam), Collections.<Cell>emptyList());
+
+    Result r = table.getCurrentRowState(new Put(row), Collections.singletonList(new ColumnReference(fam, qual)));
+    assertTrue(r.isEmpty());
+  }
+
+  @Test
+  public void testFallBackToDelegate() throws Exception {
+    LocalHBaseState delegate = Mockito.mock(LocalHBaseState.class);
+    Result stored = Result.create(Collections.<Cell>singletonList(new KeyValue(row, fam2, qual, ts, Bytes.toBytes("b"))));
+    CachedLocalTable table = new CachedLocalTable(delegate);
+    table.setRowState(new ImmutableBytesPtr(row), families(fam), Collections.<Cell>emptyList());
+
+    // a family that was not loaded
+    Put m = new Put(row);
+    List<ColumnReference> columns = Collections.singletonList(new ColumnReference(fam2, qual));
+    Mockito.when(delegate.getCurrentRowState(m, columns)).thenReturn(stored);
+    assertSame(stored, table.getCurrentRowState(m, columns));
+
+    // a row that is no longer loaded
+    table.removeRowState(new ImmutableBytesPtr(row));
+    columns = Collections.singletonList(new ColumnReference(fam, qual));
+    Mockito.when(delegate.getCurrentRowState(m, columns)).thenReturn(stored);
+    assertSame(stored, table.getCurrentRowState(m, columns));
+  }
+}
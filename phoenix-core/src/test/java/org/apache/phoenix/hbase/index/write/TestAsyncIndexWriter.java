@@ -0,0 +1,251 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.phoenix.hbase.index.write;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hbase.client.Mutation;
+import org.apache.hadoop.hbase.client.Put;
+import org.apache.hadoop.hbase.regionserver.HRegion;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.apache.hadoop.hbase.util.Pair;
+import org.apache.phoenix.hbase.index.exception.SingleIndexWriteFailureException;
+import org.apache.phoenix.hbase.index.table.HTableInterfaceReference;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mockito;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Multimap;
+
+public class TestAsyncIndexWriter {
+  private final byte[] tableName = Bytes.toBytes("index");
+  private ExecutorService exec;
+  private Configuration conf;
+
+  @Before
+  public void setup() {
+    exec = Executors.newFixedThreadPool(1);
+    conf = new Configuration(false);
+    conf.setLong(AsyncIndexWriter.RETRY_PAUSE_CONF_KEY, 1);
+    conf.setInt(AsyncIndexWriter.MAX_RETRIES_CONF_KEY, 2);
+  }
+
+  @After
+  public void tearDown() {
+    exec.shutdownNow();
+  }
+
+  private Collection<Pair<Mutation, byte[]>> update(String row) {
+    Put p = new Put(Bytes.toBytes(row));
+    p.add(Bytes.toBytes("family"), Bytes.toBytes("qual"), null);
+    return Arrays.<Pair<Mutation, byte[]>> asList(new Pair<Mutation, byte[]>(p, tableName));
+  }
+
+  private static List<String> rows(Multimap<HTableInterfaceReference, Mutation> updates) {
+    List<String> rows = Lists.newArrayList();
+    for (Mutation m : updates.values()) {
+      rows.add(Bytes.toString(m.getRow()));
+    }
+    return rows;
+  }
+
+  @SuppressWarnings("unchecked")
+  @Test
+  public void testRetriesFailedUpdatesBeforeNewerOnes() throws Exception {
+    IndexWriter writer = Mockito.mock(IndexWriter.class);
+    final List<List<String>> written = Lists.newArrayList();
+    Mockito.doAnswer(new Answer<Void>() {
+      @Override
+      public Void answer(InvocationOnMock invocation) throws Throwable {
+        List<String> rows = rows((Multimap<HTableInterfaceReference, Mutation>) invocation.getArguments()[0]);
+        written.add(rows);
+        if (written.size() == 1) {
+          throw new SingleIndexWriteFailureException("failed", null);
+        }
+        return null;
+      }
+    }).when(writer).write(Mockito.any(Multimap.class));
+
+    AsyncIndexWriter asyncWriter =
+        new AsyncIndexWriter(writer, Mockito.mock(HRegion.class), exec, conf);
+    asyncWriter.write(update("a"));
+    asyncWriter.write(update("b"));
+    asyncWriter.waitForPendingWrites();
+
+    // the last write holds everything, with the failed updates first
+    List<String> last = written.get(written.size() - 1);
+    assertEquals("a", last.get(0));
+    assertEquals("b", last.get(last.size() - 1));
+    Mockito.verify(writer, Mockito.never()).writeAndKillYourselfOnFailure(
+      Mockito.any(Multimap.class));
+    asyncWriter.stop("done");
+  }
+
+  @SuppressWarnings("unchecked")
+  @Test
+  public void testHandsUpdatesToFailurePolicyOnceRetriesAreExhausted() throws Exception {
+    IndexWriter writer = Mockito.mock(IndexWriter.class);
+    Mockito.doThrow(new SingleIndexWriteFailureException("failed", null)).when(writer)
+        .write(Mockito.any(Multimap.class));
+
+    AsyncIndexWriter asyncWriter =
+        new AsyncIndexWriter(writer, Mockito.mock(HRegion.class), exec, conf);
+    asyncWriter.write(update("a"));
+    asyncWriter.waitForPendingWrites();
+
+    Mockito.verify(writer, Mockito.times(2)).write(Mockito.any(Multimap.class));
+    Mockito.verify(writer).writeAndKillYourselfOnFailure(Mockito.any(Multimap.class));
+    asyncWriter.stop("done");
+  }
+
+  @SuppressWarnings("unchecked")
+  @Test
+  public void testWaitsForStartedBatchesToQueueTheirUpdates() throws Exception {
+    IndexWriter writer = Mockito.mock(IndexWriter.class);
+    final List<String> written = Collections.synchronizedList(Lists.<String> newArrayList());
+    Mockito.doAnswer(new Answer<Void>() {
+      @Override
+      public Void answer(InvocationOnMock invocation) throws Throwable {
+        written.addAll(rows((Multimap<HTableInterfaceReference, Mutation>) invocation.getArguments()[0]));
+        return null;
+      }
+    }).when(writer).write(Mockito.any(Multimap.class));
+    final AsyncIndexWriter asyncWriter =
+        new AsyncIndexWriter(writer, Mockito.mock(HRegion.class), exec, conf);
+
+    // a batch whose updates are in the WAL, but not queued yet
+    final CountDownLatch started = new CountDownLatch(1);
+    final CountDownLatch queue = new CountDownLatch(1);
+    Thread batch = new Thread() {
+      @Override
+      public void run() {
+        asyncWriter.batchStarted();
+        started.countDown();
+        try {
+          queue.await();
+          asyncWriter.write(update("a"));
+        } catch (Exception e) {
+          throw new RuntimeException(e);
+        } finally {
+          asyncWriter.batchFinished();
+        }
+      }
+    };
+    batch.start();
+    started.await();
+
+    final AtomicBoolean done = new AtomicBoolean();
+    Thread waiter = new Thread() {
+      @Override
+      public void run() {
+        try {
+          asyncWriter.waitForPendingWrites();
+          done.set(true);
+        } catch (Exception e) {
+          throw new RuntimeException(e);
+        }
+      }
+    };
+    waiter.start();
+    Thread.sleep(100);
+    assertFalse(done.get());
+    queue.countDown();
+    waiter.join();
+    assertTrue(done.get());
+    assertEquals(Arrays.asList("a"), written);
+    asyncWriter.stop("done");
+  }
+
+  @Test
+  public void testBatchesThatNeverQueueTimeOut() throws Exception {
+    conf.setLong(AsyncIndexWriter.BATCH_TIMEOUT_CONF_KEY, 10);
+    final AsyncIndexWriter asyncWriter =
+        new AsyncIndexWriter(Mockito.mock(IndexWriter.class), Mockito.mock(HRegion.class), exec, conf);
+    // a batch failing after its updates were added to the WAL never finishes
+    Thread batch = new Thread() {
+      @Override
+      public void run() {
+        asyncWriter.batchStarted();
+      }
+    };
+    batch.start();
+    batch.join();
+    asyncWriter.waitForPendingWrites();
+    asyncWriter.stop("done");
+  }
+
+  @SuppressWarnings("unchecked")
+  @Test
+  public void testWritesBlockWhileQueueIsFull() throws Exception {
+    conf.setInt(AsyncIndexWriter.MAX_PENDING_CONF_KEY, 1);
+    IndexWriter writer = Mockito.mock(IndexWriter.class);
+    final CountDownLatch writing = new CountDownLatch(1);
+    final CountDownLatch finishWrite = new CountDownLatch(1);
+    Mockito.doAnswer(new Answer<Void>() {
+      @Override
+      public Void answer(InvocationOnMock invocation) throws Throwable {
+        writing.countDown();
+        finishWrite.await();
+        return null;
+      }
+    }).when(writer).write(Mockito.any(Multimap.class));
+    final AsyncIndexWriter asyncWriter =
+        new AsyncIndexWriter(writer, Mockito.mock(HRegion.class), exec, conf);
+
+    asyncWriter.write(update("a"));
+    writing.await();
+    final AtomicBoolean queued = new AtomicBoolean();
+    Thread blocked = new Thread() {
+      @Override
+      public void run() {
+        try {
+          asyncWriter.write(update("b"));
+          queued.set(true);
+        } catch (Exception e) {
+          throw new RuntimeException(e);
+        }
+      }
+    };
+    blocked.start();
+    Thread.sleep(100);
+    // "a" is still being written
+    assertFalse(queued.get());
+    finishWrite.countDown();
+    blocked.join();
+    assertTrue(queued.get());
+    asyncWriter.waitForPendingWrites();
+    Mockito.verify(writer, Mockito.times(2)).write(Mockito.any(Multimap.class));
+    asyncWriter.stop("done");
+  }
+}
@@ -0,0 +1,241 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.phoenix.hbase.index.write;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.apache.hadoop.hbase.Stoppable;
+import org.apache.hadoop.hbase.client.HTableInterface;
+import org.apache.hadoop.hbase.client.Mutation;
+import org.apache.hadoop.hbase.client.Put;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.apache.hadoop.hbase.util.VersionInfo;
+import org.apache.phoenix.hbase.index.TableName;
+import org.apache.phoenix.hbase.index.exception.SingleIndexWriteFailureException;
+import org.apache.phoenix.hbase.index.table.HTableInterfaceReference;
+import org.apache.phoenix.hbase.index.util.ImmutableBytesPtr;
+import org.junit.Rule;
+import org.junit.Test;
+import org.mockito.Mockito;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import com.google.common.collect.ArrayListMultimap;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Multimap;
+
+public class TestCoalescingIndexCommitter {
+
+  @Rule
+  public TableName test = new TableName();
+
+  private Multimap<HTableInterfaceReference, Mutation> update(ImmutableBytesPtr tableName,
+      String row) {
+    Put m = new Put(Bytes.toBytes(row));
+    m.add(Bytes.toBytes("family"), Bytes.toBytes("qual"), null);
+    Multimap<HTableInterfaceReference, Mutation> indexUpdates =
+        ArrayListMultimap.<HTableInterfaceReference, Mutation> create();
+    indexUpdates.put(new HTableInterfaceReference(tableName), m);
+    return indexUpdates;
+  }
+
+  private HTableInterface mockTable(final List<Integer> batchSizes) throws Exception {
+    return mockTable(batchSizes, null);
+  }
+
+  /**
+   * @param firstBatchBlocker if not <tt>null</tt>, the first batch written blocks until it is
+   *          counted down
+   */
+  @SuppressWarnings({ "unchecked", "deprecation" })
+  private HTableInterface mockTable(final List<Integer> batchSizes,
+      final CountDownLatch firstBatchBlocker) throws Exception {
+    HTableInterface table = Mockito.mock(HTableInterface.class);
+    Mockito.when(table.batch(Mockito.anyList())).thenAnswer(new Answer<Void>() {
+      @Override
+      public Void answer(InvocationOnMock invocation) throws Throwable {
+        boolean first;
+        synchronized (batchSizes) {
+          first = batchSizes.isEmpty();
+          batchSizes.add(((List<Mutation>) invocation.getArguments()[0]).size());
+        }
+        if (first && firstBatchBlocker != null) {
+          firstBatchBlocker.await();
+        }
+        return null;
+      }
+    });
+    return table;
+  }
+
+  private Future<?> writeAsync(ExecutorService writers, final CoalescingIndexCommitter committer,
+      final Multimap<HTableInterfaceReference, Mutation> update) {
+    return writers.submit(new Runnable() {
+      @Override
+      public void run() {
+        try {
+          committer.write(update);
+        } catch (Exception e) {
+          throw new RuntimeException(e);
+        }
+      }
+    });
+  }
+
+  @Test
+  public void testCoalescesConcurrentWritesAcrossCommitters() throws Exception {
+    ExecutorService exec = Executors.newFixedThreadPool(2);
+    ExecutorService writers = Executors.newFixedThreadPool(2);
+    Stoppable stop = Mockito.mock(Stoppable.class);
+    ImmutableBytesPtr tableName = new ImmutableBytesPtr(this.test.getTableName());
+    List<Integer> batchSizes = Lists.newArrayList();
+    CountDownLatch firstBatchBlocker = new CountDownLatch(1);
+    Map<ImmutableBytesPtr, HTableInterface> tables = new HashMap<ImmutableBytesPtr, HTableInterface>();
+    tables.put(tableName, mockTable(batchSizes, firstBatchBlocker));
+
+    // a window long enough that only filling up the batch gets it written
+    CoalescingIndexCommitter.Coalescer coalescer =
+        new CoalescingIndexCommitter.Coalescer(new FakeTableFactory(tables), exec, 1, 60000, 2);
+    CoalescingIndexCommitter first = new CoalescingIndexCommitter(VersionInfo.getVersion());
+    first.setup(coalescer, stop);
+    CoalescingIndexCommitter second = new CoalescingIndexCommitter(VersionInfo.getVersion());
+    second.setup(coalescer, stop);
+
+    // a lone writer gets its batch written right away, where it stays in flight
+    Future<?> firstWrite = writeAsync(writers, first, update(tableName, "a"));
+    while (true) {
+      synchronized (batchSizes) {
+        if (!batchSizes.isEmpty()) {
+          break;
+        }
+      }
+      Thread.sleep(1);
+    }
+    // with another writer in flight, the next batch waits for more updates
+    Future<?> secondWrite = writeAsync(writers, first, update(tableName, "b"));
+    second.write(update(tableName, "c"));
+    secondWrite.get();
+    firstBatchBlocker.countDown();
+    firstWrite.get();
+
+    assertEquals(Lists.newArrayList(1, 2), batchSizes);
+    first.stop(this.test.getTableNameString() + " finished");
+    second.stop(this.test.getTableNameString() + " finished");
+    writers.shutdown();
+  }
+
+  @Test
+  public void testLoneWriterDoesNotWaitForWindow() throws Exception {
+    ExecutorService exec = Executors.newFixedThreadPool(1);
+    Stoppable stop = Mockito.mock(Stoppable.class);
+    ImmutableBytesPtr tableName = new ImmutableBytesPtr(this.test.getTableName());
+    List<Integer> batchSizes = Lists.newArrayList();
+    Map<ImmutableBytesPtr, HTableInterface> tables = new HashMap<ImmutableBytesPtr, HTableInterface>();
+    tables.put(tableName, mockTable(batchSizes));
+
+    CoalescingIndexCommitter committer = new CoalescingIndexCommitter(VersionInfo.getVersion());
+    committer.setup(
+      new CoalescingIndexCommitter.Coalescer(new FakeTableFactory(tables), exec, 1, 600000, 1000),
+      stop);
+    long start = System.currentTimeMillis();
+    committer.write(update(tableName, "a"));
+    committer.write(update(tableName, "b"));
+
+    assertTrue(System.currentTimeMillis() - start < 60000);
+    assertEquals(Lists.newArrayList(1, 1), batchSizes);
+    committer.stop(this.test.getTableNameString() + " finished");
+  }
+
+  @Test
+  public void testWritesOnceWindowEnds() throws Exception {
+    ExecutorService exec = Executors.newFixedThreadPool(2);
+    ExecutorService writers = Executors.newSingleThreadExecutor();
+    Stoppable stop = Mockito.mock(Stoppable.class);
+    ImmutableBytesPtr tableName = new ImmutableBytesPtr(this.test.getTableName());
+    List<Integer> batchSizes = Lists.newArrayList();
+    CountDownLatch firstBatchBlocker = new CountDownLatch(1);
+    Map<ImmutableBytesPtr, HTableInterface> tables = new HashMap<ImmutableBytesPtr, HTableInterface>();
+    tables.put(tableName, mockTable(batchSizes, firstBatchBlocker));
+
+    CoalescingIndexCommitter committer = new CoalescingIndexCommitter(VersionInfo.getVersion());
+    committer.setup(
+      new CoalescingIndexCommitter.Coalescer(new FakeTableFactory(tables), exec, 1, 1, 1000),
+      stop);
+    Future<?> firstWrite = writeAsync(writers, committer, update(tableName, "a"));
+    while (true) {
+      synchronized (batchSizes) {
+        if (!batchSizes.isEmpty()) {
+          break;
+        }
+      }
+      Thread.sleep(1);
+    }
+    // another writer is in flight, so the batch is only written once the window ends
+    committer.write(update(tableName, "b"));
+    firstBatchBlocker.countDown();
+    firstWrite.get();
+
+    assertEquals(Lists.newArrayList(1, 1), batchSizes);
+    committer.stop(this.test.getTableNameString() + " finished");
+    writers.shutdown();
+  }
+
+  @Test
+  public void testStoppingOneRegionDoesNotStopTheSharedCoalescer() throws Exception {
+    ExecutorService exec = Executors.newFixedThreadPool(1);
+    Stoppable stoppedRegion = Mockito.mock(Stoppable.class);
+    Stoppable runningRegion = Mockito.mock(Stoppable.class);
+    ImmutableBytesPtr tableName = new ImmutableBytesPtr(this.test.getTableName());
+    List<Integer> batchSizes = Lists.newArrayList();
+    Map<ImmutableBytesPtr, HTableInterface> tables = new HashMap<ImmutableBytesPtr, HTableInterface>();
+    tables.put(tableName, mockTable(batchSizes));
+
+    CoalescingIndexCommitter.Coalescer coalescer =
+        new CoalescingIndexCommitter.Coalescer(new FakeTableFactory(tables), exec, 1, 1, 1000);
+    CoalescingIndexCommitter first = new CoalescingIndexCommitter(VersionInfo.getVersion());
+    first.setup(coalescer, stoppedRegion);
+    CoalescingIndexCommitter second = new CoalescingIndexCommitter(VersionInfo.getVersion());
+    second.setup(coalescer, runningRegion);
+
+    first.stop(this.test.getTableNameString() + " region closed");
+    Mockito.when(stoppedRegion.isStopped()).thenReturn(true);
+    assertFalse("Pool shut down while another region still uses it", exec.isShutdown());
+    try {
+      first.write(update(tableName, "a"));
+      fail("Stopped committer should not write");
+    } catch (SingleIndexWriteFailureException e) {
+      // expected
+    }
+    second.write(update(tableName, "b"));
+    assertEquals(Lists.newArrayList(1), batchSizes);
+
+    second.stop(this.test.getTableNameString() + " finished");
+    assertTrue("Pool not shut down with the last region", exec.isShutdown());
+  }
+}
@@ -0,0 +1,98 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.phoenix.iterate;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+import com.google.common.collect.Ordering;
+
+
+public class LoserTreeTest {
+    private static final Comparator<Integer> COMPARATOR = Ordering.natural();
+
+    private static void assertMerged(List<List<Integer>> sources) {
+        List<Integer> expected = new ArrayList<Integer>();
+        List<Iterator<Integer>> iterators = new ArrayList<Iterator<Integer>>();
+        Integer[] heads = new Integer[sources.size()];
+        for (int i = 0; i < heads.length; i++) {
+            List<Integer> source = sources.get(i);
+            expected.addAll(source);
+            Iterator<Integer> iterator = source.iterator();
+            iterators.add(iterator);
+            heads[i] = iterator.hasNext() ? iterator.next() : null;
+        }
+        Collections.sort(expected);
+        LoserTree<Integer> tree = new LoserTree<Integer>(COMPARATOR, heads);
+        List<Integer> merged = new ArrayList<Integer>();
+        for (int winner = tree.getWinner(); winner >= 0; winner = tree.getWinner()) {
+            merged.add(tree.peek());
+            Iterator<Integer> iterator = iterators.get(winner);
+            tree.replaceWinner(iterator.hasNext() ? iterator.next() : null);
+        }
+        assertNull(tree.peek());
+        assertEquals(expected, merged);
+    }
+
+    @Test
+    public void testMergeRandomSources() {
+        Random random = new Random(42);
+        for (int k = 0; k <= 17; k++) {
+            List<List<Integer>> sources = new ArrayList<List<Integer>>();
+            for (int i = 0; i < k; i++) {
+                List<Integer> source = new ArrayList<Integer>();
+                int size = random.nextInt(20);
+                for (int j = 0; j < size; j++) {
+                    source.add(random.nextInt(50));
+                }
+                Collections.sort(source);
+                sources.add(source);
+            }
+            assertMerged(sources);
+        }
+    }
+
+    @Test
+    public void testTiesWonByFirstSource() {
+        String[] heads = new String[] {"b1", "a1", "a2", "b2"};
+        LoserTree<String> tree = new LoserTree<String>(new Comparator<String>() {
+            @Override
+            public int compare(String s1, String s2) {
+                return s1.charAt(0) - s2.charAt(0);
+            }
+        }, heads);
+        assertEquals(1, tree.getWinner());
+        tree.replaceWinner(null);
+        assertEquals(2, tree.getWinner());
+        tree.replaceWinner(null);
+        assertEquals(0, tree.getWinner());
+        tree.replaceWinner(null);
+        assertEquals("b2", tree.peek());
+        tree.replaceWinner(null);
+        assertEquals(-1, tree.getWinner());
+    }
+}
@@ -19,11 +19,14 @@ package org.apache.phoenix.iterate;
 
 import static org.apache.phoenix.query.QueryConstants.SINGLE_COLUMN;
 import static org.apache.phoenix.query.QueryConstants.SINGLE_COLUMN_FAMILY;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
 
 import java.sql.SQLException;
 import java.util.*;
 
 import org.apache.hadoop.hbase.KeyValue;
+import org.apache.hadoop.hbase.io.ImmutableBytesWritable;
 import org.apache.hadoop.hbase.util.Bytes;
 import org.junit.Test;
 
@@ -78,4 +81,52 @@ public class MergeSortResultIteratorTest {
         AssertResults.assertResults(scanner, expectedResults);
     }
 
+    @Test
+    public void testMergeSortManyIterators() throws Throwable {
+        Random random = new Random(11);
+        final List<PeekingResultIterator> results = new ArrayList<PeekingResultIterator>();
+        List<Integer> expectedKeys = new ArrayList<Integer>();
+        for (int i = 0; i < 37; i++) {
+            List<Integer> keys = new ArrayList<Integer>();
+            for (int j = random.nextInt(30); j > 0; j--) {
+                // Keys sharing their first 8 bytes, so that rows are also compared past their prefix
+                keys.add(random.nextInt(1000));
+            }
+            Collections.sort(keys);
+            expectedKeys.addAll(keys);
+            List<Tuple> tuples = new ArrayList<Tuple>();
+            for (Integer key : keys) {
+                tuples.add(new SingleKeyValueTuple(new KeyValue(Bytes.add(new byte[8], Bytes.toBytes(key)), SINGLE_COLUMN_FAMILY, SINGLE_COLUMN, Bytes.toBytes(1))));
+            }
+            results.add(new MaterializedResultIterator(tuples));
+        }
+        Collections.sort(expectedKeys);
+        ResultIterators iterators = new ResultIterators() {
+
+            @Override
+            public List<PeekingResultIterator> getIterators() throws SQLException {
+                return results;
+            }
+
+            @Override
+            public int size() {
+                return results.size();
+            }
+
+            @Override
+            public void explain(List<String> planSteps) {
+            }
+            
+        };
+        ResultIterator scanner = new MergeSortRowKeyResultIterator(iterators);
+        ImmutableBytesWritable ptr = new ImmutableBytesWritable();
+        for (Integer expectedKey : expectedKeys) {
+            Tuple tuple = scanner.next();
+            tuple.getKey(ptr);
+            assertEquals(expectedKey.intValue(), Bytes.toInt(ptr.get(), ptr.getOffset() + 8, Bytes.SIZEOF_INT));
+        }
+        assertNull(scanner.next());
+        scanner.close();
+    }
+
 }
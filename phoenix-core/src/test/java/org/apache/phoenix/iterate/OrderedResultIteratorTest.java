@@ -0,0 +1,131 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.phoenix.iterate;
+
+import static org.apache.phoenix.query.QueryConstants.SINGLE_COLUMN;
+import static org.apache.phoenix.query.QueryConstants.SINGLE_COLUMN_FAMILY;
+import static org.apache.phoenix.query.QueryConstants.SINGLE_COLUMN_FAMILY_NAME;
+import static org.apache.phoenix.query.QueryConstants.SINGLE_COLUMN_NAME;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import org.apache.hadoop.hbase.KeyValue;
+import org.apache.hadoop.hbase.io.ImmutableBytesWritable;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.apache.phoenix.expression.KeyValueColumnExpression;
+import org.apache.phoenix.expression.OrderByExpression;
+import org.apache.phoenix.schema.PDataType;
+import org.apache.phoenix.schema.PLongColumn;
+import org.apache.phoenix.schema.PName;
+import org.apache.phoenix.schema.SortOrder;
+import org.apache.phoenix.schema.tuple.SingleKeyValueTuple;
+import org.apache.phoenix.schema.tuple.Tuple;
+import org.junit.Test;
+
+
+public class OrderedResultIteratorTest {
+    private static final KeyValueColumnExpression LONG_COLUMN = new KeyValueColumnExpression(new PLongColumn() {
+        @Override
+        public PName getName() {
+            return SINGLE_COLUMN_NAME;
+        }
+        @Override
+        public PName getFamilyName() {
+            return SINGLE_COLUMN_FAMILY_NAME;
+        }
+        @Override
+        public int getPosition() {
+            return 0;
+        }
+        @Override
+        public SortOrder getSortOrder() {
+            return SortOrder.getDefault();
+        }
+        @Override
+        public Integer getArraySize() {
+            return 0;
+        }
+        @Override
+        public byte[] getViewConstant() {
+            return null;
+        }
+        @Override
+        public boolean isViewReferenced() {
+            return false;
+        }
+    });
+    
+    private static Tuple row(String key, Long value) {
+        return value == null
+                ? new SingleKeyValueTuple(new KeyValue(Bytes.toBytes(key), SINGLE_COLUMN_FAMILY, Bytes.toBytes("other"), Bytes.toBytes(key)))
+                : new SingleKeyValueTuple(new KeyValue(Bytes.toBytes(key), SINGLE_COLUMN_FAMILY, SINGLE_COLUMN, PDataType.LONG.toBytes(value)));
+    }
+    
+    private static void assertTopN(boolean isAscending, boolean isNullsLast, int limit, String... expectedKeys) throws Exception {
+        List<Tuple> rows = Arrays.asList(row("a", 5L), row("b", -3L), row("c", null), row("d", 0L), row("e", 7L), row("f", -10L), row("g", Long.MIN_VALUE));
+        List<OrderByExpression> orderBy = Collections.singletonList(new OrderByExpression(LONG_COLUMN, isNullsLast, isAscending));
+        OrderedResultIterator iterator = new OrderedResultIterator(new MaterializedResultIterator(rows), orderBy, 1024 * 1024, limit);
+        ImmutableBytesWritable ptr = new ImmutableBytesWritable();
+        for (String expectedKey : expectedKeys) {
+            Tuple tuple = iterator.next();
+            tuple.getKey(ptr);
+            assertEquals(expectedKey, Bytes.toString(ptr.copyBytes()));
+        }
+        assertNull(iterator.next());
+        iterator.close();
+    }
+    
+    @Test
+    public void testTopNOnLongKey() throws Exception {
+        assertTopN(true, true, 3, "g", "f", "b");
+        assertTopN(false, true, 3, "e", "a", "d");
+        assertTopN(true, false, 2, "c", "g");
+        assertTopN(false, true, 7, "e", "a", "d", "b", "f", "g", "c");
+    }
+
+    @Test
+    public void testSortSpilledInRuns() throws Exception {
+        List<Tuple> rows = new ArrayList<Tuple>();
+        Random random = new Random(7);
+        for (int i = 0; i < 1000; i++) {
+            rows.add(row("row" + i, (long)random.nextInt(100)));
+        }
+        List<OrderByExpression> orderBy = Collections.singletonList(new OrderByExpression(LONG_COLUMN, false, true));
+        // Small enough for the rows to be spilled in many sorted runs
+        OrderedResultIterator iterator = new OrderedResultIterator(new MaterializedResultIterator(rows), orderBy, 1000);
+        ImmutableBytesWritable ptr = new ImmutableBytesWritable();
+        long previous = Long.MIN_VALUE;
+        int count = 0;
+        for (Tuple tuple = iterator.next(); tuple != null; tuple = iterator.next()) {
+            assertTrue(tuple.getValue(SINGLE_COLUMN_FAMILY, SINGLE_COLUMN, ptr));
+            long value = PDataType.LONG.getCodec().decodeLong(ptr, SortOrder.getDefault());
+            assertTrue(value >= previous);
+            previous = value;
+            count++;
+        }
+        assertEquals(rows.size(), count);
+        iterator.close();
+    }
+}
@@ -0,0 +1,276 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.phoenix.iterate;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+
+import org.apache.hadoop.hbase.Cell;
+import org.apache.hadoop.hbase.KeyValue;
+import org.apache.hadoop.hbase.client.Get;
+import org.apache.hadoop.hbase.client.HTableInterface;
+import org.apache.hadoop.hbase.client.Result;
+import org.apache.hadoop.hbase.filter.Filter;
+import org.apache.hadoop.hbase.filter.Filter.ReturnCode;
+import org.apache.hadoop.hbase.filter.FilterList;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.apache.phoenix.filter.SkipScanFilter;
+import org.apache.phoenix.jdbc.PhoenixConnection;
+import org.apache.phoenix.query.BaseConnectionlessQueryTest;
+import org.apache.phoenix.query.ConnectionQueryServices;
+import org.apache.phoenix.query.DelegateConnectionQueryServices;
+import org.apache.phoenix.query.QueryConstants;
+import org.apache.phoenix.schema.SaltingUtil;
+import org.apache.phoenix.util.QueryUtil;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.mockito.Mockito;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+
+/**
+ * Tests for point lookups run as batches of gets, sent to a mock table that holds the rows
+ */
+public class PointLookupResultIteratorTest extends BaseConnectionlessQueryTest {
+    private static final String TABLE_NAME = "POINT_LOOKUP";
+    private static final String SALTED_TABLE_NAME = "SALTED_POINT_LOOKUP";
+    private static final int SALT_BUCKETS = 4;
+    private static final byte[] V = Bytes.toBytes("V");
+    
+    @BeforeClass
+    public static void createTables() throws Exception {
+        Connection conn = DriverManager.getConnection(getUrl());
+        try {
+            conn.createStatement().execute("CREATE TABLE IF NOT EXISTS " + TABLE_NAME + " (K VARCHAR NOT NULL PRIMARY KEY, V VARCHAR)");
+            conn.createStatement().execute("CREATE TABLE IF NOT EXISTS " + SALTED_TABLE_NAME + " (K VARCHAR NOT NULL PRIMARY KEY, V VARCHAR) SALT_BUCKETS=" + SALT_BUCKETS);
+        } finally {
+            conn.close();
+        }
+    }
+    
+    /**
+     * Answers each batch of gets with the rows that are stored and pass the filter of the get,
+     * and records the gets of each batch.
+     */
+    private static class GetRecorder implements Answer<Result[]> {
+        private final Map<String, String> rows = Maps.newHashMap();
+        private final List<List<Get>> batches = Lists.newArrayList();
+        private final boolean isSalted;
+        
+        private GetRecorder(boolean isSalted) {
+            this.isSalted = isSalted;
+            // Every other row has V = 'x', and row 'f' is missing
+            for (String key : Arrays.asList("a", "b", "c", "d", "e", "g")) {
+                rows.put(key, key.charAt(0) % 2 == 1 ? "x" : "y");
+            }
+        }
+        
+        private String getKey(Get get) {
+            byte[] row = get.getRow();
+            int offset = isSalted ? SaltingUtil.NUM_SALTING_BYTES : 0;
+            return Bytes.toString(row, offset, row.length - offset);
+        }
+        
+        @Override
+        public Result[] answer(InvocationOnMock invocation) throws Throwable {
+            @SuppressWarnings("unchecked")
+            List<Get> gets = (List<Get>)invocation.getArguments()[0];
+            batches.add(Lists.newArrayList(gets));
+            Result[] results = new Result[gets.size()];
+            for (int i = 0; i < gets.size(); i++) {
+                Get get = gets.get(i);
+                String value = rows.get(getKey(get));
+                if (value == null) {
+                    results[i] = Result.create(Collections.<Cell>emptyList());
+                    continue;
+                }
+                List<Cell> cells = Lists.<Cell>newArrayList(
+                        new KeyValue(get.getRow(), QueryConstants.DEFAULT_COLUMN_FAMILY_BYTES, V, Bytes.toBytes(value)),
+                        new KeyValue(get.getRow(), QueryConstants.DEFAULT_COLUMN_FAMILY_BYTES, QueryConstants.EMPTY_COLUMN_BYTES, new byte[0]));
+                Collections.sort(cells, KeyValue.COMPARATOR);
+                results[i] = Result.create(filter(get.getFilter(), cells));
+            }
+            return results;
+        }
+        
+        private static List<Cell> filter(Filter filter, List<Cell> cells) throws Exception {
+            if (filter == null) {
+                return cells;
+            }
+            filter.reset();
+            List<Cell> includedCells = Lists.newArrayList();
+            for (Cell cell : cells) {
+                ReturnCode code = filter.filterKeyValue(cell);
+                if (code == ReturnCode.NEXT_ROW) {
+                    break;
+                }
+                if (code == ReturnCode.INCLUDE) {
+                    includedCells.add(cell);
+                }
+            }
+            return filter.filterRow() ? Collections.<Cell>emptyList() : includedCells;
+        }
+        
+        private List<String> getKeys() {
+            List<String> keys = Lists.newArrayList();
+            for (List<Get> batch : batches) {
+                for (Get get : batch) {
+                    keys.add(getKey(get));
+                }
+            }
+            return keys;
+        }
+    }
+    
+    private static PhoenixConnection newConnection(GetRecorder recorder, final boolean supportsReverseScan) throws Exception {
+        final HTableInterface hTable = Mockito.mock(HTableInterface.class);
+        Mockito.when(hTable.get(Mockito.anyListOf(Get.class))).thenAnswer(recorder);
+        PhoenixConnection conn = DriverManager.getConnection(getUrl()).unwrap(PhoenixConnection.class);
+        try {
+            ConnectionQueryServices services = new DelegateConnectionQueryServices(conn.getQueryServices()) {
+                @Override
+                public HTableInterface getTable(byte[] tableName) throws SQLException {
+                    return hTable;
+                }
+                
+                @Override
+                public boolean supportsFeature(Feature feature) {
+                    return feature == Feature.REVERSE_SCAN ? supportsReverseScan : super.supportsFeature(feature);
+                }
+            };
+            return new PhoenixConnection(services, conn.getURL(), new Properties(), conn.getMetaDataCache());
+        } finally {
+            conn.close();
+        }
+    }
+    
+    private static List<String> query(Connection conn, String query) throws SQLException {
+        ResultSet rs = conn.createStatement().executeQuery("EXPLAIN " + query);
+        String plan = QueryUtil.getExplainPlan(rs);
+        assertTrue(plan, plan.startsWith("CLIENT BATCHED GET"));
+        rs = conn.createStatement().executeQuery(query);
+        List<String> keys = Lists.newArrayList();
+        while (rs.next()) {
+            keys.add(rs.getString(1));
+        }
+        return keys;
+    }
+    
+    @Test
+    public void testKeysLookedUpInBatches() throws Exception {
+        GetRecorder recorder = new GetRecorder(false);
+        PhoenixConnection conn = newConnection(recorder, false);
+        try {
+            List<String> keys = query(conn, "SELECT k FROM " + TABLE_NAME + " WHERE k IN ('e','a','f','c','b')");
+            // The missing row is skipped
+            assertEquals(Arrays.asList("a", "b", "c", "e"), keys);
+            assertEquals(Arrays.asList("a", "b", "c", "e", "f"), recorder.getKeys());
+            // Two keys at a time in tests
+            assertEquals(3, recorder.batches.size());
+        } finally {
+            conn.close();
+        }
+    }
+    
+    @Test
+    public void testSaltedKeysLookedUpInRowKeyOrder() throws Exception {
+        GetRecorder recorder = new GetRecorder(true);
+        PhoenixConnection conn = newConnection(recorder, false);
+        try {
+            List<String> keys = query(conn, "SELECT k FROM " + SALTED_TABLE_NAME + " WHERE k IN ('g','d','a','e','c','b')");
+            // Sorted by bucket in the scan ranges, the keys are put back in row key order
+            assertEquals(Arrays.asList("a", "b", "c", "d", "e", "g"), keys);
+            assertEquals(keys, recorder.getKeys());
+            for (List<Get> batch : recorder.batches) {
+                for (Get get : batch) {
+                    byte[] row = get.getRow();
+                    assertEquals(SaltingUtil.getSaltingByte(row, SaltingUtil.NUM_SALTING_BYTES, row.length - SaltingUtil.NUM_SALTING_BYTES, SALT_BUCKETS), row[0]);
+                }
+            }
+        } finally {
+            conn.close();
+        }
+    }
+    
+    @Test
+    public void testKeysLookedUpInReverseRowKeyOrder() throws Exception {
+        GetRecorder recorder = new GetRecorder(false);
+        PhoenixConnection conn = newConnection(recorder, true);
+        try {
+            List<String> keys = query(conn, "SELECT k FROM " + TABLE_NAME + " WHERE k IN ('b','g','d','a') ORDER BY k DESC");
+            assertEquals(Arrays.asList("g", "d", "b", "a"), keys);
+            assertEquals(keys, recorder.getKeys());
+        } finally {
+            conn.close();
+        }
+    }
+    
+    @Test
+    public void testSaltedKeysLookedUpInReverseRowKeyOrder() throws Exception {
+        GetRecorder recorder = new GetRecorder(true);
+        PhoenixConnection conn = newConnection(recorder, true);
+        try {
+            List<String> keys = query(conn, "SELECT k FROM " + SALTED_TABLE_NAME + " WHERE k IN ('b','g','d','a','e') ORDER BY k DESC");
+            assertEquals(Arrays.asList("g", "e", "d", "b", "a"), keys);
+            assertEquals(keys, recorder.getKeys());
+        } finally {
+            conn.close();
+        }
+    }
+    
+    @Test
+    public void testResidualFilterAppliedToGets() throws Exception {
+        GetRecorder recorder = new GetRecorder(false);
+        PhoenixConnection conn = newConnection(recorder, false);
+        try {
+            List<String> keys = query(conn, "SELECT k FROM " + TABLE_NAME + " WHERE k IN ('a','b','c','d','e') AND v = 'x'");
+            assertEquals(Arrays.asList("a", "c", "e"), keys);
+            assertEquals(Arrays.asList("a", "b", "c", "d", "e"), recorder.getKeys());
+            for (List<Get> batch : recorder.batches) {
+                for (Get get : batch) {
+                    Filter filter = get.getFilter();
+                    assertNotNull(filter);
+                    // The skip scan filter is dropped, as each get is on a single row already
+                    assertFalse(filter instanceof SkipScanFilter);
+                    if (filter instanceof FilterList) {
+                        for (Filter f : ((FilterList)filter).getFilters()) {
+                            assertFalse(f instanceof SkipScanFilter);
+                        }
+                    }
+                }
+            }
+        } finally {
+            conn.close();
+        }
+    }
+}
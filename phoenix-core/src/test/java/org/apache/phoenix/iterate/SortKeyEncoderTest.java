@@ -0,0 +1,70 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.phoenix.iterate;
+
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.hadoop.hbase.util.Bytes;
+import org.apache.phoenix.expression.LiteralExpression;
+import org.apache.phoenix.expression.OrderByExpression;
+import org.apache.phoenix.schema.PDataType;
+import org.junit.Test;
+
+
+public class SortKeyEncoderTest {
+    
+    /**
+     * @param values pairs of a value and its type, one per ORDER BY expression
+     */
+    private static byte[] encode(boolean isAscending, boolean isNullsLast, Object... values) throws Exception {
+        List<OrderByExpression> orderBy = new ArrayList<OrderByExpression>();
+        for (int i = 0; i < values.length; i += 2) {
+            orderBy.add(new OrderByExpression(LiteralExpression.newConstant(values[i], (PDataType)values[i + 1]), isNullsLast, isAscending));
+        }
+        return new SortKeyEncoder(orderBy).encode(null);
+    }
+    
+    private static void assertBefore(byte[] key1, byte[] key2) {
+        assertTrue(Bytes.toStringBinary(key1) + " should sort before " + Bytes.toStringBinary(key2), Bytes.compareTo(key1, key2) < 0);
+    }
+    
+    @Test
+    public void testVariableWidthValuesAreNotPrefixes() throws Exception {
+        assertBefore(encode(true, false, "a", PDataType.VARCHAR, "b", PDataType.VARCHAR), encode(true, false, "ab", PDataType.VARCHAR, "a", PDataType.VARCHAR));
+        assertBefore(encode(true, false, "a", PDataType.VARCHAR, "z", PDataType.VARCHAR), encode(true, false, "a\u0000", PDataType.VARCHAR, "a", PDataType.VARCHAR));
+        assertBefore(encode(false, false, "ab", PDataType.VARCHAR, "a", PDataType.VARCHAR), encode(false, false, "a", PDataType.VARCHAR, "b", PDataType.VARCHAR));
+    }
+    
+    @Test
+    public void testFixedWidthValues() throws Exception {
+        assertBefore(encode(true, false, -1L, PDataType.LONG), encode(true, false, 1L, PDataType.LONG));
+        assertBefore(encode(false, false, 1L, PDataType.LONG), encode(false, false, -1L, PDataType.LONG));
+        assertBefore(encode(true, false, 1L, PDataType.LONG, "b", PDataType.VARCHAR), encode(true, false, 1L, PDataType.LONG, "c", PDataType.VARCHAR));
+    }
+    
+    @Test
+    public void testNullOrdering() throws Exception {
+        assertBefore(encode(true, false, null, PDataType.VARCHAR), encode(true, false, "a", PDataType.VARCHAR));
+        assertBefore(encode(false, false, null, PDataType.VARCHAR), encode(false, false, "a", PDataType.VARCHAR));
+        assertBefore(encode(true, true, "a", PDataType.VARCHAR), encode(true, true, null, PDataType.VARCHAR));
+        assertBefore(encode(false, true, "a", PDataType.VARCHAR), encode(false, true, null, PDataType.VARCHAR));
+    }
+}
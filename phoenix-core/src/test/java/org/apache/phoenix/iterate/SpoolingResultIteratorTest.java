@@ -20,9 +20,15 @@ package org.apache.phoenix.iterate;
 import static org.apache.phoenix.query.QueryConstants.SINGLE_COLUMN;
 import static org.apache.phoenix.query.QueryConstants.SINGLE_COLUMN_FAMILY;
 
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.List;
 
 import org.apache.hadoop.hbase.KeyValue;
+import org.apache.hadoop.hbase.io.ImmutableBytesWritable;
 import org.apache.hadoop.hbase.util.Bytes;
 import org.apache.phoenix.memory.DelegatingMemoryManager;
 import org.apache.phoenix.memory.GlobalMemoryManager;
@@ -65,6 +71,33 @@ public class SpoolingResultIteratorTest {
         testSpooling(1, QueryServicesOptions.DEFAULT_MAX_SPOOL_TO_DISK_BYTES);
     }
 
+    @Test
+    public void testOnDiskSpoolingAcrossBlocks() throws Throwable {
+        // Enough rows for the spool file to be read back in several blocks
+        int rowCount = 10000;
+        List<Tuple> results = new ArrayList<Tuple>(rowCount);
+        for (int i = 0; i < rowCount; i++) {
+            results.add(new SingleKeyValueTuple(new KeyValue(Bytes.toBytes(i), SINGLE_COLUMN_FAMILY, SINGLE_COLUMN, Bytes.toBytes("value" + i))));
+        }
+        MemoryManager memoryManager = new DelegatingMemoryManager(new GlobalMemoryManager(1, 0));
+        ResultIterator scanner = new SpoolingResultIterator(new MaterializedResultIterator(results), memoryManager, 1, QueryServicesOptions.DEFAULT_MAX_SPOOL_TO_DISK_BYTES);
+        List<Tuple> spooled = new ArrayList<Tuple>(rowCount);
+        for (Tuple tuple = scanner.next(); tuple != null; tuple = scanner.next()) {
+            spooled.add(tuple);
+        }
+        assertNull(scanner.next());
+        scanner.close();
+        // Rows must remain valid after the iterator has moved past them
+        assertEquals(rowCount, spooled.size());
+        ImmutableBytesWritable ptr = new ImmutableBytesWritable();
+        for (int i = 0; i < rowCount; i++) {
+            spooled.get(i).getKey(ptr);
+            assertEquals(i, Bytes.toInt(ptr.get(), ptr.getOffset(), ptr.getLength()));
+            KeyValue kv = spooled.get(i).getValue(SINGLE_COLUMN_FAMILY, SINGLE_COLUMN);
+            assertEquals("value" + i, Bytes.toString(kv.getValueArray(), kv.getValueOffset(), kv.getValueLength()));
+        }
+    }
+
     @Test(expected = SpoolTooBigToDiskException.class)
     public void testFailToSpool() throws Throwable{
     		testSpooling(1, 0L);
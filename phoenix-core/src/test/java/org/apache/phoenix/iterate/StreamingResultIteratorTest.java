@@ -0,0 +1,167 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.phoenix.iterate;
+
+import static org.apache.phoenix.query.QueryConstants.SINGLE_COLUMN;
+import static org.apache.phoenix.query.QueryConstants.SINGLE_COLUMN_FAMILY;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.sql.SQLException;
+import java.util.*;
+import java.util.concurrent.*;
+
+import org.apache.hadoop.hbase.KeyValue;
+import org.apache.hadoop.hbase.io.ImmutableBytesWritable;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import org.apache.phoenix.schema.tuple.SingleKeyValueTuple;
+import org.apache.phoenix.schema.tuple.Tuple;
+import org.apache.phoenix.util.AssertResults;
+
+
+
+public class StreamingResultIteratorTest {
+    private final static byte[] A = Bytes.toBytes("a");
+    private final static byte[] B = Bytes.toBytes("b");
+    private final static byte[] C = Bytes.toBytes("c");
+
+    private ExecutorService executor;
+
+    @Before
+    public void setUp() {
+        executor = Executors.newFixedThreadPool(4);
+    }
+
+    @After
+    public void tearDown() {
+        executor.shutdownNow();
+    }
+
+    private static Tuple newTuple(byte[] row, int value) {
+        return new SingleKeyValueTuple(new KeyValue(row, SINGLE_COLUMN_FAMILY, SINGLE_COLUMN, Bytes.toBytes(value)));
+    }
+
+    private static Callable<ResultIterator> newScanner(final Tuple... results) {
+        return new Callable<ResultIterator>() {
+            @Override
+            public ResultIterator call() throws Exception {
+                return new MaterializedResultIterator(Arrays.asList(results));
+            }
+        };
+    }
+
+    @Test
+    public void testStreaming() throws Throwable {
+        List<Callable<ResultIterator>> scanners = new ArrayList<Callable<ResultIterator>>();
+        scanners.add(newScanner(newTuple(A, 1)));
+        scanners.add(newScanner());
+        scanners.add(newScanner(newTuple(B, 2), newTuple(C, 3), newTuple(A, 4)));
+        Tuple[] expectedResults = new Tuple[] {
+                newTuple(A, 1),
+                newTuple(B, 2),
+                newTuple(C, 3),
+                newTuple(A, 4),
+            };
+        // Batch and queue sizes small enough that the scans block on the client
+        ResultIterator scanner = new StreamingResultIterator(executor, this, scanners, 2, 1, 60000);
+        AssertResults.assertUnorderedResults(scanner, expectedResults);
+    }
+
+    @Test
+    public void testFirstRowFromFastestScan() throws Throwable {
+        final CountDownLatch slowScanLatch = new CountDownLatch(1);
+        List<Callable<ResultIterator>> scanners = new ArrayList<Callable<ResultIterator>>();
+        scanners.add(new Callable<ResultIterator>() {
+            @Override
+            public ResultIterator call() throws Exception {
+                slowScanLatch.await();
+                return new MaterializedResultIterator(Arrays.asList(newTuple(A, 1)));
+            }
+        });
+        scanners.add(newScanner(newTuple(B, 2)));
+        PeekingResultIterator scanner = new StreamingResultIterator(executor, this, scanners, 10, 10, 60000);
+        try {
+            Tuple first = scanner.next();
+            assertNotNull(first);
+            ImmutableBytesWritable key = new ImmutableBytesWritable();
+            first.getKey(key);
+            assertEquals(0, key.compareTo(B));
+            slowScanLatch.countDown();
+            assertNotNull(scanner.next());
+            assertNull(scanner.next());
+        } finally {
+            slowScanLatch.countDown();
+            scanner.close();
+        }
+    }
+
+    @Test
+    public void testScanFailure() throws Throwable {
+        List<Callable<ResultIterator>> scanners = new ArrayList<Callable<ResultIterator>>();
+        scanners.add(newScanner(newTuple(A, 1)));
+        scanners.add(new Callable<ResultIterator>() {
+            @Override
+            public ResultIterator call() throws Exception {
+                throw new SQLException("Scan failed");
+            }
+        });
+        ResultIterator scanner = new StreamingResultIterator(executor, this, scanners, 10, 10, 60000);
+        try {
+            while (scanner.next() != null) {
+            }
+            fail();
+        } catch (SQLException e) {
+        } finally {
+            scanner.close();
+        }
+    }
+
+    @Test
+    public void testCloseStopsBlockedScans() throws Throwable {
+        final List<Tuple> results = new ArrayList<Tuple>();
+        for (int i = 0; i < 100; i++) {
+            results.add(newTuple(A, i));
+        }
+        final CountDownLatch closedLatch = new CountDownLatch(1);
+        List<Callable<ResultIterator>> scanners = new ArrayList<Callable<ResultIterator>>();
+        scanners.add(new Callable<ResultIterator>() {
+            @Override
+            public ResultIterator call() throws Exception {
+                return new MaterializedResultIterator(results) {
+                    @Override
+                    public void close() {
+                        closedLatch.countDown();
+                    }
+                };
+            }
+        });
+        ResultIterator scanner = new StreamingResultIterator(executor, this, scanners, 1, 1, 60000);
+        assertNotNull(scanner.next());
+        scanner.close();
+        assertNull(scanner.next());
+        // The scan would stay blocked on the full queue if closing did not release it
+        assertTrue(closedLatch.await(10, TimeUnit.SECONDS));
+    }
+}
@@ -0,0 +1,248 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.phoenix.iterate;
+
+import static org.apache.phoenix.query.QueryConstants.SINGLE_COLUMN;
+import static org.apache.phoenix.query.QueryConstants.SINGLE_COLUMN_FAMILY;
+import static org.apache.phoenix.query.QueryConstants.SINGLE_COLUMN_FAMILY_NAME;
+import static org.apache.phoenix.query.QueryConstants.SINGLE_COLUMN_NAME;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.apache.hadoop.hbase.KeyValue;
+import org.apache.hadoop.hbase.client.Scan;
+import org.apache.hadoop.hbase.filter.Filter;
+import org.apache.hadoop.hbase.io.ImmutableBytesWritable;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.apache.phoenix.expression.Expression;
+import org.apache.phoenix.expression.KeyValueColumnExpression;
+import org.apache.phoenix.expression.OrderByExpression;
+import org.apache.phoenix.expression.RowKeyColumnExpression;
+import org.apache.phoenix.filter.BooleanExpressionFilter;
+import org.apache.phoenix.filter.MultiCFCQKeyValueComparisonFilter;
+import org.apache.phoenix.filter.RowKeyComparisonFilter;
+import org.apache.phoenix.schema.PDataType;
+import org.apache.phoenix.schema.PDatum;
+import org.apache.phoenix.schema.PLongColumn;
+import org.apache.phoenix.schema.PName;
+import org.apache.phoenix.schema.RowKeyValueAccessor;
+import org.apache.phoenix.schema.SortOrder;
+import org.apache.phoenix.schema.tuple.SingleKeyValueTuple;
+import org.apache.phoenix.schema.tuple.Tuple;
+import org.junit.Test;
+
+
+public class TopNThresholdTest {
+    private static final KeyValueColumnExpression LONG_COLUMN = new KeyValueColumnExpression(new PLongColumn() {
+        @Override
+        public PName getName() {
+            return SINGLE_COLUMN_NAME;
+        }
+        @Override
+        public PName getFamilyName() {
+            return SINGLE_COLUMN_FAMILY_NAME;
+        }
+        @Override
+        public int getPosition() {
+            return 0;
+        }
+        @Override
+        public SortOrder getSortOrder() {
+            return SortOrder.getDefault();
+        }
+        @Override
+        public Integer getArraySize() {
+            return 0;
+        }
+        @Override
+        public byte[] getViewConstant() {
+            return null;
+        }
+        @Override
+        public boolean isViewReferenced() {
+            return false;
+        }
+        @Override
+        public boolean isNullable() {
+            return true;
+        }
+    });
+    
+    private static final PDatum DESC_LONG_PK = new PDatum() {
+        @Override
+        public boolean isNullable() {
+            return false;
+        }
+        @Override
+        public PDataType getDataType() {
+            return PDataType.LONG;
+        }
+        @Override
+        public Integer getMaxLength() {
+            return null;
+        }
+        @Override
+        public Integer getScale() {
+            return null;
+        }
+        @Override
+        public SortOrder getSortOrder() {
+            return SortOrder.DESC;
+        }
+    };
+    
+    private static final RowKeyColumnExpression DESC_PK_COLUMN = new RowKeyColumnExpression(DESC_LONG_PK, 
+            new RowKeyValueAccessor(Collections.singletonList(DESC_LONG_PK), 0));
+    
+    private static Tuple row(Long value) {
+        return value == null
+                ? new SingleKeyValueTuple(new KeyValue(Bytes.toBytes("row"), SINGLE_COLUMN_FAMILY, Bytes.toBytes("other"), Bytes.toBytes("row")))
+                : new SingleKeyValueTuple(new KeyValue(Bytes.toBytes("row"), SINGLE_COLUMN_FAMILY, SINGLE_COLUMN, PDataType.LONG.toBytes(value)));
+    }
+    
+    private static Tuple pkRow(long value) {
+        return new SingleKeyValueTuple(new KeyValue(PDataType.LONG.toBytes(value, SortOrder.DESC), SINGLE_COLUMN_FAMILY, SINGLE_COLUMN, Bytes.toBytes("value")));
+    }
+    
+    private static List<Tuple> rows(Long... values) {
+        List<Tuple> rows = new ArrayList<Tuple>(values.length);
+        for (Long value : values) {
+            rows.add(row(value));
+        }
+        return rows;
+    }
+    
+    private static List<Tuple> pkRows(long... values) {
+        List<Tuple> rows = new ArrayList<Tuple>(values.length);
+        for (long value : values) {
+            rows.add(pkRow(value));
+        }
+        return rows;
+    }
+    
+    /**
+     * Scans a region that returns the given rows, in ORDER BY order
+     */
+    private static void scanRegion(TopNThreshold threshold, List<Tuple> rows) throws Exception {
+        ResultIterator iterator = threshold.track(new MaterializedResultIterator(rows));
+        while (iterator.next() != null) {
+        }
+        iterator.close();
+    }
+    
+    private static Expression getBound(TopNThreshold threshold, Class<? extends Filter> filterClass) throws Exception {
+        Scan scan = new Scan();
+        threshold.applyTo(scan);
+        Filter filter = scan.getFilter();
+        assertTrue(filterClass.isInstance(filter));
+        return ((BooleanExpressionFilter)filter).getExpression();
+    }
+    
+    private static boolean passes(Expression bound, Tuple tuple) {
+        ImmutableBytesWritable ptr = new ImmutableBytesWritable();
+        return bound.evaluate(tuple, ptr) && Boolean.TRUE.equals(PDataType.BOOLEAN.toObject(ptr));
+    }
+    
+    @Test
+    public void testNoThresholdUntilRegionReturnsLimit() throws Exception {
+        TopNThreshold threshold = new TopNThreshold(new OrderByExpression(LONG_COLUMN, true, true), 3, SINGLE_COLUMN_FAMILY);
+        scanRegion(threshold, rows(1L, 2L));
+        scanRegion(threshold, Collections.<Tuple>emptyList());
+        Scan scan = new Scan();
+        threshold.applyTo(scan);
+        assertNull(scan.getFilter());
+    }
+    
+    @Test
+    public void testAscendingKeepsTightestBound() throws Exception {
+        TopNThreshold threshold = new TopNThreshold(new OrderByExpression(LONG_COLUMN, true, true), 2, SINGLE_COLUMN_FAMILY);
+        scanRegion(threshold, rows(1L, 5L));
+        scanRegion(threshold, rows(2L, 3L));
+        scanRegion(threshold, rows(4L, 9L));
+        Expression bound = getBound(threshold, MultiCFCQKeyValueComparisonFilter.class);
+        assertTrue(passes(bound, row(-1L)));
+        assertTrue(passes(bound, row(3L)));
+        assertFalse(passes(bound, row(4L)));
+        // NULLS LAST
+        assertFalse(passes(bound, row(null)));
+    }
+    
+    @Test
+    public void testDescendingKeepsTightestBound() throws Exception {
+        TopNThreshold threshold = new TopNThreshold(new OrderByExpression(LONG_COLUMN, true, false), 2, SINGLE_COLUMN_FAMILY);
+        scanRegion(threshold, rows(9L, 5L));
+        scanRegion(threshold, rows(8L, 7L));
+        scanRegion(threshold, rows(6L, 1L));
+        Expression bound = getBound(threshold, MultiCFCQKeyValueComparisonFilter.class);
+        assertTrue(passes(bound, row(10L)));
+        assertTrue(passes(bound, row(7L)));
+        assertFalse(passes(bound, row(6L)));
+        assertFalse(passes(bound, row(null)));
+    }
+    
+    @Test
+    public void testNullsFirstKeepsNulls() throws Exception {
+        TopNThreshold threshold = new TopNThreshold(new OrderByExpression(LONG_COLUMN, false, true), 2, SINGLE_COLUMN_FAMILY);
+        scanRegion(threshold, rows(null, 1L));
+        Expression bound = getBound(threshold, MultiCFCQKeyValueComparisonFilter.class);
+        assertTrue(passes(bound, row(null)));
+        assertTrue(passes(bound, row(1L)));
+        assertFalse(passes(bound, row(2L)));
+    }
+    
+    @Test
+    public void testNullLastRowIsNoBound() throws Exception {
+        // A region returning nulls last has no bound on the non null rows of other regions
+        TopNThreshold threshold = new TopNThreshold(new OrderByExpression(LONG_COLUMN, true, true), 2, SINGLE_COLUMN_FAMILY);
+        scanRegion(threshold, rows(1L, null));
+        Scan scan = new Scan();
+        threshold.applyTo(scan);
+        assertNull(scan.getFilter());
+    }
+    
+    @Test
+    public void testAscendingValuesOfDescRowKeyColumn() throws Exception {
+        // ORDER BY k ASC over a DESC row key column sorts its serialized bytes descending
+        TopNThreshold threshold = new TopNThreshold(new OrderByExpression(DESC_PK_COLUMN, false, false), 2, SINGLE_COLUMN_FAMILY);
+        scanRegion(threshold, pkRows(1, 4));
+        scanRegion(threshold, pkRows(2, 3));
+        scanRegion(threshold, pkRows(0, 8));
+        Expression bound = getBound(threshold, RowKeyComparisonFilter.class);
+        assertTrue(passes(bound, pkRow(-5)));
+        assertTrue(passes(bound, pkRow(3)));
+        assertFalse(passes(bound, pkRow(4)));
+        assertFalse(passes(bound, pkRow(10)));
+    }
+    
+    @Test
+    public void testDescendingValuesOfDescRowKeyColumn() throws Exception {
+        // ORDER BY k DESC over a DESC row key column sorts its serialized bytes ascending
+        TopNThreshold threshold = new TopNThreshold(new OrderByExpression(DESC_PK_COLUMN, false, true), 2, SINGLE_COLUMN_FAMILY);
+        scanRegion(threshold, pkRows(10, 6));
+        scanRegion(threshold, pkRows(9, 7));
+        Expression bound = getBound(threshold, RowKeyComparisonFilter.class);
+        assertTrue(passes(bound, pkRow(12)));
+        assertTrue(passes(bound, pkRow(7)));
+        assertFalse(passes(bound, pkRow(6)));
+    }
+}
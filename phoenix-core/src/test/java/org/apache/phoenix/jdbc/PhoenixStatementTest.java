@@ -0,0 +1,96 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.phoenix.jdbc;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.util.Collections;
+
+import org.apache.phoenix.parse.BindableStatement;
+import org.apache.phoenix.query.BaseConnectionlessQueryTest;
+import org.apache.phoenix.query.ConnectionQueryServices;
+import org.apache.phoenix.query.ConnectionlessQueryServicesImpl;
+import org.apache.phoenix.query.QueryServices;
+import org.apache.phoenix.query.QueryServicesTestImpl;
+import org.apache.phoenix.util.ReadOnlyProps;
+import org.junit.Test;
+
+import com.google.common.cache.Cache;
+
+public class PhoenixStatementTest extends BaseConnectionlessQueryTest {
+
+    @Test
+    public void testParsedStatementSharedAcrossConnections() throws Exception {
+        String query = "SELECT a_string FROM " + ATABLE + " WHERE organization_id = ? AND entity_id IN (?,?)";
+        Connection conn1 = DriverManager.getConnection(getUrl());
+        Connection conn2 = DriverManager.getConnection(getUrl());
+        try {
+            PhoenixStatement stmt1 = conn1.createStatement().unwrap(PhoenixStatement.class);
+            PhoenixStatement stmt2 = conn2.createStatement().unwrap(PhoenixStatement.class);
+            assertSame(stmt1.parseStatement(query), stmt2.parseStatement(query));
+        } finally {
+            conn1.close();
+            conn2.close();
+        }
+    }
+
+    @Test
+    public void testDDLNotCached() throws Exception {
+        String ddl = "CREATE TABLE T (K VARCHAR PRIMARY KEY, V VARCHAR)";
+        Connection conn = DriverManager.getConnection(getUrl());
+        try {
+            PhoenixStatement stmt = conn.createStatement().unwrap(PhoenixStatement.class);
+            assertNotSame(stmt.parseStatement(ddl), stmt.parseStatement(ddl));
+        } finally {
+            conn.close();
+        }
+    }
+
+    @Test
+    public void testParsedStatementCacheSizedPerServices() throws Exception {
+        ConnectionQueryServices services1 = new ConnectionlessQueryServicesImpl(new QueryServicesTestImpl(
+                new ReadOnlyProps(Collections.singletonMap(QueryServices.PARSED_STATEMENT_CACHE_SIZE_ATTRIB, "2"))));
+        ConnectionQueryServices services2 = new ConnectionlessQueryServicesImpl(new QueryServicesTestImpl(
+                new ReadOnlyProps(Collections.singletonMap(QueryServices.PARSED_STATEMENT_CACHE_SIZE_ATTRIB, "0"))));
+        Connection conn = DriverManager.getConnection(getUrl());
+        try {
+            Cache<String, BindableStatement> cache = services1.getParsedStatementCache();
+            assertNotNull(cache);
+            assertNotSame(cache, conn.unwrap(PhoenixConnection.class).getQueryServices().getParsedStatementCache());
+            assertNull(services2.getParsedStatementCache());
+            
+            PhoenixStatement stmt = conn.createStatement().unwrap(PhoenixStatement.class);
+            for (int i = 0; i < 3; i++) {
+                String query = "SELECT a_string FROM " + ATABLE + " WHERE a_integer = " + i;
+                cache.put(query, stmt.parseStatement(query));
+            }
+            cache.cleanUp();
+            assertEquals(2, cache.size());
+        } finally {
+            conn.close();
+            services1.close();
+            services2.close();
+        }
+    }
+}
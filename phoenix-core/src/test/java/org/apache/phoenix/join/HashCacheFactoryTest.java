@@ -0,0 +1,217 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.phoenix.join;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.DataOutputStream;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+
+import org.apache.hadoop.hbase.Cell;
+import org.apache.hadoop.hbase.CellUtil;
+import org.apache.hadoop.hbase.KeyValue;
+import org.apache.hadoop.hbase.client.Result;
+import org.apache.hadoop.hbase.io.ImmutableBytesWritable;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.apache.phoenix.cache.HashCache;
+import org.apache.phoenix.expression.Expression;
+import org.apache.phoenix.expression.KeyValueColumnExpression;
+import org.apache.phoenix.hbase.index.util.ImmutableBytesPtr;
+import org.apache.phoenix.memory.GlobalMemoryManager;
+import org.apache.phoenix.memory.MemoryManager;
+import org.apache.phoenix.schema.PColumn;
+import org.apache.phoenix.schema.PColumnImpl;
+import org.apache.phoenix.schema.PDataType;
+import org.apache.phoenix.schema.PNameFactory;
+import org.apache.phoenix.schema.SortOrder;
+import org.apache.phoenix.schema.tuple.ResultTuple;
+import org.apache.phoenix.schema.tuple.Tuple;
+import org.apache.phoenix.util.TrustedByteArrayOutputStream;
+import org.apache.phoenix.util.TupleUtil;
+import org.junit.Test;
+
+public class HashCacheFactoryTest {
+    private static final byte[] FAMILY = Bytes.toBytes("f1");
+    private static final byte[] QUALIFIER = Bytes.toBytes("c1");
+    
+    private static List<Expression> onExpressions() {
+        PColumn column = new PColumnImpl(PNameFactory.newName("c1"), PNameFactory.newName("f1"), PDataType.VARCHAR, null, null,
+                true, 1, SortOrder.getDefault(), 0, null, false);
+        return Arrays.<Expression>asList(new KeyValueColumnExpression(column));
+    }
+    
+    private static Tuple row(String row, String key) {
+        KeyValue kv = new KeyValue(Bytes.toBytes(row), FAMILY, QUALIFIER, Bytes.toBytes(key));
+        return new ResultTuple(Result.create(Arrays.<Cell>asList(kv)));
+    }
+    
+    private static ImmutableBytesWritable serialize(Tuple... rows) throws Exception {
+        TrustedByteArrayOutputStream baOut = new TrustedByteArrayOutputStream(1024);
+        DataOutputStream out = new DataOutputStream(baOut);
+        int nRowsOffset = HashCacheClient.writeHeader(out, baOut, onExpressions());
+        for (Tuple row : rows) {
+            TupleUtil.write(row, out);
+        }
+        return HashCacheClient.compress(baOut, nRowsOffset, rows.length);
+    }
+    
+    private static HashCache newCache(MemoryManager memoryManager, Tuple... rows) throws Exception {
+        return (HashCache)new HashCacheFactory().newCache(serialize(rows), memoryManager.allocate(0));
+    }
+    
+    private static ImmutableBytesPtr key(String key) {
+        return new ImmutableBytesPtr(Bytes.toBytes(key));
+    }
+    
+    private static String rowOf(Tuple tuple) {
+        ImmutableBytesWritable ptr = new ImmutableBytesWritable();
+        tuple.getKey(ptr);
+        return Bytes.toString(ptr.get(), ptr.getOffset(), ptr.getLength());
+    }
+    
+    @Test
+    public void testLookup() throws Exception {
+        MemoryManager memoryManager = new GlobalMemoryManager(1024 * 1024, 0);
+        HashCache cache = newCache(memoryManager, row("r1", "a"), row("r2", "b"), row("r3", "c"));
+        List<Tuple> tuples = cache.newLookup().get(key("b"));
+        assertEquals(1, tuples.size());
+        assertEquals("r2", rowOf(tuples.get(0)));
+        assertEquals("r3", rowOf(cache.newLookup().get(key("c")).iterator().next()));
+        cache.close();
+        assertEquals(1024 * 1024, memoryManager.getAvailableMemory());
+    }
+    
+    @Test
+    public void testDuplicateKeysComeBackInCachedOrder() throws Exception {
+        MemoryManager memoryManager = new GlobalMemoryManager(1024 * 1024, 0);
+        HashCache cache = newCache(memoryManager, row("r1", "a"), row("r2", "b"), row("r3", "a"), row("r4", "c"), row("r5", "a"));
+        List<Tuple> tuples = cache.newLookup().get(key("a"));
+        assertEquals(3, tuples.size());
+        assertEquals("r1", rowOf(tuples.get(0)));
+        assertEquals("r3", rowOf(tuples.get(1)));
+        assertEquals("r5", rowOf(tuples.get(2)));
+        cache.close();
+    }
+    
+    @Test
+    public void testMissingKey() throws Exception {
+        MemoryManager memoryManager = new GlobalMemoryManager(1024 * 1024, 0);
+        HashCache cache = newCache(memoryManager, row("r1", "a"), row("r2", "b"));
+        HashCache.Lookup lookup = cache.newLookup();
+        assertNull(lookup.get(key("z")));
+        assertNull(lookup.get(key("")));
+        cache.close();
+        
+        HashCache emptyCache = newCache(memoryManager);
+        assertNull(emptyCache.newLookup().get(key("a")));
+        emptyCache.close();
+        assertEquals(1024 * 1024, memoryManager.getAvailableMemory());
+    }
+    
+    @Test
+    public void testLookupRepositionsItsView() throws Exception {
+        MemoryManager memoryManager = new GlobalMemoryManager(1024 * 1024, 0);
+        HashCache cache = newCache(memoryManager, row("r1", "a"), row("r2", "b"), row("r3", "a"));
+        HashCache.Lookup lookup = cache.newLookup();
+        List<Tuple> tuples = lookup.get(key("a"));
+        Iterator<Tuple> iterator = tuples.iterator();
+        assertEquals("r1", rowOf(iterator.next()));
+        assertEquals("r3", rowOf(iterator.next()));
+        assertFalse(iterator.hasNext());
+        assertSame(tuples, lookup.get(key("b")));
+        assertEquals(1, tuples.size());
+        Tuple tuple = tuples.get(0);
+        assertEquals("r2", rowOf(tuple));
+        // Columns are read from the serialized row
+        assertEquals(1, tuple.size());
+        ImmutableBytesWritable ptr = new ImmutableBytesWritable();
+        assertTrue(tuple.getValue(FAMILY, QUALIFIER, ptr));
+        assertEquals("b", Bytes.toString(ptr.get(), ptr.getOffset(), ptr.getLength()));
+        assertEquals("b", Bytes.toString(CellUtil.cloneValue(tuple.getValue(0))));
+        assertFalse(tuple.getValue(FAMILY, Bytes.toBytes("c2"), ptr));
+        assertNull(tuple.getValue(FAMILY, Bytes.toBytes("c2")));
+        cache.close();
+    }
+    
+    @Test
+    public void testChargesNoDecodedRows() throws Exception {
+        int nRows = 1000;
+        Tuple[] rows = new Tuple[nRows];
+        for (int i = 0; i < nRows; i++) {
+            rows[i] = row("r" + i, "k" + i);
+        }
+        ImmutableBytesWritable cachePtr = serialize(rows);
+        long serializedSize = new HashCacheFactory().getEstimatedSize(cachePtr);
+        MemoryManager memoryManager = new GlobalMemoryManager(1024 * 1024, 0);
+        HashCache cache = (HashCache)new HashCacheFactory().newCache(cachePtr, memoryManager.allocate(0));
+        long charged = memoryManager.getMaxMemory() - memoryManager.getAvailableMemory();
+        // The serialized rows plus the key buffer, the per row and per key arrays and the table slots
+        assertTrue(charged > serializedSize);
+        assertTrue(charged < serializedSize + 64L * nRows);
+        HashCache.Lookup lookup = cache.newLookup();
+        for (int i = 0; i < nRows; i++) {
+            assertEquals("r" + i, rowOf(lookup.get(key("k" + i)).get(0)));
+        }
+        // Probing charges nothing more
+        assertEquals(charged, memoryManager.getMaxMemory() - memoryManager.getAvailableMemory());
+        cache.close();
+        assertEquals(1024 * 1024, memoryManager.getAvailableMemory());
+    }
+    
+    @Test
+    public void testChunkedLookup() throws Exception {
+        MemoryManager memoryManager = new GlobalMemoryManager(1024 * 1024, 0);
+        HashCache[] chunks = new HashCache[] {
+                newCache(memoryManager, row("r1", "a"), row("r2", "b"), row("r3", "a")),
+                newCache(memoryManager, row("r4", "c")),
+                newCache(memoryManager, row("r5", "a"), row("r6", "c"))};
+        long chunksSize = memoryManager.getMaxMemory() - memoryManager.getAvailableMemory();
+        HashCache cache = HashCacheFactory.getChunkedCache(chunks);
+        // Built once, charged to the first chunk
+        assertSame(cache, HashCacheFactory.getChunkedCache(chunks));
+        long indexSize = memoryManager.getMaxMemory() - memoryManager.getAvailableMemory() - chunksSize;
+        assertTrue(indexSize > 0);
+        
+        HashCache.Lookup lookup = cache.newLookup();
+        List<Tuple> tuples = lookup.get(key("a"));
+        assertEquals(3, tuples.size());
+        Iterator<Tuple> iterator = tuples.iterator();
+        assertEquals("r1", rowOf(iterator.next()));
+        assertEquals("r3", rowOf(iterator.next()));
+        assertEquals("r5", rowOf(iterator.next()));
+        assertFalse(iterator.hasNext());
+        assertEquals("r5", rowOf(tuples.get(2)));
+        assertSame(tuples, lookup.get(key("c")));
+        assertEquals(2, tuples.size());
+        assertEquals("r4", rowOf(tuples.get(0)));
+        assertEquals("r6", rowOf(tuples.get(1)));
+        assertEquals("r2", rowOf(lookup.get(key("b")).get(0)));
+        assertNull(lookup.get(key("z")));
+        
+        for (HashCache chunk : chunks) {
+            chunk.close();
+        }
+        assertEquals(1024 * 1024, memoryManager.getAvailableMemory());
+    }
+}
@@ -17,14 +17,24 @@
  */
 package org.apache.phoenix.memory;
 
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+
 import org.junit.Ignore;
 import org.junit.Test;
 
 import org.apache.phoenix.memory.MemoryManager.MemoryChunk;
 
+import com.google.common.util.concurrent.Uninterruptibles;
+
 
 /**
  * 
@@ -69,10 +79,11 @@ public class MemoryManagerTest {
     }
 
     @Test
-    public void testWaitForMemoryAvailable() {
+    public void testWaitForMemoryAvailable() throws Exception {
         final GlobalMemoryManager gmm = new GlobalMemoryManager(100,8000);
         final ChildMemoryManager rmm1 = new ChildMemoryManager(gmm,100);
         final ChildMemoryManager rmm2 = new ChildMemoryManager(gmm,100);
+        final AtomicLong t2AllocatedTime = new AtomicLong();
         Thread t1 = new Thread() {
             @Override
             public void run() {
@@ -88,27 +99,80 @@ public class MemoryManagerTest {
             @Override
             public void run() {
                 sleepFor(2000);
-                // Will require waiting for a bit of time before t1 frees the requested memory
-                long startTime = System.currentTimeMillis();
+                // Queued behind the main thread, so served only once t1 frees all its memory
+                // and the main thread frees it again, even though half of it is free after 4s
                 MemoryChunk c3 = rmm2.allocate(50);
-                assertTrue(System.currentTimeMillis() - startTime >= 1000);
+                t2AllocatedTime.set(System.currentTimeMillis());
                 c3.close();
             }
         };
+        long startTime = System.currentTimeMillis();
         t1.start();
         t2.start();
         sleepFor(1000);
         // Main thread competes with others to get all memory, but should wait
-        // until both threads are complete (since that's when the memory will
-        // again be all available.
+        // until t1 is complete (since that's when the memory will again be all
+        // available), and is served before t2, which asked for memory later.
         ChildMemoryManager rmm = new ChildMemoryManager(gmm,100);
         MemoryChunk c = rmm.allocate(100);
+        long allocatedTime = System.currentTimeMillis();
+        assertTrue(allocatedTime - startTime >= 5000);
+        assertTrue(t2AllocatedTime.get() == 0);
         c.close();
+        t1.join();
+        t2.join();
+        assertTrue(t2AllocatedTime.get() >= allocatedTime);
         assertTrue(rmm.getAvailableMemory() == rmm.getMaxMemory());
         assertTrue(rmm1.getAvailableMemory() == rmm1.getMaxMemory());
         assertTrue(rmm2.getAvailableMemory() == rmm2.getMaxMemory());
     }
     
+    @Test
+    public void testWaitersAreServedInArrivalOrder() throws Exception {
+        final GlobalMemoryManager gmm = new GlobalMemoryManager(100,10000);
+        MemoryChunk c = gmm.allocate(100);
+        final List<Integer> served = Collections.synchronizedList(new ArrayList<Integer>());
+        final CountDownLatch done = new CountDownLatch(1);
+        int[] requests = new int[] {60, 10, 30};
+        List<Thread> threads = new ArrayList<Thread>();
+        for (int i = 0; i < requests.length; i++) {
+            final int nBytes = requests[i];
+            Thread t = new Thread() {
+                @Override
+                public void run() {
+                    MemoryChunk chunk = gmm.allocate(nBytes);
+                    served.add(nBytes);
+                    Uninterruptibles.awaitUninterruptibly(done);
+                    chunk.close();
+                }
+            };
+            t.start();
+            threads.add(t);
+            // Wait for the request to be queued before making the next one
+            while (gmm.getWaitingCount() < i + 1) {
+                sleepFor(10);
+            }
+        }
+        // Enough for the second and third request, but not for the first one at the head
+        c.resize(50);
+        sleepFor(500);
+        assertTrue(served.isEmpty());
+        assertTrue(gmm.getAvailableMemory() == 50);
+        
+        c.close();
+        for (int i = 0; i < requests.length; i++) {
+            while (served.size() < i + 1) {
+                sleepFor(10);
+            }
+        }
+        assertEquals(Arrays.asList(60, 10, 30), served);
+        done.countDown();
+        for (Thread t : threads) {
+            t.join();
+        }
+        assertTrue(gmm.getAvailableMemory() == gmm.getMaxMemory());
+    }
+    
     @Test
     @Ignore // TODO: get this not to flap
     public void testResizeWaitForMemoryAvailable() {
@@ -210,6 +274,39 @@ public class MemoryManagerTest {
         assertTrue(gmm.getAvailableMemory() == gmm.getMaxMemory());
     }
     
+    @Test
+    public void testChildAllocatedMemory() throws Exception {
+        MemoryManager gmm = new GlobalMemoryManager(100,1);
+        ChildMemoryManager rmm1 = new ChildMemoryManager(gmm,50);
+        ChildMemoryManager rmm2 = new ChildMemoryManager(gmm,100);
+        MemoryChunk c1 = rmm1.allocate(30);
+        MemoryChunk c2 = rmm2.allocate(60);
+        try {
+            // Within the share of rmm2, but not available globally
+            rmm2.allocate(20);
+            fail();
+        } catch (InsufficientMemoryException e) { // expected
+        }
+        assertTrue(rmm1.getAvailableMemory() == 20);
+        assertTrue(rmm2.getAvailableMemory() == 40);
+        assertTrue(rmm1.getAllocatedMemory() == 30);
+        assertTrue(rmm2.getAllocatedMemory() == 60);
+        c1.resize(10);
+        c2.resize(70);
+        assertTrue(rmm1.getAvailableMemory() == 40);
+        assertTrue(rmm2.getAvailableMemory() == 30);
+        assertTrue(rmm1.getAllocatedMemory() == 10);
+        assertTrue(rmm2.getAllocatedMemory() == 70);
+        c1.close();
+        c1.close();
+        c2.close();
+        assertTrue(rmm1.getAvailableMemory() == rmm1.getMaxMemory());
+        assertTrue(rmm2.getAvailableMemory() == rmm2.getMaxMemory());
+        assertTrue(rmm1.getAllocatedMemory() == 0);
+        assertTrue(rmm2.getAllocatedMemory() == 0);
+        assertTrue(gmm.getAvailableMemory() == gmm.getMaxMemory());
+    }
+    
     @Test
     public void testOverChildMemoryLimit() throws Exception {
         MemoryManager gmm = new GlobalMemoryManager(100,1);
@@ -41,6 +41,11 @@ public final class QueryServicesTestImpl extends BaseQueryServicesImpl {
     private static final int DEFAULT_MAX_TENANT_MEMORY_PERC = 100;
     private static final int DEFAULT_MAX_SERVER_CACHE_TIME_TO_LIVE_MS = 60000 * 60; // 1HR (to prevent age-out of hash cache during debugging)
     private static final long DEFAULT_MAX_HASH_CACHE_SIZE = 1024*1024*10;  // 10 Mb
+    private static final long DEFAULT_HASH_CACHE_CHUNK_SIZE = 1024;  // 1k, so that join tests send hash caches in several chunks
+    private static final int DEFAULT_FILTER_BATCH_SIZE = 16;  // small, so that tests evaluate filters over several batches
+    private static final int DEFAULT_COMMIT_CHUNK_SIZE = 1024;  // 1k, so that tests commit large batches in several chunks
+    private static final int DEFAULT_POINT_LOOKUP_BATCH_SIZE = 2;  // small, so that tests look up IN lists in several batches
+    private static final int DEFAULT_GROUPBY_SERVER_THREADS = 2;  // so that tests aggregate unordered groups in parallel
     private static final int DEFAULT_TARGET_QUERY_CONCURRENCY = 4;
     private static final int DEFAULT_MAX_QUERY_CONCURRENCY = 8;
     private static final boolean DEFAULT_DROP_METADATA = false;
@@ -67,6 +72,11 @@ public final class QueryServicesTestImpl extends BaseQueryServicesImpl {
                 .setMaxMemoryWaitMs(DEFAULT_MAX_MEMORY_WAIT_MS)
                 .setMaxTenantMemoryPerc(DEFAULT_MAX_TENANT_MEMORY_PERC)
                 .setMaxServerCacheSize(DEFAULT_MAX_HASH_CACHE_SIZE)
+                .setHashCacheChunkSize(DEFAULT_HASH_CACHE_CHUNK_SIZE)
+                .setFilterBatchSize(DEFAULT_FILTER_BATCH_SIZE)
+                .setGroupByServerThreads(DEFAULT_GROUPBY_SERVER_THREADS)
+                .setCommitChunkSize(DEFAULT_COMMIT_CHUNK_SIZE)
+                .setPointLookupBatchSize(DEFAULT_POINT_LOOKUP_BATCH_SIZE)
                 .setTargetQueryConcurrency(DEFAULT_TARGET_QUERY_CONCURRENCY)
                 .setMaxQueryConcurrency(DEFAULT_MAX_QUERY_CONCURRENCY)
                 .setRowKeyOrderSaltedTable(true)